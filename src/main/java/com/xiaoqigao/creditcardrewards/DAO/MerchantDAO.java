@@ -0,0 +1,34 @@
+package com.xiaoqigao.creditcardrewards.DAO;
+
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+import org.apache.ibatis.annotations.*;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Data access object for the `merchant` table, which gives every merchant code a small integer id
+ */
+@Mapper
+@Repository
+public interface MerchantDAO {
+
+    /**
+     * Adds a merchant code, doing nothing if another connection already added it
+     */
+    @Insert("INSERT INTO `merchant` (code) VALUES (#{code}) ON DUPLICATE KEY UPDATE id = id")
+    void upsert(@Param("code") String code);
+
+    @Select("SELECT id FROM `merchant` WHERE code = #{code}")
+    Integer selectIdByCode(@Param("code") String code);
+
+    /**
+     * A locking read, which sees the latest committed row even when the transaction's snapshot does not show it
+     */
+    @Select("SELECT id FROM `merchant` WHERE code = #{code} FOR UPDATE")
+    Integer selectIdByCodeForUpdate(@Param("code") String code);
+
+    @Select("SELECT id, code FROM `merchant` ORDER BY id")
+    List<Merchant> selectAll();
+
+}
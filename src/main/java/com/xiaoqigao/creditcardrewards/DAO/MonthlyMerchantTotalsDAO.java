@@ -0,0 +1,91 @@
+package com.xiaoqigao.creditcardrewards.DAO;
+
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import org.apache.ibatis.annotations.*;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Data access object for the `monthly_merchant_totals` rollup
+ */
+@Mapper
+@Repository
+public interface MonthlyMerchantTotalsDAO {
+
+    /** the rollup key of a raw transaction row `t` */
+    String ROLLUP_KEY = "t.account_id, t.post_date DIV 100, CASE WHEN t.merchant_id IN (2, 3, 4) THEN t.merchant_id ELSE 1 END";
+
+    /** columns in the order of the MonthlyMerchantTotal constructor */
+    String TOTALS_COLUMNS = "account_id, post_month, merchant_id, amount_cents, transaction_count ";
+
+    /**
+     * Adds the given deltas to the rollup with one multi-row upsert.
+     * Callers pass the rows in key order so concurrent chunks lock them in the same order.
+     */
+    @Insert({"<script>",
+            "INSERT INTO `monthly_merchant_totals` (" + TOTALS_COLUMNS + ") VALUES ",
+            "<foreach collection='deltas' item='d' separator=','>",
+            "(#{d.accountId}, #{d.postMonth}, #{d.merchantId}, #{d.amountCents}, #{d.transactionCount})",
+            "</foreach>",
+            " ON DUPLICATE KEY UPDATE amount_cents = amount_cents + VALUES(amount_cents), ",
+            "transaction_count = transaction_count + VALUES(transaction_count)",
+            "</script>"})
+    void upsertDeltas(@Param("deltas") List<MonthlyMerchantTotal> deltas);
+
+    @Select("SELECT " + TOTALS_COLUMNS + "FROM `monthly_merchant_totals` " +
+            "WHERE account_id = #{accountId} AND post_month = #{postMonth}")
+    List<MonthlyMerchantTotal> selectByMonth(@Param("accountId") long accountId, @Param("postMonth") int postMonth);
+
+    /**
+     * Selects one account's rollup rows over a range of months from the primary key, in (month, merchant) order
+     */
+    @Select("SELECT " + TOTALS_COLUMNS + "FROM `monthly_merchant_totals` " +
+            "WHERE account_id = #{accountId} AND post_month BETWEEN #{fromMonth} AND #{toMonth} " +
+            "ORDER BY post_month, merchant_id")
+    List<MonthlyMerchantTotal> selectByMonthRange(@Param("accountId") long accountId, @Param("fromMonth") int fromMonth,
+                                                  @Param("toMonth") int toMonth);
+
+    /**
+     * Lists the accounts with transactions in a month from the post_month_account index
+     */
+    @Select("SELECT DISTINCT account_id FROM `monthly_merchant_totals` WHERE post_month = #{postMonth} ORDER BY account_id")
+    List<Long> selectAccountsByMonth(@Param("postMonth") int postMonth);
+
+    /**
+     * Lists the months of the rollup and of the raw table; the raw months are read off the covering index
+     */
+    @Select("SELECT post_month FROM `monthly_merchant_totals` " +
+            "UNION SELECT t.post_date DIV 100 FROM `transaction` t ORDER BY 1")
+    List<Integer> selectMonths();
+
+    /**
+     * Selects every account's rollup rows of a month from the post_month_account index
+     */
+    @Select("SELECT " + TOTALS_COLUMNS + "FROM `monthly_merchant_totals` " +
+            "WHERE post_month = #{postMonth} ORDER BY account_id, merchant_id")
+    List<MonthlyMerchantTotal> selectAllByMonth(@Param("postMonth") int postMonth);
+
+    /**
+     * Sums one month of the raw `transaction` table the way the rollup does
+     */
+    @Select("SELECT " + ROLLUP_KEY + ", SUM(t.amount_cents), COUNT(*) FROM `transaction` t " +
+            "WHERE t.post_date BETWEEN #{postMonth} * 100 AND #{postMonth} * 100 + 99 " +
+            "GROUP BY " + ROLLUP_KEY + " ORDER BY 1, 3")
+    List<MonthlyMerchantTotal> sumRawMonth(@Param("postMonth") int postMonth);
+
+    @Delete("DELETE FROM `monthly_merchant_totals` WHERE account_id = #{accountId} AND post_month = #{postMonth}")
+    void deleteMonth(@Param("accountId") long accountId, @Param("postMonth") int postMonth);
+
+    /**
+     * Recomputes one account's month of the rollup from the raw table.
+     * INSERT ... SELECT locks the scanned range of the account_post_date_covering index,
+     * so inserts into the month wait until the rebuild commits.
+     */
+    @Insert("INSERT INTO `monthly_merchant_totals` (" + TOTALS_COLUMNS + ") " +
+            "SELECT " + ROLLUP_KEY + ", SUM(t.amount_cents), COUNT(*) FROM `transaction` t " +
+            "WHERE t.account_id = #{accountId} AND t.post_date BETWEEN #{postMonth} * 100 AND #{postMonth} * 100 + 99 " +
+            "GROUP BY " + ROLLUP_KEY)
+    void rebuildMonth(@Param("accountId") long accountId, @Param("postMonth") int postMonth);
+
+}
@@ -0,0 +1,280 @@
+package com.xiaoqigao.creditcardrewards.DAO;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the database schema up to date at startup, before any request is served.
+ * Scripts live in `db/migration` on the classpath and are named `V<version>__<description>.sql`.
+ * Each script runs once, in version order, and is recorded in the `schema_version` table with a checksum,
+ * so an edited script that was already applied stops startup instead of drifting silently.
+ * MySQL commits DDL as it goes, so a script cannot be rolled back; instead every statement that succeeds is
+ * recorded in `schema_version_step`, and a script that failed partway resumes after its last good statement.
+ * A MySQL named lock keeps two nodes that start together from migrating at the same time.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transaction.store.type", havingValue = "mybatis", matchIfMissing = true)
+public class SchemaMigrator {
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final String LOCK_NAME = "rewards_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Value("${transaction.schema.migrate:true}")
+    boolean enabled;
+
+    @Value("${transaction.schema.locations:classpath*:db/migration/*.sql}")
+    String locations;
+
+    /**
+     * Applies every pending script
+     */
+    @PostConstruct
+    public void migrate() throws IOException, SQLException {
+        if (!enabled) {
+            return;
+        }
+
+        List<Migration> migrations = loadMigrations();
+
+        try (Connection connection = this.dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            acquireLock(connection);
+            try {
+                createVersionTables(connection);
+                Map<Integer, Long> applied = appliedVersions(connection);
+
+                for (Migration migration : migrations) {
+                    Long checksum = applied.get(migration.version);
+                    if (checksum == null) {
+                        apply(connection, migration);
+                    } else if (checksum != migration.checksum) {
+                        throw new IllegalStateException("Migration V" + migration.version + " (" + migration.description
+                                + ") was changed after it was applied");
+                    }
+                }
+            } finally {
+                releaseLock(connection);
+            }
+        }
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * A versioned script
+     */
+    static class Migration {
+        final int version;
+        final String description;
+        final String script;
+        final long checksum;
+
+        Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+
+            CRC32 crc = new CRC32();
+            crc.update(script.getBytes(StandardCharsets.UTF_8));
+            this.checksum = crc.getValue();
+        }
+    }
+
+    private List<Migration> loadMigrations() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(this.locations)) {
+            Matcher matcher = SCRIPT_NAME.matcher(String.valueOf(resource.getFilename()));
+            if (!matcher.matches()) {
+                continue;
+            }
+            String script = StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+            migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2), script));
+        }
+
+        migrations.sort(Comparator.comparingInt(migration -> migration.version));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version == migrations.get(i - 1).version) {
+                throw new IllegalStateException("Two migrations have version " + migrations.get(i).version);
+            }
+        }
+        return migrations;
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        int completedSteps = completedSteps(connection, migration);
+        if (completedSteps > 0) {
+            log.info("Resuming schema migration V{} {} after statement {}", migration.version, migration.description, completedSteps);
+        } else {
+            log.info("Applying schema migration V{} {}", migration.version, migration.description);
+        }
+        long startMillis = System.currentTimeMillis();
+
+        List<String> statements = splitStatements(migration.script);
+        try (Statement statement = connection.createStatement();
+             PreparedStatement recordStep = connection.prepareStatement(
+                     "INSERT INTO `schema_version_step` (version, step, checksum) VALUES (?, ?, ?)")) {
+            for (int step = completedSteps; step < statements.size(); step++) {
+                String sql = statements.get(step);
+                try {
+                    statement.execute(sql);
+                } catch (SQLException e) {
+                    throw new SQLException("Migration V" + migration.version + " failed at statement " + (step + 1)
+                            + ": " + sql, e);
+                }
+                recordStep.setInt(1, migration.version);
+                recordStep.setInt(2, step);
+                recordStep.setLong(3, migration.checksum);
+                recordStep.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO `schema_version` (version, description, checksum, execution_millis) VALUES (?, ?, ?, ?)")) {
+            insert.setInt(1, migration.version);
+            insert.setString(2, migration.description);
+            insert.setLong(3, migration.checksum);
+            insert.setLong(4, System.currentTimeMillis() - startMillis);
+            insert.executeUpdate();
+        }
+        try (PreparedStatement clear = connection.prepareStatement("DELETE FROM `schema_version_step` WHERE version = ?")) {
+            clear.setInt(1, migration.version);
+            clear.executeUpdate();
+        }
+    }
+
+    /**
+     * Counts the statements of a script that already ran in an earlier, failed attempt
+     * @param migration pending migration
+     * @return number of leading statements to skip
+     */
+    private static int completedSteps(Connection connection, Migration migration) throws SQLException {
+        int completedSteps = 0;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT step, checksum FROM `schema_version_step` WHERE version = ? ORDER BY step")) {
+            select.setInt(1, migration.version);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    if (resultSet.getLong(2) != migration.checksum) {
+                        throw new IllegalStateException("Migration V" + migration.version + " (" + migration.description
+                                + ") was changed after it partly ran; finish or undo its first "
+                                + "statements by hand and clear its rows from schema_version_step");
+                    }
+                    if (resultSet.getInt(1) != completedSteps) {
+                        throw new IllegalStateException("Migration V" + migration.version + " has a gap in schema_version_step");
+                    }
+                    completedSteps++;
+                }
+            }
+        }
+        return completedSteps;
+    }
+
+    private static void createVersionTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS `schema_version` (" +
+                    "`version` int NOT NULL, " +
+                    "`description` varchar(200) NOT NULL, " +
+                    "`checksum` bigint NOT NULL, " +
+                    "`execution_millis` bigint NOT NULL, " +
+                    "`installed_on` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                    "PRIMARY KEY (`version`)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+            statement.execute("CREATE TABLE IF NOT EXISTS `schema_version_step` (" +
+                    "`version` int NOT NULL, " +
+                    "`step` int NOT NULL, " +
+                    "`checksum` bigint NOT NULL, " +
+                    "PRIMARY KEY (`version`, `step`)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        }
+    }
+
+    private static Map<Integer, Long> appliedVersions(Connection connection) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT version, checksum FROM `schema_version`")) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt(1), resultSet.getLong(2));
+            }
+        }
+        return applied;
+    }
+
+    private static void acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement lock = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            lock.setString(1, LOCK_NAME);
+            lock.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = lock.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new IllegalStateException("Timed out waiting for another node to finish migrating the schema");
+                }
+            }
+        }
+    }
+
+    private static void releaseLock(Connection connection) throws SQLException {
+        try (PreparedStatement unlock = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            unlock.setString(1, LOCK_NAME);
+            unlock.executeQuery().close();
+        }
+    }
+
+    /**
+     * Splits a script into statements on semicolons that end a line, dropping `--` comment lines
+     * @param script migration script
+     * @return statements without their trailing semicolon
+     */
+    static List<String> splitStatements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+
+        for (String line : script.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+
+            if (trimmed.endsWith(";")) {
+                current.append(trimmed, 0, trimmed.length() - 1);
+                statements.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(trimmed).append('\n');
+            }
+        }
+
+        if (current.length() > 0) {
+            statements.add(current.toString().trim());
+        }
+        return statements;
+    }
+
+    /** ================================== end of helper ================================== */
+}
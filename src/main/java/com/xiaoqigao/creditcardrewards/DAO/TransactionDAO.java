@@ -1,8 +1,13 @@
 package com.xiaoqigao.creditcardrewards.DAO;
 
 import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.model.TransactionAmount;
+import com.xiaoqigao.creditcardrewards.model.TransactionName;
 import org.apache.ibatis.annotations.*;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -14,15 +19,65 @@ import java.util.List;
 @Repository
 public interface TransactionDAO {
 
-    @Insert("INSERT INTO `transaction` (transaction_name, post_year, post_month, post_day, merchant_code, amount_cents) " +
-            "VALUES (#{transactionName}, #{postYear}, #{postMonth}, #{postDay}, #{merchantCode}, #{amountCents})")
+    /** columns in the order of the Transaction constructor */
+    String TRANSACTION_COLUMNS = "t.id, t.account_id, t.transaction_name, t.post_date, t.merchant_id, t.amount_cents " +
+            "FROM `transaction` t ";
+
+    /** the merchant id comes from the `merchant` table, see MerchantRegistry */
+    @Insert("INSERT INTO `transaction` (account_id, transaction_name, post_date, merchant_id, amount_cents) " +
+            "VALUES (#{accountId}, #{transactionName}, #{postDate}, #{merchantId}, #{amountCents})")
     @Options(useGeneratedKeys = true, keyColumn = "id", keyProperty = "id")
     void insert(Transaction transaction);
 
-    @Select("SELECT * FROM `transaction` WHERE post_year=#{postYear} AND post_month=#{postMonth}")
-    List<Transaction> selectByYearMonth(@Param("postYear") String postYear, @Param("postMonth") String postMonth);
+    /**
+     * Inserts a chunk of transactions with a single multi-row INSERT statement (one round trip per chunk).
+     */
+    @Insert({"<script>",
+            "INSERT INTO `transaction` (account_id, transaction_name, post_date, merchant_id, amount_cents) VALUES ",
+            "<foreach collection='transactions' item='t' separator=','>",
+            "(#{t.accountId}, #{t.transactionName}, #{t.postDate}, #{t.merchantId}, #{t.amountCents})",
+            "</foreach>",
+            "</script>"})
+    void insertBatch(@Param("transactions") List<Transaction> transactions);
+
+    /**
+     * Streams the name, merchant and amount of one account's transactions posted between two packed yyyyMMdd dates,
+     * inclusive, to the handler row by row, so a month of any size is read without materializing it. A range scan
+     * on the account_post_date_covering index, which holds every column the report reads; the key columns the range
+     * is on are not sent back.
+     * The handler runs while the result set is open and must not use this connection.
+     */
+    @Select("SELECT t.transaction_name, t.merchant_id, t.amount_cents FROM `transaction` t " +
+            "WHERE t.account_id = #{accountId} AND t.post_date BETWEEN #{fromDate} AND #{toDate}")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(TransactionAmount.class)
+    void scanByPostDateRange(@Param("accountId") long accountId, @Param("fromDate") int fromDate,
+                             @Param("toDate") int toDate, ResultHandler<TransactionAmount> handler);
+
+    @Select("SELECT " + TRANSACTION_COLUMNS + "WHERE t.account_id = #{accountId} AND t.transaction_name=#{transactionName}")
+    List<Transaction> selectByTransactionName(@Param("accountId") long accountId,
+                                              @Param("transactionName") String transactionName);
+
+    /**
+     * Returns which of the given transaction names the account already has, resolved with one IN (...) query.
+     */
+    @Select({"<script>",
+            "SELECT transaction_name FROM `transaction` WHERE account_id = #{accountId} AND transaction_name IN ",
+            "<foreach collection='transactionNames' item='name' open='(' separator=',' close=')'>#{name}</foreach>",
+            "</script>"})
+    List<String> selectExistingTransactionNames(@Param("accountId") long accountId,
+                                                @Param("transactionNames") Collection<String> transactionNames);
+
+    @Select("SELECT COUNT(*) FROM `transaction`")
+    long countTransactions();
 
-    @Select("SELECT * FROM `transaction` WHERE transaction_name=#{transactionName}")
-    List<Transaction> selectByTransactionName(@Param("transactionName") String transactionName);
+    /**
+     * Streams the account and name of every transaction to the handler row by row instead of materializing the
+     * whole table. Read from the account_transaction_name unique key, which holds both.
+     */
+    @Select("SELECT t.account_id, t.transaction_name FROM `transaction` t")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(TransactionName.class)
+    void scanTransactionNames(ResultHandler<TransactionName> handler);
 
 }
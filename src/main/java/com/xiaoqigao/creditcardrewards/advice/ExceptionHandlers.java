@@ -2,6 +2,8 @@ package com.xiaoqigao.creditcardrewards.advice;
 
 import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
 import com.xiaoqigao.creditcardrewards.response.CommonResponse;
+import com.xiaoqigao.creditcardrewards.response.RejectedBatchResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -18,8 +20,24 @@ public class ExceptionHandlers {
     @ExceptionHandler(TransactionServiceException.class)
     @ResponseBody
     public ResponseEntity<CommonResponse> handleTransactionServiceException(TransactionServiceException exception) {
-        var commonResponse = new CommonResponse(exception.getStatus());
-        return new ResponseEntity<>(commonResponse, HttpStatus.BAD_REQUEST);
+        var commonResponse = exception.getRejectedItems().isEmpty()
+                ? new CommonResponse(exception.getStatus())
+                : new RejectedBatchResponse(exception.getRejectedItems());
+
+        switch (exception.getStatus()) {
+            case INGEST_QUEUE_FULL: // backpressure: the client should retry later
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .body(commonResponse);
+            case JOB_NOT_FOUND:
+                return new ResponseEntity<>(commonResponse, HttpStatus.NOT_FOUND);
+            case IDEMPOTENCY_KEY_IN_USE:
+                return new ResponseEntity<>(commonResponse, HttpStatus.CONFLICT);
+            case IDEMPOTENCY_KEY_REUSED:
+                return new ResponseEntity<>(commonResponse, HttpStatus.UNPROCESSABLE_ENTITY);
+            default:
+                return new ResponseEntity<>(commonResponse, HttpStatus.BAD_REQUEST);
+        }
     }
 
     /**
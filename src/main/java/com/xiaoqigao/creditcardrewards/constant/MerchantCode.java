@@ -1,6 +1,5 @@
 package com.xiaoqigao.creditcardrewards.constant;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -17,17 +16,40 @@ public class MerchantCode {
     public static final String SUBWAY = "subway";
 
     /**
-     * Makes a list of merchants that are mentioned in the reward rules.
-     * @return a list of merchants
+     * Fixed ids of the reward merchants in the `merchant` table (see db/migration/V2).
      */
-    public static List<String> makeRewardMerchantList() {
-        List<String> merchantsForReward = new ArrayList<>();
-        merchantsForReward.add(MerchantCode.SPORT_CHECK);
-        merchantsForReward.add(MerchantCode.TIM_HORTONS);
-        merchantsForReward.add(MerchantCode.SUBWAY);
+    public static final int OTHER_ID = 1;
+    public static final int SPORT_CHECK_ID = 2;
+    public static final int TIM_HORTONS_ID = 3;
+    public static final int SUBWAY_ID = 4;
 
-        return merchantsForReward;
-    }
+    /**
+     * Length of an array indexed by rollup merchant id; slot 0 is unused.
+     */
+    public static final int ROLLUP_SLOTS = SUBWAY_ID + 1;
 
+    /**
+     * Merchants that are mentioned in the reward rules.
+     */
+    public static final List<String> REWARD_MERCHANTS = List.of(SPORT_CHECK, TIM_HORTONS, SUBWAY);
+
+    private static final String[] ROLLUP_CODES = {null, OTHER, SPORT_CHECK, TIM_HORTONS, SUBWAY};
 
+    /**
+     * Maps a merchant id to the merchant it is summed under in the monthly rollup.
+     * @param merchantId an id from the `merchant` table
+     * @return the reward merchant's id, or OTHER_ID for every other merchant
+     */
+    public static int rollupMerchantId(int merchantId) {
+        return merchantId >= SPORT_CHECK_ID && merchantId <= SUBWAY_ID ? merchantId : OTHER_ID;
+    }
+
+    /**
+     * Maps a rollup merchant id back to its merchant code, which is also the code of the fixed id.
+     * @param merchantId OTHER_ID or a reward merchant's id
+     * @return the merchant code
+     */
+    public static String rollupMerchantCode(int merchantId) {
+        return ROLLUP_CODES[merchantId];
+    }
 }
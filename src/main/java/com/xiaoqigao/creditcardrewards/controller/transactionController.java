@@ -1,14 +1,30 @@
 package com.xiaoqigao.creditcardrewards.controller;
 
-import com.xiaoqigao.creditcardrewards.enums.Status;
-import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.enums.ImportFormat;
 import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
 import com.xiaoqigao.creditcardrewards.response.*;
+import com.xiaoqigao.creditcardrewards.service.BulkReportService;
+import com.xiaoqigao.creditcardrewards.service.EncodedReport;
+import com.xiaoqigao.creditcardrewards.service.IdempotentBatchService;
+import com.xiaoqigao.creditcardrewards.service.IngestJob;
+import com.xiaoqigao.creditcardrewards.service.IngestJobService;
+import com.xiaoqigao.creditcardrewards.service.RollupReconciler;
 import com.xiaoqigao.creditcardrewards.service.TransactionService;
+import com.xiaoqigao.creditcardrewards.service.TransactionStreamService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import java.util.ArrayList;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.List;
 
 @RestController
@@ -18,46 +34,197 @@ public class transactionController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private TransactionStreamService transactionStreamService;
+
+    @Autowired
+    private IngestJobService ingestJobService;
+
+    @Autowired
+    private IdempotentBatchService idempotentBatchService;
+
+    @Autowired
+    private RollupReconciler rollupReconciler;
+
+    @Autowired
+    private BulkReportService bulkReportService;
+
     /**
      * A POST request for posting a list of transactions
      * @param listTransRequest a list of PostTransRequest
-     * @return status OK
+     * @param async queue the list as a background job instead of writing it before responding
+     * @param idempotencyKey optional client key; retries with the same key resume or replay the batch
+     * @return BatchPostResponse summary of the batch, or 202 with a JobStatusResponse when async
      */
     @PostMapping("/post-list")
-    public CommonResponse postListTransaction(@RequestBody List<PostTransRequest> listTransRequest) throws Exception {
+    public ResponseEntity<CommonResponse> postListTransaction(@RequestBody List<PostTransRequest> listTransRequest,
+                                                              @RequestParam(defaultValue = "false") boolean async,
+                                                              @RequestHeader(value = "Idempotency-Key", required = false)
+                                                                      String idempotencyKey) throws Exception {
 
-        for (PostTransRequest postTransRequest : listTransRequest) {
+        if (async) {
+            IngestJob job = this.ingestJobService.submit(listTransRequest);
+            URI statusLocation = ServletUriComponentsBuilder.fromCurrentContextPath()
+                    .path("/transaction/jobs/{id}")
+                    .buildAndExpand(job.getId())
+                    .toUri();
+            return ResponseEntity.accepted().location(statusLocation).body(new JobStatusResponse(job));
+        }
 
-            this.transactionService.postOneTransaction(postTransRequest.getTransactionName(),
-                    postTransRequest.getDate(),
-                    postTransRequest.getMerchantCode(),
-                    postTransRequest.getAmountCents());
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            return ResponseEntity.ok(this.idempotentBatchService.postTransactionList(idempotencyKey, listTransRequest));
         }
 
-        return new CommonResponse(Status.OK);
+        return ResponseEntity.ok(this.transactionService.postTransactionList(listTransRequest));
+    }
+
+    /**
+     * A GET request for the progress of an asynchronous upload
+     * @param id job id returned when the list was queued
+     * @return JobStatusResponse
+     */
+    @GetMapping("/jobs/{id}")
+    public JobStatusResponse getJobStatus(@PathVariable String id) throws Exception {
+
+        return new JobStatusResponse(this.ingestJobService.getJob(id));
+    }
+
+    /**
+     * A POST request for streaming a large upload of transactions, either as a JSON array
+     * or as newline-delimited JSON. Records are validated and written in chunks as they arrive.
+     * @param request the servlet request whose body is read as a stream
+     * @return StreamPostResponse progress of the upload when the stream ends
+     */
+    @PostMapping(value = "/post-stream", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public StreamPostResponse postTransactionStream(HttpServletRequest request) throws Exception {
+
+        return this.transactionStreamService.postTransactionStream(request.getInputStream());
+    }
+
+    /**
+     * A POST request for importing an exported file of transactions.
+     * CSV files need a header row naming the transaction_name, date, merchant_code and amount_cents columns;
+     * NDJSON files hold one PostTransRequest per line. Rows are validated and written in chunks as they are read.
+     * @param file the uploaded file
+     * @param format `csv` or `ndjson`, taken from the file extension when absent
+     * @return StreamPostResponse progress of the import, with its ingestion rate and rejected rows
+     */
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public StreamPostResponse importTransactions(@RequestParam("file") MultipartFile file,
+                                                 @RequestParam(required = false) String format) throws Exception {
+
+        ImportFormat importFormat = ImportFormat.resolve(format, file.getOriginalFilename());
+        try (InputStream inputStream = file.getInputStream()) {
+            return this.transactionStreamService.importFile(inputStream, importFormat);
+        }
     }
 
     /**
-     * A GET request for the reward point report given the year and month
+     * A GET request for the reward point report of one account given the year and month.
+     * The report carries an ETag; a request whose If-None-Match still matches gets 304 without the report being read.
+     * Otherwise the report is written from its cached JSON, gzip-compressed when it was kept compressed and the
+     * client accepts gzip; a report too large to cache is spooled to a temporary file as it is built and then
+     * written to the response.
      * @param year posting year
      * @param month posting month
-     * @return MonthlyReportResponse
+     * @param accountId the account, the default account 0 when absent
+     * @param acceptEncoding the content codings the client accepts
+     * @param webRequest for the conditional request headers
+     * @param httpResponse receives a streamed report
+     * @return MonthlyReportResponse as JSON, or nothing once streamed or with 304 Not Modified
      */
-    @GetMapping("/monthly-reward-report")
-    public MonthlyReportResponse getMonthlyReport(@RequestParam(required = true) String year,
-                                                  @RequestParam(required = true) String month) throws Exception {
+    @GetMapping(value = "/monthly-reward-report", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getMonthlyReport(@RequestParam(required = true) String year,
+                                                   @RequestParam(required = true) String month,
+                                                   @RequestParam(name = "account_id", defaultValue = "0") long accountId,
+                                                   @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                                           String acceptEncoding,
+                                                   WebRequest webRequest,
+                                                   HttpServletResponse httpResponse) throws Exception {
 
+        // read before the report, so the tag is never newer than the body: a body that already includes a later
+        // insert only carries an older tag, which fails the client's next If-None-Match and is fetched again
+        String eTag = this.transactionService.getMonthlyReportETag(accountId, year, month);
+        if (eTag != null && webRequest.checkNotModified(eTag)) {
+            return null;
+        }
 
-        List<Transaction> transactionList = this.transactionService.getMonthlyTransactionList(year, month);
-        int maxPoint =  this.transactionService.getMonthlyMaxPoint(transactionList);
+        // a report too large to cache is written to the response once built, after its reads are done
+        EncodedReport report = this.transactionService.getEncodedMonthlyReport(accountId, year, month, eTag,
+                EncodedReport.acceptsGzip(acceptEncoding), gzipped -> {
+                    httpResponse.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                    httpResponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                    if (gzipped) {
+                        httpResponse.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                    }
+                    return httpResponse.getOutputStream();
+                });
+        if (report == null) {
+            return null;
+        }
 
-        List<TransactionLevelPointResponse> levelPointList = new ArrayList<>();
-        for (Transaction transaction : transactionList) {
-            int maxLevelPoint =  transaction.calculateTransLevelPoints();
-            levelPointList.add( new TransactionLevelPointResponse(transaction.getTransactionName(), maxLevelPoint));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (report.isGzipped()) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
         }
+        return response.body(report.getBody());
+    }
+
+    /**
+     * A GET request for the reward point reports of every account with transactions in the given year and month,
+     * computed in parallel and streamed back as newline-delimited JSON: one line per account in ascending account id
+     * order, then a line with the number of accounts
+     * @param year posting year
+     * @param month posting month
+     * @return a stream of MonthlyReportResponse lines ended by a MonthlyReportsSummaryResponse
+     */
+    @GetMapping("/monthly-reward-reports")
+    public ResponseEntity<StreamingResponseBody> getMonthlyReports(@RequestParam(required = true) String year,
+                                                                   @RequestParam(required = true) String month)
+            throws Exception {
 
-        return new MonthlyReportResponse(year, month, maxPoint, levelPointList);
+        // checked before the stream starts, so a month without transactions still gets a plain error response
+        List<Long> accountIds = this.transactionService.getMonthlyAccounts(year, month);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> this.bulkReportService.writeMonthlyReports(year, month, accountIds, outputStream));
+    }
+
+    /**
+     * A GET request for the maximum point of each month of one account over a range of months, computed in parallel
+     * and streamed back as newline-delimited JSON: one line per month as it completes, then a line with the total
+     * @param from first month as yyyy-MM, together with to
+     * @param to last month as yyyy-MM, inclusive
+     * @param months months as yyyy-MM, instead of from and to
+     * @param accountId the account, the default account 0 when absent
+     * @return a stream of MonthlyPointResponse lines ended by a RangeReportSummaryResponse
+     */
+    @GetMapping("/monthly-reward-range-report")
+    public ResponseEntity<StreamingResponseBody> getMonthlyRangeReport(@RequestParam(required = false) String from,
+                                                                       @RequestParam(required = false) String to,
+                                                                       @RequestParam(required = false) List<String> months,
+                                                                       @RequestParam(name = "account_id", defaultValue = "0")
+                                                                               long accountId) throws Exception {
+
+        // checked before the stream starts, so a bad range still gets a plain error response
+        List<Integer> postMonths = this.bulkReportService.resolveMonths(from, to, months);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> this.bulkReportService.writeRangeReport(accountId, postMonths, outputStream));
+    }
+
+    /**
+     * A POST request for checking the monthly rollup against the transaction table
+     * @param repair rebuild the months found wrong
+     * @return ReconcileResponse the rows that disagreed
+     */
+    @PostMapping("/rollups/reconcile")
+    public ReconcileResponse reconcileRollups(@RequestParam(defaultValue = "false") boolean repair) throws Exception {
 
+        return new ReconcileResponse(this.rollupReconciler.reconcile(repair), repair);
     }
 }
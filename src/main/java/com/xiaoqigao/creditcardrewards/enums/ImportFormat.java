@@ -0,0 +1,44 @@
+package com.xiaoqigao.creditcardrewards.enums;
+
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+
+import java.util.Locale;
+
+/**
+ * File formats accepted by the transaction import endpoint
+ */
+public enum ImportFormat {
+
+    /** comma separated values with a header row naming the columns */
+    CSV,
+
+    /** one JSON transaction per line, shaped like PostTransRequest */
+    NDJSON;
+
+    /**
+     * Picks the format from an explicit parameter, falling back to the file extension
+     * @param format `csv` or `ndjson`, may be null
+     * @param filename name of the uploaded file, may be null
+     * @return the import format
+     */
+    public static ImportFormat resolve(String format, String filename) throws TransactionServiceException {
+        String name = format;
+        if (name == null && filename != null && filename.lastIndexOf('.') >= 0) {
+            name = filename.substring(filename.lastIndexOf('.') + 1);
+        }
+
+        if (name != null) {
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "csv":
+                    return CSV;
+                case "ndjson":
+                case "jsonl":
+                    return NDJSON;
+                default:
+                    break;
+            }
+        }
+
+        throw new TransactionServiceException(Status.UNSUPPORTED_IMPORT_FORMAT);
+    }
+}
@@ -0,0 +1,19 @@
+package com.xiaoqigao.creditcardrewards.enums;
+
+/**
+ * Lifecycle of an asynchronous ingestion job
+ */
+public enum JobState {
+
+    /** accepted and waiting for a writer thread */
+    QUEUED,
+
+    /** being written by a writer thread */
+    RUNNING,
+
+    /** every item has been processed; some may have failed individually */
+    COMPLETED,
+
+    /** the job was aborted; every item it did not get to is counted as failed */
+    FAILED
+}
@@ -0,0 +1,19 @@
+package com.xiaoqigao.creditcardrewards.enums;
+
+/**
+ * What the in-memory transaction name index knows about a name
+ */
+public enum NameMembership {
+
+    /** the name is definitely not in the database, no lookup needed */
+    NEW,
+
+    /** the name was recently inserted and is definitely in the database */
+    POSTED,
+
+    /** the name might be in the database and has to be looked up */
+    MAYBE,
+
+    /** the index is disabled or still warming up, so the name has to be looked up */
+    UNKNOWN
+}
@@ -0,0 +1,16 @@
+package com.xiaoqigao.creditcardrewards.enums;
+
+/**
+ * Outcome of one transaction in a posted batch
+ */
+public enum PostOutcome {
+
+    /** the transaction was written to the database */
+    INSERTED,
+
+    /** a transaction with the same name was already in the database */
+    ALREADY_POSTED,
+
+    /** the same name appeared earlier in the same batch */
+    DUPLICATE_IN_BATCH
+}
@@ -11,7 +11,19 @@ public enum Status {
     TRANSACTION_ALREADY_POSTED(1003, "Transaction with the same name has already been posted."),
     NEGATIVE_AMOUNT_CENTS(1004, "Amount cents cannot be negative."),
     MERCHANT_CODE_IS_NULL(1005, "Merchant code is null."),
-    TRANSACTION_NAME_IS_NULL(1006, "Transaction name is null.");
+    TRANSACTION_NAME_IS_NULL(1006, "Transaction name is null."),
+    INGEST_QUEUE_FULL(1007, "Too many uploads are waiting to be written. Retry later."),
+    JOB_NOT_FOUND(1008, "No ingestion job with the given id."),
+    IDEMPOTENCY_KEY_IN_USE(1009, "A request with the same idempotency key is still being processed."),
+    IDEMPOTENCY_KEY_REUSED(1010, "The idempotency key was already used for a different request body."),
+    UNSUPPORTED_IMPORT_FORMAT(1011, "The import file must be CSV or NDJSON."),
+    IMPORT_MISSING_COLUMN(1012, "The CSV header must name the transaction_name, date, merchant_code and amount_cents columns."),
+    MALFORMED_IMPORT_ROW(1013, "The row does not have a value for every column."),
+    AMOUNT_CENTS_NOT_A_NUMBER(1014, "Amount cents is not a whole number."),
+    NO_REWARD_RULES_IN_EFFECT(1015, "No reward rules were in effect in the given month."),
+    NEGATIVE_ACCOUNT_ID(1016, "Account id cannot be negative."),
+    ACCOUNT_ID_NOT_A_NUMBER(1017, "Account id is not a whole number."),
+    INVALID_MONTH_RANGE(1018, "Give either a from and to month or a list of months, as yyyy-MM, within the allowed range.");
 
     private int code;
     private String message;
@@ -1,19 +1,35 @@
 package com.xiaoqigao.creditcardrewards.exception;
 
 import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
 import lombok.Value;
 
+import java.util.List;
+
 /**
- * Customized exception
+ * Customized exception.
+ * It is raised for expected failures that the status alone describes, so it does not capture a stack trace.
  */
 @Value
 public class TransactionServiceException extends Exception{
 
     private Status status;
 
+    /** every record of a batch that failed validation, empty for other failures */
+    private List<RejectedItemResponse> rejectedItems;
+
     public TransactionServiceException(Status status) {
-        super(status.getMessage());
+        this(status, List.of());
+    }
+
+    /**
+     * @param status the failure of the first rejected record
+     * @param rejectedItems every record of the batch that failed validation
+     */
+    public TransactionServiceException(Status status, List<RejectedItemResponse> rejectedItems) {
+        super(status.getMessage(), null, false, false);
         this.status = status;
+        this.rejectedItems = rejectedItems;
     }
 
 }
@@ -0,0 +1,17 @@
+package com.xiaoqigao.creditcardrewards.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * One row of the `merchant` table, which gives every merchant code a small integer id
+ */
+@Value
+@Builder
+public class Merchant {
+
+    /** 1 to 4 are the fixed ids of MerchantCode, later merchants are numbered as they are first posted */
+    int id;
+
+    String code;
+}
@@ -0,0 +1,24 @@
+package com.xiaoqigao.creditcardrewards.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * One row of the `monthly_merchant_totals` rollup
+ */
+@Value
+@Builder
+public class MonthlyMerchantTotal {
+
+    long accountId;
+
+    /** posting month packed as yyyyMM */
+    int postMonth;
+
+    /** a reward merchant's id, or MerchantCode.OTHER_ID for every other merchant */
+    int merchantId;
+
+    long amountCents;
+
+    int transactionCount;
+}
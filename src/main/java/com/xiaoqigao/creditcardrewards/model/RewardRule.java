@@ -0,0 +1,24 @@
+package com.xiaoqigao.creditcardrewards.model;
+
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * One monthly reward rule: the points earned every time the listed dollar amounts are spent together
+ */
+@Value
+@Builder
+public class RewardRule {
+
+    /** the rule's number in the handout, reported back with the number of times it fired */
+    int ruleNumber;
+
+    int points;
+
+    /** dollars to spend at each merchant for one application of the rule */
+    @Singular("dollars")
+    Map<String, Integer> dollarsByMerchant;
+}
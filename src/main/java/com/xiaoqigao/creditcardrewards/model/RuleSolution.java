@@ -0,0 +1,21 @@
+package com.xiaoqigao.creditcardrewards.model;
+
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * The best way to apply a rule table to one month of spend
+ */
+@Value
+public class RuleSolution {
+
+    /** maximum points, including the leftover dollars */
+    long points;
+
+    /** number of times each rule fired, by rule number, in the order of the rule table */
+    Map<Integer, Long> applications;
+
+    /** dollars not used by any rule, each earning the per-dollar points */
+    long leftoverDollars;
+}
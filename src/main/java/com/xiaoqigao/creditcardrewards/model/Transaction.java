@@ -1,52 +1,40 @@
 package com.xiaoqigao.creditcardrewards.model;
 
-import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
 import lombok.Builder;
 import lombok.Value;
 
 @Value
 @Builder
 public class Transaction {
+
+    /** the account of transactions posted without one, and of every row posted before accounts existed */
+    public static final long DEFAULT_ACCOUNT_ID = 0;
+
     /** primary key */
     int id;
 
-    /** unique key */
+    /** the card account the transaction was posted to; reports and name uniqueness are per account */
+    long accountId;
+
+    /** unique key within the account */
     String transactionName;
 
-    /**  separate date for easier retrieval of monthly transactions */
-    String postYear;
-    String postMonth;
-    String postDay;
-    String merchantCode;
+    /** posting date packed as yyyyMMdd (see DateCodec), so a month is one range of the post_date index */
+    int postDate;
+
+    /** id of the merchant code in the `merchant` table, see MerchantRegistry */
+    int merchantId;
     int amountCents;
 
     /**
-     * A recursive helper function that helps calculate rewards based on Rule 6 and 7
-     * @param amountDollar amountCents / 100
-     * @param isSportCheck is the transaction completed at sportcheck
-     * @return transaction level points
+     * The transaction name qualified by its account, unique across accounts.
+     * Account ids are digits, so the first `:` always ends the account part.
      */
-    private int transLevelPointsHelper(int amountDollar, boolean isSportCheck) {
-        int points;
-
-        if ((amountDollar >= 20) && isSportCheck) { // rule 6: 75 points for $20 sportcheck
-            points = 75 + transLevelPointsHelper(amountDollar - 20, true);
-
-        } else{
-            points = amountDollar;
-        }
-
-        return points;
+    public static String scopedName(long accountId, String transactionName) {
+        return accountId + ":" + transactionName;
     }
 
-    /**
-     * A function that helps calculate rewards based on Rule 6 and 7
-     * @return transaction level points
-     */
-    public int calculateTransLevelPoints() {
-
-        return transLevelPointsHelper(this.amountCents / 100,
-                this.merchantCode.equals(MerchantCode.SPORT_CHECK));
-
+    public String scopedName() {
+        return scopedName(this.accountId, this.transactionName);
     }
 }
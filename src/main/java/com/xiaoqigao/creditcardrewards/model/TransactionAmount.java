@@ -0,0 +1,24 @@
+package com.xiaoqigao.creditcardrewards.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The columns of a transaction a monthly report reads: its name, merchant and amount
+ */
+@Value
+@Builder
+public class TransactionAmount {
+
+    String transactionName;
+
+    /** id of the merchant code in the `merchant` table, see MerchantRegistry */
+    int merchantId;
+
+    int amountCents;
+
+    public static TransactionAmount of(Transaction transaction) {
+        return new TransactionAmount(transaction.getTransactionName(), transaction.getMerchantId(),
+                transaction.getAmountCents());
+    }
+}
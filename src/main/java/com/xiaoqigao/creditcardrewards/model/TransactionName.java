@@ -0,0 +1,16 @@
+package com.xiaoqigao.creditcardrewards.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The unique key of a transaction: a name within an account
+ */
+@Value
+@Builder
+public class TransactionName {
+
+    long accountId;
+
+    String transactionName;
+}
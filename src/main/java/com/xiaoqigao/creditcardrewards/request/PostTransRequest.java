@@ -7,11 +7,20 @@ import lombok.Data;
  */
 @Data
 public class PostTransRequest {
+    private long account_id; // the default account 0 when absent
     private String transaction_name; // follows example naming convention
     private String date; // ex. 2021-05-09
     private String merchant_code; // follows example naming convention
     private int amount_cents; // follows example naming convention
 
+    /**
+     * Getter method for account_id
+     * @return account id
+     */
+    public long getAccountId() {
+        return account_id;
+    }
+
     /**
      * Getter method for transaction_name
      * @return transaction name
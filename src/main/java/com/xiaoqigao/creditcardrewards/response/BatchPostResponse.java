@@ -0,0 +1,46 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * A response that summarizes a batch of posted transactions
+ */
+@Value
+public class BatchPostResponse extends CommonResponse {
+
+    /** number of transactions in the request */
+    private int total_count;
+
+    /** number of transactions written to the database */
+    private int inserted_count;
+
+    /** number of transactions skipped because they were already in the database */
+    private int already_posted_count;
+
+    /** number of transactions skipped because their name appeared earlier in the batch */
+    private int duplicate_in_batch_count;
+
+    /** number of chunks the batch was written in */
+    private int chunk_count;
+
+    /** maximum number of rows per insert */
+    private int chunk_size;
+
+    /** outcome of each transaction, in request order */
+    private List<PostItemResponse> results;
+
+    public BatchPostResponse(int total_count, int inserted_count, int already_posted_count, int duplicate_in_batch_count,
+                             int chunk_count, int chunk_size, List<PostItemResponse> results) {
+        super(Status.OK);
+        this.total_count = total_count;
+        this.inserted_count = inserted_count;
+        this.already_posted_count = already_posted_count;
+        this.duplicate_in_batch_count = duplicate_in_batch_count;
+        this.chunk_count = chunk_count;
+        this.chunk_size = chunk_size;
+        this.results = results;
+    }
+}
@@ -0,0 +1,55 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.JobState;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.service.IngestJob;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * A response that represents the progress of an asynchronous ingestion job
+ */
+@Value
+public class JobStatusResponse extends CommonResponse {
+
+    private String job_id;
+    private JobState state;
+
+    /** number of transactions in the queued batch */
+    private int total_count;
+
+    /** number of transactions handled so far, whatever their outcome */
+    private long processed_count;
+
+    private long inserted_count;
+    private long already_posted_count;
+    private long duplicate_in_batch_count;
+
+    /** number of transactions that failed validation */
+    private long rejected_count;
+
+    /** number of transactions that could not be validated or written, or were not reached by an aborted job */
+    private long failed_count;
+
+    /** number of rejected and failed transactions, listed or not */
+    private long failure_count;
+
+    /** the first rejected and failed transactions with their reason, capped so the response stays small */
+    private List<RejectedItemResponse> failures;
+
+    public JobStatusResponse(IngestJob job) {
+        super(Status.OK);
+        this.job_id = job.getId();
+        this.state = job.getState();
+        this.total_count = job.getTotalCount();
+        this.processed_count = job.getProcessedCount();
+        this.inserted_count = job.getInsertedCount();
+        this.already_posted_count = job.getAlreadyPostedCount();
+        this.duplicate_in_batch_count = job.getDuplicateInBatchCount();
+        this.rejected_count = job.getRejectedCount();
+        this.failed_count = job.getFailedCount();
+        this.failure_count = job.getFailureCount();
+        this.failures = job.getFailures();
+    }
+}
@@ -0,0 +1,25 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.util.DateCodec;
+import lombok.Value;
+
+/**
+ * A response that represents the maximum point of one month in a range report,
+ * with MONTH_NO_TRANSACTIONS and 0 points for a month without transactions
+ */
+@Value
+public class MonthlyPointResponse extends CommonResponse {
+    private String year;
+    private String month;
+
+    /** total maximum monthly rewards points */
+    private long maximum_monthly_rewards_point;
+
+    public MonthlyPointResponse(int postMonth, Long maximumMonthlyRewardsPoint) {
+        super(maximumMonthlyRewardsPoint == null ? Status.MONTH_NO_TRANSACTIONS : Status.OK);
+        this.year = DateCodec.formatYear(postMonth * 100 + 1);
+        this.month = DateCodec.formatMonth(postMonth * 100 + 1);
+        this.maximum_monthly_rewards_point = maximumMonthlyRewardsPoint == null ? 0 : maximumMonthlyRewardsPoint;
+    }
+}
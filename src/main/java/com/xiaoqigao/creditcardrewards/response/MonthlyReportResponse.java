@@ -6,22 +6,24 @@ import lombok.Value;
 import java.util.List;
 
 /**
- * A response that represents the monthly rewards info
+ * A response that represents the monthly rewards info of one account
  */
 @Value
 public class MonthlyReportResponse extends CommonResponse {
+    private long account_id;
     private String year;
     private String month;
 
-    /** total maximum monthly rewards points */
-    private int maximum_monthly_rewards_point;
-
     /** a list of maximum rewards point for each transaction */
     private List<TransactionLevelPointResponse> transaction_level_points_list;
 
-    public MonthlyReportResponse(String year, String month, int maximum_monthly_rewards_point,
+    /** total maximum monthly rewards points, after the list it is summed from */
+    private long maximum_monthly_rewards_point;
+
+    public MonthlyReportResponse(long account_id, String year, String month, long maximum_monthly_rewards_point,
                                  List<TransactionLevelPointResponse> transaction_level_point_list) {
         super(Status.OK);
+        this.account_id = account_id;
         this.year = year;
         this.month = month;
         this.maximum_monthly_rewards_point = maximum_monthly_rewards_point;
@@ -0,0 +1,23 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import lombok.Value;
+
+/**
+ * A response that ends the monthly reports of every account once each account's report has been sent
+ */
+@Value
+public class MonthlyReportsSummaryResponse extends CommonResponse {
+    private String year;
+    private String month;
+
+    /** accounts whose report was sent */
+    private int account_count;
+
+    public MonthlyReportsSummaryResponse(String year, String month, int account_count) {
+        super(Status.OK);
+        this.year = year;
+        this.month = month;
+        this.account_count = account_count;
+    }
+}
@@ -0,0 +1,19 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
+import lombok.Value;
+
+/**
+ * A response that represents the outcome of one transaction in a posted batch
+ */
+@Value
+public class PostItemResponse {
+
+    private String transaction_name;
+    private PostOutcome outcome;
+
+    public PostItemResponse(String transactionName, PostOutcome outcome) {
+        this.transaction_name = transactionName;
+        this.outcome = outcome;
+    }
+}
@@ -0,0 +1,28 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import lombok.Value;
+
+/**
+ * A response that ends a range report once every month has been sent
+ */
+@Value
+public class RangeReportSummaryResponse extends CommonResponse {
+    private long account_id;
+    private int month_count;
+
+    /** months with transactions */
+    private int reported_month_count;
+
+    /** sum of the maximum monthly rewards points of every month */
+    private long total_rewards_points;
+
+    public RangeReportSummaryResponse(long account_id, int month_count, int reported_month_count,
+                                      long total_rewards_points) {
+        super(Status.OK);
+        this.account_id = account_id;
+        this.month_count = month_count;
+        this.reported_month_count = reported_month_count;
+        this.total_rewards_points = total_rewards_points;
+    }
+}
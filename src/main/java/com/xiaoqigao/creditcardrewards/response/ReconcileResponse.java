@@ -0,0 +1,29 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.service.RollupMismatch;
+import lombok.Value;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A response that summarizes a check of the monthly rollup against the transaction table
+ */
+@Value
+public class ReconcileResponse extends CommonResponse {
+
+    private int mismatch_count;
+
+    /** whether the months with a mismatch were rebuilt */
+    private boolean repaired;
+
+    private List<RollupMismatchResponse> mismatches;
+
+    public ReconcileResponse(List<RollupMismatch> mismatches, boolean repaired) {
+        super(Status.OK);
+        this.mismatch_count = mismatches.size();
+        this.repaired = repaired && !mismatches.isEmpty();
+        this.mismatches = mismatches.stream().map(RollupMismatchResponse::new).collect(Collectors.toList());
+    }
+}
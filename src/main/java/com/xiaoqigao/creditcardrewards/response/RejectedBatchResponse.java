@@ -0,0 +1,25 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * A response that lists every record of a batch that failed validation; nothing in the batch was posted.
+ * The code and message are those of the first rejected record.
+ */
+@Value
+public class RejectedBatchResponse extends CommonResponse {
+
+    /** number of records that failed validation */
+    private int rejected_count;
+
+    /** every rejected record, in request order */
+    private List<RejectedItemResponse> rejections;
+
+    public RejectedBatchResponse(List<RejectedItemResponse> rejections) {
+        super(rejections.get(0).getCode(), rejections.get(0).getMessage());
+        this.rejected_count = rejections.size();
+        this.rejections = rejections;
+    }
+}
@@ -0,0 +1,28 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import lombok.Value;
+
+/**
+ * A response that represents one record that could not be posted
+ */
+@Value
+public class RejectedItemResponse {
+
+    /** zero-based position of the record in the request body */
+    private long index;
+    private String transaction_name;
+    private int code;
+    private String message;
+
+    public RejectedItemResponse(long index, String transactionName, Status status) {
+        this(index, transactionName, status.getCode(), status.getMessage());
+    }
+
+    public RejectedItemResponse(long index, String transactionName, int code, String message) {
+        this.index = index;
+        this.transaction_name = transactionName;
+        this.code = code;
+        this.message = message;
+    }
+}
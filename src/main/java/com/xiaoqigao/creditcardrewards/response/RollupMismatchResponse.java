@@ -0,0 +1,29 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.service.RollupMismatch;
+import lombok.Value;
+
+/**
+ * A response that represents one monthly rollup row that disagrees with the transaction table
+ */
+@Value
+public class RollupMismatchResponse {
+
+    private int post_month;
+    private long account_id;
+    private int merchant_id;
+    private long expected_amount_cents;
+    private int expected_count;
+    private long actual_amount_cents;
+    private int actual_count;
+
+    public RollupMismatchResponse(RollupMismatch mismatch) {
+        this.post_month = mismatch.getPostMonth();
+        this.account_id = mismatch.getAccountId();
+        this.merchant_id = mismatch.getMerchantId();
+        this.expected_amount_cents = mismatch.getExpectedAmountCents();
+        this.expected_count = mismatch.getExpectedCount();
+        this.actual_amount_cents = mismatch.getActualAmountCents();
+        this.actual_count = mismatch.getActualCount();
+    }
+}
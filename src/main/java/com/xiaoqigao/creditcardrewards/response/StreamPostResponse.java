@@ -0,0 +1,58 @@
+package com.xiaoqigao.creditcardrewards.response;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * A response that reports the progress of a streamed upload once the stream ends
+ */
+@Value
+public class StreamPostResponse extends CommonResponse {
+
+    /** number of records read from the stream */
+    private long records_read;
+
+    /** number of transactions written to the database */
+    private long inserted_count;
+
+    /** number of transactions skipped because they were already in the database, including earlier chunks */
+    private long already_posted_count;
+
+    /** number of transactions skipped because their name appeared earlier in the same chunk */
+    private long duplicate_in_batch_count;
+
+    /** number of records that failed validation */
+    private long rejected_count;
+
+    /** number of chunks flushed to the database */
+    private long chunk_count;
+
+    /** maximum number of rows per chunk */
+    private int chunk_size;
+
+    private long elapsed_millis;
+
+    /** ingestion rate over the whole upload, including rejected records */
+    private long records_per_second;
+
+    /** the first rejected records, capped so the response stays small */
+    private List<RejectedItemResponse> rejections;
+
+    public StreamPostResponse(long records_read, long inserted_count, long already_posted_count,
+                              long duplicate_in_batch_count, long rejected_count, long chunk_count, int chunk_size,
+                              long elapsed_millis, List<RejectedItemResponse> rejections) {
+        super(Status.OK);
+        this.records_read = records_read;
+        this.inserted_count = inserted_count;
+        this.already_posted_count = already_posted_count;
+        this.duplicate_in_batch_count = duplicate_in_batch_count;
+        this.rejected_count = rejected_count;
+        this.chunk_count = chunk_count;
+        this.chunk_size = chunk_size;
+        this.elapsed_millis = elapsed_millis;
+        this.records_per_second = elapsed_millis == 0 ? records_read * 1000 : records_read * 1000 / elapsed_millis;
+        this.rejections = rejections;
+    }
+}
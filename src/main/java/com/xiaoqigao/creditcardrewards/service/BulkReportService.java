@@ -0,0 +1,339 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.response.CommonResponse;
+import com.xiaoqigao.creditcardrewards.response.MonthlyPointResponse;
+import com.xiaoqigao.creditcardrewards.response.MonthlyReportsSummaryResponse;
+import com.xiaoqigao.creditcardrewards.response.RangeReportSummaryResponse;
+import com.xiaoqigao.creditcardrewards.util.DateCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Computes many reports at once on a fixed pool of report threads, e.g. for a statement run.
+ * The monthly reports of every account with transactions in a month run one task per account, each reading only
+ * that account's rows, so the run reads the month once in total while the accounts are scored in parallel.
+ * A bounded window of accounts is in flight at a time, and each report is streamed out once it and those before
+ * it are done.
+ * The maximum points of one account over many months run one task per chunk of months, each reading the chunk's
+ * rollup rows in one query, and are handed back chunk by chunk as they complete, with the same bounded window
+ * of chunks in flight, so a long range does not fill the pool's queue ahead of other reports.
+ */
+@Slf4j
+@Service
+public class BulkReportService {
+
+    /** Dependency Injection */
+    @Autowired
+    TransactionService transactionService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    /** accounts or chunks of months reported at the same time, each holding a database connection while it reads */
+    @Value("${transaction.reports.bulk-threads:4}")
+    int bulkThreads;
+
+    /** months of a range report read by one rollup query */
+    @Value("${transaction.reports.range.chunk-months:12}")
+    int rangeChunkMonths;
+
+    /** most months one range report may ask for */
+    @Value("${transaction.reports.range.max-months:1200}")
+    int rangeMaxMonths;
+
+    private ExecutorService reportPool;
+
+    @PostConstruct
+    void startWorkers() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.reportPool = Executors.newFixedThreadPool(Math.max(1, this.bulkThreads), runnable -> {
+            Thread thread = new Thread(runnable, "report-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopWorkers() {
+        this.reportPool.shutdownNow();
+    }
+
+    /**
+     * Writes the reward report of every given account as newline-delimited JSON: one MonthlyReportResponse per
+     * account, in the order given, then a MonthlyReportsSummaryResponse. At most two reports per report thread are
+     * in flight, so only those are held while the stream is written. An account whose rows were removed after the
+     * accounts were listed is left out. A failure after the first line ends the stream with a CommonResponse
+     * carrying the error instead of the summary.
+     * @param year
+     * @param month
+     * @param accountIds accounts with transactions in the month, from TransactionService.getMonthlyAccounts
+     * @param outputStream the response body
+     */
+    public void writeMonthlyReports(String year, String month, List<Long> accountIds, OutputStream outputStream)
+            throws IOException {
+
+        int window = 2 * Math.max(1, this.bulkThreads);
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>(window);
+        int next = 0;
+        int reportedAccounts = 0;
+        CommonResponse last;
+        try {
+            while (next < accountIds.size() || !inFlight.isEmpty()) {
+                while (next < accountIds.size() && inFlight.size() < window) {
+                    long accountId = accountIds.get(next++);
+                    inFlight.add(this.reportPool.submit(() -> reportLine(accountId, year, month)));
+                }
+
+                byte[] report;
+                try {
+                    report = inFlight.poll().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                if (report != null) {
+                    outputStream.write(report);
+                    outputStream.write('\n');
+                    outputStream.flush();
+                    reportedAccounts++;
+                }
+            }
+            last = new MonthlyReportsSummaryResponse(year, month, reportedAccounts);
+        } catch (IOException e) {
+            // the client went away
+            throw e;
+        } catch (TransactionServiceException e) {
+            last = new CommonResponse(e.getStatus());
+        } catch (Exception e) {
+            log.warn("Monthly reports of {}-{} failed", year, month, e);
+            last = new CommonResponse(9999, e.getMessage());
+        } finally {
+            // nothing is left to cancel on success; on failure the reports in flight stop reading
+            for (Future<byte[]> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        writeLine(last, outputStream);
+    }
+
+    /**
+     * Resolves the months of a range report, given either as a first and last month or as a list
+     * @param from first month as yyyy-MM, together with to
+     * @param to last month as yyyy-MM, inclusive
+     * @param months months as yyyy-MM, instead of from and to
+     * @return months packed as yyyyMM, ascending and distinct
+     * @throws TransactionServiceException INVALID_MONTH_RANGE if the months are missing, malformed or too many
+     */
+    public List<Integer> resolveMonths(String from, String to, List<String> months) throws TransactionServiceException {
+
+        boolean hasRange = from != null || to != null;
+        boolean hasList = months != null && !months.isEmpty();
+        if (hasRange == hasList) {
+            throw new TransactionServiceException(Status.INVALID_MONTH_RANGE);
+        }
+
+        TreeSet<Integer> postMonths = new TreeSet<>();
+        if (hasRange) {
+            int first = parseMonth(from);
+            int last = parseMonth(to);
+            if (last < first || monthIndexOf(last) - monthIndexOf(first) >= this.rangeMaxMonths) {
+                throw new TransactionServiceException(Status.INVALID_MONTH_RANGE);
+            }
+            for (int postMonth = first; postMonth <= last; postMonth = nextMonth(postMonth)) {
+                postMonths.add(postMonth);
+            }
+        } else {
+            for (String month : months) {
+                postMonths.add(parseMonth(month));
+            }
+            if (postMonths.size() > this.rangeMaxMonths) {
+                throw new TransactionServiceException(Status.INVALID_MONTH_RANGE);
+            }
+        }
+
+        return new ArrayList<>(postMonths);
+    }
+
+    /**
+     * Computes the maximum point of each of one account's months, passing each chunk of months on as it completes.
+     * At most two chunks per report thread are submitted at a time; the next is submitted as one completes.
+     * @param accountId
+     * @param postMonths months packed as yyyyMM, ascending and distinct
+     * @param consumer receives every month once, on the caller's thread, in month order within a chunk
+     * @return the total over the months
+     */
+    public RangeReportSummaryResponse forEachMonthlyPoint(long accountId, List<Integer> postMonths,
+                                                          Consumer<MonthlyPointResponse> consumer) throws Exception {
+
+        CompletionService<List<MonthlyPointResponse>> completionService = new ExecutorCompletionService<>(this.reportPool);
+        List<Future<List<MonthlyPointResponse>>> futures = new ArrayList<>();
+        int window = 2 * Math.max(1, this.bulkThreads);
+        int chunkMonths = Math.max(1, this.rangeChunkMonths);
+        int next = 0;
+
+        int reportedMonths = 0;
+        long totalPoints = 0;
+        try {
+            for (int completed = 0; next < postMonths.size() || completed < futures.size(); completed++) {
+                while (next < postMonths.size() && futures.size() - completed < window) {
+                    List<Integer> chunk = postMonths.subList(next, Math.min(next + chunkMonths, postMonths.size()));
+                    futures.add(completionService.submit(() -> monthlyPoints(accountId, chunk)));
+                    next += chunk.size();
+                }
+
+                List<MonthlyPointResponse> chunk;
+                try {
+                    chunk = completionService.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                for (MonthlyPointResponse monthlyPoint : chunk) {
+                    consumer.accept(monthlyPoint);
+                    if (monthlyPoint.getCode() == Status.OK.getCode()) {
+                        reportedMonths++;
+                        totalPoints = Math.addExact(totalPoints, monthlyPoint.getMaximum_monthly_rewards_point());
+                    }
+                }
+            }
+        } finally {
+            // nothing is left to cancel on success; on failure the chunks in flight stop reading
+            for (Future<List<MonthlyPointResponse>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return new RangeReportSummaryResponse(accountId, postMonths.size(), reportedMonths, totalPoints);
+    }
+
+    /**
+     * Writes a range report as newline-delimited JSON: one MonthlyPointResponse per month as its chunk completes,
+     * then a RangeReportSummaryResponse. A failure after the first line ends the stream with a CommonResponse
+     * carrying the error instead of the summary.
+     * @param accountId
+     * @param postMonths months packed as yyyyMM, ascending and distinct
+     * @param outputStream the response body
+     */
+    public void writeRangeReport(long accountId, List<Integer> postMonths, OutputStream outputStream) throws IOException {
+
+        CommonResponse last;
+        try {
+            last = forEachMonthlyPoint(accountId, postMonths, monthlyPoint -> {
+                try {
+                    writeLine(monthlyPoint, outputStream);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // the client went away
+            throw e.getCause();
+        } catch (TransactionServiceException e) {
+            last = new CommonResponse(e.getStatus());
+        } catch (Exception e) {
+            log.warn("Range report of account {} failed", accountId, e);
+            last = new CommonResponse(9999, e.getMessage());
+        }
+        writeLine(last, outputStream);
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * A helper function that writes one account's report as JSON
+     * @return the report, or null if the account no longer has transactions in the month
+     */
+    private byte[] reportLine(long accountId, String year, String month) throws TransactionServiceException, IOException {
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        try (JsonGenerator generator = this.objectMapper.createGenerator(report)) {
+            this.transactionService.writeMonthlyReport(accountId, year, month, generator);
+        } catch (TransactionServiceException e) {
+            if (isMonthWithoutTransactions(e)) {
+                // the account's rows were removed after the accounts were listed
+                return null;
+            }
+            throw e;
+        }
+        return report.toByteArray();
+    }
+
+    /**
+     * A helper function that computes one chunk of a range report from one read of the rollup
+     */
+    private List<MonthlyPointResponse> monthlyPoints(long accountId, List<Integer> postMonths)
+            throws TransactionServiceException {
+
+        NavigableMap<Integer, Long> maxPoints = this.transactionService.getMonthlyMaxPoints(accountId,
+                postMonths.get(0), postMonths.get(postMonths.size() - 1));
+
+        List<MonthlyPointResponse> monthlyPoints = new ArrayList<>(postMonths.size());
+        for (int postMonth : postMonths) {
+            monthlyPoints.add(new MonthlyPointResponse(postMonth, maxPoints.get(postMonth)));
+        }
+        return monthlyPoints;
+    }
+
+    private void writeLine(Object value, OutputStream outputStream) throws IOException {
+        outputStream.write(this.objectMapper.writeValueAsBytes(value));
+        outputStream.write('\n');
+        outputStream.flush();
+    }
+
+    /**
+     * @return yyyyMM of a yyyy-MM month
+     */
+    private static int parseMonth(String month) throws TransactionServiceException {
+        int firstDay = month == null ? DateCodec.INVALID : DateCodec.parse(month + "-01");
+        if (firstDay == DateCodec.INVALID) {
+            throw new TransactionServiceException(Status.INVALID_MONTH_RANGE);
+        }
+        return firstDay / 100;
+    }
+
+    private static int monthIndexOf(int postMonth) {
+        return (postMonth / 100) * 12 + postMonth % 100 - 1;
+    }
+
+    private static int nextMonth(int postMonth) {
+        return postMonth % 100 == 12 ? (postMonth / 100 + 1) * 100 + 1 : postMonth + 1;
+    }
+
+    private static boolean isMonthWithoutTransactions(Throwable cause) {
+        return cause instanceof TransactionServiceException
+                && ((TransactionServiceException) cause).getStatus() == Status.MONTH_NO_TRANSACTIONS;
+    }
+
+    /** ================================== end of helper ================================== */
+}
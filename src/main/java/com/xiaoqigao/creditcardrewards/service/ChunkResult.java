@@ -0,0 +1,19 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import lombok.Value;
+
+/**
+ * Counts of the outcomes of one posted chunk
+ */
+@Value
+public class ChunkResult {
+
+    /** number of transactions written to the database */
+    int insertedCount;
+
+    /** number of transactions skipped because they were already in the database */
+    int alreadyPostedCount;
+
+    /** number of transactions skipped because their name appeared earlier in the chunk */
+    int duplicateInBatchCount;
+}
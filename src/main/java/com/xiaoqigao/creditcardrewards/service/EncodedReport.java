@@ -0,0 +1,66 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import lombok.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A monthly report already serialized to JSON, gzip-compressed when it is large and the client accepts gzip,
+ * ready to be written as is
+ */
+@Value
+public class EncodedReport {
+
+    /** entity tag of the month the report was built for, null if the month had none */
+    String eTag;
+
+    /** the JSON, compressed if gzipped */
+    byte[] body;
+
+    boolean gzipped;
+
+    /**
+     * Get the JSON itself, uncompressing it if needed.
+     * Responses are written from the body; clients that do not accept gzip are given reports that are not gzipped.
+     */
+    public byte[] getJson() {
+        if (!this.gzipped) {
+            return this.body;
+        }
+
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(this.body))) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Check whether an Accept-Encoding header allows a gzip body, i.e. names gzip or * without q=0
+     * @param acceptEncoding the header, null when absent
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().replace(" ", "");
+                refused |= parameter.matches("q=0(\\.0*)?");
+            }
+            return !refused;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
+import com.xiaoqigao.creditcardrewards.response.BatchPostResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Progress of one batch posted under a client idempotency key.
+ * Only the request holding the key writes to it; the key is held for the whole attempt.
+ */
+public class IdempotentBatch {
+
+    /** digest of the request body the key was first used with */
+    private final String fingerprint;
+
+    /** chunk size of the first attempt, kept so a retry splits the batch at the same places */
+    private final int chunkSize;
+
+    private final AtomicBoolean inUse = new AtomicBoolean();
+
+    /** outcomes of the transactions in the committed chunks, in request order */
+    private final List<PostOutcome> committedOutcomes = new ArrayList<>();
+    private int committedChunkCount;
+
+    /** set once every chunk is committed */
+    private volatile BatchPostResponse response;
+
+    public IdempotentBatch(String fingerprint, int chunkSize) {
+        this.fingerprint = fingerprint;
+        this.chunkSize = chunkSize;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public BatchPostResponse getResponse() {
+        return response;
+    }
+
+    public int getCommittedCount() {
+        return committedOutcomes.size();
+    }
+
+    public int getCommittedChunkCount() {
+        return committedChunkCount;
+    }
+
+    public List<PostOutcome> getCommittedOutcomes() {
+        return Collections.unmodifiableList(committedOutcomes);
+    }
+
+    /**
+     * Hold the key for one attempt
+     * @return false if another request is already posting under this key
+     */
+    boolean tryAcquire() {
+        return inUse.compareAndSet(false, true);
+    }
+
+    void release() {
+        inUse.set(false);
+    }
+
+    void commitChunk(List<PostOutcome> outcomes) {
+        committedOutcomes.addAll(outcomes);
+        committedChunkCount++;
+    }
+
+    void complete(BatchPostResponse response) {
+        this.response = response;
+    }
+}
@@ -0,0 +1,133 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.BatchPostResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Posts transaction lists under a client idempotency key.
+ * Each chunk is committed on its own and recorded against the key, so a retry after a timeout
+ * resumes after the last committed chunk, and a retry after success replays the stored response
+ * without touching the database.
+ * Keys are kept in memory for a bounded time; once a key expires a retry is still safe,
+ * because names that were already inserted are reported as ALREADY_POSTED.
+ */
+@Service
+public class IdempotentBatchService {
+
+    @Autowired
+    TransactionService transactionService;
+
+    @Value("${transaction.idempotency.max-keys:10000}")
+    long maxKeys;
+
+    @Value("${transaction.idempotency.ttl-minutes:1440}")
+    long ttlMinutes;
+
+    private Cache<String, IdempotentBatch> batches;
+
+    @PostConstruct
+    void createStore() {
+        this.batches = Caffeine.newBuilder()
+                .maximumSize(this.maxKeys)
+                .expireAfterWrite(Duration.ofMinutes(this.ttlMinutes))
+                .build();
+    }
+
+    /**
+     * Post a list of transactions under an idempotency key
+     * @param idempotencyKey client chosen key, unique per logical batch
+     * @param requests a list of PostTransRequest
+     * @return the summary of the batch, the stored one if the key already completed
+     */
+    public BatchPostResponse postTransactionList(String idempotencyKey, List<PostTransRequest> requests) throws Exception {
+
+        String fingerprint = fingerprint(requests);
+        IdempotentBatch batch = this.batches.get(idempotencyKey,
+                key -> new IdempotentBatch(fingerprint, this.transactionService.getBatchChunkSize()));
+
+        if (!batch.getFingerprint().equals(fingerprint)) {
+            throw new TransactionServiceException(Status.IDEMPOTENCY_KEY_REUSED);
+        }
+        if (!batch.tryAcquire()) {
+            throw new TransactionServiceException(Status.IDEMPOTENCY_KEY_IN_USE);
+        }
+
+        try {
+            // replay: the batch already completed under this key
+            if (batch.getResponse() != null) {
+                return batch.getResponse();
+            }
+
+            // validation pass: build every transaction before touching the table
+            List<Transaction> newTransList = this.transactionService.toTransactionList(requests);
+
+            // resume after the last committed chunk, remembering the names it already covered
+            Set<String> namesInBatch = new HashSet<>();
+            for (Transaction transaction : newTransList.subList(0, batch.getCommittedCount())) {
+                namesInBatch.add(transaction.scopedName());
+            }
+
+            int chunkSize = batch.getChunkSize();
+            for (int from = batch.getCommittedCount(); from < newTransList.size(); from += chunkSize) {
+                int to = Math.min(from + chunkSize, newTransList.size());
+                List<PostOutcome> outcomes = this.transactionService.postChunk(newTransList.subList(from, to), namesInBatch);
+                batch.commitChunk(outcomes);
+            }
+
+            BatchPostResponse response = TransactionService.summarize(newTransList, batch.getCommittedOutcomes(),
+                    batch.getCommittedChunkCount(), chunkSize);
+            batch.complete(response);
+            return response;
+        } finally {
+            batch.release();
+        }
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * A helper function that digests the request body, so a key cannot be reused for a different batch.
+     * @param requests a list of PostTransRequest
+     * @return hex SHA-256 of the requests
+     */
+    private static String fingerprint(List<PostTransRequest> requests) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (PostTransRequest request : requests) {
+            String line = request.getAccountId() + "\u0000" + request.getTransactionName() + '\u0000'
+                    + request.getDate() + '\u0000' + request.getMerchantCode() + '\u0000' + request.getAmountCents() + '\n';
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /** ================================== end of helper ================================== */
+}
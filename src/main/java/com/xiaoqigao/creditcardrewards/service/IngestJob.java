@@ -0,0 +1,134 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.JobState;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one asynchronous ingestion job.
+ * Written by a single writer thread and read concurrently by status requests.
+ */
+public class IngestJob {
+
+    /** maximum number of failed items kept for status requests, the counts cover all of them */
+    static final int MAX_REPORTED_FAILURES = 100;
+
+    private final String id;
+    private final int totalCount;
+    private volatile JobState state = JobState.QUEUED;
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong insertedCount = new AtomicLong();
+    private final AtomicLong alreadyPostedCount = new AtomicLong();
+    private final AtomicLong duplicateInBatchCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /** the first items that were rejected by validation, or could not be validated or written */
+    private final List<RejectedItemResponse> failures = new ArrayList<>();
+
+    public IngestJob(String id, int totalCount) {
+        this.id = id;
+        this.totalCount = totalCount;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getInsertedCount() {
+        return insertedCount.get();
+    }
+
+    public long getAlreadyPostedCount() {
+        return alreadyPostedCount.get();
+    }
+
+    public long getDuplicateInBatchCount() {
+        return duplicateInBatchCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Number of rejected and failed items, including those past the ones kept in getFailures
+     */
+    public long getFailureCount() {
+        return rejectedCount.get() + failedCount.get();
+    }
+
+    /**
+     * Copy of the per-item failures recorded so far, at most MAX_REPORTED_FAILURES of them
+     * @return failures in the order they were recorded
+     */
+    public List<RejectedItemResponse> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    void markRunning() {
+        this.state = JobState.RUNNING;
+    }
+
+    void markCompleted() {
+        this.state = JobState.COMPLETED;
+    }
+
+    void markFailed() {
+        this.state = JobState.FAILED;
+    }
+
+    void addRejected(RejectedItemResponse rejection) {
+        recordFailure(rejection);
+        rejectedCount.incrementAndGet();
+        processedCount.incrementAndGet();
+    }
+
+    void addFailed(RejectedItemResponse failure) {
+        recordFailure(failure);
+        failedCount.incrementAndGet();
+        processedCount.incrementAndGet();
+    }
+
+    void addDuplicateInBatch() {
+        duplicateInBatchCount.incrementAndGet();
+        processedCount.incrementAndGet();
+    }
+
+    void addChunk(ChunkResult result, int chunkLength) {
+        insertedCount.addAndGet(result.getInsertedCount());
+        alreadyPostedCount.addAndGet(result.getAlreadyPostedCount());
+        duplicateInBatchCount.addAndGet(result.getDuplicateInBatchCount());
+        processedCount.addAndGet(chunkLength);
+    }
+
+    private void recordFailure(RejectedItemResponse failure) {
+        synchronized (failures) {
+            if (failures.size() < MAX_REPORTED_FAILURES) {
+                failures.add(failure);
+            }
+        }
+    }
+}
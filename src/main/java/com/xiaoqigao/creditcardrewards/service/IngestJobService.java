@@ -0,0 +1,241 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs uploads as background jobs so the servlet thread returns as soon as the batch is queued.
+ * Batches wait in a bounded queue and are drained by a fixed pool of writer threads;
+ * when the queue is full new uploads are refused instead of piling up.
+ */
+@Slf4j
+@Service
+public class IngestJobService {
+
+    /** code reported for items that could not be validated or written, same as the generic exception handler */
+    static final int ITEM_FAILED_CODE = 9999;
+
+    /** Dependency Injection */
+    @Autowired
+    TransactionService transactionService;
+
+    /** maximum number of batches waiting for a writer */
+    @Value("${transaction.async.queue-capacity:16}")
+    int queueCapacity;
+
+    @Value("${transaction.async.writer-threads:2}")
+    int writerThreads;
+
+    /** number of finished jobs kept for status requests */
+    @Value("${transaction.async.retained-jobs:1000}")
+    int retainedJobs;
+
+    private final Map<String, IngestJob> jobs = new ConcurrentHashMap<>();
+    private final Queue<String> finishedJobIds = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedJobCount = new AtomicInteger();
+    private ThreadPoolExecutor writerPool;
+
+    @PostConstruct
+    void startWriters() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.writerPool = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ingest-writer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Lets queued and running jobs finish before the application stops.
+     */
+    @PreDestroy
+    void stopWriters() throws InterruptedException {
+        this.writerPool.shutdown();
+        if (!this.writerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Ingestion writers did not finish within 30 seconds, {} batches dropped",
+                    this.writerPool.getQueue().size());
+        }
+    }
+
+    /**
+     * Queue a batch for background ingestion.
+     * @param requests a list of PostTransRequest
+     * @return the new job
+     * @throws TransactionServiceException INGEST_QUEUE_FULL when no more batches can be queued
+     */
+    public IngestJob submit(List<PostTransRequest> requests) throws TransactionServiceException {
+
+        IngestJob job = new IngestJob(UUID.randomUUID().toString(), requests.size());
+        this.jobs.put(job.getId(), job);
+
+        try {
+            this.writerPool.execute(() -> run(job, requests));
+        } catch (RejectedExecutionException exception) {
+            this.jobs.remove(job.getId());
+            throw new TransactionServiceException(Status.INGEST_QUEUE_FULL);
+        }
+
+        return job;
+    }
+
+    /**
+     * Get a queued, running or recently finished job
+     * @param jobId id returned when the batch was queued
+     * @return the job
+     * @throws TransactionServiceException JOB_NOT_FOUND for unknown or expired ids
+     */
+    public IngestJob getJob(String jobId) throws TransactionServiceException {
+
+        IngestJob job = this.jobs.get(jobId);
+        if (job == null) {
+            throw new TransactionServiceException(Status.JOB_NOT_FOUND);
+        }
+
+        return job;
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * Writes one batch on a writer thread. Invalid items and items repeated in the batch are recorded per item,
+     * the rest are posted chunk by chunk so progress is visible while the job runs.
+     * If the job is aborted, every item it did not get to is reported as failed, so the counts still add up.
+     * @param job the job to update
+     * @param requests the queued batch
+     */
+    void run(IngestJob job, List<PostTransRequest> requests) {
+        job.markRunning();
+
+        int next = 0;
+        List<Transaction> chunk = new ArrayList<>();
+        List<Integer> chunkIndexes = new ArrayList<>();
+        try {
+            int chunkSize = this.transactionService.getBatchChunkSize();
+            Set<String> namesInJob = new HashSet<>();
+
+            for (; next < requests.size(); next++) {
+                PostTransRequest request = requests.get(next);
+
+                ServiceResult<Transaction> result;
+                try {
+                    result = this.transactionService.validateTransaction(request);
+                } catch (RuntimeException exception) {
+                    log.warn("Ingestion job {} failed to validate item {}", job.getId(), next, exception);
+                    job.addFailed(new RejectedItemResponse(next, request.getTransactionName(),
+                            ITEM_FAILED_CODE, exception.getMessage()));
+                    continue;
+                }
+                if (!result.isOk()) {
+                    job.addRejected(new RejectedItemResponse(next, request.getTransactionName(), result.getStatus()));
+                    continue;
+                }
+                Transaction transaction = result.getValue();
+
+                if (!namesInJob.add(transaction.scopedName())) {
+                    job.addDuplicateInBatch();
+                    continue;
+                }
+
+                chunk.add(transaction);
+                chunkIndexes.add(next);
+                if (chunk.size() == chunkSize) {
+                    flushChunk(job, chunk, chunkIndexes);
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                flushChunk(job, chunk, chunkIndexes);
+            }
+            job.markCompleted();
+        } catch (RuntimeException | Error exception) {
+            log.error("Ingestion job {} aborted after {} of {} transactions", job.getId(), job.getProcessedCount(),
+                    requests.size(), exception);
+            failUnprocessed(job, requests, chunk, chunkIndexes, next, exception);
+            job.markFailed();
+            if (exception instanceof Error) {
+                throw (Error) exception;
+            }
+        } finally {
+            retire(job);
+        }
+    }
+
+    /**
+     * Posts one chunk and records its outcome. A failed chunk is rolled back and every item in it is reported.
+     * The chunk is only cleared once its items are counted, so an abort while posting still finds them.
+     */
+    private void flushChunk(IngestJob job, List<Transaction> chunk, List<Integer> chunkIndexes) {
+        try {
+            job.addChunk(this.transactionService.postChunk(chunk), chunk.size());
+        } catch (RuntimeException exception) {
+            log.warn("Ingestion job {} failed to write a chunk of {} transactions", job.getId(), chunk.size(), exception);
+            for (int i = 0; i < chunk.size(); i++) {
+                job.addFailed(new RejectedItemResponse(chunkIndexes.get(i), chunk.get(i).getTransactionName(),
+                        ITEM_FAILED_CODE, exception.getMessage()));
+            }
+        }
+        chunk.clear();
+        chunkIndexes.clear();
+    }
+
+    /**
+     * Reports the items of an aborted job that were not counted yet: the pending chunk, then every item after it.
+     * @param next index of the item being handled when the job was aborted
+     */
+    private void failUnprocessed(IngestJob job, List<PostTransRequest> requests, List<Transaction> chunk,
+                                 List<Integer> chunkIndexes, int next, Throwable exception) {
+        for (int i = 0; i < chunk.size(); i++) {
+            job.addFailed(new RejectedItemResponse(chunkIndexes.get(i), chunk.get(i).getTransactionName(),
+                    ITEM_FAILED_CODE, exception.getMessage()));
+        }
+
+        int from = chunkIndexes.isEmpty() ? next : Math.max(next, chunkIndexes.get(chunkIndexes.size() - 1) + 1);
+        for (int i = from; i < requests.size(); i++) {
+            job.addFailed(new RejectedItemResponse(i, requests.get(i).getTransactionName(),
+                    ITEM_FAILED_CODE, exception.getMessage()));
+        }
+    }
+
+    /**
+     * Keeps only the most recently finished jobs around for status requests.
+     */
+    private void retire(IngestJob job) {
+        this.finishedJobIds.add(job.getId());
+        if (this.finishedJobCount.incrementAndGet() > this.retainedJobs) {
+            String expiredId = this.finishedJobIds.poll();
+            if (expiredId != null) {
+                this.jobs.remove(expiredId);
+                this.finishedJobCount.decrementAndGet();
+            }
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,75 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import com.xiaoqigao.creditcardrewards.util.MerchantDictionary;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Turns merchant codes into the small integer ids that transactions are stored and summed by.
+ * Codes only exist at the API edge: requests are resolved here once, and everything after works on ids.
+ *
+ * Lookups read an immutable {@link MerchantDictionary} without locking. The dictionary holds the partner merchants
+ * of the `merchant` table: the reward merchants, the codes listed in `transaction.merchants.partners`, which are
+ * registered at startup, and rows added by operators. It is reloaded from the store every
+ * `transaction.merchants.reload-interval-ms`, which picks up partners added by other nodes.
+ *
+ * Codes come from clients, so a code that is not a partner is never registered: it is stored as
+ * {@link MerchantCode#OTHER_ID}, which is all the reward rules can tell apart.
+ */
+@Slf4j
+@Component
+public class MerchantRegistry {
+
+    /** Dependency Injection */
+    @Autowired
+    TransactionStore transactionStore;
+
+    /** comma-separated partner merchant codes to register at startup */
+    @Value("${transaction.merchants.partners:}")
+    String partners;
+
+    private volatile MerchantDictionary dictionary = MerchantDictionary.of(List.of());
+
+    /**
+     * Registers the configured partners and loads every partner merchant once the schema is migrated.
+     * Until then every code misses the dictionary and is stored as other.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        for (String partner : this.partners.split(",")) {
+            if (!partner.isBlank()) {
+                this.transactionStore.registerMerchant(partner.trim());
+            }
+        }
+        reload();
+        log.info("Merchant registry loaded {} merchants", this.dictionary.size());
+    }
+
+    /**
+     * Rebuilds the dictionary from the store
+     */
+    @Scheduled(initialDelayString = "${transaction.merchants.reload-interval-ms:60000}",
+            fixedDelayString = "${transaction.merchants.reload-interval-ms:60000}")
+    public void reload() {
+        this.dictionary = MerchantDictionary.of(this.transactionStore.selectMerchants());
+    }
+
+    /**
+     * Get the id of a merchant code without touching the store
+     * @param merchantCode a merchant code, not null
+     * @return the partner's id in the `merchant` table, or {@link MerchantCode#OTHER_ID} for any other code
+     */
+    public int idOf(String merchantCode) {
+        int id = this.dictionary.idOf(merchantCode);
+        return id != MerchantDictionary.UNKNOWN ? id : MerchantCode.OTHER_ID;
+    }
+}
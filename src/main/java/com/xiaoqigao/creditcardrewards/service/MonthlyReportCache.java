@@ -0,0 +1,326 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineStatsCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-process cache of monthly reports as the bytes sent to clients, one entry per account, month and
+ * encoding holding the report of the month's latest entity tag seen, so a hit is written out without building,
+ * serializing or decompressing anything. An entry is only served for the tag it was built for, and replaced once
+ * the tag moves on.
+ * For clients that accept gzip, reports of at least `gzip-min-bytes` are kept gzip-compressed, compressed as they are
+ * written; clients that do not get an entry of plain JSON of their own. A report larger than `max-report-bytes`
+ * is spooled to a temporary file instead of being held, and sent to the response once it is complete.
+ * While the cache is disabled, reports are built the same way and never kept.
+ * Entries are evicted by their total bytes and age,
+ * and a month's entries are dropped once a transaction inserted into it commits.
+ * Months found to have no transactions are remembered separately, so probes of empty or future months skip the
+ * store until a transaction is inserted into them.
+ * Hits, misses, evictions and load times are under the `cache.*` metrics tagged `cache=monthly_reports`
+ * and `cache=empty_months`, and the bytes held under `transaction.report_cache.bytes`.
+ */
+@Component
+public class MonthlyReportCache {
+
+    /**
+     * Writes a report as JSON on a cache miss and returns the entity tag of the rows it was written from,
+     * which may be newer than the tag it was asked for, or null if it cannot tell
+     */
+    @FunctionalInterface
+    public interface ReportWriter {
+        String write(JsonGenerator generator) throws TransactionServiceException, IOException;
+    }
+
+    /**
+     * Opens the response a report too large to hold is streamed to, with the headers of its encoding
+     */
+    @FunctionalInterface
+    public interface ReportSink {
+        OutputStream open(boolean gzipped) throws IOException;
+    }
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+
+    /** smallest JSON kept compressed, or -1 to never compress */
+    private final int gzipMinBytes;
+
+    /** largest report held in memory to be cached, larger ones are spooled to a temporary file */
+    private final long maxReportBytes;
+
+    private final Cache<ReportKey, EncodedReport> reports;
+
+    private final CaffeineStatsCounter statsCounter;
+
+    private final Cache<AccountMonth, Boolean> emptyMonths;
+
+    /** bumped by every invalidation, so a month read as empty before an insert committed is not remembered */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Autowired
+    public MonthlyReportCache(MeterRegistry meterRegistry, ObjectMapper objectMapper,
+                              @Value("${transaction.reports.cache.enabled:true}") boolean enabled,
+                              @Value("${transaction.reports.cache.max-bytes:67108864}") long maxBytes,
+                              @Value("${transaction.reports.cache.ttl-minutes:10}") long ttlMinutes,
+                              @Value("${transaction.reports.cache.gzip-min-bytes:2048}") int gzipMinBytes,
+                              @Value("${transaction.reports.cache.max-report-bytes:1048576}") long maxReportBytes,
+                              @Value("${transaction.reports.cache.empty-months:100000}") long maxEmptyMonths,
+                              @Value("${transaction.reports.cache.empty-ttl-seconds:60}") long emptyTtlSeconds) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.gzipMinBytes = gzipMinBytes;
+        // an entry heavier than the whole cache would be evicted as soon as it is put
+        this.maxReportBytes = Math.min(maxReportBytes, maxBytes);
+        // hits and misses depend on the tag, so they are recorded here rather than by the cache's own lookups
+        this.statsCounter = new CaffeineStatsCounter(meterRegistry, "monthly_reports");
+        this.reports = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((ReportKey key, EncodedReport report) -> report.getBody().length)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats(() -> this.statsCounter)
+                .build();
+        this.statsCounter.registerSizeMetric(this.reports);
+        Gauge.builder("transaction.report_cache.bytes", this, MonthlyReportCache::weightedBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        // inserts made on other nodes are not seen here, so known-empty months are only trusted for a short time
+        CaffeineStatsCounter emptyStatsCounter = new CaffeineStatsCounter(meterRegistry, "empty_months");
+        this.emptyMonths = Caffeine.newBuilder()
+                .maximumSize(maxEmptyMonths)
+                .expireAfterWrite(Duration.ofSeconds(emptyTtlSeconds))
+                .recordStats(() -> emptyStatsCounter)
+                .build();
+        emptyStatsCounter.registerSizeMetric(this.emptyMonths);
+    }
+
+    /**
+     * Get a month's encoded report, writing it on a miss or when the cached one was built for another tag.
+     * A written report is cached under the tag the writer returns, so a report that already includes an insert
+     * made after the requested tag was read is served for the newer tag only.
+     * A report that would pass max-report-bytes is spooled and sent to the sink once complete, and not kept;
+     * nothing is kept while the cache is disabled.
+     * Concurrent requests for the same report are collapsed by ReportRequestCoalescer before they get here;
+     * a computation that throws caches nothing.
+     * @param accountId
+     * @param postMonth month packed as yyyyMM
+     * @param eTag the month's current entity tag; a report without one is built every time
+     * @param gzipAccepted whether the client accepts a gzip-compressed report
+     * @param sink opens the response of this request
+     * @param writer writes the report from the store
+     * @return the report, or null if it was sent to the sink
+     */
+    public EncodedReport get(long accountId, int postMonth, String eTag, boolean gzipAccepted, ReportSink sink,
+                             ReportWriter writer) throws TransactionServiceException {
+        if (!this.enabled || eTag == null) {
+            return encode(gzipAccepted, this.maxReportBytes, sink, writer);
+        }
+
+        ReportKey key = new ReportKey(new AccountMonth(accountId, postMonth), gzipAccepted);
+        EncodedReport cached = this.reports.asMap().get(key);
+        if (cached != null && eTag.equals(cached.getETag())) {
+            this.statsCounter.recordHits(1);
+            return cached;
+        }
+        this.statsCounter.recordMisses(1);
+
+        long start = System.nanoTime();
+        EncodedReport report;
+        try {
+            report = encode(gzipAccepted, this.maxReportBytes, sink, writer);
+        } catch (TransactionServiceException | RuntimeException e) {
+            this.statsCounter.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+        this.statsCounter.recordLoadSuccess(System.nanoTime() - start);
+        if (report == null || report.getETag() == null) {
+            return report;
+        }
+
+        // a report read from an older snapshot may replace a newer one here, the next request then rebuilds it
+        this.reports.put(key, report);
+        return report;
+    }
+
+    /**
+     * Check whether a month was recently found to have no transactions
+     * @param accountId
+     * @param postMonth month packed as yyyyMM
+     */
+    public boolean isKnownEmpty(long accountId, int postMonth) {
+        return this.enabled && this.emptyMonths.getIfPresent(new AccountMonth(accountId, postMonth)) != null;
+    }
+
+    /**
+     * Get the number of invalidations so far, read before looking a month up in the store
+     */
+    public long getInvalidationCount() {
+        return this.invalidations.get();
+    }
+
+    /**
+     * Remember that a month has no transactions, unless an insert was committed since the store was read
+     * @param accountId
+     * @param postMonth month packed as yyyyMM
+     * @param invalidationCount getInvalidationCount() from before the store was read
+     */
+    public void recordEmpty(long accountId, int postMonth, long invalidationCount) {
+        if (!this.enabled) {
+            return;
+        }
+
+        AccountMonth month = new AccountMonth(accountId, postMonth);
+        this.emptyMonths.put(month, Boolean.TRUE);
+        // an invalidation that ran before the put could not remove it, so undo the put
+        if (this.invalidations.get() != invalidationCount) {
+            this.emptyMonths.invalidate(month);
+        }
+    }
+
+    /**
+     * Drop the reports of the months the given transactions were inserted into, once the surrounding database
+     * transaction commits, or at once outside of one.
+     * The insert already changed the month's tag, so this only frees the superseded entries early.
+     * @param transactions inserted transactions
+     */
+    public void invalidateAfterCommit(Collection<Transaction> transactions) {
+        if (!this.enabled || transactions.isEmpty()) {
+            return;
+        }
+
+        Set<AccountMonth> months = new HashSet<>();
+        for (Transaction transaction : transactions) {
+            months.add(new AccountMonth(transaction.getAccountId(), transaction.getPostDate() / 100));
+        }
+        invalidateAfterCommit(months);
+    }
+
+    /**
+     * Drop one account's month once the surrounding database transaction commits, e.g. after its rollup was rebuilt
+     * @param accountId
+     * @param postMonth month packed as yyyyMM
+     */
+    public void invalidateAfterCommit(long accountId, int postMonth) {
+        if (this.enabled) {
+            invalidateAfterCommit(Set.of(new AccountMonth(accountId, postMonth)));
+        }
+    }
+
+    /**
+     * Drop every report, e.g. after the tables were changed outside the application
+     */
+    public void invalidateAll() {
+        this.invalidations.incrementAndGet();
+        this.emptyMonths.invalidateAll();
+        this.reports.invalidateAll();
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * Bytes held by the cached reports, as counted against max-bytes
+     */
+    long weightedBytes() {
+        return this.reports.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+
+    /**
+     * Run pending evictions now instead of on the next access
+     */
+    void cleanUp() {
+        this.reports.cleanUp();
+    }
+
+    /**
+     * Write a report as JSON, compressed as it is written if the client accepts it and it is large enough to be
+     * worth it, holding at most holdBytes of it before spooling the rest to a temporary file. A spooled report is
+     * sent to the sink only once the writer returned, so a slow client holds no database connection.
+     * @return the held report with the tag the writer returned, or null if it was sent to the sink
+     */
+    private EncodedReport encode(boolean gzipAccepted, long holdBytes, ReportSink sink, ReportWriter writer)
+            throws TransactionServiceException {
+        ReportOutputStream output = new ReportOutputStream(gzipAccepted ? this.gzipMinBytes : -1, holdBytes);
+        String eTag;
+        try {
+            try {
+                JsonGenerator generator = this.objectMapper.createGenerator(output);
+                eTag = writer.write(generator);
+                // only closed once written, so a report that failed sends nothing to the response
+                generator.close();
+                output.close();
+            } catch (TransactionServiceException | IOException | RuntimeException | Error e) {
+                output.discard();
+                throw e;
+            }
+
+            if (output.isSpooled()) {
+                output.sendTo(sink);
+                return null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new EncodedReport(eTag, output.toByteArray(), output.isGzipped());
+    }
+
+    private void invalidateAfterCommit(Set<AccountMonth> months) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(months);
+                }
+            });
+        } else {
+            invalidate(months);
+        }
+    }
+
+    private void invalidate(Set<AccountMonth> months) {
+        this.invalidations.incrementAndGet();
+        this.emptyMonths.invalidateAll(months);
+        for (AccountMonth month : months) {
+            this.reports.invalidate(new ReportKey(month, false));
+            this.reports.invalidate(new ReportKey(month, true));
+        }
+    }
+
+    @lombok.Value
+    private static class AccountMonth {
+        long accountId;
+        int postMonth;
+    }
+
+    @lombok.Value
+    private static class ReportKey {
+        AccountMonth month;
+        boolean gzipAccepted;
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,172 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The output a monthly report is serialized to. The JSON is held in memory so the report can be cached,
+ * gzip-compressed as it is written once it reaches the gzip threshold, and spooled to a temporary file
+ * once the bytes held would pass the hold limit, after which nothing more is held. A spooled report is only sent
+ * to the response by sendTo, once it is complete, so a slow client never holds up the reads it is written from.
+ * Only the plain head written before the gzip decision is ever copied.
+ */
+class ReportOutputStream extends OutputStream {
+
+    private final int gzipMinBytes;
+
+    private final long holdBytes;
+
+    /** plain JSON written before it is known whether to compress */
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+
+    /** the body as it is sent, until it is streamed */
+    private final ByteArrayOutputStream held = new ByteArrayOutputStream();
+
+    /** where writes go once the encoding is decided: the body, or a gzip stream over it */
+    private OutputStream encoder;
+
+    private boolean gzipped;
+
+    /** the temporary file, once the body is spooled to it */
+    private Path spool;
+
+    private OutputStream spooled;
+
+    private boolean closed;
+
+    /**
+     * @param gzipMinBytes smallest JSON to compress, or -1 to never compress
+     * @param holdBytes most bytes held before the body is spooled to a temporary file instead
+     */
+    ReportOutputStream(int gzipMinBytes, long holdBytes) {
+        this.gzipMinBytes = gzipMinBytes;
+        this.holdBytes = holdBytes;
+        if (gzipMinBytes < 0) {
+            this.encoder = new Body();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (this.encoder != null) {
+            this.encoder.write(bytes, offset, length);
+            return;
+        }
+
+        this.head.write(bytes, offset, length);
+        if (this.head.size() >= this.gzipMinBytes) {
+            this.gzipped = true;
+            this.encoder = new GZIPOutputStream(new Body());
+            this.head.writeTo(this.encoder);
+        }
+    }
+
+    /**
+     * Finish the body: a report that stayed under the gzip threshold is kept plain
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        if (this.encoder == null) {
+            this.encoder = new Body();
+            this.head.writeTo(this.encoder);
+        }
+        this.encoder.close();
+    }
+
+    /**
+     * Check whether the body was spooled to a temporary file instead of held
+     */
+    boolean isSpooled() {
+        return this.spool != null;
+    }
+
+    /**
+     * Send a spooled body to the response once closed, then delete its file
+     * @param sink opens the response
+     */
+    void sendTo(MonthlyReportCache.ReportSink sink) throws IOException {
+        try {
+            OutputStream response = sink.open(this.gzipped);
+            Files.copy(this.spool, response);
+            response.flush();
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * Delete the temporary file of a spooled body, e.g. of a report that failed
+     */
+    void discard() throws IOException {
+        if (this.spooled != null) {
+            this.spooled.close();
+        }
+        if (this.spool != null) {
+            Files.deleteIfExists(this.spool);
+        }
+    }
+
+    boolean isGzipped() {
+        return this.gzipped;
+    }
+
+    /**
+     * Get the held body, once closed and not spooled
+     */
+    byte[] toByteArray() {
+        return this.held.toByteArray();
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * The encoded body, held until it would pass the hold limit and then spooled
+     */
+    private final class Body extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (spool == null && held.size() + (long) length > holdBytes) {
+                spool = Files.createTempFile("monthly-report-", gzipped ? ".json.gz" : ".json");
+                spooled = new BufferedOutputStream(Files.newOutputStream(spool));
+                held.writeTo(spooled);
+                held.reset();
+            }
+
+            if (spooled != null) {
+                spooled.write(bytes, offset, length);
+            } else {
+                held.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spooled != null) {
+                spooled.close();
+            }
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,149 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collapses concurrent requests for the same report into one computation.
+ * The first request for an account, month and tag computes the report; requests arriving while it runs wait for it
+ * and get the same result, or the same failure. A report streamed to the first request's response is not shared,
+ * so each waiting request then computes its own. Nothing is kept once it completes, so this works with or without
+ * the report cache, and is switched on and off separately with `transaction.reports.coalescing.enabled`.
+ * Each request is counted once under `transaction.report_requests`: `result=collapsed` when it got the result or
+ * failure of a computation it joined, otherwise `result=computed`, including a request that waited for a report
+ * that was then streamed.
+ */
+@Component
+public class ReportRequestCoalescer {
+
+    /**
+     * Produces a report for the first of the concurrent requests, or null once it was streamed to the response
+     */
+    @FunctionalInterface
+    public interface ReportCall {
+        EncodedReport call() throws TransactionServiceException;
+    }
+
+    private final boolean enabled;
+
+    private final ConcurrentHashMap<ReportKey, CompletableFuture<EncodedReport>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter computedCounter;
+    private final Counter collapsedCounter;
+
+    @Autowired
+    public ReportRequestCoalescer(MeterRegistry meterRegistry,
+                                  @Value("${transaction.reports.coalescing.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        this.computedCounter = requestCounter(meterRegistry, "computed");
+        this.collapsedCounter = requestCounter(meterRegistry, "collapsed");
+        Gauge.builder("transaction.report_requests.in_flight", this.inFlight, ConcurrentHashMap::size)
+                .description("reports being computed for one or more waiting requests")
+                .register(meterRegistry);
+        Gauge.builder("transaction.report_requests.waiting", this.inFlight, ReportRequestCoalescer::waiting)
+                .description("requests waiting for a report computed for another request")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Get a report, joining a computation of the same report already in flight
+     * @param accountId
+     * @param postMonth month packed as yyyyMM
+     * @param eTag the month's entity tag, so a request never joins a computation of an older version
+     * @param gzipAccepted whether the client accepts gzip, so a request only joins one for the same encoding
+     * @param call computes the report when none is in flight, or when the one in flight was streamed
+     * @return the report, or null if this request's call streamed it
+     */
+    public EncodedReport get(long accountId, int postMonth, String eTag, boolean gzipAccepted, ReportCall call)
+            throws TransactionServiceException {
+        if (!this.enabled) {
+            return call.call();
+        }
+
+        ReportKey key = new ReportKey(accountId, postMonth, eTag, gzipAccepted);
+        CompletableFuture<EncodedReport> own = new CompletableFuture<>();
+        CompletableFuture<EncodedReport> running = this.inFlight.putIfAbsent(key, own);
+        if (running != null) {
+            EncodedReport report;
+            try {
+                report = await(running);
+            } catch (TransactionServiceException | RuntimeException | Error e) {
+                this.collapsedCounter.increment();
+                throw e;
+            }
+            if (report != null) {
+                this.collapsedCounter.increment();
+                return report;
+            }
+        }
+
+        this.computedCounter.increment();
+        try {
+            EncodedReport report = call.call();
+            own.complete(report);
+            return report;
+        } catch (TransactionServiceException | RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, own);
+        }
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * Wait for the first request's computation and pass on its result or failure as it was raised
+     */
+    private static EncodedReport await(CompletableFuture<EncodedReport> running) throws TransactionServiceException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransactionServiceException) {
+                throw (TransactionServiceException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static int waiting(ConcurrentHashMap<ReportKey, CompletableFuture<EncodedReport>> inFlight) {
+        int waiting = 0;
+        for (CompletableFuture<EncodedReport> running : inFlight.values()) {
+            waiting += running.getNumberOfDependents();
+        }
+        return waiting;
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("transaction.report_requests")
+                .description("monthly report requests, computed or collapsed into a computation in flight")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @lombok.Value
+    private static class ReportKey {
+        long accountId;
+        int postMonth;
+        String eTag;
+        boolean gzipAccepted;
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,153 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.RewardRule;
+import com.xiaoqigao.creditcardrewards.util.CompiledRuleSet;
+import com.xiaoqigao.creditcardrewards.util.DateCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The versions of the reward rules, each compiled once at startup and kept by the month it takes effect.
+ * Rule sets are properties files found at `transaction.rewards.rule-sets`:
+ * <pre>
+ * effective-from=2021-06
+ * points-per-leftover-dollar=1
+ * rule.1.points=500
+ * rule.1.dollars=sportcheck:75,tim_hortons:25,subway:25
+ * </pre>
+ * A month uses the rule set with the latest effective-from not after it.
+ */
+@Slf4j
+@Component
+public class RewardRuleCatalog {
+
+    private static final Pattern RULE_KEY = Pattern.compile("rule\\.(\\d+)\\.points");
+
+    @Value("${transaction.rewards.rule-sets:classpath*:rewards/*.properties}")
+    String locations;
+
+    /** compiled rule sets by effective month (yyyyMM); replaced as a whole */
+    private volatile NavigableMap<Integer, CompiledRuleSet> ruleSets = Collections.emptyNavigableMap();
+
+    /**
+     * Loads and compiles every rule set
+     */
+    @PostConstruct
+    public void load() throws IOException {
+        NavigableMap<Integer, CompiledRuleSet> loaded = new TreeMap<>();
+
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(this.locations)) {
+            Properties properties = new Properties();
+            try (InputStream input = resource.getInputStream()) {
+                properties.load(input);
+            }
+            CompiledRuleSet ruleSet = compile(resource.getFilename(), properties);
+            if (loaded.put(ruleSet.getEffectiveMonth(), ruleSet) != null) {
+                throw new IllegalStateException("Two reward rule sets take effect in " + ruleSet.getEffectiveMonth());
+            }
+            log.info("Compiled reward rule set {} effective from {} with {} rules",
+                    resource.getFilename(), ruleSet.getEffectiveMonth(), ruleSet.getRules().size());
+        }
+        if (loaded.isEmpty()) {
+            throw new IllegalStateException("No reward rule sets found at " + this.locations);
+        }
+
+        this.ruleSets = Collections.unmodifiableNavigableMap(loaded);
+    }
+
+    /**
+     * Get the compiled rules in effect in a month
+     * @param postMonth yyyyMM
+     */
+    public CompiledRuleSet forMonth(int postMonth) throws TransactionServiceException {
+        Map.Entry<Integer, CompiledRuleSet> entry = this.ruleSets.floorEntry(postMonth);
+        if (entry == null) {
+            throw new TransactionServiceException(Status.NO_REWARD_RULES_IN_EFFECT);
+        }
+        return entry.getValue();
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * Parses and compiles one rule set file
+     * @param name the file name, for error messages
+     * @param properties the file's content
+     */
+    public static CompiledRuleSet compile(String name, Properties properties) {
+        int firstDay = DateCodec.parse(properties.getProperty("effective-from", "") + "-01");
+        if (firstDay == DateCodec.INVALID) {
+            throw new IllegalStateException(name + ": effective-from must be a month like 2021-06");
+        }
+        int pointsPerLeftoverDollar = parseInt(name, properties, "points-per-leftover-dollar");
+
+        List<RewardRule> rules = new ArrayList<>();
+        List<String> trackedMerchants = MerchantCode.REWARD_MERCHANTS;
+        for (String key : properties.stringPropertyNames()) {
+            Matcher matcher = RULE_KEY.matcher(key);
+            if (!matcher.matches()) {
+                continue;
+            }
+            int ruleNumber = Integer.parseInt(matcher.group(1));
+            RewardRule.RewardRuleBuilder rule = RewardRule.builder()
+                    .ruleNumber(ruleNumber)
+                    .points(parseInt(name, properties, key));
+
+            String dollars = properties.getProperty("rule." + ruleNumber + ".dollars", "");
+            for (String part : dollars.split(",")) {
+                String[] merchantAndDollars = part.trim().split(":");
+                if (merchantAndDollars.length != 2) {
+                    throw new IllegalStateException(name + ": rule " + ruleNumber + " dollars must look like sportcheck:75,subway:25");
+                }
+                String merchant = merchantAndDollars[0].trim();
+                // the monthly rollup only keeps separate totals for these merchants
+                if (!trackedMerchants.contains(merchant)) {
+                    throw new IllegalStateException(name + ": rule " + ruleNumber + " names " + merchant
+                            + ", which is not one of the reward merchants " + trackedMerchants);
+                }
+                rule.dollars(merchant, parseInt(name, merchantAndDollars[1].trim(), "rule." + ruleNumber + ".dollars"));
+            }
+            rules.add(rule.build());
+        }
+        rules.sort((a, b) -> Integer.compare(a.getRuleNumber(), b.getRuleNumber()));
+
+        try {
+            return new CompiledRuleSet(firstDay / 100, rules, pointsPerLeftoverDollar);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException(name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static int parseInt(String name, Properties properties, String key) {
+        return parseInt(name, properties.getProperty(key), key);
+    }
+
+    private static int parseInt(String name, String value, String key) {
+        try {
+            return Integer.parseInt(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(name + ": " + key + " must be a whole number: " + value);
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,25 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import lombok.Value;
+
+/**
+ * One (month, account, merchant) whose rollup row disagrees with the raw `transaction` table
+ */
+@Value
+public class RollupMismatch {
+
+    /** posting month packed as yyyyMM */
+    int postMonth;
+
+    long accountId;
+
+    int merchantId;
+
+    /** totals summed from the raw table */
+    long expectedAmountCents;
+    int expectedCount;
+
+    /** totals held by the rollup, zero when the row is missing */
+    long actualAmountCents;
+    int actualCount;
+}
@@ -0,0 +1,158 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Checks the monthly rollup against the stored transactions and rebuilds months that drifted,
+ * e.g. after rows were edited or deleted by hand.
+ */
+@Slf4j
+@Service
+public class RollupReconciler {
+
+    /** rollup rows in key order: month, then account, then merchant */
+    private static final Comparator<MonthlyMerchantTotal> KEY_ORDER = Comparator
+            .comparingInt(MonthlyMerchantTotal::getPostMonth)
+            .thenComparingLong(MonthlyMerchantTotal::getAccountId)
+            .thenComparingInt(MonthlyMerchantTotal::getMerchantId);
+
+    /** Dependency Injection */
+    @Autowired
+    TransactionStore transactionStore;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    MonthlyReportCache monthlyReportCache;
+
+    /** whether the scheduled run rebuilds the months it finds wrong, or only reports them */
+    @Value("${transaction.rollup.reconcile-repair:true}")
+    boolean repairOnSchedule;
+
+    /**
+     * Compare every rollup row with the same totals summed from the raw table, one month at a time
+     * @return rows that disagree, in key order
+     */
+    public List<RollupMismatch> verify() {
+        List<RollupMismatch> mismatches = new ArrayList<>();
+        for (int postMonth : this.transactionStore.selectMonths()) {
+            mismatches.addAll(verifyMonth(postMonth));
+        }
+        return mismatches;
+    }
+
+    /**
+     * Compare one month's rollup rows with the same totals summed from the raw table.
+     * Both are read in one transaction, so they come from the same snapshot even while transactions are posted.
+     * @param postMonth month packed as yyyyMM
+     * @return rows that disagree, in key order
+     */
+    public List<RollupMismatch> verifyMonth(int postMonth) {
+        return this.transactionTemplate.execute(status -> {
+            Map<MonthlyMerchantTotal, MonthlyMerchantTotal> expected = byKey(this.transactionStore.sumTransactionsByMonth(postMonth));
+            Map<MonthlyMerchantTotal, MonthlyMerchantTotal> actual = byKey(this.transactionStore.selectAllMonthlyTotals(postMonth));
+
+            TreeSet<MonthlyMerchantTotal> keys = new TreeSet<>(KEY_ORDER);
+            keys.addAll(expected.keySet());
+            keys.addAll(actual.keySet());
+
+            List<RollupMismatch> mismatches = new ArrayList<>();
+            for (MonthlyMerchantTotal key : keys) {
+                MonthlyMerchantTotal raw = expected.get(key);
+                MonthlyMerchantTotal rollup = actual.get(key);
+                long expectedAmount = raw == null ? 0 : raw.getAmountCents();
+                int expectedCount = raw == null ? 0 : raw.getTransactionCount();
+                long actualAmount = rollup == null ? 0 : rollup.getAmountCents();
+                int actualCount = rollup == null ? 0 : rollup.getTransactionCount();
+
+                if (expectedAmount != actualAmount || expectedCount != actualCount) {
+                    mismatches.add(new RollupMismatch(key.getPostMonth(), key.getAccountId(), key.getMerchantId(),
+                            expectedAmount, expectedCount, actualAmount, actualCount));
+                }
+            }
+            return mismatches;
+        });
+    }
+
+    /**
+     * Rebuild one account's month of the rollup from the raw table, in one database transaction
+     * @param accountId
+     * @param postMonth month packed as yyyyMM
+     */
+    public void rebuildMonth(long accountId, int postMonth) {
+        this.transactionTemplate.executeWithoutResult(status -> {
+            this.transactionStore.rebuildMonthlyTotals(accountId, postMonth);
+            // the cached report was computed from the rows that drifted
+            this.monthlyReportCache.invalidateAfterCommit(accountId, postMonth);
+        });
+    }
+
+    /**
+     * Verify the rollup month by month and optionally rebuild every account's month that has a mismatch
+     * before moving on to the next month
+     * @param repair rebuild the months found wrong
+     * @return mismatches found before any repair
+     */
+    public List<RollupMismatch> reconcile(boolean repair) {
+        List<RollupMismatch> mismatches = new ArrayList<>();
+        for (int postMonth : this.transactionStore.selectMonths()) {
+            List<RollupMismatch> monthMismatches = verifyMonth(postMonth);
+
+            if (repair) {
+                long previousAccountId = -1;
+                for (RollupMismatch mismatch : monthMismatches) {
+                    // mismatches come in key order, so the rows of one account are next to each other
+                    if (mismatch.getAccountId() != previousAccountId) {
+                        rebuildMonth(mismatch.getAccountId(), postMonth);
+                    }
+                    previousAccountId = mismatch.getAccountId();
+                }
+            }
+            mismatches.addAll(monthMismatches);
+        }
+
+        return mismatches;
+    }
+
+    /**
+     * Nightly reconciliation; set `transaction.rollup.reconcile-cron` to `-` to turn it off
+     */
+    @Scheduled(cron = "${transaction.rollup.reconcile-cron:0 30 3 * * *}")
+    public void reconcileOnSchedule() {
+        List<RollupMismatch> mismatches = reconcile(repairOnSchedule);
+
+        if (mismatches.isEmpty()) {
+            log.info("Monthly rollup matches the transaction table");
+        } else {
+            log.warn("Monthly rollup had {} mismatched rows{}: {}", mismatches.size(),
+                    repairOnSchedule ? ", rebuilt their months" : "", mismatches);
+        }
+    }
+
+    /** ================================== start of helper ================================== */
+
+    private static Map<MonthlyMerchantTotal, MonthlyMerchantTotal> byKey(List<MonthlyMerchantTotal> totals) {
+        Map<MonthlyMerchantTotal, MonthlyMerchantTotal> result = new TreeMap<>(KEY_ORDER);
+        for (MonthlyMerchantTotal total : totals) {
+            result.put(total, total);
+        }
+        return result;
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,45 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * The outcome of a service call that can fail for an expected reason, e.g. an invalid record or an empty month.
+ * Callers that handle the failure themselves read the status; only callers at the edge turn it into an exception.
+ * @param <T> type of the value
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ServiceResult<T> {
+
+    /** the value, null on failure */
+    T value;
+
+    /** OK, or the reason of the failure */
+    Status status;
+
+    public static <T> ServiceResult<T> ok(T value) {
+        return new ServiceResult<>(value, Status.OK);
+    }
+
+    public static <T> ServiceResult<T> failure(Status status) {
+        return new ServiceResult<>(null, status);
+    }
+
+    public boolean isOk() {
+        return this.status == Status.OK;
+    }
+
+    /**
+     * Get the value, or throw the failure
+     */
+    public T orElseThrow() throws TransactionServiceException {
+        if (!isOk()) {
+            throw new TransactionServiceException(this.status);
+        }
+        return this.value;
+    }
+}
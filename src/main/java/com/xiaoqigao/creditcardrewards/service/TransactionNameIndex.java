@@ -0,0 +1,259 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xiaoqigao.creditcardrewards.enums.NameMembership;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import com.xiaoqigao.creditcardrewards.util.BloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory index of posted transaction names that sits in front of the uniqueness lookups.
+ * A Bloom filter over every name in the `transaction` table answers "definitely new" without a query,
+ * and a bounded exact set of recently inserted names answers "definitely posted".
+ * Everything else still goes to the database, and the unique key on (account_id, transaction_name) remains the final guard.
+ * Names are unique per account, so the index holds them scoped by their account (see Transaction#scopedName).
+ */
+@Slf4j
+@Component
+public class TransactionNameIndex {
+
+    private final TransactionStore transactionStore;
+    private final boolean enabled;
+    private final long expectedNames;
+    private final double falsePositiveRate;
+
+    /** scoped names committed recently, exact */
+    private final Cache<String, Boolean> recentNames;
+
+    /** every scoped name in the table, approximate; replaced as a whole on rebuild */
+    private volatile BloomFilter filter;
+
+    /** the filter being filled to replace it, which also receives inserts until it does */
+    private volatile BloomFilter filling;
+
+    /** false until the filter has seen every name in the table */
+    private volatile boolean ready;
+
+    private final Counter newCounter;
+    private final Counter postedCounter;
+    private final Counter maybeCounter;
+    private final Counter unknownCounter;
+    private final Counter falsePositiveCounter;
+
+    @Autowired
+    public TransactionNameIndex(TransactionStore transactionStore,
+                                MeterRegistry meterRegistry,
+                                @Value("${transaction.name-index.enabled:true}") boolean enabled,
+                                @Value("${transaction.name-index.expected-names:1000000}") long expectedNames,
+                                @Value("${transaction.name-index.false-positive-rate:0.01}") double falsePositiveRate,
+                                @Value("${transaction.name-index.recent-names:100000}") long recentNames) {
+        this.transactionStore = transactionStore;
+        this.enabled = enabled;
+        this.expectedNames = expectedNames;
+        this.falsePositiveRate = falsePositiveRate;
+        this.recentNames = Caffeine.newBuilder().maximumSize(recentNames).build();
+
+        this.newCounter = lookupCounter(meterRegistry, "new");
+        this.postedCounter = lookupCounter(meterRegistry, "posted");
+        this.maybeCounter = lookupCounter(meterRegistry, "maybe");
+        this.unknownCounter = lookupCounter(meterRegistry, "unknown");
+        this.falsePositiveCounter = Counter.builder("transaction.name_index.false_positives")
+                .description("names the filter reported as possibly posted that were not in the database")
+                .register(meterRegistry);
+        Gauge.builder("transaction.name_index.ready", this, index -> index.ready ? 1 : 0)
+                .register(meterRegistry);
+        Gauge.builder("transaction.name_index.insertions", this,
+                        index -> index.filter == null ? 0 : index.filter.getInsertions())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Warm the index once the application is up, without holding up startup or requests.
+     * Lookups answer UNKNOWN until the warm-up finishes.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmInBackground() {
+        if (!enabled) {
+            return;
+        }
+        Thread warmer = new Thread(this::rebuild, "name-index-warmer");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    /**
+     * Rebuild the filter from the `transaction` table.
+     * The new filter receives inserts while it is being filled, so names committed during the scan are not lost.
+     * If the scan fails the index stays not ready and every lookup goes to the database.
+     */
+    public synchronized void rebuild() {
+        if (!enabled) {
+            return;
+        }
+
+        this.ready = false;
+        this.recentNames.invalidateAll();
+
+        try {
+            refill();
+            this.ready = true;
+            log.info("Transaction name index warmed with {} names", this.filter.getInsertions());
+        } catch (RuntimeException e) {
+            log.warn("Could not warm the transaction name index, uniqueness checks will use the database", e);
+        }
+    }
+
+    /**
+     * Replace the filter with a larger one once it holds more names than it was sized for, since past that
+     * its false positive rate climbs until almost every name needs the database lookup.
+     * The full filter keeps answering lookups until the larger one has every name.
+     */
+    @Scheduled(initialDelayString = "${transaction.name-index.resize-check-ms:60000}",
+            fixedDelayString = "${transaction.name-index.resize-check-ms:60000}")
+    public synchronized void resizeIfFull() {
+        BloomFilter current = this.filter;
+        if (!enabled || !ready || current.getInsertions() <= current.getExpectedInsertions()) {
+            return;
+        }
+
+        try {
+            refill();
+            log.info("Transaction name index resized from {} to {} expected names", current.getExpectedInsertions(),
+                    this.filter.getExpectedInsertions());
+        } catch (RuntimeException e) {
+            log.warn("Could not resize the transaction name index, keeping the full filter", e);
+        }
+    }
+
+    /**
+     * Look up what the index knows about a transaction name in an account
+     * @param accountId
+     * @param transactionName
+     * @return NEW if the name is definitely not posted, POSTED if it definitely is, MAYBE or UNKNOWN otherwise
+     */
+    public NameMembership lookup(long accountId, String transactionName) {
+        if (!enabled || !ready || transactionName == null) {
+            unknownCounter.increment();
+            return NameMembership.UNKNOWN;
+        }
+
+        String scopedName = Transaction.scopedName(accountId, transactionName);
+        if (recentNames.getIfPresent(scopedName) != null) {
+            postedCounter.increment();
+            return NameMembership.POSTED;
+        }
+
+        if (!filter.mightContain(scopedName)) {
+            newCounter.increment();
+            return NameMembership.NEW;
+        }
+
+        maybeCounter.increment();
+        return NameMembership.MAYBE;
+    }
+
+    /**
+     * Record the names of transactions that were just inserted.
+     * They go into the filter right away, so a rollback only costs a false positive later,
+     * and into the exact recent set only once the surrounding database transaction commits.
+     * @param transactions inserted transactions
+     */
+    public void recordInserted(Collection<Transaction> transactions) {
+        if (!enabled || transactions.isEmpty()) {
+            return;
+        }
+
+        List<String> names = transactions.stream().map(Transaction::scopedName).collect(Collectors.toList());
+        putAll(this.filter, names);
+        putAll(this.filling, names);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    rememberRecent(names);
+                }
+            });
+        } else {
+            rememberRecent(names);
+        }
+    }
+
+    /**
+     * Record names the filter reported as MAYBE that the database did not have
+     * @param count number of false positives
+     */
+    public void recordFalsePositives(int count) {
+        if (count > 0) {
+            falsePositiveCounter.increment(count);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * Fills a filter sized for twice the names in the table, then swaps it in.
+     * Inserts go to both filters while it is filled.
+     */
+    private void refill() {
+        try {
+            long count = this.transactionStore.countTransactions();
+            BloomFilter rebuilt = new BloomFilter(Math.max(this.expectedNames, count * 2), this.falsePositiveRate);
+            this.filling = rebuilt;
+
+            this.transactionStore.forEachTransactionName((name, accountId) -> {
+                if (name != null) {
+                    rebuilt.put(Transaction.scopedName(accountId, name));
+                }
+            });
+
+            this.filter = rebuilt;
+        } finally {
+            this.filling = null;
+        }
+    }
+
+    private static void putAll(BloomFilter filter, List<String> names) {
+        if (filter != null) {
+            for (String name : names) {
+                filter.put(name);
+            }
+        }
+    }
+
+    private void rememberRecent(List<String> names) {
+        for (String name : names) {
+            recentNames.put(name, Boolean.TRUE);
+        }
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("transaction.name_index.lookups")
+                .description("transaction name lookups answered by the in-memory index")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /** ================================== end of helper ================================== */
+}
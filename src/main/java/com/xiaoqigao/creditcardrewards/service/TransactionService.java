@@ -1,199 +1,737 @@
 package com.xiaoqigao.creditcardrewards.service;
 
-import com.xiaoqigao.creditcardrewards.DAO.TransactionDAO;
+import com.xiaoqigao.creditcardrewards.enums.NameMembership;
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
 import com.xiaoqigao.creditcardrewards.enums.Status;
 import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
 import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
 import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.model.TransactionAmount;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.BatchPostResponse;
+import com.xiaoqigao.creditcardrewards.response.PostItemResponse;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import com.xiaoqigao.creditcardrewards.util.CompiledRuleSet;
+import com.xiaoqigao.creditcardrewards.util.DateCodec;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
-
-import java.util.HashMap;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 @Service
 public class TransactionService {
 
     /** Dependency Injection */
     @Autowired
-    TransactionDAO transactionDAO;
+    TransactionStore transactionStore;
+
+    @Autowired
+    TransactionNameIndex transactionNameIndex;
+
+    @Autowired
+    RewardRuleCatalog rewardRuleCatalog;
+
+    @Autowired
+    MerchantRegistry merchantRegistry;
+
+    @Autowired
+    MonthlyReportCache monthlyReportCache;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    ReportRequestCoalescer reportRequestCoalescer;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    /** the reads of one report see one snapshot of the month; nothing is written in it */
+    private static final TransactionDefinition READ_ONLY_SNAPSHOT = readOnly();
+
+    /** number of streamed transactions scored together when a monthly report is built */
+    static final int SCORE_CHUNK_SIZE = 1024;
+
+    /** maximum number of rows written by a single multi-row insert */
+    @Value("${transaction.batch.chunk-size:500}")
+    int batchChunkSize;
 
     /**
-     * Post one transaction.
-     * @param transactionName
-     * @param dateString
-     * @param merchantCode
-     * @param amountCents
+     * Post a list of transactions in one database transaction.
+     * The whole list is validated first, then each chunk is resolved with the name index and at most one IN (...) query
+     * per account, and only new transactions are written with one multi-row insert per chunk.
+     * Nothing is inserted if any transaction fails validation, and every failure is reported together.
+     * @param requests a list of PostTransRequest
+     * @return a summary of the batch with the outcome of each transaction
      */
-    public void postOneTransaction(String transactionName, String dateString, String merchantCode, int amountCents) throws Exception {
+    public BatchPostResponse postTransactionList(List<PostTransRequest> requests) throws Exception {
+
+        // validation pass: build every transaction before the write transaction opens
+        List<Transaction> newTransList = toTransactionList(requests);
+
+        int chunkSize = getBatchChunkSize();
+
+        // write pass: resolve names and insert one chunk at a time, remembering names seen in earlier chunks
+        return this.transactionTemplate.execute(status -> {
+            List<PostOutcome> outcomes = new ArrayList<>(newTransList.size());
+            Set<String> namesInBatch = new HashSet<>();
+            int chunkCount = 0;
+            for (int from = 0; from < newTransList.size(); from += chunkSize) {
+                int to = Math.min(from + chunkSize, newTransList.size());
+                outcomes.addAll(writeChunk(newTransList.subList(from, to), namesInBatch));
+                chunkCount++;
+            }
 
-        // check if the transactionName is unique
-        List<Transaction> transactionList = this.transactionDAO.selectByTransactionName(transactionName);
-        if (transactionList.size() != 0) {
-            throw new TransactionServiceException(Status.TRANSACTION_ALREADY_POSTED);
-        }
+            return summarize(newTransList, outcomes, chunkCount, chunkSize);
+        });
+    }
 
-        // check if the dateString follows the format of 2021-05-01
-        boolean checkFormat = dateString.matches("([0-9]{4})-([0-9]{2})-([0-9]{2})");
-        if (!checkFormat) {
-            throw new TransactionServiceException(Status.WRONG_DATE_STRING_FORMAT);
-        }
+    /**
+     * Post one chunk of already validated transactions in its own database transaction.
+     * Used by streaming ingestion, where earlier chunks are already committed and are caught by the name lookup.
+     * @param chunk validated transactions, at most one chunk long
+     * @return counts of the outcomes in the chunk
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public ChunkResult postChunk(List<Transaction> chunk) {
 
-        // separate the date string
-        String dateParts[] = dateString.split("-");
+        List<PostOutcome> outcomes = writeChunk(chunk, new HashSet<>());
 
-        // get day, month, and year
-        String year = dateParts[0];
-        String month = dateParts[1];
-        String day = dateParts[2];
+        return new ChunkResult(Collections.frequency(outcomes, PostOutcome.INSERTED),
+                Collections.frequency(outcomes, PostOutcome.ALREADY_POSTED),
+                Collections.frequency(outcomes, PostOutcome.DUPLICATE_IN_BATCH));
+    }
 
-        // check if the given date is out of range
-        if (Integer.valueOf(month) < 0 || Integer.valueOf(month) > 12
-                || Integer.valueOf(day) > 30 || Integer.valueOf(day) < 0) {
-            throw new TransactionServiceException(Status.WRONG_DATE_STRING_FORMAT);
+    /**
+     * Post one chunk of a larger batch in its own database transaction and report the outcome of each transaction.
+     * Used when a batch is committed chunk by chunk so that a retry can resume after the last committed chunk.
+     * @param chunk validated transactions, in request order
+     * @param namesInBatch scoped names seen in earlier chunks of the batch, updated with the names in this chunk
+     * @return outcome of each transaction in the chunk, in request order
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<PostOutcome> postChunk(List<Transaction> chunk, Set<String> namesInBatch) {
+        return writeChunk(chunk, namesInBatch);
+    }
+
+    /**
+     * Validate a posting request and build the transaction it describes.
+     * @param request a PostTransRequest
+     * @return a new transaction, not yet inserted
+     */
+    public Transaction toTransaction(PostTransRequest request) throws TransactionServiceException {
+        return validateTransaction(request).orElseThrow();
+    }
+
+    /**
+     * Validate a list of posting requests and build the transactions they describe.
+     * Every request is checked, so a rejected batch reports all of its invalid records at once.
+     * @param requests a list of PostTransRequest
+     * @return new transactions in request order, not yet inserted
+     * @throws TransactionServiceException with the first failure and every rejected record, if any is invalid
+     */
+    public List<Transaction> toTransactionList(List<PostTransRequest> requests) throws TransactionServiceException {
+
+        // one pass: each date is parsed once, and transactions stop being built once the batch is known to be rejected
+        List<Transaction> transactions = new ArrayList<>(requests.size());
+        List<RejectedItemResponse> rejectedItems = new ArrayList<>();
+        Status firstFailure = null;
+        for (int i = 0; i < requests.size(); i++) {
+            PostTransRequest request = requests.get(i);
+            int postDate = DateCodec.parse(request.getDate());
+            Status failure = checkFields(request.getAccountId(), request.getTransactionName(), postDate,
+                    request.getMerchantCode(), request.getAmountCents());
+            if (failure != null) {
+                firstFailure = firstFailure == null ? failure : firstFailure;
+                rejectedItems.add(new RejectedItemResponse(i, request.getTransactionName(), failure));
+            } else if (firstFailure == null) {
+                transactions.add(buildTransaction(request.getAccountId(), request.getTransactionName(), postDate,
+                        request.getMerchantCode(), request.getAmountCents()));
+            }
+        }
+        if (firstFailure != null) {
+            throw new TransactionServiceException(firstFailure, rejectedItems);
         }
+        return transactions;
+    }
 
-        if (amountCents < 0) {
-            throw new TransactionServiceException(Status.NEGATIVE_AMOUNT_CENTS);
+    /**
+     * Validate a posting request and build the transaction it describes, without throwing for an invalid request.
+     * @param request a PostTransRequest
+     * @return a new transaction not yet inserted, or the reason the request is invalid
+     */
+    public ServiceResult<Transaction> validateTransaction(PostTransRequest request) {
+        return validateTransaction(request.getAccountId(),
+                request.getTransactionName(),
+                DateCodec.parse(request.getDate()),
+                request.getMerchantCode(),
+                request.getAmountCents());
+    }
+
+    /**
+     * Validate fields whose date is already parsed and build the transaction they describe.
+     * Used by file imports, which parse dates straight from the uploaded bytes.
+     * @param accountId
+     * @param transactionName
+     * @param postDate packed yyyyMMdd date from {@link DateCodec}, or {@link DateCodec#INVALID}
+     * @param merchantCode
+     * @param amountCents
+     * @return a new transaction not yet inserted, or the reason the fields are invalid
+     */
+    public ServiceResult<Transaction> validateTransaction(long accountId, String transactionName, int postDate,
+                                                          String merchantCode, int amountCents) {
+
+        Status failure = checkFields(accountId, transactionName, postDate, merchantCode, amountCents);
+        if (failure != null) {
+            return ServiceResult.failure(failure);
         }
 
-        if (merchantCode == null) {
-            throw new TransactionServiceException(Status.MERCHANT_CODE_IS_NULL);
+        return ServiceResult.ok(buildTransaction(accountId, transactionName, postDate, merchantCode, amountCents));
+    }
+
+    /**
+     * Get the configured number of rows per multi-row insert
+     * @return chunk size, at least 1
+     */
+    public int getBatchChunkSize() {
+        return Math.max(1, this.batchChunkSize);
+    }
+
+    /**
+     * Write the reward report of one account's month as the JSON a MonthlyReportResponse serializes to, in one pass:
+     * transactions are scored in fixed-size chunks as they are streamed from the store and written chunk by chunk,
+     * so apart from the output nothing held in memory grows with the month.
+     * The maximum point is summed from the same rows as they stream, so it is written after them, and the month's
+     * tag is read from the rollup in the same read-only transaction, so the report is cached under the tag of the
+     * rows it was built from.
+     * @param accountId
+     * @param year
+     * @param month
+     * @param generator receives the report
+     * @return the month's entity tag as of the rows read, or null if its rollup has no rows
+     */
+    public String writeMonthlyReport(long accountId, String year, String month, JsonGenerator generator)
+            throws TransactionServiceException, IOException {
+
+        int firstDay = firstDayOf(year, month);
+        CompiledRuleSet ruleSet = this.rewardRuleCatalog.forMonth(firstDay / 100);
+
+        TransactionStatus snapshot = this.transactionManager.getTransaction(READ_ONLY_SNAPSHOT);
+        String eTag;
+        try {
+            eTag = eTagOf(ruleSet, this.transactionStore.selectMonthlyTotals(accountId, firstDay / 100));
+            writeReport(accountId, year, month, firstDay, ruleSet, generator);
+        } catch (TransactionServiceException | IOException | RuntimeException | Error e) {
+            this.transactionManager.rollback(snapshot);
+            throw e;
         }
+        this.transactionManager.commit(snapshot);
+        return eTag;
+    }
 
-        if (transactionName == null) {
-            throw new TransactionServiceException(Status.TRANSACTION_NAME_IS_NULL);
+    /**
+     * Get the monthly report of one account as the JSON sent to clients, from the report cache when the month
+     * has not changed since it was built. Concurrent requests for the same report share one computation.
+     * A report too large to cache is spooled to a temporary file and sent to the sink once it is complete.
+     * @param accountId
+     * @param year
+     * @param month
+     * @param eTag the month's tag from getMonthlyReportETag, null for a month without transactions
+     * @param gzipAccepted whether the client accepts a gzip-compressed report
+     * @param sink opens the response of this request
+     * @return the report, or null if it was sent to the sink
+     */
+    public EncodedReport getEncodedMonthlyReport(long accountId, String year, String month, String eTag,
+                                                 boolean gzipAccepted, MonthlyReportCache.ReportSink sink)
+            throws TransactionServiceException {
+
+        // a month without a tag has no rollup rows, so it has nothing to report and its transactions are not read
+        if (eTag == null) {
+            throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
         }
 
-        // build a new transaction
-        Transaction newTrans = Transaction.builder().transactionName(transactionName)
-                                                    .postYear(year)
-                                                    .postMonth(month)
-                                                    .postDay(day)
-                                                    .merchantCode(merchantCode)
-                                                    .amountCents(amountCents)
-                                                    .build();
+        int postMonth = firstDayOf(year, month) / 100;
+        return this.reportRequestCoalescer.get(accountId, postMonth, eTag, gzipAccepted,
+                () -> this.monthlyReportCache.get(accountId, postMonth, eTag, gzipAccepted, sink,
+                        generator -> writeMonthlyReport(accountId, year, month, generator)));
+    }
 
-        // insert the record into database
-        this.transactionDAO.insert(newTrans);
+    /**
+     * Get an entity tag of one account's month for conditional report requests, without reading its transactions.
+     * It is built from the month's rollup rows, whose transaction count grows with every insert into the month
+     * in the same database transaction, and from the rules in effect, so it changes whenever the report would.
+     * A month found empty is remembered until a transaction is inserted into it, so probing it again reads nothing.
+     * @param accountId
+     * @param year
+     * @param month
+     * @return a quoted entity tag, or null if the month has no transactions
+     */
+    public String getMonthlyReportETag(long accountId, String year, String month) throws TransactionServiceException {
 
+        int postMonth = firstDayOf(year, month) / 100;
+        if (this.monthlyReportCache.isKnownEmpty(accountId, postMonth)) {
+            return null;
+        }
 
+        long invalidationCount = this.monthlyReportCache.getInvalidationCount();
+        String eTag = eTagOf(this.rewardRuleCatalog.forMonth(postMonth),
+                this.transactionStore.selectMonthlyTotals(accountId, postMonth));
+        if (eTag == null) {
+            this.monthlyReportCache.recordEmpty(accountId, postMonth, invalidationCount);
+        }
+        return eTag;
     }
 
     /**
-     * Get the monthly transaction list from the database based on year and month
+     * Get the accounts with transactions in the given month, from the monthly rollup
      * @param year
      * @param month
+     * @return account ids in ascending order
      */
-    public List<Transaction> getMonthlyTransactionList(String year, String month) throws TransactionServiceException {
-        // get a list of transactions by given month
-        List<Transaction> transactionList = this.transactionDAO.selectByYearMonth(year, month);
+    public List<Long> getMonthlyAccounts(String year, String month) throws TransactionServiceException {
 
-        // check if there is any transactions in the given Year and Month. If null or empty, throw exception
-        if (transactionList == null || transactionList.size() == 0) {
+        List<Long> accountIds = this.transactionStore.selectAccountsByMonth(firstDayOf(year, month) / 100);
+        if (accountIds == null || accountIds.size() == 0) {
             throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
         }
 
-        return transactionList;
+        return accountIds;
     }
 
     /**
-     * Get the maximum point for the given month
-     * @param transactionList a list of monthly transaction
+     * Get the maximum point for one account's month from the monthly rollup, which is at most four pre-summed rows
+     * @param accountId
+     * @param year
+     * @param month
      */
-    public int getMonthlyMaxPoint(List<Transaction> transactionList) {
+    public long getMonthlyMaxPoint(long accountId, String year, String month) throws TransactionServiceException {
+
+        int firstDay = firstDayOf(year, month);
 
-        HashMap<String, Integer> map = aggregateMonthlyTrans(transactionList);
+        List<MonthlyMerchantTotal> totals = this.transactionStore.selectMonthlyTotals(accountId, firstDay / 100);
+        if (totals == null || totals.size() == 0) {
+            throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
+        }
 
-        int spAmt = map.getOrDefault(MerchantCode.SPORT_CHECK, 0); // sportscheck
-        int thAmt = map.getOrDefault(MerchantCode.TIM_HORTONS, 0);; // tim_hortons
-        int subwayAmt = map.getOrDefault(MerchantCode.SUBWAY, 0); // subway
-        int otherAmt = map.getOrDefault(MerchantCode.OTHER, 0);
+        // cents by rollup merchant id; a merchant passes the int range at about $21M in a month
+        long[] amountCents = new long[MerchantCode.ROLLUP_SLOTS];
+        for (MonthlyMerchantTotal total : totals) {
+            amountCents[total.getMerchantId()] = Math.addExact(amountCents[total.getMerchantId()], total.getAmountCents());
+        }
 
-        // get the cents
-        int remainingCents = spAmt % 100 + thAmt % 100 + subwayAmt % 100 + otherAmt % 100;
+        return maxPointOfTotals(this.rewardRuleCatalog.forMonth(firstDay / 100), amountCents);
+    }
 
-        // get the points earned based on rules
-        int rulePoints = maximizeMonthlyRecursive(spAmt / 100, thAmt / 100, subwayAmt / 100);
+    /**
+     * Get the maximum point of each of one account's months in a range, from one read of the monthly rollup
+     * @param accountId
+     * @param fromMonth first month packed as yyyyMM
+     * @param toMonth last month packed as yyyyMM, inclusive
+     * @return maximum point by month, in month order; months without transactions are left out
+     */
+    public NavigableMap<Integer, Long> getMonthlyMaxPoints(long accountId, int fromMonth, int toMonth)
+            throws TransactionServiceException {
+
+        NavigableMap<Integer, Long> maxPoints = new TreeMap<>();
+        List<MonthlyMerchantTotal> totals = this.transactionStore.selectMonthlyTotals(accountId, fromMonth, toMonth);
+
+        // rows come in month order, so each month's rows are one run
+        int from = 0;
+        while (from < totals.size()) {
+            int postMonth = totals.get(from).getPostMonth();
+            long[] amountCents = new long[MerchantCode.ROLLUP_SLOTS];
+            int to = from;
+            for (; to < totals.size() && totals.get(to).getPostMonth() == postMonth; to++) {
+                MonthlyMerchantTotal total = totals.get(to);
+                amountCents[total.getMerchantId()] = Math.addExact(amountCents[total.getMerchantId()], total.getAmountCents());
+            }
+            maxPoints.put(postMonth, maxPointOfTotals(this.rewardRuleCatalog.forMonth(postMonth), amountCents));
+            from = to;
+        }
 
-        // add rule points, other points, and remaining cents together
-        return rulePoints + otherAmt / 100 + remainingCents / 100;
+        return maxPoints;
     }
 
     /** ================================== start of helper ================================== */
 
+    private static TransactionDefinition readOnly() {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setReadOnly(true);
+        return definition;
+    }
+
+    /**
+     * A helper function that packs the first day of a report month.
+     * @return yyyyMM01
+     */
+    private static int firstDayOf(String year, String month) throws TransactionServiceException {
+        int firstDay = DateCodec.parse(year + "-" + month + "-01");
+        if (firstDay == DateCodec.INVALID) {
+            throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
+        }
+        return firstDay;
+    }
+
     /**
-     * A helper function that aggregates the monthly expenditure for each merchant.
-     * @param transactions
-     * @return a hashmap
+     * A helper function that checks the fields of a posting request without side effects
+     * @return the first problem found, or null if the fields are valid
      */
-    private HashMap<String, Integer> aggregateMonthlyTrans(List<Transaction> transactions) {
+    private static Status checkFields(long accountId, String transactionName, int postDate, String merchantCode,
+                                      int amountCents) {
 
-        List<String> merchantsForReward = MerchantCode.makeRewardMerchantList(); // gets a list of all the merchants mentioned in the rules
+        if (accountId < 0) {
+            return Status.NEGATIVE_ACCOUNT_ID;
+        }
 
-        HashMap<String, Integer> result = new HashMap<>();
+        if (postDate == DateCodec.INVALID) {
+            return Status.WRONG_DATE_STRING_FORMAT;
+        }
 
-        for (Transaction t : transactions) {
+        if (amountCents < 0) {
+            return Status.NEGATIVE_AMOUNT_CENTS;
+        }
 
-            String merchantCode = t.getMerchantCode();
+        if (merchantCode == null) {
+            return Status.MERCHANT_CODE_IS_NULL;
+        }
 
-            // handle the other amount
-            if (!merchantsForReward.contains(merchantCode)) {
-                merchantCode = MerchantCode.OTHER;
-            }
+        if (transactionName == null) {
+            return Status.TRANSACTION_NAME_IS_NULL;
+        }
 
-            int newAmountCents = result.getOrDefault(merchantCode, 0) + t.getAmountCents();
-            result.put(merchantCode, newAmountCents);
+        return null;
+    }
 
+    /**
+     * A helper function that builds a transaction from fields that passed checkFields.
+     * The merchant code is only kept as its id from here on.
+     */
+    private Transaction buildTransaction(long accountId, String transactionName, int postDate, String merchantCode,
+                                         int amountCents) {
+        return Transaction.builder().accountId(accountId)
+                                    .transactionName(transactionName)
+                                    .postDate(postDate)
+                                    .merchantId(this.merchantRegistry.idOf(merchantCode))
+                                    .amountCents(amountCents)
+                                    .build();
+    }
+
+    /**
+     * A helper function that writes a report from the rows streamed from the store, its maximum point last.
+     * yyyyMM00 to yyyyMM99 also covers out-of-range days converted from rows posted before dates were validated.
+     * @param firstDay yyyyMM01
+     */
+    private void writeReport(long accountId, String year, String month, int firstDay, CompiledRuleSet ruleSet,
+                             JsonGenerator generator) throws TransactionServiceException, IOException {
+
+        generator.writeStartObject();
+        generator.writeNumberField("code", Status.OK.getCode());
+        generator.writeStringField("message", Status.OK.getMessage());
+        generator.writeNumberField("account_id", accountId);
+        generator.writeStringField("year", year);
+        generator.writeStringField("month", month);
+        generator.writeArrayFieldStart("transaction_level_points_list");
+
+        ChunkedScorer scorer = new ChunkedScorer(ruleSet, (transactionName, point) -> {
+            generator.writeStartObject();
+            generator.writeStringField("transaction_name", transactionName);
+            generator.writeNumberField("point", point);
+            generator.writeEndObject();
+        });
+        this.transactionStore.forEachInPostDateRange(accountId, firstDay - 1, firstDay + 98, scorer);
+        if (scorer.finish() == 0) {
+            throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
         }
 
-        return result;
+        generator.writeEndArray();
+        generator.writeNumberField("maximum_monthly_rewards_point", maxPointOfTotals(ruleSet, scorer.getAmountCents()));
+        generator.writeEndObject();
     }
 
     /**
-     * A greedy helper function for calculating the maximum points earned for the month
-     * Rule 3 and Rule 5 are eliminated because they are not as cost-efficient as other rules combined.
-     * For reasons of elimination, please refer to README.md
-     *
-     * @param spAmt dollar amount left for sportcheck
-     * @param thAmt dollar amount left for tim-hortons
-     * @param subwayAmt dollar amount left for subway
+     * A helper function that builds a month's entity tag from its rollup rows and the rules in effect
+     * @return a quoted entity tag, or null if the month has no rollup rows
+     */
+    private static String eTagOf(CompiledRuleSet ruleSet, List<MonthlyMerchantTotal> totals) {
+        if (totals == null || totals.size() == 0) {
+            return null;
+        }
+
+        long transactionCount = 0;
+        long amountCents = 0;
+        for (MonthlyMerchantTotal total : totals) {
+            transactionCount += total.getTransactionCount();
+            amountCents += total.getAmountCents();
+        }
+
+        return "\"" + Integer.toHexString(ruleSet.getFingerprint()) + "-" + transactionCount + "-" + amountCents + "\"";
+    }
+
+    /**
+     * A helper function that computes the maximum point from the monthly amount spent at each merchant.
+     * @param ruleSet the rules in effect in the month
+     * @param amountCents cents spent by rollup merchant id
      * @return maximum monthly reward point
      */
-    private int maximizeMonthlyRecursive(int spAmt, int thAmt, int subwayAmt) {
-        // base case: all of them are 0
-        if ((spAmt == 0) && (thAmt == 0) && (subwayAmt == 0)) {
-            return 0;
+    private long maxPointOfTotals(CompiledRuleSet ruleSet, long[] amountCents) {
+
+        // split into whole dollars and the remaining cents
+        long[] dollars = new long[amountCents.length];
+        long remainingCents = 0;
+        for (int merchantId = 0; merchantId < amountCents.length; merchantId++) {
+            dollars[merchantId] = amountCents[merchantId] / 100;
+            remainingCents += amountCents[merchantId] % 100;
         }
 
-        int points;
+        // the remaining cents add up to whole dollars that no rule can use
+        dollars[MerchantCode.OTHER_ID] += remainingCents / 100;
+
+        // get the points earned based on rules, the other dollars earn leftover points
+        return ruleSet.monthlyPoints(dollars).getPoints();
+    }
 
-        if (spAmt >= 75 && thAmt >= 25 && subwayAmt >= 25) { // rule 1: 500 points for sportcheck $75,  timHortons $25, subway $25
+    /**
+     * A helper function that writes one chunk of a batch with a single multi-row insert.
+     * The first occurrence of a name in an account of the batch is a candidate, later occurrences are duplicates in
+     * the batch. Candidates the name index reports as new skip the lookup, the rest are resolved with one IN (...)
+     * query per account.
+     * @param chunk validated transactions, in request order
+     * @param namesInBatch scoped names seen earlier in the batch, updated with the names in this chunk
+     * @return outcome of each transaction in the chunk, in request order
+     */
+    private List<PostOutcome> writeChunk(List<Transaction> chunk, Set<String> namesInBatch) {
+
+        boolean[] firstInBatch = new boolean[chunk.size()];
+        List<Transaction> candidates = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            firstInBatch[i] = namesInBatch.add(chunk.get(i).scopedName());
+            if (firstInBatch[i]) {
+                candidates.add(chunk.get(i));
+            }
+        }
 
-            points = 500 + maximizeMonthlyRecursive(spAmt - 75, thAmt - 25, subwayAmt - 25);
+        Set<String> postedNames = findPostedNames(candidates);
 
-        } else if (spAmt >= 75 && thAmt >= 25 && subwayAmt < 25) { // rule 2: 300 points for sportcheck $75,  timHortons $25
+        List<Transaction> toInsert = new ArrayList<>(candidates.size());
+        for (Transaction transaction : candidates) {
+            if (!postedNames.contains(transaction.scopedName())) {
+                toInsert.add(transaction);
+            }
+        }
 
-            points = 300 + maximizeMonthlyRecursive(spAmt - 75, thAmt - 25, subwayAmt);
+        if (!toInsert.isEmpty()) {
+            try {
+                this.transactionStore.insertBatch(toInsert);
+            } catch (DuplicateKeyException e) {
+                // a name was posted since the lookup, or the index skipped it wrongly; resolve the chunk exactly
+                postedNames.addAll(selectExistingNames(toInsert));
+                toInsert.removeIf(transaction -> postedNames.contains(transaction.scopedName()));
+                if (!toInsert.isEmpty()) {
+                    this.transactionStore.insertBatch(toInsert);
+                }
+            }
+            this.transactionNameIndex.recordInserted(toInsert);
+            this.monthlyReportCache.invalidateAfterCommit(toInsert);
+        }
 
-        } else if (spAmt >= 25 && thAmt >= 10 && subwayAmt >= 10) { // rule 4: 150 points for sportcheck $25,  timHortons $10, subway $10
+        List<PostOutcome> outcomes = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (!firstInBatch[i]) {
+                outcomes.add(PostOutcome.DUPLICATE_IN_BATCH);
+            } else if (postedNames.contains(chunk.get(i).scopedName())) {
+                outcomes.add(PostOutcome.ALREADY_POSTED);
+            } else {
+                outcomes.add(PostOutcome.INSERTED);
+            }
+        }
 
-            points = 150 + maximizeMonthlyRecursive(spAmt - 25, thAmt - 10, subwayAmt - 10);
+        return outcomes;
+    }
 
-        } else if (spAmt >= 20) { // rule 6: 75 points for sportcheck $20
+    /**
+     * A helper function that finds which of the candidate names are already in their accounts.
+     * Only names the name index cannot decide are sent to the database.
+     * @param candidates transactions with distinct scoped names
+     * @return scoped names already posted
+     */
+    private Set<String> findPostedNames(List<Transaction> candidates) {
+
+        Set<String> postedNames = new HashSet<>();
+        List<Transaction> maybePosted = new ArrayList<>();
+        List<String> filterHits = new ArrayList<>();
+
+        for (Transaction transaction : candidates) {
+            NameMembership membership = this.transactionNameIndex.lookup(transaction.getAccountId(),
+                    transaction.getTransactionName());
+
+            if (membership == NameMembership.POSTED) {
+                postedNames.add(transaction.scopedName());
+            } else if (membership != NameMembership.NEW) {
+                maybePosted.add(transaction);
+                if (membership == NameMembership.MAYBE) {
+                    filterHits.add(transaction.scopedName());
+                }
+            }
+        }
 
-            points = 75 + maximizeMonthlyRecursive(spAmt - 20, thAmt, subwayAmt);
+        if (!maybePosted.isEmpty()) {
+            postedNames.addAll(selectExistingNames(maybePosted));
+            this.transactionNameIndex.recordFalsePositives(
+                    (int) filterHits.stream().filter(name -> !postedNames.contains(name)).count());
+        }
 
-        } else { // rule 7: 1 point for the remaining.
+        return postedNames;
+    }
 
-            points = spAmt + thAmt + subwayAmt;
+    /**
+     * A helper function that looks names up in the database with one IN (...) query per account.
+     * @param transactions transactions whose names to look up
+     * @return scoped names already posted
+     */
+    private List<String> selectExistingNames(List<Transaction> transactions) {
 
+        Map<Long, List<String>> namesByAccount = new LinkedHashMap<>();
+        for (Transaction transaction : transactions) {
+            namesByAccount.computeIfAbsent(transaction.getAccountId(), accountId -> new ArrayList<>())
+                    .add(transaction.getTransactionName());
         }
 
-        return points;
+        List<String> existing = new ArrayList<>();
+        namesByAccount.forEach((accountId, names) -> {
+            for (String name : this.transactionStore.selectExistingTransactionNames(accountId, names)) {
+                existing.add(Transaction.scopedName(accountId, name));
+            }
+        });
+        return existing;
+    }
 
+    /**
+     * A helper function that builds the summary of a posted batch.
+     * @param transactions transactions in request order
+     * @param outcomes outcome of each transaction, in request order
+     * @param chunkCount number of chunks the batch was written in
+     * @param chunkSize maximum number of rows per chunk
+     * @return BatchPostResponse
+     */
+    static BatchPostResponse summarize(List<Transaction> transactions, List<PostOutcome> outcomes,
+                                       int chunkCount, int chunkSize) {
+
+        List<PostItemResponse> results = new ArrayList<>(outcomes.size());
+        for (int i = 0; i < outcomes.size(); i++) {
+            results.add(new PostItemResponse(transactions.get(i).getTransactionName(), outcomes.get(i)));
+        }
+
+        return new BatchPostResponse(transactions.size(),
+                Collections.frequency(outcomes, PostOutcome.INSERTED),
+                Collections.frequency(outcomes, PostOutcome.ALREADY_POSTED),
+                Collections.frequency(outcomes, PostOutcome.DUPLICATE_IN_BATCH),
+                chunkCount, chunkSize, results);
     }
 
     /** ================================== end of helper ================================== */
 
+
+    /**
+     * Receives the transactions of a month with their points, in the order they are streamed
+     */
+    @FunctionalInterface
+    private interface LevelPointWriter {
+        void write(String transactionName, long point) throws IOException;
+    }
+
+    /**
+     * Collects streamed transactions into fixed-size chunks, each scored in one batch by the rule set,
+     * and sums their amounts by rollup merchant for the maximum point.
+     * The store's consumer cannot throw an IOException, and a store may wrap whatever its consumer throws,
+     * so the first one from the writer is kept and thrown by finish(); rows after it are skipped.
+     */
+    private static final class ChunkedScorer implements Consumer<TransactionAmount> {
+
+        private final CompiledRuleSet ruleSet;
+        private final LevelPointWriter writer;
+        private final String[] transactionNames = new String[SCORE_CHUNK_SIZE];
+        private final int[] merchantIds = new int[SCORE_CHUNK_SIZE];
+        private final int[] amountCents = new int[SCORE_CHUNK_SIZE];
+        private final long[] points = new long[SCORE_CHUNK_SIZE];
+        private final long[] monthlyAmountCents = new long[MerchantCode.ROLLUP_SLOTS];
+        private int buffered;
+        private long written;
+        private IOException failure;
+
+        ChunkedScorer(CompiledRuleSet ruleSet, LevelPointWriter writer) {
+            this.ruleSet = ruleSet;
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(TransactionAmount transaction) {
+            if (this.failure != null) {
+                return;
+            }
+            this.transactionNames[this.buffered] = transaction.getTransactionName();
+            this.merchantIds[this.buffered] = transaction.getMerchantId();
+            this.amountCents[this.buffered] = transaction.getAmountCents();
+            int rollupMerchantId = MerchantCode.rollupMerchantId(transaction.getMerchantId());
+            this.monthlyAmountCents[rollupMerchantId] = Math.addExact(this.monthlyAmountCents[rollupMerchantId],
+                    transaction.getAmountCents());
+            if (++this.buffered == SCORE_CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Scores and writes the last partial chunk
+         * @return the number of transactions written
+         */
+        long finish() throws IOException {
+            if (this.failure == null && this.buffered > 0) {
+                flush();
+            }
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            return this.written;
+        }
+
+        /**
+         * @return cents of the transactions seen so far, by rollup merchant id
+         */
+        long[] getAmountCents() {
+            return this.monthlyAmountCents;
+        }
+
+        private void flush() {
+            this.ruleSet.transactionLevelPoints(this.merchantIds, this.amountCents, 0, this.buffered, this.points);
+            try {
+                for (int i = 0; i < this.buffered; i++) {
+                    this.writer.write(this.transactionNames[i], this.points[i]);
+                    this.written++;
+                }
+            } catch (IOException e) {
+                this.failure = e;
+            }
+            this.buffered = 0;
+        }
+    }
 }
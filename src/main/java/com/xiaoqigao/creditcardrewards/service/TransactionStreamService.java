@@ -0,0 +1,261 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaoqigao.creditcardrewards.enums.ImportFormat;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
+import com.xiaoqigao.creditcardrewards.response.StreamPostResponse;
+import com.xiaoqigao.creditcardrewards.util.CsvRecordReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingests a stream of transactions (a JSON array, newline-delimited JSON or CSV) one record at a time,
+ * so heap use depends on the chunk size and not on the size of the upload.
+ */
+@Service
+public class TransactionStreamService {
+
+    /** maximum number of rejected records echoed back in the response */
+    static final int MAX_REPORTED_REJECTIONS = 100;
+
+    /** Dependency Injection */
+    @Autowired
+    TransactionService transactionService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    /**
+     * Reads, validates and posts every record of the stream.
+     * Records are flushed in chunks, each in its own database transaction, so a failure part-way through
+     * keeps the chunks that were already committed. Invalid records are skipped and reported.
+     * @param inputStream request body
+     * @return progress of the upload when the stream ends
+     */
+    public StreamPostResponse postTransactionStream(InputStream inputStream) throws IOException {
+
+        Loader loader = new Loader(this.transactionService.getBatchChunkSize());
+
+        // root-level arrays are unwrapped, and root-level values separated by newlines are read one after another
+        try (MappingIterator<PostTransRequest> records =
+                     this.objectMapper.readerFor(PostTransRequest.class).readValues(inputStream)) {
+
+            while (records.hasNextValue()) {
+                PostTransRequest request = records.nextValue();
+                long index = loader.recordsRead++;
+
+                if (request == null) {
+                    continue;
+                }
+
+                loader.addOrReject(index, request.getTransactionName(), this.transactionService.validateTransaction(request));
+            }
+        }
+
+        return loader.finish();
+    }
+
+    /**
+     * Imports an uploaded file in the given format
+     * @param inputStream file content
+     * @param format CSV or NDJSON
+     * @return progress of the import when the file ends
+     */
+    public StreamPostResponse importFile(InputStream inputStream, ImportFormat format)
+            throws IOException, TransactionServiceException {
+
+        if (format == ImportFormat.CSV) {
+            return importCsv(inputStream);
+        }
+        return postTransactionStream(inputStream);
+    }
+
+    /**
+     * Reads, validates and posts every row of a CSV file.
+     * The header row maps columns to transaction fields, so column order is free and extra columns are ignored.
+     * The account_id column is optional; rows without one go to the default account.
+     * Rows are parsed from the bytes in place and only the name and merchant code are decoded to strings.
+     * @param inputStream CSV content with a header row
+     * @return progress of the import when the file ends
+     */
+    public StreamPostResponse importCsv(InputStream inputStream) throws IOException, TransactionServiceException {
+
+        Loader loader = new Loader(this.transactionService.getBatchChunkSize());
+
+        try (CsvRecordReader reader = new CsvRecordReader(inputStream)) {
+            if (!reader.next()) {
+                return loader.finish();
+            }
+            CsvColumns columns = CsvColumns.fromHeader(reader);
+
+            while (reader.next()) {
+                long index = loader.recordsRead++;
+
+                if (reader.getFieldCount() <= columns.last) {
+                    loader.reject(index, null, Status.MALFORMED_IMPORT_ROW);
+                    continue;
+                }
+
+                String transactionName = reader.isEmpty(columns.transactionName) ? null : reader.getString(columns.transactionName);
+                String merchantCode = reader.isEmpty(columns.merchantCode) ? null : reader.getString(columns.merchantCode);
+
+                long accountId = Transaction.DEFAULT_ACCOUNT_ID;
+                if (columns.accountId >= 0 && !reader.isEmpty(columns.accountId)) {
+                    try {
+                        accountId = reader.getLong(columns.accountId);
+                    } catch (NumberFormatException e) {
+                        loader.reject(index, transactionName, Status.ACCOUNT_ID_NOT_A_NUMBER);
+                        continue;
+                    }
+                }
+
+                int amountCents;
+                try {
+                    amountCents = reader.getInt(columns.amountCents);
+                } catch (NumberFormatException e) {
+                    loader.reject(index, transactionName, Status.AMOUNT_CENTS_NOT_A_NUMBER);
+                    continue;
+                }
+
+                loader.addOrReject(index, transactionName, this.transactionService.validateTransaction(accountId,
+                        transactionName, reader.getDate(columns.date), merchantCode, amountCents));
+            }
+        }
+
+        return loader.finish();
+    }
+
+    /**
+     * Positions of the transaction fields in a CSV file
+     */
+    private static class CsvColumns {
+        int accountId = -1;
+        int transactionName = -1;
+        int date = -1;
+        int merchantCode = -1;
+        int amountCents = -1;
+
+        /** highest position in use, every row needs at least this many fields plus one */
+        int last;
+
+        /**
+         * Matches header names to fields, ignoring case and underscores,
+         * so both `transaction_name` and the builder's `transactionName` work
+         */
+        static CsvColumns fromHeader(CsvRecordReader header) throws TransactionServiceException {
+            CsvColumns columns = new CsvColumns();
+
+            for (int i = 0; i < header.getFieldCount(); i++) {
+                String name = header.getString(i).trim().replace("_", "").toLowerCase(Locale.ROOT);
+                switch (name) {
+                    case "accountid":
+                        columns.accountId = i;
+                        break;
+                    case "transactionname":
+                        columns.transactionName = i;
+                        break;
+                    case "date":
+                    case "postdate":
+                        columns.date = i;
+                        break;
+                    case "merchantcode":
+                        columns.merchantCode = i;
+                        break;
+                    case "amountcents":
+                        columns.amountCents = i;
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            if (columns.transactionName < 0 || columns.date < 0 || columns.merchantCode < 0 || columns.amountCents < 0) {
+                throw new TransactionServiceException(Status.IMPORT_MISSING_COLUMN);
+            }
+
+            columns.last = Math.max(Math.max(Math.max(columns.transactionName, columns.date),
+                    Math.max(columns.merchantCode, columns.amountCents)), columns.accountId);
+            return columns;
+        }
+    }
+
+    /**
+     * Collects validated transactions into chunks, flushes them, and keeps the running totals of one upload
+     */
+    private class Loader {
+        final long startNanos = System.nanoTime();
+        final int chunkSize;
+        final List<Transaction> chunk;
+        final List<RejectedItemResponse> rejections = new ArrayList<>();
+
+        long recordsRead;
+        long rejectedCount;
+        long chunkCount;
+        long insertedCount;
+        long alreadyPostedCount;
+        long duplicateInBatchCount;
+
+        Loader(int chunkSize) {
+            this.chunkSize = chunkSize;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        void add(Transaction transaction) {
+            chunk.add(transaction);
+            if (chunk.size() == chunkSize) {
+                flush();
+            }
+        }
+
+        void addOrReject(long index, String transactionName, ServiceResult<Transaction> result) {
+            if (result.isOk()) {
+                add(result.getValue());
+            } else {
+                reject(index, transactionName, result.getStatus());
+            }
+        }
+
+        void reject(long index, String transactionName, Status status) {
+            rejectedCount++;
+            if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                rejections.add(new RejectedItemResponse(index, transactionName, status));
+            }
+        }
+
+        void flush() {
+            ChunkResult result = transactionService.postChunk(chunk);
+            chunk.clear();
+
+            chunkCount++;
+            insertedCount += result.getInsertedCount();
+            alreadyPostedCount += result.getAlreadyPostedCount();
+            duplicateInBatchCount += result.getDuplicateInBatchCount();
+        }
+
+        /**
+         * Flushes the last partial chunk and summarizes the upload
+         */
+        StreamPostResponse finish() {
+            if (!chunk.isEmpty()) {
+                flush();
+            }
+
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            return new StreamPostResponse(recordsRead, insertedCount, alreadyPostedCount, duplicateInBatchCount,
+                    rejectedCount, chunkCount, chunkSize, elapsedMillis, rejections);
+        }
+    }
+}
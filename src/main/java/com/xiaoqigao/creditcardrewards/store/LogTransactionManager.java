@@ -0,0 +1,98 @@
+package com.xiaoqigao.creditcardrewards.store;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.SmartTransactionObject;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs `@Transactional` methods against the {@link LogTransactionStore}.
+ * Inserts made inside a transaction are held on the thread and appended to the log as one frame on commit,
+ * so a transaction is either fully in the log or not at all. Replaces the JDBC transaction manager
+ * when `transaction.store.type=log`.
+ */
+@Component
+@ConditionalOnProperty(name = "transaction.store.type", havingValue = "log")
+public class LogTransactionManager extends AbstractPlatformTransactionManager {
+
+    private final transient LogTransactionStore store;
+
+    @Autowired
+    public LogTransactionManager(LogTransactionStore store) {
+        this.store = store;
+    }
+
+    @Override
+    protected Object doGetTransaction() {
+        LogTransaction transaction = new LogTransaction();
+        transaction.pending = (LogTransactionStore.PendingWrites) TransactionSynchronizationManager.getResource(this.store);
+        return transaction;
+    }
+
+    @Override
+    protected boolean isExistingTransaction(Object transaction) {
+        return ((LogTransaction) transaction).pending != null;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        LogTransaction logTransaction = (LogTransaction) transaction;
+        logTransaction.pending = new LogTransactionStore.PendingWrites();
+        TransactionSynchronizationManager.bindResource(this.store, logTransaction.pending);
+    }
+
+    @Override
+    protected Object doSuspend(Object transaction) {
+        ((LogTransaction) transaction).pending = null;
+        return TransactionSynchronizationManager.unbindResource(this.store);
+    }
+
+    @Override
+    protected void doResume(Object transaction, Object suspendedResources) {
+        TransactionSynchronizationManager.bindResource(this.store, suspendedResources);
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+        this.store.commit(((LogTransaction) status.getTransaction()).pending);
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+        this.store.rollback(((LogTransaction) status.getTransaction()).pending);
+    }
+
+    @Override
+    protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+        ((LogTransaction) status.getTransaction()).pending.rollbackOnly = true;
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(this.store);
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * The writes of the transaction on the current thread, null when there is none
+     */
+    private static class LogTransaction implements SmartTransactionObject {
+        LogTransactionStore.PendingWrites pending;
+
+        @Override
+        public boolean isRollbackOnly() {
+            return this.pending != null && this.pending.rollbackOnly;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,988 @@
+package com.xiaoqigao.creditcardrewards.store;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.model.TransactionAmount;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * An embedded store that keeps transactions in an append-only, checksummed log file,
+ * so a node runs without a database.
+ *
+ * Each commit is appended as one frame: `[payload length][CRC32C of payload][entry count][entries...]`,
+ * and each entry is `[id][post_date][amount_cents][merchant id][name length][account id][name]`.
+ * Merchant codes are registered with frames of their own, `[payload length][CRC32C][-1][merchant id][code length][code]`,
+ * appended before the first entry that uses the id; the fixed ids of MerchantCode are never written.
+ * Logs of older versions are rewritten in this format when they are opened: version 1 entries held the merchant
+ * code itself, and version 2 entries had no account, so they go to the default account.
+ * Only indexes live in memory: account-scoped transaction name to entry offset, month and account to entry offsets,
+ * the monthly totals of each account and the merchant codes.
+ * They are rebuilt by scanning the log on startup; a torn or corrupt frame at the tail, left by a crash
+ * in the middle of an append, is cut off so the log ends at the last complete commit.
+ *
+ * Writes join the Spring transaction managed by {@link LogTransactionManager}: names are reserved when inserted,
+ * so a second insert of the same name fails right away, and the entries are appended when the transaction commits.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transaction.store.type", havingValue = "log")
+public class LogTransactionStore implements TransactionStore {
+
+    static final String LOG_FILE_NAME = "transactions.log";
+
+    /** "TXLG" followed by the format version */
+    static final int MAGIC = 0x54584C47;
+    static final int VERSION = 3;
+    static final int FILE_HEADER_BYTES = 8;
+
+    static final int FRAME_HEADER_BYTES = 8;
+    static final int ENTRY_HEADER_BYTES = 24;
+
+    /** entry count of a frame that registers a merchant */
+    static final int MERCHANT_FRAME = -1;
+
+    /** merchant ids are at most this, like the smallint `merchant.id` column */
+    static final int MAX_MERCHANT_ID = Short.MAX_VALUE;
+
+    /** a frame claiming to be longer than this is treated as corrupt */
+    static final int MAX_FRAME_BYTES = 256 * 1024 * 1024;
+
+    /** window of the log read at once when loading the entries of a month */
+    private static final int READ_WINDOW_BYTES = 64 * 1024;
+
+    private final Path logFile;
+    private final boolean sync;
+
+    private FileChannel channel;
+
+    /** serializes appends; held while a frame is written and indexed */
+    private final Object appendLock = new Object();
+
+    /** guards every index below */
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /** committed transaction name, scoped by its account (see Transaction#scopedName), to the offset of its entry */
+    private final Map<String, Long> nameOffsets = new HashMap<>();
+
+    /** scoped names inserted by transactions that have not committed or rolled back yet */
+    private final Set<String> reservedNames = new HashSet<>();
+
+    /** yyyyMM month to account id to the offsets of the account's entries in the month, in log order */
+    private final NavigableMap<Integer, NavigableMap<Long, OffsetList>> monthOffsets = new TreeMap<>();
+
+    /** yyyyMM month to account id to the amount and count summed for each rollup merchant id */
+    private final NavigableMap<Integer, NavigableMap<Long, MonthTotals>> monthTotals = new TreeMap<>();
+
+    /** merchant code by id, index 0 is unused */
+    private final List<String> merchantCodes = new ArrayList<>();
+
+    /** merchant id by code */
+    private final Map<String, Integer> merchantIds = new HashMap<>();
+
+    /** position where the next frame is written, only changed under appendLock */
+    private long end;
+
+    private int lastId;
+
+    public LogTransactionStore(@Value("${transaction.store.log.directory:data}") String directory,
+                               @Value("${transaction.store.log.sync:true}") boolean sync) {
+        this.logFile = Paths.get(directory).resolve(LOG_FILE_NAME);
+        this.sync = sync;
+    }
+
+    /**
+     * Opens the log, creating it if needed, and rebuilds the indexes from it
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(this.logFile.toAbsolutePath().getParent());
+        int version = readVersion();
+        if (version != 0 && version < VERSION) {
+            upgrade(version);
+        }
+        this.channel = FileChannel.open(this.logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (this.channel.size() < FILE_HEADER_BYTES) {
+            // new log, or one that crashed before its header was complete
+            this.channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(header, 0);
+            this.channel.force(true);
+        }
+
+        long started = System.nanoTime();
+        this.merchantCodes.add(null);
+        for (int merchantId = MerchantCode.OTHER_ID; merchantId < MerchantCode.ROLLUP_SLOTS; merchantId++) {
+            defineMerchant(merchantId, MerchantCode.rollupMerchantCode(merchantId));
+        }
+        recover();
+        log.info("Transaction log {} opened with {} transactions in {} ms", this.logFile, this.nameOffsets.size(),
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    @Override
+    public List<Merchant> selectMerchants() {
+        List<Merchant> merchants = new ArrayList<>();
+        this.indexLock.readLock().lock();
+        try {
+            for (int merchantId = 1; merchantId < this.merchantCodes.size(); merchantId++) {
+                merchants.add(Merchant.builder().id(merchantId).code(this.merchantCodes.get(merchantId)).build());
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+        return merchants;
+    }
+
+    /**
+     * Appends the registration as a frame of its own, outside any pending transaction
+     */
+    @Override
+    public int registerMerchant(String merchantCode) {
+        synchronized (this.appendLock) {
+            Integer known;
+            int merchantId;
+            this.indexLock.readLock().lock();
+            try {
+                known = this.merchantIds.get(merchantCode);
+                merchantId = this.merchantCodes.size();
+            } finally {
+                this.indexLock.readLock().unlock();
+            }
+            if (known != null) {
+                return known;
+            }
+            if (merchantId > MAX_MERCHANT_ID || utf8Length(merchantCode) > 0xFFFF) {
+                throw new DataIntegrityViolationException("Cannot register merchant code " + merchantCode);
+            }
+
+            ByteBuffer frame = encodeMerchantFrame(merchantId, merchantCode);
+            long frameStart = this.end;
+            try {
+                writeFully(frame, frameStart);
+                if (this.sync) {
+                    this.channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new DataAccessResourceFailureException("Could not append to " + this.logFile, e);
+            }
+
+            this.indexLock.writeLock().lock();
+            try {
+                defineMerchant(merchantId, merchantCode);
+                this.end = frameStart + frame.limit();
+            } finally {
+                this.indexLock.writeLock().unlock();
+            }
+            return merchantId;
+        }
+    }
+
+    @Override
+    public void insert(Transaction transaction) {
+        insertBatch(List.of(transaction));
+    }
+
+    @Override
+    public void insertBatch(List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+
+        reserve(transactions);
+
+        PendingWrites pending = (PendingWrites) TransactionSynchronizationManager.getResource(this);
+        if (pending != null) {
+            pending.transactions.addAll(transactions);
+            return;
+        }
+
+        // no surrounding transaction: commit right away
+        PendingWrites autoCommit = new PendingWrites();
+        autoCommit.transactions.addAll(transactions);
+        try {
+            commit(autoCommit);
+        } catch (RuntimeException e) {
+            rollback(autoCommit);
+            throw e;
+        }
+    }
+
+    /**
+     * Entries are read from the log one at a time, only their offsets are copied out of the index
+     */
+    @Override
+    public void forEachInPostDateRange(long accountId, int fromDate, int toDate, Consumer<TransactionAmount> consumer) {
+        List<long[]> ranges = new ArrayList<>();
+        this.indexLock.readLock().lock();
+        try {
+            for (Map<Long, OffsetList> accounts : this.monthOffsets.subMap(fromDate / 100, true, toDate / 100, true).values()) {
+                OffsetList offsets = accounts.get(accountId);
+                if (offsets != null) {
+                    ranges.add(offsets.snapshot());
+                }
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+
+        EntryReader reader = new EntryReader();
+        for (long[] offsets : ranges) {
+            for (long offset : offsets) {
+                Transaction transaction = reader.read(offset);
+                if (transaction.getPostDate() >= fromDate && transaction.getPostDate() <= toDate) {
+                    consumer.accept(TransactionAmount.of(transaction));
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Transaction> selectByTransactionName(long accountId, String transactionName) {
+        Long offset;
+        this.indexLock.readLock().lock();
+        try {
+            offset = this.nameOffsets.get(Transaction.scopedName(accountId, transactionName));
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+
+        return offset == null ? List.of() : List.of(new EntryReader().read(offset));
+    }
+
+    /**
+     * Names reserved by a transaction that has not committed yet count as taken, the way a unique key
+     * would make the second insert wait for the first
+     */
+    @Override
+    public List<String> selectExistingTransactionNames(long accountId, Collection<String> transactionNames) {
+        List<String> existing = new ArrayList<>();
+        this.indexLock.readLock().lock();
+        try {
+            for (String name : transactionNames) {
+                String scopedName = Transaction.scopedName(accountId, name);
+                if (this.nameOffsets.containsKey(scopedName) || this.reservedNames.contains(scopedName)) {
+                    existing.add(name);
+                }
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+        return existing;
+    }
+
+    @Override
+    public long countTransactions() {
+        this.indexLock.readLock().lock();
+        try {
+            return this.nameOffsets.size();
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachTransactionName(ObjLongConsumer<String> consumer) {
+        this.indexLock.readLock().lock();
+        try {
+            for (String scopedName : this.nameOffsets.keySet()) {
+                int separator = scopedName.indexOf(':');
+                consumer.accept(scopedName.substring(separator + 1), Long.parseLong(scopedName, 0, separator, 10));
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<MonthlyMerchantTotal> selectMonthlyTotals(long accountId, int postMonth) {
+        List<MonthlyMerchantTotal> result = new ArrayList<>();
+        this.indexLock.readLock().lock();
+        try {
+            Map<Long, MonthTotals> accounts = this.monthTotals.get(postMonth);
+            MonthTotals totals = accounts == null ? null : accounts.get(accountId);
+            if (totals != null) {
+                totals.appendRows(accountId, postMonth, result);
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public List<MonthlyMerchantTotal> selectMonthlyTotals(long accountId, int fromMonth, int toMonth) {
+        List<MonthlyMerchantTotal> result = new ArrayList<>();
+        this.indexLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, NavigableMap<Long, MonthTotals>> month
+                    : this.monthTotals.subMap(fromMonth, true, toMonth, true).entrySet()) {
+                MonthTotals totals = month.getValue().get(accountId);
+                if (totals != null) {
+                    totals.appendRows(accountId, month.getKey(), result);
+                }
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public List<Long> selectAccountsByMonth(int postMonth) {
+        this.indexLock.readLock().lock();
+        try {
+            NavigableMap<Long, MonthTotals> accounts = this.monthTotals.get(postMonth);
+            return accounts == null ? List.of() : new ArrayList<>(accounts.keySet());
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Integer> selectMonths() {
+        this.indexLock.readLock().lock();
+        try {
+            NavigableSet<Integer> months = new TreeSet<>(this.monthOffsets.keySet());
+            months.addAll(this.monthTotals.keySet());
+            return new ArrayList<>(months);
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<MonthlyMerchantTotal> selectAllMonthlyTotals(int postMonth) {
+        List<MonthlyMerchantTotal> result = new ArrayList<>();
+        this.indexLock.readLock().lock();
+        try {
+            NavigableMap<Long, MonthTotals> accounts = this.monthTotals.get(postMonth);
+            if (accounts != null) {
+                accounts.forEach((accountId, totals) -> totals.appendRows(accountId, postMonth, result));
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Re-reads the month's entries from the log, so the result reflects the file and not the in-memory totals
+     */
+    @Override
+    public List<MonthlyMerchantTotal> sumTransactionsByMonth(int postMonth) {
+        List<Long> accountIds;
+        this.indexLock.readLock().lock();
+        try {
+            NavigableMap<Long, OffsetList> accounts = this.monthOffsets.get(postMonth);
+            accountIds = accounts == null ? List.of() : new ArrayList<>(accounts.keySet());
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+
+        List<MonthlyMerchantTotal> result = new ArrayList<>();
+        for (long accountId : accountIds) {
+            sumMonthFromLog(accountId, postMonth).appendRows(accountId, postMonth, result);
+        }
+        return result;
+    }
+
+    @Override
+    public void rebuildMonthlyTotals(long accountId, int postMonth) {
+        // appends are held off so no commit lands between the re-read and the swap
+        synchronized (this.appendLock) {
+            MonthTotals rebuilt = sumMonthFromLog(accountId, postMonth);
+
+            this.indexLock.writeLock().lock();
+            try {
+                NavigableMap<Long, MonthTotals> accounts = this.monthTotals.computeIfAbsent(postMonth, month -> new TreeMap<>());
+                if (rebuilt.isEmpty()) {
+                    accounts.remove(accountId);
+                } else {
+                    accounts.put(accountId, rebuilt);
+                }
+                if (accounts.isEmpty()) {
+                    this.monthTotals.remove(postMonth);
+                }
+            } finally {
+                this.indexLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Appends the pending entries of a transaction as one frame and indexes them.
+     * Reservations are only released once the frame is written; if the write fails they are kept for the rollback.
+     */
+    void commit(PendingWrites pending) {
+        if (pending.transactions.isEmpty()) {
+            return;
+        }
+
+        synchronized (this.appendLock) {
+            ByteBuffer frame = encodeFrame(pending.transactions, this.lastId + 1);
+            long frameStart = this.end;
+            try {
+                writeFully(frame, frameStart);
+                if (this.sync) {
+                    this.channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new DataAccessResourceFailureException("Could not append to " + this.logFile, e);
+            }
+
+            this.indexLock.writeLock().lock();
+            try {
+                long offset = frameStart + FRAME_HEADER_BYTES + 4;
+                for (Transaction transaction : pending.transactions) {
+                    index(transaction, offset);
+                    this.reservedNames.remove(transaction.scopedName());
+                    offset += entryBytes(transaction);
+                }
+                this.lastId += pending.transactions.size();
+                this.end = frameStart + frame.limit();
+            } finally {
+                this.indexLock.writeLock().unlock();
+            }
+        }
+
+        pending.transactions.clear();
+    }
+
+    /**
+     * Drops the pending entries of a transaction and releases their names
+     */
+    void rollback(PendingWrites pending) {
+        this.indexLock.writeLock().lock();
+        try {
+            for (Transaction transaction : pending.transactions) {
+                this.reservedNames.remove(transaction.scopedName());
+            }
+        } finally {
+            this.indexLock.writeLock().unlock();
+        }
+        pending.transactions.clear();
+    }
+
+    /**
+     * Entries written by one Spring transaction and not yet appended
+     */
+    static class PendingWrites {
+        final List<Transaction> transactions = new ArrayList<>();
+        boolean rollbackOnly;
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * A helper function that reserves the names of new transactions in their accounts, all or nothing.
+     */
+    private void reserve(List<Transaction> transactions) {
+        this.indexLock.writeLock().lock();
+        try {
+            Set<String> names = new HashSet<>();
+            for (Transaction transaction : transactions) {
+                checkEncodable(transaction);
+                String name = transaction.scopedName();
+                if (!names.add(name) || this.nameOffsets.containsKey(name) || this.reservedNames.contains(name)) {
+                    throw new DuplicateKeyException("Duplicate transaction_name '" + transaction.getTransactionName()
+                            + "' in account " + transaction.getAccountId());
+                }
+            }
+            this.reservedNames.addAll(names);
+        } finally {
+            this.indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A helper function that adds one committed entry to the in-memory indexes, under the write lock.
+     */
+    private void index(Transaction transaction, long offset) {
+        int postMonth = transaction.getPostDate() / 100;
+        this.nameOffsets.put(transaction.scopedName(), offset);
+        this.monthOffsets.computeIfAbsent(postMonth, month -> new TreeMap<>())
+                .computeIfAbsent(transaction.getAccountId(), account -> new OffsetList()).add(offset);
+        this.monthTotals.computeIfAbsent(postMonth, month -> new TreeMap<>())
+                .computeIfAbsent(transaction.getAccountId(), account -> new MonthTotals()).add(transaction);
+    }
+
+    /**
+     * A helper function that adds a merchant code to the in-memory dictionary, under the write lock.
+     * Ids are handed out in order, so a merchant frame always defines the next id.
+     */
+    private void defineMerchant(int merchantId, String merchantCode) {
+        if (merchantId != this.merchantCodes.size()) {
+            throw new IllegalStateException(this.logFile + " registers merchant id " + merchantId
+                    + " out of order, expected " + this.merchantCodes.size());
+        }
+        this.merchantCodes.add(merchantCode);
+        this.merchantIds.put(merchantCode, merchantId);
+    }
+
+    /**
+     * A helper function that reads the format version from the header of an existing log.
+     * @return the version, or 0 if there is no complete header
+     */
+    private int readVersion() throws IOException {
+        if (!Files.exists(this.logFile) || Files.size(this.logFile) < FILE_HEADER_BYTES) {
+            return 0;
+        }
+        try (DataInputStream data = new DataInputStream(Files.newInputStream(this.logFile))) {
+            return data.readInt() == MAGIC ? data.readInt() : 0;
+        }
+    }
+
+    /**
+     * A helper function that rewrites a log of an older format version in the current one.
+     * Version 1 entries held the merchant code, which is registered in the order it first appears;
+     * version 2 entries had no account and go to the default account. Frames after the last intact one are dropped,
+     * as recovery would. The new log is written next to the old one and moved over it once it is synced.
+     */
+    private void upgrade(int version) throws IOException {
+        Path upgraded = this.logFile.resolveSibling(LOG_FILE_NAME + ".upgrade");
+        Map<String, Integer> ids = new HashMap<>();
+        for (int merchantId = MerchantCode.OTHER_ID; merchantId < MerchantCode.ROLLUP_SLOTS; merchantId++) {
+            ids.put(MerchantCode.rollupMerchantCode(merchantId), merchantId);
+        }
+
+        long fileSize = Files.size(this.logFile);
+        long position = FILE_HEADER_BYTES;
+        int frames = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(this.logFile), 1 << 20);
+             FileChannel out = FileChannel.open(upgraded, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataInputStream data = new DataInputStream(in);
+            data.readLong();
+            writeAll(out, ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip());
+
+            CRC32C crc = new CRC32C();
+            try {
+                while (position + FRAME_HEADER_BYTES <= fileSize) {
+                    int payloadLength = data.readInt();
+                    int checksum = data.readInt();
+                    if (payloadLength < 4 || payloadLength > MAX_FRAME_BYTES
+                            || position + FRAME_HEADER_BYTES + payloadLength > fileSize) {
+                        break;
+                    }
+                    byte[] payload = new byte[payloadLength];
+                    data.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, payloadLength);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+
+                    ByteBuffer entries = ByteBuffer.wrap(payload);
+                    int count = entries.getInt();
+                    if (count == MERCHANT_FRAME) {
+                        // a version 2 registration, whose format did not change
+                        int merchantId = Short.toUnsignedInt(entries.getShort());
+                        int codeLength = Short.toUnsignedInt(entries.getShort());
+                        String code = new String(payload, entries.position(), codeLength, StandardCharsets.UTF_8);
+                        ids.put(code, merchantId);
+                        writeAll(out, encodeMerchantFrame(merchantId, code));
+                        position += FRAME_HEADER_BYTES + payloadLength;
+                        continue;
+                    }
+
+                    List<Transaction> transactions = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        int id = entries.getInt();
+                        int postDate = entries.getInt();
+                        int amountCents = entries.getInt();
+                        int merchantId;
+                        String name;
+                        if (version == 1) {
+                            int nameLength = Short.toUnsignedInt(entries.getShort());
+                            int merchantLength = Short.toUnsignedInt(entries.getShort());
+                            name = new String(payload, entries.position(), nameLength, StandardCharsets.UTF_8);
+                            String merchant = new String(payload, entries.position() + nameLength, merchantLength, StandardCharsets.UTF_8);
+                            entries.position(entries.position() + nameLength + merchantLength);
+
+                            Integer known = ids.get(merchant);
+                            if (known == null) {
+                                known = ids.size() + 1;
+                                ids.put(merchant, known);
+                                writeAll(out, encodeMerchantFrame(known, merchant));
+                            }
+                            merchantId = known;
+                        } else {
+                            merchantId = Short.toUnsignedInt(entries.getShort());
+                            int nameLength = Short.toUnsignedInt(entries.getShort());
+                            name = new String(payload, entries.position(), nameLength, StandardCharsets.UTF_8);
+                            entries.position(entries.position() + nameLength);
+                        }
+                        transactions.add(Transaction.builder().id(id).accountId(Transaction.DEFAULT_ACCOUNT_ID)
+                                .transactionName(name).postDate(postDate).merchantId(merchantId).amountCents(amountCents)
+                                .build());
+                    }
+                    if (!transactions.isEmpty()) {
+                        writeAll(out, encodeFrame(transactions, transactions.get(0).getId()));
+                    }
+                    position += FRAME_HEADER_BYTES + payloadLength;
+                    frames++;
+                }
+            } catch (EOFException e) {
+                // the tail is shorter than its header claims, dropped like recovery does
+            }
+            out.force(true);
+        }
+
+        Files.move(upgraded, this.logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Transaction log {} upgraded from version {}: {} commits, {} merchants", this.logFile, version,
+                frames, ids.size());
+    }
+
+    /**
+     * A helper function that scans the log from the start, rebuilds the indexes
+     * and cuts off anything after the last complete, intact frame.
+     */
+    private void recover() throws IOException {
+        long fileSize = this.channel.size();
+        long position = FILE_HEADER_BYTES;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(this.logFile), 1 << 20)) {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IllegalStateException(this.logFile + " is not a version " + VERSION + " transaction log");
+            }
+
+            CRC32C crc = new CRC32C();
+            while (position + FRAME_HEADER_BYTES <= fileSize) {
+                int payloadLength = data.readInt();
+                int checksum = data.readInt();
+                if (payloadLength < 4 || payloadLength > MAX_FRAME_BYTES
+                        || position + FRAME_HEADER_BYTES + payloadLength > fileSize) {
+                    break;
+                }
+
+                byte[] payload = new byte[payloadLength];
+                data.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, payloadLength);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                ByteBuffer entries = ByteBuffer.wrap(payload);
+                int count = entries.getInt();
+                if (count == MERCHANT_FRAME) {
+                    int merchantId = Short.toUnsignedInt(entries.getShort());
+                    int codeLength = Short.toUnsignedInt(entries.getShort());
+                    defineMerchant(merchantId, new String(payload, entries.position(), codeLength, StandardCharsets.UTF_8));
+                    position += FRAME_HEADER_BYTES + payloadLength;
+                    continue;
+                }
+                long offset = position + FRAME_HEADER_BYTES + 4;
+                for (int i = 0; i < count; i++) {
+                    Transaction transaction = decodeEntry(entries);
+                    index(transaction, offset);
+                    this.lastId = Math.max(this.lastId, transaction.getId());
+                    offset += entryBytes(transaction);
+                }
+                position += FRAME_HEADER_BYTES + payloadLength;
+            }
+        } catch (EOFException e) {
+            // the tail is shorter than its header claims, handled below
+        }
+
+        if (position < fileSize) {
+            log.warn("Transaction log {} has {} bytes after the last complete commit, truncating them",
+                    this.logFile, fileSize - position);
+            this.channel.truncate(position);
+            this.channel.force(true);
+        }
+        this.end = position;
+    }
+
+    /**
+     * A helper function that re-reads one account's month from the log and sums it per rollup merchant.
+     */
+    private MonthTotals sumMonthFromLog(long accountId, int postMonth) {
+        long[] offsets;
+        this.indexLock.readLock().lock();
+        try {
+            Map<Long, OffsetList> accounts = this.monthOffsets.get(postMonth);
+            OffsetList list = accounts == null ? null : accounts.get(accountId);
+            offsets = list == null ? new long[0] : list.snapshot();
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+
+        MonthTotals totals = new MonthTotals();
+        EntryReader reader = new EntryReader();
+        for (long offset : offsets) {
+            totals.add(reader.read(offset));
+        }
+        return totals;
+    }
+
+    private ByteBuffer encodeFrame(List<Transaction> transactions, int firstId) {
+        int payloadLength = 4;
+        for (Transaction transaction : transactions) {
+            payloadLength += entryBytes(transaction);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + payloadLength);
+        frame.position(FRAME_HEADER_BYTES);
+        frame.putInt(transactions.size());
+
+        int id = firstId;
+        for (Transaction transaction : transactions) {
+            byte[] name = transaction.getTransactionName().getBytes(StandardCharsets.UTF_8);
+            frame.putInt(id++)
+                    .putInt(transaction.getPostDate())
+                    .putInt(transaction.getAmountCents())
+                    .putShort((short) transaction.getMerchantId())
+                    .putShort((short) name.length)
+                    .putLong(transaction.getAccountId())
+                    .put(name);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(frame.array(), FRAME_HEADER_BYTES, payloadLength);
+        frame.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+        frame.flip();
+        return frame;
+    }
+
+    static ByteBuffer encodeMerchantFrame(int merchantId, String merchantCode) {
+        byte[] code = merchantCode.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 8 + code.length;
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + payloadLength);
+        frame.position(FRAME_HEADER_BYTES);
+        frame.putInt(MERCHANT_FRAME)
+                .putShort((short) merchantId)
+                .putShort((short) code.length)
+                .put(code);
+
+        CRC32C crc = new CRC32C();
+        crc.update(frame.array(), FRAME_HEADER_BYTES, payloadLength);
+        frame.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+        frame.flip();
+        return frame;
+    }
+
+    private static Transaction decodeEntry(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        int postDate = buffer.getInt();
+        int amountCents = buffer.getInt();
+        int merchantId = Short.toUnsignedInt(buffer.getShort());
+        int nameLength = Short.toUnsignedInt(buffer.getShort());
+        long accountId = buffer.getLong();
+
+        String name = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), nameLength, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + nameLength);
+
+        return Transaction.builder()
+                .id(id)
+                .accountId(accountId)
+                .transactionName(name)
+                .postDate(postDate)
+                .merchantId(merchantId)
+                .amountCents(amountCents)
+                .build();
+    }
+
+    private static int entryBytes(Transaction transaction) {
+        return ENTRY_HEADER_BYTES + utf8Length(transaction.getTransactionName());
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The merchant must have been registered, the way a foreign key would require it; under the index lock
+     */
+    private void checkEncodable(Transaction transaction) {
+        if (utf8Length(transaction.getTransactionName()) > 0xFFFF) {
+            throw new DataIntegrityViolationException("Transaction name is too long");
+        }
+        if (transaction.getMerchantId() <= 0 || transaction.getMerchantId() >= this.merchantCodes.size()) {
+            throw new DataIntegrityViolationException("Unknown merchant id " + transaction.getMerchantId());
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            at += this.channel.write(buffer, at);
+        }
+    }
+
+    private static void writeAll(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Reads entries at known offsets through a window of the log, so entries of one month,
+     * which sit close together, mostly cost one read per window
+     */
+    private class EntryReader {
+        private ByteBuffer window = ByteBuffer.allocate(READ_WINDOW_BYTES).limit(0);
+        private long windowStart;
+
+        Transaction read(long offset) {
+            ensure(offset, ENTRY_HEADER_BYTES);
+            int at = (int) (offset - this.windowStart);
+            int length = ENTRY_HEADER_BYTES + Short.toUnsignedInt(this.window.getShort(at + 14));
+            ensure(offset, length);
+
+            ByteBuffer entry = this.window.duplicate();
+            entry.position((int) (offset - this.windowStart));
+            return decodeEntry(entry);
+        }
+
+        private void ensure(long offset, int length) {
+            if (offset >= this.windowStart && offset + length <= this.windowStart + this.window.limit()) {
+                return;
+            }
+
+            if (this.window.capacity() < length) {
+                this.window = ByteBuffer.allocate(length);
+            }
+            this.window.clear();
+            try {
+                long at = offset;
+                while (this.window.position() < length) {
+                    int read = channel.read(this.window, at);
+                    if (read < 0) {
+                        throw new DataAccessResourceFailureException("Transaction log ends inside an entry at " + offset);
+                    }
+                    at += read;
+                }
+            } catch (IOException e) {
+                throw new DataAccessResourceFailureException("Could not read " + logFile, e);
+            }
+            this.window.flip();
+            this.windowStart = offset;
+        }
+    }
+
+    /**
+     * A growable array of entry offsets
+     */
+    private static class OffsetList {
+        private long[] offsets = new long[4];
+        private int size;
+
+        void add(long offset) {
+            if (this.size == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+            }
+            this.offsets[this.size++] = offset;
+        }
+
+        long[] snapshot() {
+            return Arrays.copyOf(this.offsets, this.size);
+        }
+    }
+
+    /**
+     * Amount and count of one month, summed per rollup merchant id
+     */
+    private static class MonthTotals {
+        private final long[] amountCents = new long[MerchantCode.ROLLUP_SLOTS];
+        private final int[] counts = new int[MerchantCode.ROLLUP_SLOTS];
+
+        void add(Transaction transaction) {
+            int merchantId = MerchantCode.rollupMerchantId(transaction.getMerchantId());
+            this.amountCents[merchantId] += transaction.getAmountCents();
+            this.counts[merchantId]++;
+        }
+
+        boolean isEmpty() {
+            for (int count : this.counts) {
+                if (count != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void appendRows(long accountId, int postMonth, List<MonthlyMerchantTotal> rows) {
+            for (int merchantId = MerchantCode.OTHER_ID; merchantId < MerchantCode.ROLLUP_SLOTS; merchantId++) {
+                if (this.counts[merchantId] != 0) {
+                    rows.add(MonthlyMerchantTotal.builder()
+                            .accountId(accountId)
+                            .postMonth(postMonth)
+                            .merchantId(merchantId)
+                            .amountCents(this.amountCents[merchantId])
+                            .transactionCount(this.counts[merchantId])
+                            .build());
+                }
+            }
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
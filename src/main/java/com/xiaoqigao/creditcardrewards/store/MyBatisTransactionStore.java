@@ -0,0 +1,186 @@
+package com.xiaoqigao.creditcardrewards.store;
+
+import com.xiaoqigao.creditcardrewards.DAO.MerchantDAO;
+import com.xiaoqigao.creditcardrewards.DAO.MonthlyMerchantTotalsDAO;
+import com.xiaoqigao.creditcardrewards.DAO.TransactionDAO;
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.model.TransactionAmount;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Keeps transactions in the MySQL `transaction` table through the MyBatis mappers,
+ * with the rollup in `monthly_merchant_totals` upserted in the same database transaction as the insert.
+ */
+@Component
+@ConditionalOnProperty(name = "transaction.store.type", havingValue = "mybatis", matchIfMissing = true)
+public class MyBatisTransactionStore implements TransactionStore {
+
+    /** Dependency Injection */
+    @Autowired
+    TransactionDAO transactionDAO;
+
+    @Autowired
+    MonthlyMerchantTotalsDAO monthlyMerchantTotalsDAO;
+
+    @Autowired
+    MerchantDAO merchantDAO;
+
+    @Override
+    public List<Merchant> selectMerchants() {
+        return this.merchantDAO.selectAll();
+    }
+
+    /**
+     * Runs in its own database transaction, so the `merchant` row is committed before the caller's insert uses its id.
+     * A code registered by another node after the first read is not visible to a plain read under REPEATABLE READ,
+     * so the id is read back with a locking read.
+     */
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public int registerMerchant(String merchantCode) {
+        Integer id = this.merchantDAO.selectIdByCode(merchantCode);
+        if (id != null) {
+            return id;
+        }
+
+        this.merchantDAO.upsert(merchantCode);
+        id = this.merchantDAO.selectIdByCodeForUpdate(merchantCode);
+        if (id == null) {
+            // the auto-increment reached the end of the smallint id space and collided with the last id instead
+            throw new DataIntegrityViolationException("No merchant id left for " + merchantCode);
+        }
+        return id;
+    }
+
+    @Override
+    public void insert(Transaction transaction) {
+        this.transactionDAO.insert(transaction);
+        addToMonthlyTotals(List.of(transaction));
+    }
+
+    @Override
+    public void insertBatch(List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+
+        this.transactionDAO.insertBatch(transactions);
+        addToMonthlyTotals(transactions);
+    }
+
+    @Override
+    public void forEachInPostDateRange(long accountId, int fromDate, int toDate, Consumer<TransactionAmount> consumer) {
+        this.transactionDAO.scanByPostDateRange(accountId, fromDate, toDate,
+                context -> consumer.accept(context.getResultObject()));
+    }
+
+    @Override
+    public List<Transaction> selectByTransactionName(long accountId, String transactionName) {
+        return this.transactionDAO.selectByTransactionName(accountId, transactionName);
+    }
+
+    @Override
+    public List<String> selectExistingTransactionNames(long accountId, Collection<String> transactionNames) {
+        return this.transactionDAO.selectExistingTransactionNames(accountId, transactionNames);
+    }
+
+    @Override
+    public long countTransactions() {
+        return this.transactionDAO.countTransactions();
+    }
+
+    @Override
+    public void forEachTransactionName(ObjLongConsumer<String> consumer) {
+        this.transactionDAO.scanTransactionNames(context -> consumer.accept(
+                context.getResultObject().getTransactionName(), context.getResultObject().getAccountId()));
+    }
+
+    @Override
+    public List<MonthlyMerchantTotal> selectMonthlyTotals(long accountId, int postMonth) {
+        return this.monthlyMerchantTotalsDAO.selectByMonth(accountId, postMonth);
+    }
+
+    @Override
+    public List<MonthlyMerchantTotal> selectMonthlyTotals(long accountId, int fromMonth, int toMonth) {
+        return this.monthlyMerchantTotalsDAO.selectByMonthRange(accountId, fromMonth, toMonth);
+    }
+
+    @Override
+    public List<Long> selectAccountsByMonth(int postMonth) {
+        return this.monthlyMerchantTotalsDAO.selectAccountsByMonth(postMonth);
+    }
+
+    @Override
+    public List<Integer> selectMonths() {
+        return this.monthlyMerchantTotalsDAO.selectMonths();
+    }
+
+    @Override
+    public List<MonthlyMerchantTotal> selectAllMonthlyTotals(int postMonth) {
+        return this.monthlyMerchantTotalsDAO.selectAllByMonth(postMonth);
+    }
+
+    @Override
+    public List<MonthlyMerchantTotal> sumTransactionsByMonth(int postMonth) {
+        return this.monthlyMerchantTotalsDAO.sumRawMonth(postMonth);
+    }
+
+    /**
+     * INSERT ... SELECT locks the scanned range, so inserts into the month wait until the surrounding transaction commits
+     */
+    @Override
+    public void rebuildMonthlyTotals(long accountId, int postMonth) {
+        this.monthlyMerchantTotalsDAO.deleteMonth(accountId, postMonth);
+        this.monthlyMerchantTotalsDAO.rebuildMonth(accountId, postMonth);
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * A helper function that adds inserted transactions to the monthly rollup, in the caller's database transaction.
+     * The deltas are summed per (account, month, merchant) first and written in key order,
+     * so concurrent chunks touching the same months lock the rollup rows in the same order.
+     * @param inserted transactions that were just inserted
+     */
+    private void addToMonthlyTotals(List<Transaction> inserted) {
+
+        TreeMap<Long, TreeMap<Long, long[]>> deltas = new TreeMap<>();
+        for (Transaction transaction : inserted) {
+            int postMonth = transaction.getPostDate() / 100;
+            int merchantId = MerchantCode.rollupMerchantId(transaction.getMerchantId());
+            long[] delta = deltas.computeIfAbsent(transaction.getAccountId(), account -> new TreeMap<>())
+                    .computeIfAbsent((long) postMonth << 16 | merchantId, key -> new long[2]);
+            delta[0] += transaction.getAmountCents();
+            delta[1]++;
+        }
+
+        List<MonthlyMerchantTotal> rows = new ArrayList<>();
+        deltas.forEach((accountId, accountDeltas) -> accountDeltas.forEach((key, delta) -> rows.add(
+                MonthlyMerchantTotal.builder()
+                        .accountId(accountId)
+                        .postMonth((int) (key >>> 16))
+                        .merchantId((int) (key & 0xFFFF))
+                        .amountCents(delta[0])
+                        .transactionCount((int) delta[1])
+                        .build())));
+
+        this.monthlyMerchantTotalsDAO.upsertDeltas(rows);
+    }
+
+    /** ================================== end of helper ================================== */
+}
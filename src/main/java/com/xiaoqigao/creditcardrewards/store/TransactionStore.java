@@ -0,0 +1,110 @@
+package com.xiaoqigao.creditcardrewards.store;
+
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.model.TransactionAmount;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Storage SPI for posted transactions and their monthly rollup.
+ * The backend is chosen with `transaction.store.type`: `mybatis` (default) keeps them in MySQL,
+ * `log` in an embedded append-only log. Writes join the Spring transaction that is active on the calling thread.
+ * Transactions refer to their merchant by id; the codes are kept by the store and cached by MerchantRegistry.
+ * Transactions and the rollup are partitioned by account: names are unique within an account, and reading one
+ * account's month costs that account's rows, however many other accounts there are.
+ */
+public interface TransactionStore {
+
+    /**
+     * Selects every registered merchant, including the fixed ids of MerchantCode
+     */
+    List<Merchant> selectMerchants();
+
+    /**
+     * Registers a merchant code unless it is registered already.
+     * The registration is durable as soon as this returns, even if the caller's transaction rolls back,
+     * so an id handed out is never reused for another code.
+     * @return the code's id
+     */
+    int registerMerchant(String merchantCode);
+
+    /**
+     * Stores one transaction and adds it to the monthly rollup
+     * @throws org.springframework.dao.DuplicateKeyException if the account already has the transaction name
+     */
+    void insert(Transaction transaction);
+
+    /**
+     * Stores transactions with distinct names per account as one write and adds them to the monthly rollup
+     * @throws org.springframework.dao.DuplicateKeyException if any of the names is already taken, nothing is stored
+     */
+    void insertBatch(List<Transaction> transactions);
+
+    /**
+     * Passes the name, merchant and amount of each transaction of one account posted between two packed yyyyMMdd
+     * dates, inclusive, to the consumer one at a time without materializing the range. The consumer must not call
+     * the store.
+     */
+    void forEachInPostDateRange(long accountId, int fromDate, int toDate, Consumer<TransactionAmount> consumer);
+
+    List<Transaction> selectByTransactionName(long accountId, String transactionName);
+
+    /**
+     * Returns which of the given transaction names the account already has
+     */
+    List<String> selectExistingTransactionNames(long accountId, Collection<String> transactionNames);
+
+    long countTransactions();
+
+    /**
+     * Passes every transaction name with its account id to the consumer without materializing them all
+     */
+    void forEachTransactionName(ObjLongConsumer<String> consumer);
+
+    /**
+     * Selects the rollup rows of one account's month
+     * @param postMonth month packed as yyyyMM
+     */
+    List<MonthlyMerchantTotal> selectMonthlyTotals(long accountId, int postMonth);
+
+    /**
+     * Selects the rollup rows of one account's months between two packed yyyyMM months, inclusive,
+     * in (month, merchant) order
+     */
+    List<MonthlyMerchantTotal> selectMonthlyTotals(long accountId, int fromMonth, int toMonth);
+
+    /**
+     * Selects the accounts with transactions in a month, in ascending order
+     * @param postMonth month packed as yyyyMM
+     */
+    List<Long> selectAccountsByMonth(int postMonth);
+
+    /**
+     * Selects the months that have stored transactions or rollup rows, in ascending order
+     */
+    List<Integer> selectMonths();
+
+    /**
+     * Selects the rollup rows of every account in a month, in (account, merchant) order
+     * @param postMonth month packed as yyyyMM
+     */
+    List<MonthlyMerchantTotal> selectAllMonthlyTotals(int postMonth);
+
+    /**
+     * Sums one month of the stored transactions the way the rollup does, in (account, merchant) order
+     * @param postMonth month packed as yyyyMM
+     */
+    List<MonthlyMerchantTotal> sumTransactionsByMonth(int postMonth);
+
+    /**
+     * Recomputes one account's month of the rollup from the stored transactions
+     * @param postMonth month packed as yyyyMM
+     */
+    void rebuildMonthlyTotals(long accountId, int postMonth);
+
+}
@@ -0,0 +1,123 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter over strings.
+ * {@link #mightContain} never returns false for a value that was {@link #put}, and returns true for a value
+ * that was not put with roughly the configured false positive rate, as long as the expected number of
+ * insertions is not exceeded.
+ */
+public final class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long expectedInsertions;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * Sizes the filter for the given load
+     * @param expectedInsertions number of values expected to be put
+     * @param falsePositiveRate target false positive rate, between 0 and 1 exclusive
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: " + falsePositiveRate);
+        }
+
+        long n = Math.max(1, expectedInsertions);
+        // optimal size and number of hash functions for n values at the target rate
+        long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) / 64));
+
+        this.words = new AtomicLongArray(wordCount);
+        this.expectedInsertions = n;
+        this.bitCount = (long) wordCount * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / n * Math.log(2)));
+    }
+
+    /**
+     * Adds a value to the filter
+     */
+    public void put(CharSequence value) {
+        long hash = hash64(value);
+        long h1 = hash;
+        long h2 = mix64(hash ^ 0x9E3779B97F4A7C15L) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((words.get(word) & mask) == 0) {
+                words.getAndAccumulate(word, mask, (current, m) -> current | m);
+            }
+        }
+        insertions.incrementAndGet();
+    }
+
+    /**
+     * Checks a value against the filter
+     * @return false if the value was definitely never put, true if it might have been
+     */
+    public boolean mightContain(CharSequence value) {
+        long hash = hash64(value);
+        long h1 = hash;
+        long h2 = mix64(hash ^ 0x9E3779B97F4A7C15L) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of {@link #put} calls, including repeated values
+     */
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    /**
+     * Number of values the filter was sized for; past it the false positive rate climbs above the target
+     */
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units, finished with a 64-bit mixer
+     */
+    private static long hash64(CharSequence value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix64(hash);
+    }
+
+    /**
+     * MurmurHash3 fmix64 finalizer
+     */
+    private static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,250 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.RewardRule;
+import com.xiaoqigao.creditcardrewards.model.RuleSolution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One version of the reward rules, compiled when it is loaded so that no rule definition is read per request.
+ * <ul>
+ *     <li>Monthly points go through a {@link RewardRuleSolver} built for the table.</li>
+ *     <li>A single transaction can only use the rules that name its merchant alone. For each such merchant the
+ *     best points for every dollar amount up to a threshold are precomputed into a table. Past the threshold an
+ *     optimal solution always fires the rule with the best gain per dollar once more, so a larger amount is
+ *     reduced into the table with one division. A merchant without such rules gets a one-entry table whose step
+ *     is a dollar at the leftover rate, so every transaction is scored by the same arithmetic without branching
+ *     on its merchant.</li>
+ * </ul>
+ */
+public final class CompiledRuleSet {
+
+    private final int effectiveMonth;
+    private final List<RewardRule> rules;
+    private final int pointsPerLeftoverDollar;
+    private final RewardRuleSolver monthlySolver;
+
+    /** equal for rule sets with the same content, whatever order their rules were listed in */
+    private final int fingerprint;
+
+    /** the solver's column for each rollup merchant id, or -1 for merchants no rule mentions */
+    private final int[] columnByRollupId = new int[MerchantCode.ROLLUP_SLOTS];
+    private final int columnCount;
+
+    /** the transaction level tables of every rollup merchant id, laid end to end */
+    private final long[] tablePoints;
+
+    /** by rollup merchant id: where its table starts in tablePoints, its length, and the dollars and points of
+     * the rule that every amount past the table is reduced by */
+    private final int[] tableStart = new int[MerchantCode.ROLLUP_SLOTS];
+    private final int[] tableLength = new int[MerchantCode.ROLLUP_SLOTS];
+    private final long[] stepDollars = new long[MerchantCode.ROLLUP_SLOTS];
+    private final long[] stepPoints = new long[MerchantCode.ROLLUP_SLOTS];
+
+    /**
+     * Compiles a rule set
+     * @param effectiveMonth first month the rules apply to, packed as yyyyMM
+     * @param rules the monthly rules
+     * @param pointsPerLeftoverDollar points for every dollar no rule uses
+     */
+    public CompiledRuleSet(int effectiveMonth, List<RewardRule> rules, int pointsPerLeftoverDollar) {
+        this.effectiveMonth = effectiveMonth;
+        this.rules = List.copyOf(rules);
+        this.pointsPerLeftoverDollar = pointsPerLeftoverDollar;
+        this.fingerprint = 31 * (31 * effectiveMonth + pointsPerLeftoverDollar) + Set.copyOf(rules).hashCode();
+        this.monthlySolver = new RewardRuleSolver(rules, pointsPerLeftoverDollar);
+        List<String> columns = this.monthlySolver.getMerchants();
+        this.columnCount = columns.size();
+        for (int merchantId = MerchantCode.OTHER_ID; merchantId < MerchantCode.ROLLUP_SLOTS; merchantId++) {
+            this.columnByRollupId[merchantId] = columns.indexOf(MerchantCode.rollupMerchantCode(merchantId));
+        }
+
+        Map<String, List<RewardRule>> singleMerchantRules = new HashMap<>();
+        for (RewardRule rule : rules) {
+            if (rule.getDollarsByMerchant().size() == 1) {
+                String merchant = rule.getDollarsByMerchant().keySet().iterator().next();
+                singleMerchantRules.computeIfAbsent(merchant, key -> new ArrayList<>()).add(rule);
+            }
+        }
+        PointsTable leftoverOnly = new PointsTable(new long[1], 1, pointsPerLeftoverDollar);
+        PointsTable[] tables = new PointsTable[MerchantCode.ROLLUP_SLOTS];
+        int totalLength = 0;
+        for (int merchantId = MerchantCode.OTHER_ID; merchantId < MerchantCode.ROLLUP_SLOTS; merchantId++) {
+            String merchant = MerchantCode.rollupMerchantCode(merchantId);
+            List<RewardRule> merchantRules = singleMerchantRules.get(merchant);
+            PointsTable table = merchantRules == null ? null
+                    : PointsTable.compile(merchant, merchantRules, pointsPerLeftoverDollar);
+            tables[merchantId] = table == null ? leftoverOnly : table;
+            totalLength += tables[merchantId].points.length;
+        }
+
+        this.tablePoints = new long[totalLength];
+        int start = 0;
+        for (int merchantId = MerchantCode.OTHER_ID; merchantId < MerchantCode.ROLLUP_SLOTS; merchantId++) {
+            PointsTable table = tables[merchantId];
+            System.arraycopy(table.points, 0, this.tablePoints, start, table.points.length);
+            this.tableStart[merchantId] = start;
+            this.tableLength[merchantId] = table.points.length;
+            this.stepDollars[merchantId] = table.bestDollars;
+            this.stepPoints[merchantId] = table.bestPoints;
+            start += table.points.length;
+        }
+    }
+
+    /**
+     * Get the first month the rules apply to
+     * @return yyyyMM
+     */
+    public int getEffectiveMonth() {
+        return this.effectiveMonth;
+    }
+
+    public List<RewardRule> getRules() {
+        return this.rules;
+    }
+
+    /**
+     * A hash of the rules, the same on every node that loaded the same rule set file
+     */
+    public int getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * Maximum points for one month of spend
+     * @param dollarsByMerchant whole dollars spent at each merchant
+     * @return the points and how many times each rule fired
+     */
+    public RuleSolution monthlyPoints(Map<String, Long> dollarsByMerchant) {
+        return this.monthlySolver.solve(dollarsByMerchant);
+    }
+
+    /**
+     * Maximum points for one month of rollup totals
+     * @param dollarsByRollupId whole dollars by rollup merchant id (see MerchantCode.ROLLUP_SLOTS)
+     * @return the points and how many times each rule fired
+     */
+    public RuleSolution monthlyPoints(long[] dollarsByRollupId) {
+        long[] dollars = new long[this.columnCount];
+        long otherDollars = 0;
+        for (int merchantId = MerchantCode.OTHER_ID; merchantId < MerchantCode.ROLLUP_SLOTS; merchantId++) {
+            int column = this.columnByRollupId[merchantId];
+            if (column >= 0) {
+                dollars[column] = dollarsByRollupId[merchantId];
+            } else {
+                otherDollars = Math.addExact(otherDollars, dollarsByRollupId[merchantId]);
+            }
+        }
+        return this.monthlySolver.solve(dollars, otherDollars);
+    }
+
+    /**
+     * Maximum points for a single transaction
+     * @param merchantId the transaction's merchant id
+     * @param dollars whole dollars of the transaction
+     * @return transaction level points
+     */
+    public long transactionLevelPoints(int merchantId, long dollars) {
+        return pointsOf(MerchantCode.rollupMerchantId(merchantId), dollars);
+    }
+
+    /**
+     * Maximum points of many transactions, each on its own, e.g. the transactions of a month
+     * @param merchantIds merchant id of each transaction
+     * @param amountCents amount of each transaction, only whole dollars earn points
+     * @param from first index to score
+     * @param to index after the last one to score
+     * @param points receives the transaction level points at the same indexes
+     */
+    public void transactionLevelPoints(int[] merchantIds, int[] amountCents, int from, int to, long[] points) {
+        for (int i = from; i < to; i++) {
+            points[i] = pointsOf(MerchantCode.rollupMerchantId(merchantIds[i]), amountCents[i] / 100);
+        }
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * A helper function that scores whole dollars at one rollup merchant. Amounts past the table take away
+     * the step rule as many times as needed to land in its last stretch, which for amounts inside the table
+     * clamps to zero times.
+     */
+    private long pointsOf(int rollupId, long dollars) {
+        long step = this.stepDollars[rollupId];
+        long times = Math.max(0, (dollars - this.tableLength[rollupId] + step) / step);
+        return this.tablePoints[this.tableStart[rollupId] + (int) (dollars - times * step)] + times * this.stepPoints[rollupId];
+    }
+
+    /**
+     * Best points by dollar amount for the single-merchant rules of one merchant
+     */
+    private static final class PointsTable {
+
+        /** best points for 0 to threshold - 1 dollars */
+        private final long[] points;
+
+        /** dollars and points of the rule with the best gain per dollar */
+        private final long bestDollars;
+        private final long bestPoints;
+
+        private PointsTable(long[] points, long bestDollars, long bestPoints) {
+            this.points = points;
+            this.bestDollars = bestDollars;
+            this.bestPoints = bestPoints;
+        }
+
+        /**
+         * Builds the table, or returns null when no rule earns more than its dollars as leftovers.
+         * If an optimal solution fired the other rules c times or more, where c is the best rule's dollars,
+         * some of those applications would add up to a multiple of c dollars and could be swapped for the best
+         * rule without losing points; and c leftover dollars would always fire the best rule once more.
+         * So from (c - 1) * (largest rule) + c dollars on, the best rule is always part of an optimal solution.
+         */
+        static PointsTable compile(String merchant, List<RewardRule> rules, int pointsPerLeftoverDollar) {
+            RewardRule best = null;
+            long largest = 0;
+            for (RewardRule rule : rules) {
+                long dollars = rule.getDollarsByMerchant().get(merchant);
+                long gain = rule.getPoints() - dollars * pointsPerLeftoverDollar;
+                largest = Math.max(largest, dollars);
+                if (gain > 0 && (best == null || gain * dollarsOf(best, merchant)
+                        > gainOf(best, merchant, pointsPerLeftoverDollar) * dollars)) {
+                    best = rule;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+
+            long bestDollars = dollarsOf(best, merchant);
+            int threshold = Math.toIntExact((bestDollars - 1) * largest + bestDollars);
+            long[] points = new long[threshold];
+            for (int amount = 1; amount < threshold; amount++) {
+                long value = points[amount - 1] + pointsPerLeftoverDollar;
+                for (RewardRule rule : rules) {
+                    long dollars = dollarsOf(rule, merchant);
+                    if (dollars <= amount) {
+                        value = Math.max(value, rule.getPoints() + points[(int) (amount - dollars)]);
+                    }
+                }
+                points[amount] = value;
+            }
+            return new PointsTable(points, bestDollars, best.getPoints());
+        }
+
+        private static long dollarsOf(RewardRule rule, String merchant) {
+            return rule.getDollarsByMerchant().get(merchant);
+        }
+
+        private static long gainOf(RewardRule rule, String merchant, int pointsPerLeftoverDollar) {
+            return rule.getPoints() - dollarsOf(rule, merchant) * pointsPerLeftoverDollar;
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
@@ -0,0 +1,318 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads CSV records straight from a byte stream (RFC 4180: comma separated, optional double quotes,
+ * "" inside quotes, LF or CRLF line endings).
+ * Records are scanned in place in a reusable buffer and fields are only marked by their offsets,
+ * so reading a record allocates nothing; a field becomes a String only when {@link #getString} asks for it,
+ * and dates and numbers are parsed from the bytes directly.
+ * Field offsets are valid until the next call to {@link #next}.
+ */
+public final class CsvRecordReader implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** a single record larger than this is treated as a malformed file */
+    private static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private boolean started;
+
+    private int[] fieldStart = new int[8];
+    private int[] fieldEnd = new int[8];
+    private boolean[] fieldQuoted = new boolean[8];
+    private int fieldCount;
+
+    public CsvRecordReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvRecordReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(16, bufferSize)];
+    }
+
+    /**
+     * Advances to the next non-blank record
+     * @return false at the end of the stream
+     */
+    public boolean next() throws IOException {
+        if (!started) {
+            started = true;
+            skipByteOrderMark();
+        }
+
+        while (true) {
+            if (position < limit || !endOfStream) {
+                int end = scanRecord(position, endOfStream);
+                if (end >= 0) {
+                    position = end;
+                    boolean blank = fieldCount == 1 && !fieldQuoted[0] && fieldStart[0] == fieldEnd[0];
+                    if (!blank) {
+                        return true;
+                    }
+                    continue;
+                }
+            }
+
+            if (endOfStream) {
+                return false;
+            }
+            fill();
+        }
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return true if the field is empty or is a quoted empty string
+     */
+    public boolean isEmpty(int field) {
+        return contentEnd(field) == contentStart(field);
+    }
+
+    /**
+     * Decodes a field as UTF-8, removing the surrounding quotes and unescaping ""
+     */
+    public String getString(int field) {
+        int start = contentStart(field);
+        int end = contentEnd(field);
+
+        if (fieldQuoted[field]) {
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == '"') {
+                    return unescape(start, end);
+                }
+            }
+        }
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a `yyyy-MM-dd` field without decoding it
+     * @return packed yyyyMMdd date, or {@link DateCodec#INVALID}
+     */
+    public int getDate(int field) {
+        int start = contentStart(field);
+        return DateCodec.parse(buffer, start, contentEnd(field) - start);
+    }
+
+    /**
+     * Parses a decimal int field without decoding it, allowing surrounding spaces and a leading minus sign
+     * @throws NumberFormatException if the field is not a whole number in int range
+     */
+    public int getInt(int field) {
+        return (int) parseLong(field, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parses a decimal long field without decoding it, allowing surrounding spaces and a leading minus sign
+     * @throws NumberFormatException if the field is not a whole number in long range
+     */
+    public long getLong(int field) {
+        return parseLong(field, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * Parses a decimal field between the given bounds. Digits are accumulated as a negative number,
+     * so Long.MIN_VALUE, which has no positive counterpart, can be read too.
+     */
+    private long parseLong(int field, long min, long max) {
+        int start = contentStart(field);
+        int end = contentEnd(field);
+        while (start < end && buffer[start] == ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] == ' ') {
+            end--;
+        }
+
+        boolean negative = start < end && buffer[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException("not a number");
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not a number");
+            }
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("out of range");
+            }
+            value = value * 10 - digit;
+        }
+
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw new NumberFormatException("out of range");
+            }
+            value = -value;
+        }
+        if (value < min || value > max) {
+            throw new NumberFormatException("out of range");
+        }
+        return value;
+    }
+
+    /**
+     * Marks the fields of the record that starts at `from`
+     * @param atEnd true if no more bytes will arrive, so a record may end without a line break
+     * @return offset just past the record, or -1 if the buffer does not hold the whole record yet
+     */
+    private int scanRecord(int from, boolean atEnd) {
+        fieldCount = 0;
+        int fieldBegin = from;
+        boolean inQuotes = false;
+        boolean quoted = false;
+
+        int i = from;
+        while (i < limit) {
+            byte b = buffer[i];
+
+            if (inQuotes) {
+                if (b == '"') {
+                    if (i + 1 >= limit && !atEnd) {
+                        return -1; // cannot tell a closing quote from an escaped one yet
+                    }
+                    if (i + 1 < limit && buffer[i + 1] == '"') {
+                        i += 2;
+                        continue;
+                    }
+                    inQuotes = false;
+                }
+                i++;
+            } else if (b == '"' && i == fieldBegin) {
+                inQuotes = true;
+                quoted = true;
+                i++;
+            } else if (b == ',') {
+                addField(fieldBegin, i, quoted);
+                fieldBegin = ++i;
+                quoted = false;
+            } else if (b == '\n') {
+                int end = (i > fieldBegin && buffer[i - 1] == '\r') ? i - 1 : i;
+                addField(fieldBegin, end, quoted);
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+
+        if (!atEnd) {
+            return -1;
+        }
+
+        int end = (i > fieldBegin && buffer[i - 1] == '\r') ? i - 1 : i;
+        addField(fieldBegin, end, quoted);
+        return i;
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+        if (fieldCount == fieldStart.length) {
+            int size = fieldCount * 2;
+            fieldStart = Arrays.copyOf(fieldStart, size);
+            fieldEnd = Arrays.copyOf(fieldEnd, size);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, size);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private int contentStart(int field) {
+        return fieldQuoted[field] ? fieldStart[field] + 1 : fieldStart[field];
+    }
+
+    /**
+     * End of the field's content, before the closing quote; anything after the closing quote is ignored
+     */
+    private int contentEnd(int field) {
+        if (!fieldQuoted[field]) {
+            return fieldEnd[field];
+        }
+        int i = fieldStart[field] + 1;
+        int end = fieldEnd[field];
+        while (i < end) {
+            if (buffer[i] == '"') {
+                if (i + 1 < end && buffer[i + 1] == '"') {
+                    i += 2;
+                    continue;
+                }
+                return i;
+            }
+            i++;
+        }
+        return end;
+    }
+
+    private String unescape(int start, int end) {
+        byte[] out = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            out[length++] = buffer[i];
+            if (buffer[i] == '"') {
+                i++; // skip the second quote of ""
+            }
+        }
+        return new String(out, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, grows it if a record does not fit, and reads more
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+
+        if (limit == buffer.length) {
+            if (buffer.length >= MAX_BUFFER_SIZE) {
+                throw new IOException("CSV record longer than " + MAX_BUFFER_SIZE + " bytes");
+            }
+            buffer = Arrays.copyOf(buffer, Math.min(MAX_BUFFER_SIZE, buffer.length * 2));
+        }
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        while (limit < 3 && !endOfStream) {
+            fill();
+        }
+        if (limit >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+            position = 3;
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
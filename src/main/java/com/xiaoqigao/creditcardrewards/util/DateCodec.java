@@ -0,0 +1,157 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+/**
+ * Parses and validates `yyyy-MM-dd` date strings without regular expressions or intermediate objects.
+ * A valid date is packed into a single int, yyyyMMdd (ex. 2021-05-09 becomes 20210509),
+ * which sorts chronologically and can be split back with {@link #year}, {@link #month} and {@link #day}.
+ */
+public final class DateCodec {
+
+    /** returned by {@link #parse} for anything that is not a valid calendar date */
+    public static final int INVALID = -1;
+
+    /** length of `yyyy-MM-dd` */
+    private static final int DATE_LENGTH = 10;
+
+    /** days in each month of a non-leap year, index 0 unused */
+    private static final int[] DAYS_IN_MONTH = {0, 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /** zero-padded strings "00" to "99", so formatting month and day allocates nothing */
+    private static final String[] TWO_DIGITS = new String[100];
+
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++) {
+            TWO_DIGITS[i] = (i < 10 ? "0" : "") + i;
+        }
+    }
+
+    private DateCodec() {
+    }
+
+    /**
+     * Parses a `yyyy-MM-dd` date in one pass over its characters.
+     * Years 0001 to 9999 are accepted; month and day are checked against the Gregorian calendar.
+     * @param text date string, may be null
+     * @return packed yyyyMMdd date, or {@link #INVALID}
+     */
+    public static int parse(CharSequence text) {
+        if (text == null || text.length() != DATE_LENGTH
+                || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return INVALID;
+        }
+
+        int year = digit(text.charAt(0)) * 1000 + digit(text.charAt(1)) * 100
+                + digit(text.charAt(2)) * 10 + digit(text.charAt(3));
+        int month = digit(text.charAt(5)) * 10 + digit(text.charAt(6));
+        int day = digit(text.charAt(8)) * 10 + digit(text.charAt(9));
+
+        // a non-digit makes its field negative, which fails the range checks below
+        if (!isValid(year, month, day)) {
+            return INVALID;
+        }
+
+        return pack(year, month, day);
+    }
+
+    /**
+     * Parses a `yyyy-MM-dd` date from ASCII bytes, so file imports can skip decoding the field
+     * @param bytes buffer holding the date
+     * @param offset start of the date in the buffer
+     * @param length number of bytes in the field
+     * @return packed yyyyMMdd date, or {@link #INVALID}
+     */
+    public static int parse(byte[] bytes, int offset, int length) {
+        if (length != DATE_LENGTH || bytes[offset + 4] != '-' || bytes[offset + 7] != '-') {
+            return INVALID;
+        }
+
+        int year = digit(bytes[offset]) * 1000 + digit(bytes[offset + 1]) * 100
+                + digit(bytes[offset + 2]) * 10 + digit(bytes[offset + 3]);
+        int month = digit(bytes[offset + 5]) * 10 + digit(bytes[offset + 6]);
+        int day = digit(bytes[offset + 8]) * 10 + digit(bytes[offset + 9]);
+
+        if (!isValid(year, month, day)) {
+            return INVALID;
+        }
+
+        return pack(year, month, day);
+    }
+
+    /**
+     * Checks that the fields form a real calendar date
+     * @return true if valid
+     */
+    public static boolean isValid(int year, int month, int day) {
+        return year >= 1 && year <= 9999
+                && month >= 1 && month <= 12
+                && day >= 1 && day <= daysInMonth(year, month);
+    }
+
+    /**
+     * Number of days in the given month, taking leap years into account
+     * @param year 1 to 9999
+     * @param month 1 to 12
+     */
+    public static int daysInMonth(int year, int month) {
+        if (month == 2 && isLeapYear(year)) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month];
+    }
+
+    /**
+     * Gregorian leap year rule
+     */
+    public static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Packs fields that are already known to be valid
+     * @return yyyyMMdd
+     */
+    public static int pack(int year, int month, int day) {
+        return year * 10000 + month * 100 + day;
+    }
+
+    public static int year(int date) {
+        return date / 10000;
+    }
+
+    public static int month(int date) {
+        return date / 100 % 100;
+    }
+
+    public static int day(int date) {
+        return date % 100;
+    }
+
+    /**
+     * Four-digit year of a packed date, ex. "2021"
+     */
+    public static String formatYear(int date) {
+        int year = year(date);
+        return TWO_DIGITS[year / 100].concat(TWO_DIGITS[year % 100]);
+    }
+
+    /**
+     * Two-digit month of a packed date, ex. "05"
+     */
+    public static String formatMonth(int date) {
+        return TWO_DIGITS[month(date)];
+    }
+
+    /**
+     * Two-digit day of a packed date, ex. "09"
+     */
+    public static String formatDay(int date) {
+        return TWO_DIGITS[day(date)];
+    }
+
+    /**
+     * Value of an ASCII digit, or a large negative number for anything else
+     */
+    private static int digit(int c) {
+        return (c >= '0' && c <= '9') ? c - '0' : -100_000;
+    }
+}
@@ -0,0 +1,234 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable map from merchant codes to their ids, built over a perfect hash.
+ * A code is hashed once: the high bits pick a bucket, the bucket's displacement seed picks a slot,
+ * and the slot holds the only id the code can have, so a lookup costs one hash and one string compare.
+ * The seeds are found when the dictionary is built (hash and displace): buckets are placed largest first,
+ * each with the first seed that sends all of its codes to free slots of a table at most half full.
+ */
+public final class MerchantDictionary {
+
+    /** returned by {@link #idOf} for codes that are not in the dictionary */
+    public static final int UNKNOWN = -1;
+
+    /** seeds tried for one bucket before the table is doubled */
+    private static final int MAX_SEED = 1 << 12;
+
+    private static final MerchantDictionary EMPTY = new MerchantDictionary(List.of());
+
+    /** code by id, null for ids that are not in the dictionary */
+    private final String[] codes;
+
+    /** displacement seed by bucket */
+    private final int[] seeds;
+
+    /** id by slot, 0 for free slots */
+    private final int[] slots;
+
+    private final int size;
+
+    private MerchantDictionary(Collection<Merchant> merchants) {
+        int maxId = 0;
+        for (Merchant merchant : merchants) {
+            if (merchant.getId() <= 0 || merchant.getCode() == null) {
+                throw new IllegalArgumentException("Merchants need a positive id and a code: " + merchant);
+            }
+            maxId = Math.max(maxId, merchant.getId());
+        }
+
+        this.codes = new String[maxId + 1];
+        long[] hashes = new long[maxId + 1];
+        Map<Long, String> codesByHash = new HashMap<>();
+        for (Merchant merchant : merchants) {
+            if (this.codes[merchant.getId()] != null) {
+                throw new IllegalArgumentException("Merchant id " + merchant.getId() + " is given twice");
+            }
+            long hash = hash64(merchant.getCode());
+            String sameHash = codesByHash.put(hash, merchant.getCode());
+            if (sameHash != null) {
+                // equal codes always hash alike; distinct codes sharing 64 bits would never be told apart by a seed
+                throw new IllegalArgumentException("Merchant codes " + sameHash + " and " + merchant.getCode()
+                        + " cannot both be in the dictionary");
+            }
+            this.codes[merchant.getId()] = merchant.getCode();
+            hashes[merchant.getId()] = hash;
+        }
+        this.size = merchants.size();
+
+        int slotCount = Integer.highestOneBit(Math.max(8, this.size * 2 - 1)) << 1;
+        int[] seeds = new int[slotCount / 4];
+        int[] slots = new int[slotCount];
+        while (!place(hashes, seeds, slots)) {
+            slotCount <<= 1;
+            seeds = new int[slotCount / 4];
+            slots = new int[slotCount];
+        }
+        this.seeds = seeds;
+        this.slots = slots;
+    }
+
+    /**
+     * Builds a dictionary
+     * @param merchants merchants with distinct ids and codes
+     */
+    public static MerchantDictionary of(Collection<Merchant> merchants) {
+        return merchants.isEmpty() ? EMPTY : new MerchantDictionary(merchants);
+    }
+
+    /**
+     * Looks a code up
+     * @param code a merchant code, may be null
+     * @return its id, or {@link #UNKNOWN}
+     */
+    public int idOf(String code) {
+        if (code == null) {
+            return UNKNOWN;
+        }
+        long hash = hash64(code);
+        int id = this.slots[slotOf(hash, this.seeds[bucketOf(hash, this.seeds.length)], this.slots.length)];
+        return id != 0 && code.equals(this.codes[id]) ? id : UNKNOWN;
+    }
+
+    /**
+     * Looks an id up
+     * @return its code, or null for ids that are not in the dictionary
+     */
+    public String codeOf(int id) {
+        return id > 0 && id < this.codes.length ? this.codes[id] : null;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Every merchant in the dictionary, in id order
+     */
+    public List<Merchant> getMerchants() {
+        List<Merchant> merchants = new ArrayList<>(this.size);
+        for (int id = 1; id < this.codes.length; id++) {
+            if (this.codes[id] != null) {
+                merchants.add(Merchant.builder().id(id).code(this.codes[id]).build());
+            }
+        }
+        return Collections.unmodifiableList(merchants);
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * A helper function that finds a seed for every bucket, largest buckets first.
+     * @param hashes code hash by id, ids without a code are skipped
+     * @return false if some bucket found no seed and the table should be larger
+     */
+    private boolean place(long[] hashes, int[] seeds, int[] slots) {
+        int[][] buckets = new int[seeds.length][];
+        int[] bucketSizes = new int[seeds.length];
+        for (int id = 1; id < this.codes.length; id++) {
+            if (this.codes[id] == null) {
+                continue;
+            }
+            int bucket = bucketOf(hashes[id], seeds.length);
+            if (buckets[bucket] == null) {
+                buckets[bucket] = new int[2];
+            } else if (bucketSizes[bucket] == buckets[bucket].length) {
+                buckets[bucket] = Arrays.copyOf(buckets[bucket], bucketSizes[bucket] * 2);
+            }
+            buckets[bucket][bucketSizes[bucket]++] = id;
+        }
+
+        Integer[] order = new Integer[seeds.length];
+        for (int bucket = 0; bucket < order.length; bucket++) {
+            order[bucket] = bucket;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(bucketSizes[b], bucketSizes[a]));
+
+        int[] taken = new int[8];
+        for (int bucket : order) {
+            int count = bucketSizes[bucket];
+            if (count == 0) {
+                break;
+            }
+            if (taken.length < count) {
+                taken = new int[count];
+            }
+
+            int seed = 0;
+            while (!fits(hashes, buckets[bucket], count, seed, slots, taken)) {
+                if (++seed == MAX_SEED) {
+                    return false;
+                }
+            }
+            seeds[bucket] = seed;
+            for (int i = 0; i < count; i++) {
+                slots[taken[i]] = buckets[bucket][i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A helper function that checks whether a seed sends every code of a bucket to a distinct free slot.
+     * @param taken filled with the slots of the bucket's codes when they fit
+     */
+    private static boolean fits(long[] hashes, int[] ids, int count, int seed, int[] slots, int[] taken) {
+        for (int i = 0; i < count; i++) {
+            int slot = slotOf(hashes[ids[i]], seed, slots.length);
+            if (slots[slot] != 0) {
+                return false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (taken[j] == slot) {
+                    return false;
+                }
+            }
+            taken[i] = slot;
+        }
+        return true;
+    }
+
+    private static int bucketOf(long hash, int bucketCount) {
+        return (int) (hash >>> 40) & (bucketCount - 1);
+    }
+
+    private static int slotOf(long hash, int seed, int slotCount) {
+        return (int) mix64(hash + seed * 0x9E3779B97F4A7C15L) & (slotCount - 1);
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units, finished with a 64-bit mixer
+     */
+    private static long hash64(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix64(hash);
+    }
+
+    /**
+     * MurmurHash3 fmix64 finalizer
+     */
+    private static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** ================================== end of helper ================================== */
+}
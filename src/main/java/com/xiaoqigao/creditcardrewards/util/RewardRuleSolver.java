@@ -0,0 +1,587 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import com.xiaoqigao.creditcardrewards.model.RewardRule;
+import com.xiaoqigao.creditcardrewards.model.RuleSolution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the exact maximum monthly points for a table of reward rules.
+ *
+ * Every dollar not used by a rule earns the per-dollar points, so a rule is only worth its gain: its points minus
+ * what its dollars would earn as leftovers. Rules with no gain are never applied. The rest is an integer program,
+ * maximize the total gain of the applications while staying within the dollars spent at each merchant,
+ * solved by branch and bound over the number of times each rule fires:
+ * <ul>
+ *     <li>The bound is the linear relaxation of the remaining rules. Its dual region does not depend on the
+ *     amounts, so its vertices are computed once per table and the bound is a minimum of dot products.</li>
+ *     <li>The relaxation is concave in the number of times a rule fires, so each level starts at its peak and
+ *     walks outwards until the bound cannot beat the best solution found. Only counts near the linear optimum
+ *     are visited, and the cost only grows with the logarithm of the amounts, from finding the peak.</li>
+ *     <li>The last rule fires as often as it fits.</li>
+ *     <li>Residual amounts below every merchant's largest threshold are solved exactly once and memoized.</li>
+ * </ul>
+ * Instances are immutable apart from the memo and can be shared between threads.
+ */
+public final class RewardRuleSolver {
+
+    /** memo tables larger than this many states per level are not kept */
+    private static final int MAX_MEMO_STATES = 1 << 16;
+
+    private static final int UNKNOWN = -1;
+
+    /** the bound is inflated by this much so that floating point rounding never makes it too tight */
+    private static final double BOUND_SLACK = 1e-9;
+
+    private final List<RewardRule> rules;
+    private final int pointsPerLeftoverDollar;
+
+    /** merchants used by at least one rule with a gain, in order of first use */
+    private final String[] merchants;
+
+    /** rules with a gain, best gain first */
+    private final RewardRule[] activeRules;
+    private final long[][] costs;
+    private final long[] gains;
+
+    /** dual vertices of the relaxation of activeRules[level..] */
+    private final double[][][] dualVertices;
+
+    /** memo box size for each merchant, or null when there is no memo */
+    private final int[] memoSpan;
+    private final int[][] memo;
+
+    /**
+     * Compiles a rule table
+     * @param rules the rules, each with at least one merchant and positive dollar amounts
+     * @param pointsPerLeftoverDollar points for every dollar no rule uses
+     */
+    public RewardRuleSolver(List<RewardRule> rules, int pointsPerLeftoverDollar) {
+        if (pointsPerLeftoverDollar < 0) {
+            throw new IllegalArgumentException("pointsPerLeftoverDollar must not be negative: " + pointsPerLeftoverDollar);
+        }
+        for (RewardRule rule : rules) {
+            validate(rule);
+        }
+        this.rules = List.copyOf(rules);
+        this.pointsPerLeftoverDollar = pointsPerLeftoverDollar;
+
+        List<RewardRule> active = new ArrayList<>();
+        List<String> merchantList = new ArrayList<>();
+        for (RewardRule rule : rules) {
+            if (gainOf(rule) > 0) {
+                active.add(rule);
+                for (String merchant : rule.getDollarsByMerchant().keySet()) {
+                    if (!merchantList.contains(merchant)) {
+                        merchantList.add(merchant);
+                    }
+                }
+            }
+        }
+        active.sort(Comparator.comparingLong(this::gainOf).reversed());
+
+        this.merchants = merchantList.toArray(new String[0]);
+        this.activeRules = active.toArray(new RewardRule[0]);
+        int ruleCount = this.activeRules.length;
+        this.costs = new long[ruleCount][this.merchants.length];
+        this.gains = new long[ruleCount];
+        for (int r = 0; r < ruleCount; r++) {
+            for (int j = 0; j < this.merchants.length; j++) {
+                this.costs[r][j] = this.activeRules[r].getDollarsByMerchant().getOrDefault(this.merchants[j], 0);
+            }
+            this.gains[r] = gainOf(this.activeRules[r]);
+        }
+
+        this.dualVertices = new double[ruleCount + 1][][];
+        for (int level = 0; level <= ruleCount; level++) {
+            this.dualVertices[level] = dualVertices(level);
+        }
+
+        int[] span = new int[this.merchants.length];
+        long states = 1;
+        for (int j = 0; j < span.length; j++) {
+            for (long[] cost : this.costs) {
+                span[j] = (int) Math.max(span[j], cost[j] + 1);
+            }
+            states *= span[j];
+            if (states > MAX_MEMO_STATES) {
+                break;
+            }
+        }
+        long[] corner = new long[span.length];
+        for (int j = 0; j < span.length; j++) {
+            corner[j] = span[j];
+        }
+        if (ruleCount > 0 && states <= MAX_MEMO_STATES && upperBound(0, corner) < Integer.MAX_VALUE) {
+            this.memoSpan = span;
+            this.memo = new int[ruleCount + 1][(int) states];
+            for (int[] table : this.memo) {
+                Arrays.fill(table, UNKNOWN);
+            }
+        } else {
+            this.memoSpan = null;
+            this.memo = null;
+        }
+    }
+
+    /**
+     * Finds the best way to apply the rules to one month of spend
+     * @param dollarsByMerchant whole dollars spent at each merchant; merchants no rule mentions earn leftover points
+     * @return the maximum points and how many times each rule fired
+     */
+    public RuleSolution solve(Map<String, Long> dollarsByMerchant) {
+        long[] dollars = new long[this.merchants.length];
+        long otherDollars = 0;
+        for (Map.Entry<String, Long> entry : dollarsByMerchant.entrySet()) {
+            int j = Arrays.asList(this.merchants).indexOf(entry.getKey());
+            if (j >= 0) {
+                dollars[j] = entry.getValue();
+            } else {
+                checkDollars(entry.getValue());
+                otherDollars = Math.addExact(otherDollars, entry.getValue());
+            }
+        }
+        return solve(dollars, otherDollars);
+    }
+
+    /**
+     * Finds the best way to apply the rules to one month of spend, without boxing
+     * @param dollarsByMerchant whole dollars spent at each merchant, in the order of {@link #getMerchants()}
+     * @param otherDollars whole dollars spent at merchants no rule mentions
+     * @return the maximum points and how many times each rule fired
+     */
+    public RuleSolution solve(long[] dollarsByMerchant, long otherDollars) {
+        if (dollarsByMerchant.length != this.merchants.length) {
+            throw new IllegalArgumentException("expected dollars for " + Arrays.toString(this.merchants));
+        }
+        long[] residual = dollarsByMerchant.clone();
+        long total = checkDollars(otherDollars);
+        for (long dollars : residual) {
+            total = Math.addExact(total, checkDollars(dollars));
+        }
+
+        Search search = new Search();
+        search.run(0, residual, 0);
+
+        Map<Integer, Long> applications = new LinkedHashMap<>();
+        for (RewardRule rule : this.rules) {
+            applications.put(rule.getRuleNumber(), 0L);
+        }
+        long points = 0;
+        long used = 0;
+        for (int r = 0; r < this.activeRules.length; r++) {
+            long times = search.bestCounts[r];
+            applications.merge(this.activeRules[r].getRuleNumber(), times, Long::sum);
+            points = Math.addExact(points, Math.multiplyExact(times, this.activeRules[r].getPoints()));
+            for (long dollars : this.costs[r]) {
+                used += times * dollars;
+            }
+        }
+        long leftover = total - used;
+        points = Math.addExact(points, Math.multiplyExact(leftover, this.pointsPerLeftoverDollar));
+
+        return new RuleSolution(points, applications, leftover);
+    }
+
+    /**
+     * Get the merchants the rules mention, in the order {@link #solve(long[], long)} expects them
+     */
+    public List<String> getMerchants() {
+        return List.of(this.merchants);
+    }
+
+    /** ================================== start of helper ================================== */
+
+    /**
+     * The state of one solve: the counts on the current path and the best counts found so far
+     */
+    private final class Search {
+        final long[] counts = new long[activeRules.length];
+        final long[] bestCounts = new long[activeRules.length];
+        long bestGain = -1;
+
+        void run(int level, long[] residual, long gained) {
+            if (inMemo(residual)) {
+                long total = gained + suffixGain(level, residual);
+                if (total > this.bestGain) {
+                    this.bestGain = total;
+                    System.arraycopy(this.counts, 0, this.bestCounts, 0, level);
+                    reconstruct(level, residual);
+                }
+                return;
+            }
+            if (level == activeRules.length) {
+                if (gained > this.bestGain) {
+                    this.bestGain = gained;
+                    System.arraycopy(this.counts, 0, this.bestCounts, 0, level);
+                }
+                return;
+            }
+            if (gained + upperBound(level, residual) <= this.bestGain) {
+                return;
+            }
+
+            long most = maxTimes(level, residual);
+            if (level == activeRules.length - 1) {
+                // the last rule has a gain, so firing it as often as it fits is optimal
+                this.counts[level] = most;
+                run(level + 1, subtract(residual, costs[level], most), gained + most * gains[level]);
+                return;
+            }
+
+            long peak = peak(level, residual, most);
+            for (long times = peak; times <= most; times++) {
+                if (!branch(level, residual, gained, times)) {
+                    break;
+                }
+            }
+            for (long times = peak - 1; times >= 0; times--) {
+                if (!branch(level, residual, gained, times)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Visits the branch firing the rule at this level the given number of times
+         * @return false if the bound rules the branch out, and with it every count further from the peak
+         */
+        boolean branch(int level, long[] residual, long gained, long times) {
+            long[] next = subtract(residual, costs[level], times);
+            long nextGained = gained + times * gains[level];
+            if (nextGained + upperBound(level + 1, next) <= this.bestGain) {
+                return false;
+            }
+            this.counts[level] = times;
+            run(level + 1, next, nextGained);
+            return true;
+        }
+
+        /**
+         * Fills bestCounts from the level on by following the memo
+         */
+        void reconstruct(int level, long[] residual) {
+            for (int r = level; r < activeRules.length; r++) {
+                long target = suffixGain(r, residual);
+                long times = 0;
+                while (times * gains[r] + suffixGain(r + 1, subtract(residual, costs[r], times)) != target) {
+                    times++;
+                }
+                this.bestCounts[r] = times;
+                residual = subtract(residual, costs[r], times);
+            }
+        }
+    }
+
+    /**
+     * Exact best gain of the rules from the level on, for a residual inside the memo box
+     */
+    private long suffixGain(int level, long[] residual) {
+        if (level == this.activeRules.length) {
+            return 0;
+        }
+        int index = memoIndex(residual);
+        int known = this.memo[level][index];
+        if (known != UNKNOWN) {
+            return known;
+        }
+
+        long best = 0;
+        long most = maxTimes(level, residual);
+        for (long times = 0; times <= most; times++) {
+            best = Math.max(best, times * this.gains[level] + suffixGain(level + 1, subtract(residual, this.costs[level], times)));
+        }
+        this.memo[level][index] = (int) best;
+        return best;
+    }
+
+    /**
+     * Upper bound on the gain of the rules from the level on: the linear relaxation, rounded up safely
+     */
+    private long upperBound(int level, long[] residual) {
+        double relaxed = relaxation(level, residual);
+        return (long) Math.floor(relaxed * (1 + BOUND_SLACK) + BOUND_SLACK);
+    }
+
+    /**
+     * Value of the linear relaxation of the rules from the level on, as the minimum over its dual vertices
+     */
+    private double relaxation(int level, long[] residual) {
+        double min = Double.MAX_VALUE;
+        for (double[] vertex : this.dualVertices[level]) {
+            double value = 0;
+            for (int j = 0; j < vertex.length; j++) {
+                value += vertex[j] * residual[j];
+            }
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * Ternary search for the count of the rule at this level that maximizes the relaxation, which is concave in it
+     */
+    private long peak(int level, long[] residual, long most) {
+        long low = 0;
+        long high = most;
+        while (high - low > 2) {
+            long left = low + (high - low) / 3;
+            long right = high - (high - low) / 3;
+            if (relaxationAfter(level, residual, left) < relaxationAfter(level, residual, right)) {
+                low = left + 1;
+            } else {
+                high = right;
+            }
+        }
+        long peak = low;
+        for (long times = low + 1; times <= high; times++) {
+            if (relaxationAfter(level, residual, times) > relaxationAfter(level, residual, peak)) {
+                peak = times;
+            }
+        }
+        return peak;
+    }
+
+    private double relaxationAfter(int level, long[] residual, long times) {
+        return times * (double) this.gains[level] + relaxation(level + 1, subtract(residual, this.costs[level], times));
+    }
+
+    /**
+     * Number of times the rule at this level fits in the residual
+     */
+    private long maxTimes(int level, long[] residual) {
+        long most = Long.MAX_VALUE;
+        for (int j = 0; j < residual.length; j++) {
+            if (this.costs[level][j] > 0) {
+                most = Math.min(most, residual[j] / this.costs[level][j]);
+            }
+        }
+        return most;
+    }
+
+    private boolean inMemo(long[] residual) {
+        if (this.memo == null) {
+            return false;
+        }
+        for (int j = 0; j < residual.length; j++) {
+            if (residual[j] >= this.memoSpan[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int memoIndex(long[] residual) {
+        int index = 0;
+        for (int j = 0; j < residual.length; j++) {
+            index = index * this.memoSpan[j] + (int) residual[j];
+        }
+        return index;
+    }
+
+    private static long[] subtract(long[] residual, long[] cost, long times) {
+        long[] next = new long[residual.length];
+        for (int j = 0; j < residual.length; j++) {
+            next[j] = residual[j] - times * cost[j];
+        }
+        return next;
+    }
+
+    /**
+     * Vertices of the dual of the relaxation of activeRules[level..]:
+     * prices y >= 0, one per merchant, with y . cost >= gain for every rule.
+     * Each vertex is where as many of these constraints as there are merchants are tight; they are solved exactly
+     * with integer determinants, and vertices that are never the minimum for non-negative amounts are dropped.
+     */
+    private double[][] dualVertices(int level) {
+        int k = this.merchants.length;
+        int ruleCount = this.activeRules.length - level;
+        int constraintCount = ruleCount + k;
+        List<double[]> vertices = new ArrayList<>();
+
+        int[] chosen = new int[k];
+        for (int i = 0; i < k; i++) {
+            chosen[i] = i;
+        }
+        while (k > 0 && chosen[k - 1] < constraintCount) {
+            long[][] matrix = new long[k][];
+            long[] rhs = new long[k];
+            for (int i = 0; i < k; i++) {
+                matrix[i] = constraintRow(level, chosen[i], k);
+                rhs[i] = chosen[i] < ruleCount ? this.gains[level + chosen[i]] : 0;
+            }
+            double[] vertex = solveExactly(level, matrix, rhs);
+            if (vertex != null) {
+                vertices.add(vertex);
+            }
+
+            // next combination of k constraints
+            int i = k - 1;
+            while (i > 0 && chosen[i] == constraintCount - k + i) {
+                i--;
+            }
+            chosen[i]++;
+            for (int next = i + 1; next < k; next++) {
+                chosen[next] = chosen[next - 1] + 1;
+            }
+        }
+        if (vertices.isEmpty()) {
+            // no rules left, or no merchants: the relaxation is zero
+            vertices.add(new double[k]);
+        }
+
+        List<double[]> kept = new ArrayList<>();
+        for (int a = 0; a < vertices.size(); a++) {
+            boolean dominated = false;
+            for (int b = 0; b < vertices.size() && !dominated; b++) {
+                dominated = b != a && atMost(vertices.get(b), vertices.get(a))
+                        && (b < a || !atMost(vertices.get(a), vertices.get(b)));
+            }
+            if (!dominated) {
+                kept.add(vertices.get(a));
+            }
+        }
+        return kept.toArray(new double[0][]);
+    }
+
+    private long[] constraintRow(int level, int constraint, int k) {
+        int ruleCount = this.activeRules.length - level;
+        if (constraint < ruleCount) {
+            return this.costs[level + constraint].clone();
+        }
+        long[] row = new long[k];
+        row[constraint - ruleCount] = 1;
+        return row;
+    }
+
+    /**
+     * Solves matrix . y = rhs by Cramer's rule and checks that y is dual feasible
+     * @return y, or null when the system is singular or y is not feasible
+     */
+    private double[] solveExactly(int level, long[][] matrix, long[] rhs) {
+        int k = matrix.length;
+        long det = determinant(matrix);
+        if (det == 0) {
+            return null;
+        }
+        long[] numerators = new long[k];
+        for (int j = 0; j < k; j++) {
+            long[][] replaced = new long[k][];
+            for (int i = 0; i < k; i++) {
+                replaced[i] = matrix[i].clone();
+                replaced[i][j] = rhs[i];
+            }
+            numerators[j] = determinant(replaced);
+        }
+        if (det < 0) {
+            det = -det;
+            for (int j = 0; j < k; j++) {
+                numerators[j] = -numerators[j];
+            }
+        }
+
+        // y >= 0 and y . cost >= gain for every remaining rule, compared without dividing
+        for (long numerator : numerators) {
+            if (numerator < 0) {
+                return null;
+            }
+        }
+        for (int r = level; r < this.activeRules.length; r++) {
+            long lhs = 0;
+            for (int j = 0; j < k; j++) {
+                lhs = Math.addExact(lhs, Math.multiplyExact(this.costs[r][j], numerators[j]));
+            }
+            if (lhs < Math.multiplyExact(this.gains[r], det)) {
+                return null;
+            }
+        }
+
+        double[] vertex = new double[k];
+        for (int j = 0; j < k; j++) {
+            vertex[j] = (double) numerators[j] / det;
+        }
+        return vertex;
+    }
+
+    /**
+     * Fraction-free (Bareiss) determinant; every division is exact
+     */
+    private static long determinant(long[][] matrix) {
+        int k = matrix.length;
+        long[][] m = new long[k][];
+        for (int i = 0; i < k; i++) {
+            m[i] = matrix[i].clone();
+        }
+        long sign = 1;
+        long previous = 1;
+        for (int p = 0; p < k - 1; p++) {
+            if (m[p][p] == 0) {
+                int swap = p + 1;
+                while (swap < k && m[swap][p] == 0) {
+                    swap++;
+                }
+                if (swap == k) {
+                    return 0;
+                }
+                long[] row = m[p];
+                m[p] = m[swap];
+                m[swap] = row;
+                sign = -sign;
+            }
+            for (int i = p + 1; i < k; i++) {
+                for (int j = p + 1; j < k; j++) {
+                    m[i][j] = Math.subtractExact(Math.multiplyExact(m[i][j], m[p][p]),
+                            Math.multiplyExact(m[i][p], m[p][j])) / previous;
+                }
+            }
+            previous = m[p][p];
+        }
+        return sign * m[k - 1][k - 1];
+    }
+
+    private static boolean atMost(double[] a, double[] b) {
+        for (int j = 0; j < a.length; j++) {
+            if (a[j] > b[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long gainOf(RewardRule rule) {
+        long dollars = 0;
+        for (int amount : rule.getDollarsByMerchant().values()) {
+            dollars += amount;
+        }
+        return rule.getPoints() - dollars * this.pointsPerLeftoverDollar;
+    }
+
+    private static long checkDollars(long dollars) {
+        if (dollars < 0) {
+            throw new IllegalArgumentException("dollars must not be negative: " + dollars);
+        }
+        return dollars;
+    }
+
+    private static void validate(RewardRule rule) {
+        if (rule.getPoints() < 0) {
+            throw new IllegalArgumentException("rule " + rule.getRuleNumber() + " has negative points");
+        }
+        if (rule.getDollarsByMerchant() == null || rule.getDollarsByMerchant().isEmpty()) {
+            throw new IllegalArgumentException("rule " + rule.getRuleNumber() + " names no merchant");
+        }
+        for (Map.Entry<String, Integer> entry : rule.getDollarsByMerchant().entrySet()) {
+            if (entry.getValue() == null || entry.getValue() <= 0) {
+                throw new IllegalArgumentException("rule " + rule.getRuleNumber() + " needs a positive amount at "
+                        + entry.getKey());
+            }
+        }
+    }
+
+    /** ================================== end of helper ================================== */
+}
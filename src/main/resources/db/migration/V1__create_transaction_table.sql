@@ -0,0 +1,13 @@
+-- Baseline: the table as it was created by hand before the application owned its schema.
+-- Existing databases already have it, so this only creates it on an empty database.
+CREATE TABLE IF NOT EXISTS `transaction` (
+  `id` int NOT NULL AUTO_INCREMENT,
+  `transaction_name` varchar(128) CHARACTER SET utf8 DEFAULT NULL,
+  `post_year` varchar(128) CHARACTER SET utf8 DEFAULT NULL,
+  `post_month` varchar(128) CHARACTER SET utf8mb4 DEFAULT NULL,
+  `post_day` varchar(128) CHARACTER SET utf8 DEFAULT NULL,
+  `merchant_code` varchar(128) CHARACTER SET utf8 DEFAULT NULL,
+  `amount_cents` int DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `transaction_name` (`transaction_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
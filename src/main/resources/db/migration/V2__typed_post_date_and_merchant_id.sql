@@ -0,0 +1,35 @@
+-- Merchants get a small integer id; the reward merchants have fixed ids.
+CREATE TABLE IF NOT EXISTS `merchant` (
+  `id` smallint NOT NULL AUTO_INCREMENT,
+  `code` varchar(128) CHARACTER SET utf8 NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `merchant_code` (`code`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+INSERT IGNORE INTO `merchant` (`id`, `code`) VALUES (1, 'other'), (2, 'sportcheck'), (3, 'tim_hortons'), (4, 'subway');
+
+INSERT INTO `merchant` (`code`)
+SELECT DISTINCT t.`merchant_code` FROM `transaction` t
+WHERE t.`merchant_code` IS NOT NULL
+  AND NOT EXISTS (SELECT 1 FROM `merchant` m WHERE m.`code` = t.`merchant_code`);
+
+-- Convert existing rows in place: yyyyMMdd posting date and merchant id.
+ALTER TABLE `transaction`
+  ADD COLUMN `post_date` int NULL AFTER `transaction_name`,
+  ADD COLUMN `merchant_id` smallint NULL AFTER `post_date`;
+
+UPDATE `transaction` t LEFT JOIN `merchant` m ON m.`code` = t.`merchant_code`
+SET t.`post_date` = CAST(t.`post_year` AS UNSIGNED) * 10000 + CAST(t.`post_month` AS UNSIGNED) * 100 + CAST(t.`post_day` AS UNSIGNED),
+    t.`merchant_id` = COALESCE(m.`id`, 1),
+    t.`amount_cents` = COALESCE(t.`amount_cents`, 0);
+
+-- The monthly report is a range scan on post_date answered from this index alone.
+ALTER TABLE `transaction`
+  MODIFY `post_date` int NOT NULL,
+  MODIFY `merchant_id` smallint NOT NULL,
+  MODIFY `amount_cents` int NOT NULL,
+  DROP COLUMN `post_year`,
+  DROP COLUMN `post_month`,
+  DROP COLUMN `post_day`,
+  DROP COLUMN `merchant_code`,
+  ADD KEY `post_date_covering` (`post_date`, `merchant_id`, `amount_cents`, `transaction_name`);
@@ -0,0 +1,15 @@
+-- Per-month totals for each reward merchant, with every other merchant summed under `other` (id 1),
+-- so a month is at most four rows. Kept up to date by the ingest path in the same transaction as the insert.
+CREATE TABLE IF NOT EXISTS `monthly_merchant_totals` (
+  `post_month` int NOT NULL,
+  `merchant_id` smallint NOT NULL,
+  `amount_cents` bigint NOT NULL,
+  `transaction_count` int NOT NULL,
+  PRIMARY KEY (`post_month`, `merchant_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+INSERT INTO `monthly_merchant_totals` (`post_month`, `merchant_id`, `amount_cents`, `transaction_count`)
+SELECT t.`post_date` DIV 100, CASE WHEN t.`merchant_id` IN (2, 3, 4) THEN t.`merchant_id` ELSE 1 END,
+       SUM(t.`amount_cents`), COUNT(*)
+FROM `transaction` t
+GROUP BY t.`post_date` DIV 100, CASE WHEN t.`merchant_id` IN (2, 3, 4) THEN t.`merchant_id` ELSE 1 END;
@@ -0,0 +1,15 @@
+-- Transactions belong to a card account. Rows posted before accounts existed go to the default account 0.
+-- Names are unique within an account, and a report reads one (account, month) range of the covering index.
+ALTER TABLE `transaction`
+  ADD COLUMN `account_id` bigint NOT NULL DEFAULT 0 AFTER `id`,
+  DROP KEY `transaction_name`,
+  ADD UNIQUE KEY `account_transaction_name` (`account_id`, `transaction_name`),
+  DROP KEY `post_date_covering`,
+  ADD KEY `account_post_date_covering` (`account_id`, `post_date`, `merchant_id`, `amount_cents`, `transaction_name`);
+
+-- The rollup is kept per account; post_month_account lists the accounts of a month for bulk reports.
+ALTER TABLE `monthly_merchant_totals`
+  ADD COLUMN `account_id` bigint NOT NULL DEFAULT 0 FIRST,
+  DROP PRIMARY KEY,
+  ADD PRIMARY KEY (`account_id`, `post_month`, `merchant_id`),
+  ADD KEY `post_month_account` (`post_month`, `account_id`);
@@ -0,0 +1,49 @@
+package com.xiaoqigao.creditcardrewards.DAO;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Unit test for SchemaMigrator script handling
+ */
+public class SchemaMigratorTest {
+
+    /**
+     * Success: statements are split on line-ending semicolons and comment lines are dropped
+     */
+    @Test
+    public void testSplitStatements() {
+        String script = "-- create\n" +
+                "CREATE TABLE t (\n" +
+                "  id int,\n" +
+                "  note varchar(10) DEFAULT 'a;b'\n" +
+                ");\n" +
+                "\n" +
+                "INSERT INTO t VALUES (1, 'x');\r\n" +
+                "UPDATE t SET id = 2";
+
+        List<String> statements = SchemaMigrator.splitStatements(script);
+
+        assertEquals(3, statements.size());
+        assertEquals("CREATE TABLE t (\nid int,\nnote varchar(10) DEFAULT 'a;b'\n)", statements.get(0));
+        assertEquals("INSERT INTO t VALUES (1, 'x')", statements.get(1));
+        assertEquals("UPDATE t SET id = 2", statements.get(2));
+    }
+
+    /**
+     * Success: a script's checksum changes with its content
+     */
+    @Test
+    public void testMigration_checksum() {
+        var first = new SchemaMigrator.Migration(1, "create", "CREATE TABLE t (id int);");
+        var same = new SchemaMigrator.Migration(1, "create", "CREATE TABLE t (id int);");
+        var edited = new SchemaMigrator.Migration(1, "create", "CREATE TABLE t (id bigint);");
+
+        assertEquals(first.checksum, same.checksum);
+        assertNotEquals(first.checksum, edited.checksum);
+    }
+}
@@ -10,21 +10,51 @@ import java.util.List;
 @Repository
 public interface TestTransactionDAO {
 
-    @Insert("INSERT INTO `transaction` (transaction_name, post_year, post_month, post_day, merchant_code, amount_cents) " +
-            "VALUES (#{transactionName}, #{postYear}, #{postMonth}, #{postDay}, #{merchantCode}, #{amountCents})")
+    /**
+     * Inserts a transaction directly and adds it to the monthly rollup; its merchant id must be registered
+     */
+    default void insert(Transaction transaction) {
+        insertTransaction(transaction);
+        addToMonthlyTotals(transaction);
+    }
+
+    @Insert("INSERT INTO `transaction` (account_id, transaction_name, post_date, merchant_id, amount_cents) " +
+            "VALUES (#{accountId}, #{transactionName}, #{postDate}, #{merchantId}, #{amountCents})")
     @Options(useGeneratedKeys = true, keyColumn = "id", keyProperty = "id")
-    void insert(Transaction transaction);
-
-    @Select("SELECT * FROM `transaction` WHERE post_year=#{postYear} AND post_month=#{postMonth}")
-    List<Transaction> selectByYearMonth(@Param("postYear") String postYear, @Param("postMonth") String postMonth);
-
-    @Select("SELECT * FROM `transaction` WHERE id=#{id}")
+    void insertTransaction(Transaction transaction);
+
+    @Insert("INSERT INTO `monthly_merchant_totals` (account_id, post_month, merchant_id, amount_cents, transaction_count) " +
+            "SELECT t.account_id, t.post_date DIV 100, CASE WHEN t.merchant_id IN (2, 3, 4) THEN t.merchant_id ELSE 1 END, t.amount_cents, 1 " +
+            "FROM `transaction` t WHERE t.id = #{id} " +
+            "ON DUPLICATE KEY UPDATE amount_cents = `monthly_merchant_totals`.amount_cents + VALUES(amount_cents), " +
+            "transaction_count = `monthly_merchant_totals`.transaction_count + 1")
+    void addToMonthlyTotals(Transaction transaction);
+
+    /**
+     * Selects the transactions of a month
+     * @param yearMonth ex. 202105
+     */
+    @Select("SELECT " + TransactionDAO.TRANSACTION_COLUMNS + "WHERE t.post_date DIV 100 = #{yearMonth}")
+    List<Transaction> selectByYearMonth(@Param("yearMonth") int yearMonth);
+
+    @Select("SELECT " + TransactionDAO.TRANSACTION_COLUMNS + "WHERE t.id=#{id}")
     Transaction selectOneByID(@Param("id") int id);
 
-    @Select("SELECT * FROM `transaction` WHERE transaction_name=#{transactionName}")
+    @Select("SELECT " + TransactionDAO.TRANSACTION_COLUMNS + "WHERE t.transaction_name=#{transactionName}")
     List<Transaction> selectByTransactionName(@Param("transactionName") String transactionName);
 
+    /**
+     * Empties the transaction table and the monthly rollup
+     */
+    default void deleteAll() {
+        deleteAllTransactions();
+        deleteAllMonthlyTotals();
+    }
+
     @Delete("DELETE FROM `transaction`")
-    void deleteAll();
+    void deleteAllTransactions();
+
+    @Delete("DELETE FROM `monthly_merchant_totals`")
+    void deleteAllMonthlyTotals();
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package com.xiaoqigao.creditcardrewards.benchmark;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.util.CsvRecordReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing cost of 100,000 exported rows, as CSV through CsvRecordReader and as NDJSON through Jackson,
+ * without the database writes. See README.md for how to run the benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvImportBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] csv;
+    private byte[] ndjson;
+
+    @Setup
+    public void createFiles() {
+        String[] merchants = {"sportcheck", "tim_hortons", "subway", "other"};
+        StringBuilder csvText = new StringBuilder("transaction_name,date,merchant_code,amount_cents\n");
+        StringBuilder ndjsonText = new StringBuilder();
+
+        for (int i = 0; i < ROWS; i++) {
+            String date = String.format("2021-%02d-%02d", i % 12 + 1, i % 28 + 1);
+            String merchant = merchants[i % merchants.length];
+            int amountCents = (i * 37) % 10_000;
+
+            csvText.append('T').append(i).append(',').append(date).append(',')
+                    .append(merchant).append(',').append(amountCents).append('\n');
+            ndjsonText.append("{\"transaction_name\":\"T").append(i).append("\",\"date\":\"").append(date)
+                    .append("\",\"merchant_code\":\"").append(merchant).append("\",\"amount_cents\":")
+                    .append(amountCents).append("}\n");
+        }
+
+        csv = csvText.toString().getBytes(StandardCharsets.UTF_8);
+        ndjson = ndjsonText.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads every row the way TransactionStreamService.importCsv does
+     */
+    @Benchmark
+    public long csvRecordReader() throws IOException {
+        long checksum = 0;
+        try (CsvRecordReader reader = new CsvRecordReader(new ByteArrayInputStream(csv))) {
+            reader.next(); // header
+            while (reader.next()) {
+                checksum += reader.getString(0).length() + reader.getDate(1)
+                        + reader.getString(2).length() + reader.getInt(3);
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Reads every record the way TransactionStreamService.postTransactionStream does
+     */
+    @Benchmark
+    public long ndjsonJackson() throws IOException {
+        long checksum = 0;
+        try (MappingIterator<PostTransRequest> records =
+                     objectMapper.readerFor(PostTransRequest.class).readValues(new ByteArrayInputStream(ndjson))) {
+            while (records.hasNextValue()) {
+                PostTransRequest request = records.nextValue();
+                checksum += request.getTransactionName().length() + request.getDate().length()
+                        + request.getMerchantCode().length() + request.getAmountCents();
+            }
+        }
+        return checksum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(CsvImportBenchmark.class.getSimpleName()).build()).run();
+    }
+}
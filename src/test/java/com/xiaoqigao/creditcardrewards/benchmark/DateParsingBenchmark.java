@@ -0,0 +1,64 @@
+package com.xiaoqigao.creditcardrewards.benchmark;
+
+import com.xiaoqigao.creditcardrewards.util.DateCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares DateCodec with the regex, split and Integer.valueOf validation it replaced.
+ * See README.md for how to run the benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateParsingBenchmark {
+
+    private final String[] dates = {"2021-05-09", "2021-12-31", "2020-02-29", "1999-01-01", "2021/05/09"};
+    private int next;
+
+    private String nextDate() {
+        String date = dates[next];
+        next = (next + 1) % dates.length;
+        return date;
+    }
+
+    /**
+     * The validation previously done inline in TransactionService.postOneTransaction
+     */
+    @Benchmark
+    public int legacyRegexSplit() {
+        String dateString = nextDate();
+        if (!dateString.matches("([0-9]{4})-([0-9]{2})-([0-9]{2})")) {
+            return -1;
+        }
+        String[] dateParts = dateString.split("-");
+        if (Integer.valueOf(dateParts[1]) < 0 || Integer.valueOf(dateParts[1]) > 12
+                || Integer.valueOf(dateParts[2]) > 30 || Integer.valueOf(dateParts[2]) < 0) {
+            return -1;
+        }
+        return Integer.valueOf(dateParts[0]) * 10000 + Integer.valueOf(dateParts[1]) * 100 + Integer.valueOf(dateParts[2]);
+    }
+
+    @Benchmark
+    public int dateCodec() {
+        return DateCodec.parse(nextDate());
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(DateParsingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
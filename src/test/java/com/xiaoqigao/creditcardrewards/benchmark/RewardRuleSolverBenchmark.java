@@ -0,0 +1,94 @@
+package com.xiaoqigao.creditcardrewards.benchmark;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.RuleSolution;
+import com.xiaoqigao.creditcardrewards.util.HandoutRules;
+import com.xiaoqigao.creditcardrewards.util.RewardRuleSolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures RewardRuleSolver on the handout's rules as the monthly sportcheck spend grows,
+ * next to the closed-form greedy it replaced, which is fast but not always optimal.
+ * See README.md for how to run the benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewardRuleSolverBenchmark {
+
+    /** dollars spent at sportcheck; tim_hortons and subway get a third of it plus a little */
+    @Param({"100", "10000", "1000000", "100000000"})
+    int sportcheckDollars;
+
+    private RewardRuleSolver solver;
+    private Map<String, Long> dollars;
+
+    @Setup
+    public void setUp() {
+        this.solver = new RewardRuleSolver(HandoutRules.compile().getRules(), 1);
+        this.dollars = Map.of(MerchantCode.SPORT_CHECK, (long) sportcheckDollars,
+                MerchantCode.TIM_HORTONS, sportcheckDollars / 3L + 7,
+                MerchantCode.SUBWAY, sportcheckDollars / 3L + 13);
+    }
+
+    @Benchmark
+    public RuleSolution exact() {
+        return this.solver.solve(this.dollars);
+    }
+
+    @Benchmark
+    public int greedyClosedForm() {
+        return greedy(sportcheckDollars, sportcheckDollars / 3 + 7, sportcheckDollars / 3 + 13);
+    }
+
+    /**
+     * The closed form of the greedy order 1, 2, 4, 6, 7 previously used for the monthly report
+     */
+    private static int greedy(int spAmt, int thAmt, int subwayAmt) {
+        int points = 0;
+        int times = Math.min(spAmt / 75, Math.min(thAmt / 25, subwayAmt / 25));
+        points += 500 * times;
+        spAmt -= 75 * times;
+        thAmt -= 25 * times;
+        subwayAmt -= 25 * times;
+
+        times = Math.min(spAmt / 75, thAmt / 25);
+        points += 300 * times;
+        spAmt -= 75 * times;
+        thAmt -= 25 * times;
+
+        times = Math.min(spAmt / 25, Math.min(thAmt / 10, subwayAmt / 10));
+        points += 150 * times;
+        spAmt -= 25 * times;
+        thAmt -= 10 * times;
+        subwayAmt -= 10 * times;
+
+        times = spAmt / 20;
+        points += 75 * times;
+        spAmt -= 20 * times;
+
+        return points + spAmt + thAmt + subwayAmt;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RewardRuleSolverBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,78 @@
+package com.xiaoqigao.creditcardrewards.benchmark;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.util.CompiledRuleSet;
+import com.xiaoqigao.creditcardrewards.util.HandoutRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scoring the transaction level points of a whole month on the handout's rules,
+ * in one batch over primitive arrays and one transaction at a time.
+ * See README.md for how to run the benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionLevelPointsBenchmark {
+
+    /** transactions in the month */
+    @Param({"10000", "1000000"})
+    int rows;
+
+    private CompiledRuleSet ruleSet;
+    private int[] merchantIds;
+    private int[] amountCents;
+    private long[] points;
+
+    @Setup
+    public void setUp() {
+        this.ruleSet = HandoutRules.compile();
+        this.merchantIds = new int[rows];
+        this.amountCents = new int[rows];
+        this.points = new long[rows];
+
+        // a mix of the reward merchants and other merchants, from cents to a few thousand dollars
+        Random random = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            this.merchantIds[i] = random.nextInt(3) == 0 ? MerchantCode.SUBWAY_ID + 1 + random.nextInt(50)
+                    : MerchantCode.SPORT_CHECK_ID + random.nextInt(3);
+            this.amountCents[i] = random.nextInt(500_000);
+        }
+    }
+
+    @Benchmark
+    public long[] batch() {
+        this.ruleSet.transactionLevelPoints(this.merchantIds, this.amountCents, 0, rows, this.points);
+        return this.points;
+    }
+
+    @Benchmark
+    public long[] perTransaction() {
+        for (int i = 0; i < rows; i++) {
+            this.points[i] = this.ruleSet.transactionLevelPoints(this.merchantIds[i], this.amountCents[i] / 100);
+        }
+        return this.points;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(TransactionLevelPointsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
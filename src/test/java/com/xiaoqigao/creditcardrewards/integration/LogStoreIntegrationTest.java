@@ -0,0 +1,129 @@
+package com.xiaoqigao.creditcardrewards.integration;
+
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.store.LogTransactionStore;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Integration test for running the node on the embedded transaction log, without a database.
+ * Every test uses its own month and names, since the log of one context is shared by all of them.
+ */
+@SpringBootTest(properties = "transaction.store.log.directory=target/log-store-it/${random.uuid}")
+@ActiveProfiles("log")
+@AutoConfigureMockMvc
+@ExtendWith(SpringExtension.class)
+public class LogStoreIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TransactionStore transactionStore;
+
+    @Autowired(required = false)
+    private DataSource dataSource;
+
+    /**
+     * Success: the log profile replaces the database
+     */
+    @Test
+    public void testContext_noDataSource() {
+        assertTrue(this.transactionStore instanceof LogTransactionStore);
+        assertNull(this.dataSource);
+    }
+
+    /**
+     * Success: a posted list shows up in the monthly report, and posting it again reports every name as posted
+     */
+    @Test
+    public void testPostList_thenMonthlyReport() throws Exception {
+
+        var requestBody = "[{\"transaction_name\": \"L01\", \"date\": \"2021-05-09\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 12500}," +
+                "{\"transaction_name\": \"L02\", \"date\": \"2021-05-10\", \"merchant_code\": \"tim_hortons\", \"amount_cents\": 2500}," +
+                "{\"transaction_name\": \"L03\", \"date\": \"2021-05-10\", \"merchant_code\": \"subway\", \"amount_cents\": 2500}]";
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(requestBody))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted_count").value(3));
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(requestBody))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted_count").value(0))
+                .andExpect(jsonPath("$.results[0].outcome").value(PostOutcome.ALREADY_POSTED.name()));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", "2021")
+                        .param("month", "05"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(660))
+                .andExpect(jsonPath("$.transaction_level_points_list[0].transaction_name").value("L01"))
+                .andExpect(jsonPath("$.transaction_level_points_list[0].point").value(455));
+
+        this.mockMvc.perform(post("/transaction/rollups/reconcile"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mismatch_count").value(0));
+    }
+
+    /**
+     * Exception thrown: an invalid list is rejected as a whole
+     */
+    @Test
+    public void testPostList_invalidTransaction_nothingStored() throws Exception {
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"L11\", \"date\": \"2021-07-09\", \"merchant_code\": \"subway\", \"amount_cents\": 100}," +
+                                "{\"transaction_name\": \"L12\", \"date\": \"2021-07-09\", \"merchant_code\": \"subway\", \"amount_cents\": -1}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(Status.NEGATIVE_AMOUNT_CENTS.getCode()));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", "2021")
+                        .param("month", "07"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(Status.MONTH_NO_TRANSACTIONS.getCode()));
+    }
+
+    /**
+     * Success: a streamed upload is written chunk by chunk into the log
+     */
+    @Test
+    public void testPostStream_ndjson() throws Exception {
+
+        this.mockMvc.perform(post("/transaction/post-stream")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"transaction_name\": \"L21\", \"date\": \"2021-08-01\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 2000}\n" +
+                                "{\"transaction_name\": \"L22\", \"date\": \"2021-08-02\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 2000}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted_count").value(2));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", "2021")
+                        .param("month", "08"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(150));
+    }
+}
@@ -1,30 +1,51 @@
 package com.xiaoqigao.creditcardrewards.integration;
 
 import com.xiaoqigao.creditcardrewards.DAO.TestTransactionDAO;
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
 import com.xiaoqigao.creditcardrewards.enums.Status;
 import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.service.MerchantRegistry;
+import com.xiaoqigao.creditcardrewards.service.MonthlyReportCache;
+import com.xiaoqigao.creditcardrewards.service.TransactionNameIndex;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
 /**
  * Integration test for calculating monthly report
  */
-@SpringBootTest
+@SpringBootTest(properties = "transaction.reports.cache.max-report-bytes=16384")
 @AutoConfigureMockMvc
 @ExtendWith(SpringExtension.class)
 public class MonthlyReportIntegrationTest {
@@ -35,6 +56,18 @@ public class MonthlyReportIntegrationTest {
     @Autowired
     private TestTransactionDAO testTransactionDAO;
 
+    @Autowired
+    private TransactionNameIndex transactionNameIndex;
+
+    @Autowired
+    private MerchantRegistry merchantRegistry;
+
+    @Autowired
+    private MonthlyReportCache monthlyReportCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     /** constants */
     private static final String YEAR = "2021";
     private static final String MONTH = "05";
@@ -45,6 +78,8 @@ public class MonthlyReportIntegrationTest {
     @BeforeEach
     public void cleanUpOldData() {
         this.testTransactionDAO.deleteAll();
+        this.transactionNameIndex.rebuild();
+        this.monthlyReportCache.invalidateAll();
     }
 
     /**
@@ -55,10 +90,8 @@ public class MonthlyReportIntegrationTest {
 
         Transaction transaction = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021")
-                .postMonth("05")
-                .postDay("09")
-                .merchantCode("sportcheck")
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID)
                 .amountCents(2000)
                 .build();
 
@@ -77,12 +110,11 @@ public class MonthlyReportIntegrationTest {
         String actualResponse = result.getResponse().getContentAsString();
 
         String exceptedResponse = "{\"code\":1200,\"message\":\"Successful Request.\"" +
-                ",\"year\":\"2021\"," +
+                ",\"account_id\":0,\"year\":\"2021\"," +
                 "\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":75," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":75}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":75}";
 
         assertEquals(exceptedResponse, actualResponse);
     }
@@ -95,10 +127,8 @@ public class MonthlyReportIntegrationTest {
 
         Transaction transaction = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2020")
-                .postMonth("01")
-                .postDay("09")
-                .merchantCode("whatever")
+                .postDate(20200109)
+                .merchantId(this.merchantRegistry.idOf("whatever"))
                 .amountCents(1000)
                 .build();
         // insert directly
@@ -125,20 +155,20 @@ public class MonthlyReportIntegrationTest {
     public void testMonthlyRewardReport_zeroCents() throws Exception { // apply rule4
         Transaction t1 = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(0)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(0)
                 .build();
 
         Transaction t2 = Transaction.builder()
                 .transactionName("T02")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("tim_hortons").amountCents(0)
+                .postDate(20210509)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(0)
                 .build();
 
         Transaction t3 = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("subway").amountCents(0)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(0)
                 .build();
         // insert directly
         this.testTransactionDAO.insert(t1);
@@ -158,18 +188,45 @@ public class MonthlyReportIntegrationTest {
 
         String exceptedResponse = "{\"code\":1200," +
                 "\"message\":\"Successful Request.\"," +
-                "\"year\":\"2021\",\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":0," +
+                "\"account_id\":0,\"year\":\"2021\",\"month\":\"05\"," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":0}," +
                 "{\"transaction_name\":\"T02\",\"point\":0}," +
                 "{\"transaction_name\":\"T03\",\"point\":0}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":0}";
 
         assertEquals(exceptedResponse, actualResponse);
 
     }
 
+    /**
+     * Test for edge case: a merchant's monthly total passes the int range of cents.
+     * Two sportcheck transactions of Integer.MAX_VALUE cents add up to $42,949,672.94 in the rollup.
+     */
+    @Test
+    public void testMonthlyRewardReport_monthlyTotalPastIntRange() throws Exception {
+        this.testTransactionDAO.insert(Transaction.builder()
+                .transactionName("T01")
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(Integer.MAX_VALUE)
+                .build());
+        this.testTransactionDAO.insert(Transaction.builder()
+                .transactionName("T02")
+                .postDate(20210510)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(Integer.MAX_VALUE)
+                .build());
+
+        // 2,147,483 * rule 6 + $12 left; each transaction alone: 1,073,741 * rule 6 + $16 left
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(status().isOk()) // HTTP status == 200
+                .andExpect(jsonPath("$.code").value(Status.OK.getCode()))
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(2_147_483L * 75 + 12))
+                .andExpect(jsonPath("$.transaction_level_points_list[0].point").value(1_073_741 * 75 + 16))
+                .andExpect(jsonPath("$.transaction_level_points_list[1].point").value(1_073_741 * 75 + 16));
+    }
+
     /**
      * Test for edge case: when there are transactions from different months.
      * [{"transaction_name": "T01", "date": "2021-05-09", "merchant_code" : "sportcheck", "amount_cents": 2500},
@@ -181,26 +238,26 @@ public class MonthlyReportIntegrationTest {
     public void testMonthlyRewardReport_differentMonths() throws Exception {
         Transaction t1 = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(2500)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(2500)
                 .build();
 
         Transaction t2 = Transaction.builder()
                 .transactionName("T02")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("tim_hortons").amountCents(1000)
+                .postDate(20210509)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(1000)
                 .build();
 
         Transaction t3 = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("subway").amountCents(1000)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(1000)
                 .build();
 
         Transaction t4 = Transaction.builder()
                 .transactionName("T04")
-                .postYear("2020").postMonth("01").postDay("09")
-                .merchantCode("sportscheck").amountCents(10000)
+                .postDate(20200109)
+                .merchantId(this.merchantRegistry.idOf("sportscheck")).amountCents(10000)
                 .build();
         // insert directly
         this.testTransactionDAO.insert(t1);
@@ -221,13 +278,12 @@ public class MonthlyReportIntegrationTest {
 
         String exceptedResponse = "{\"code\":1200," +
                 "\"message\":\"Successful Request.\"," +
-                "\"year\":\"2021\",\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":150," +
+                "\"account_id\":0,\"year\":\"2021\",\"month\":\"05\"," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":80}," +
                 "{\"transaction_name\":\"T02\",\"point\":10}," +
                 "{\"transaction_name\":\"T03\",\"point\":10}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":150}";
 
         assertEquals(exceptedResponse, actualResponse);
 
@@ -243,20 +299,20 @@ public class MonthlyReportIntegrationTest {
     public void testMonthlyRewardReport_multipleMerchants() throws Exception {
         Transaction t1 = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(2500)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(2500)
                 .build();
 
         Transaction t2 = Transaction.builder()
                 .transactionName("T02")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("tim_hortons").amountCents(1000)
+                .postDate(20210509)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(1000)
                 .build();
 
         Transaction t3 = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("subway").amountCents(1000)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(1000)
                 .build();
         // insert directly
         this.testTransactionDAO.insert(t1);
@@ -276,13 +332,12 @@ public class MonthlyReportIntegrationTest {
 
         String exceptedResponse = "{\"code\":1200," +
                 "\"message\":\"Successful Request.\"," +
-                "\"year\":\"2021\",\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":150," +
+                "\"account_id\":0,\"year\":\"2021\",\"month\":\"05\"," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":80}," +
                 "{\"transaction_name\":\"T02\",\"point\":10}," +
                 "{\"transaction_name\":\"T03\",\"point\":10}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":150}";
 
         assertEquals(exceptedResponse, actualResponse);
 
@@ -298,20 +353,20 @@ public class MonthlyReportIntegrationTest {
     public void testMonthlyRewardReport_hasOtherMerchants() throws Exception {
         Transaction t1 = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(2500)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(2500)
                 .build();
 
         Transaction t2 = Transaction.builder()
                 .transactionName("T02")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("tim_hortons").amountCents(1000)
+                .postDate(20210509)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(1000)
                 .build();
 
         Transaction t3 = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("whatever").amountCents(500)
+                .postDate(20210509)
+                .merchantId(this.merchantRegistry.idOf("whatever")).amountCents(500)
                 .build();
         // insert directly
         this.testTransactionDAO.insert(t1);
@@ -331,13 +386,12 @@ public class MonthlyReportIntegrationTest {
 
         String exceptedResponse = "{\"code\":1200," +
                 "\"message\":\"Successful Request.\"," +
-                "\"year\":\"2021\",\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":95," +
+                "\"account_id\":0,\"year\":\"2021\",\"month\":\"05\"," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":80}," +
                 "{\"transaction_name\":\"T02\",\"point\":10}," +
                 "{\"transaction_name\":\"T03\",\"point\":5}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":95}";
 
         assertEquals(exceptedResponse, actualResponse);
     }
@@ -353,26 +407,26 @@ public class MonthlyReportIntegrationTest {
     public void testMonthlyRewardReport_duplicateMerchants() throws Exception {
         Transaction t1 = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(2500)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(2500)
                 .build();
 
         Transaction t2 = Transaction.builder()
                 .transactionName("T02")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(10000)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(10000)
                 .build();
 
         Transaction t3 = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("tim_hortons").amountCents(2500)
+                .postDate(20210509)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(2500)
                 .build();
 
         Transaction t4 = Transaction.builder()
                 .transactionName("T04")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("subway").amountCents(2500)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(2500)
                 .build();
 
         // insert directly
@@ -394,14 +448,13 @@ public class MonthlyReportIntegrationTest {
 
         String exceptedResponse = "{\"code\":1200," +
                 "\"message\":\"Successful Request.\"," +
-                "\"year\":\"2021\",\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":660," +
+                "\"account_id\":0,\"year\":\"2021\",\"month\":\"05\"," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":80}," +
                 "{\"transaction_name\":\"T02\",\"point\":375}," +
                 "{\"transaction_name\":\"T03\",\"point\":25}," +
                 "{\"transaction_name\":\"T04\",\"point\":25}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":660}";
         assertEquals(exceptedResponse, actualResponse);
     }
 
@@ -417,32 +470,32 @@ public class MonthlyReportIntegrationTest {
     public void testMonthlyRewardReport_hasDuplicatedCentsRemaining() throws Exception {
         Transaction t1 = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(2500)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(2500)
                 .build();
 
         Transaction t2 = Transaction.builder()
                 .transactionName("T02")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(10068)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(10068)
                 .build();
 
         Transaction t3 = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("tim_hortons").amountCents(3550)
+                .postDate(20210509)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(3550)
                 .build();
 
         Transaction t4 = Transaction.builder()
                 .transactionName("T04")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("subway").amountCents(3558)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(3558)
                 .build();
 
         Transaction t5 = Transaction.builder()
                 .transactionName("T05")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("whatever").amountCents(1000)
+                .postDate(20210509)
+                .merchantId(this.merchantRegistry.idOf("whatever")).amountCents(1000)
                 .build();
 
         // insert directly
@@ -465,15 +518,14 @@ public class MonthlyReportIntegrationTest {
 
         String exceptedResponse = "{\"code\":1200," +
                 "\"message\":\"Successful Request.\"," +
-                "\"year\":\"2021\",\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":741," +
+                "\"account_id\":0,\"year\":\"2021\",\"month\":\"05\"," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":80}," +
                 "{\"transaction_name\":\"T02\",\"point\":375}," +
                 "{\"transaction_name\":\"T03\",\"point\":35}," +
                 "{\"transaction_name\":\"T04\",\"point\":35}," +
                 "{\"transaction_name\":\"T05\",\"point\":10}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":741}";
         assertEquals(exceptedResponse, actualResponse);
     }
 
@@ -484,62 +536,62 @@ public class MonthlyReportIntegrationTest {
     public void testMonthlyRewardReport_exampleTransactions() throws Exception {
         Transaction t1 = Transaction.builder()
                 .transactionName("T01")
-                .postYear("2021").postMonth("05").postDay("01")
-                .merchantCode("sportcheck").amountCents(21000)
+                .postDate(20210501)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(21000)
                 .build();
 
         Transaction t2 = Transaction.builder()
                 .transactionName("T02")
-                .postYear("2021").postMonth("05").postDay("02")
-                .merchantCode("sportcheck").amountCents(8700)
+                .postDate(20210502)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(8700)
                 .build();
 
         Transaction t3 = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021").postMonth("05").postDay("03")
-                .merchantCode("tim_hortons").amountCents(323)
+                .postDate(20210503)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(323)
                 .build();
 
         Transaction t4 = Transaction.builder()
                 .transactionName("T04")
-                .postYear("2021").postMonth("05").postDay("04")
-                .merchantCode("tim_hortons").amountCents(1267)
+                .postDate(20210504)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(1267)
                 .build();
 
         Transaction t5 = Transaction.builder()
                 .transactionName("T05")
-                .postYear("2021").postMonth("05").postDay("05")
-                .merchantCode("tim_hortons").amountCents(2116)
+                .postDate(20210505)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(2116)
                 .build();
 
         Transaction t6 = Transaction.builder()
                 .transactionName("T06")
-                .postYear("2021").postMonth("05").postDay("06")
-                .merchantCode("tim_hortons").amountCents(2211)
+                .postDate(20210506)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(2211)
                 .build();
 
         Transaction t7 = Transaction.builder()
                 .transactionName("T07")
-                .postYear("2021").postMonth("05").postDay("07")
-                .merchantCode("subway").amountCents(1853)
+                .postDate(20210507)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(1853)
                 .build();
 
         Transaction t8 = Transaction.builder()
                 .transactionName("T08")
-                .postYear("2021").postMonth("05").postDay("08")
-                .merchantCode("subway").amountCents(2153)
+                .postDate(20210508)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(2153)
                 .build();
 
         Transaction t9 = Transaction.builder()
                 .transactionName("T09")
-                .postYear("2021").postMonth("05").postDay("09")
-                .merchantCode("sportcheck").amountCents(7326)
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(7326)
                 .build();
 
         Transaction t10 = Transaction.builder()
                 .transactionName("T10")
-                .postYear("2021").postMonth("05").postDay("10")
-                .merchantCode("tim_hortons").amountCents(1321)
+                .postDate(20210510)
+                .merchantId(MerchantCode.TIM_HORTONS_ID).amountCents(1321)
                 .build();
 
         // insert directly
@@ -567,8 +619,7 @@ public class MonthlyReportIntegrationTest {
 
         String exceptedResponse = "{\"code\":1200," +
                 "\"message\":\"Successful Request.\"," +
-                "\"year\":\"2021\",\"month\":\"05\"," +
-                "\"maximum_monthly_rewards_point\":1657," +
+                "\"account_id\":0,\"year\":\"2021\",\"month\":\"05\"," +
                 "\"transaction_level_points_list\":[" +
                 "{\"transaction_name\":\"T01\",\"point\":760}," +
                 "{\"transaction_name\":\"T02\",\"point\":307}," +
@@ -580,9 +631,347 @@ public class MonthlyReportIntegrationTest {
                 "{\"transaction_name\":\"T08\",\"point\":21}," +
                 "{\"transaction_name\":\"T09\",\"point\":238}," +
                 "{\"transaction_name\":\"T10\",\"point\":13}" +
-                "]}";
+                "],\"maximum_monthly_rewards_point\":1677}";
         assertEquals(exceptedResponse, actualResponse);
     }
+
+    /**
+     * Success: transactions posted through the API are added to the monthly rollup the report reads
+     */
+    @Test
+    public void testMonthlyRewardReport_postedThroughApi() throws Exception {
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 12500}," +
+                                "{\"transaction_name\": \"T02\", \"date\": \"2021-05-10\", \"merchant_code\": \"tim_hortons\", \"amount_cents\": 2500}," +
+                                "{\"transaction_name\": \"T03\", \"date\": \"2021-05-10\", \"merchant_code\": \"subway\", \"amount_cents\": 2500}," +
+                                "{\"transaction_name\": \"T04\", \"date\": \"2021-06-01\", \"merchant_code\": \"subway\", \"amount_cents\": 9900}]"))
+                .andExpect(status().isOk());
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(660));
+
+        this.mockMvc.perform(post("/transaction/rollups/reconcile"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mismatch_count").value(0));
+    }
+
+    /**
+     * Success: rows written behind the rollup's back are found by the reconciliation and their month is rebuilt
+     */
+    @Test
+    public void testReconcileRollups_repairsDrift() throws Exception {
+
+        Transaction t1 = Transaction.builder()
+                .transactionName("T01")
+                .postDate(20210509)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(2000)
+                .build();
+
+        Transaction t2 = Transaction.builder()
+                .transactionName("T02")
+                .postDate(20210510)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(2000)
+                .build();
+
+        Transaction t3 = Transaction.builder()
+                .transactionName("T03")
+                .postDate(20210601)
+                .merchantId(MerchantCode.SPORT_CHECK_ID).amountCents(500)
+                .build();
+
+        this.testTransactionDAO.insert(t1);
+        // insert without touching the rollup, also into a month the rollup has no rows for
+        this.testTransactionDAO.insertTransaction(t2);
+        this.testTransactionDAO.insertTransaction(t3);
+
+        this.mockMvc.perform(post("/transaction/rollups/reconcile"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mismatch_count").value(2))
+                .andExpect(jsonPath("$.repaired").value(false))
+                .andExpect(jsonPath("$.mismatches[0].post_month").value(202105))
+                .andExpect(jsonPath("$.mismatches[0].merchant_id").value(2))
+                .andExpect(jsonPath("$.mismatches[0].expected_amount_cents").value(4000))
+                .andExpect(jsonPath("$.mismatches[0].actual_amount_cents").value(2000))
+                .andExpect(jsonPath("$.mismatches[1].post_month").value(202106))
+                .andExpect(jsonPath("$.mismatches[1].expected_amount_cents").value(500))
+                .andExpect(jsonPath("$.mismatches[1].actual_amount_cents").value(0));
+
+        this.mockMvc.perform(post("/transaction/rollups/reconcile").param("repair", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mismatch_count").value(2))
+                .andExpect(jsonPath("$.repaired").value(true));
+
+        this.mockMvc.perform(post("/transaction/rollups/reconcile"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mismatch_count").value(0));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(150));
+    }
+
+    /**
+     * Success: the same name can be posted to two accounts, and each account gets its own report
+     */
+    @Test
+    public void testMonthlyRewardReports_perAccount() throws Exception {
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 2000}," +
+                                "{\"account_id\": 42, \"transaction_name\": \"T01\", \"date\": \"2021-05-10\", \"merchant_code\": \"subway\", \"amount_cents\": 1000}," +
+                                "{\"account_id\": 7, \"transaction_name\": \"T01\", \"date\": \"2021-06-01\", \"merchant_code\": \"subway\", \"amount_cents\": 1000}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted_count").value(3));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH)
+                        .param("account_id", "42"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.account_id").value(42))
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(10))
+                .andExpect(jsonPath("$.transaction_level_points_list.length()").value(1));
+
+        MvcResult started = this.mockMvc.perform(get("/transaction/monthly-reward-reports")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String[] lines = this.mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_NDJSON_VALUE))
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertEquals(3, lines.length);
+        assertEquals(Integer.valueOf(0), JsonPath.read(lines[0], "$.account_id"));
+        assertEquals(Integer.valueOf(75), JsonPath.read(lines[0], "$.maximum_monthly_rewards_point"));
+        assertEquals(Integer.valueOf(42), JsonPath.read(lines[1], "$.account_id"));
+        assertEquals(Integer.valueOf(10), JsonPath.read(lines[1], "$.maximum_monthly_rewards_point"));
+        assertEquals(Integer.valueOf(2), JsonPath.read(lines[2], "$.account_count"));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-reports")
+                        .param("year", YEAR)
+                        .param("month", "04"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(Status.MONTH_NO_TRANSACTIONS.getCode()));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH)
+                        .param("account_id", "7"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(Status.MONTH_NO_TRANSACTIONS.getCode()));
+
+        this.mockMvc.perform(post("/transaction/rollups/reconcile"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mismatch_count").value(0));
+    }
+
+    /**
+     * Success: a range report streams one line per month, then the total
+     */
+    @Test
+    public void testMonthlyRewardRangeReport_streamed() throws Exception {
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 2000}," +
+                                "{\"transaction_name\": \"T02\", \"date\": \"2021-07-10\", \"merchant_code\": \"subway\", \"amount_cents\": 1000}]"))
+                .andExpect(status().isOk());
+
+        MvcResult started = this.mockMvc.perform(get("/transaction/monthly-reward-range-report")
+                        .param("from", "2021-05")
+                        .param("to", "2021-07"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String[] lines = this.mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_NDJSON_VALUE))
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertEquals(4, lines.length);
+        List<String> months = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            months.add(JsonPath.read(lines[i], "$.month") + ":" + JsonPath.read(lines[i], "$.maximum_monthly_rewards_point"));
+        }
+        Collections.sort(months);
+        assertEquals(List.of("05:75", "06:0", "07:10"), months);
+        assertEquals(Integer.valueOf(85), JsonPath.read(lines[3], "$.total_rewards_points"));
+        assertEquals(Integer.valueOf(2), JsonPath.read(lines[3], "$.reported_month_count"));
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-range-report")
+                        .param("from", "2021-07")
+                        .param("to", "2021-05"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(Status.INVALID_MONTH_RANGE.getCode()));
+    }
+
+    /**
+     * Success: a cached report is served until its month changes
+     */
+    @Test
+    public void testMonthlyRewardReport_cachedUntilPosted() throws Exception {
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 2000}]"))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(75));
+
+        // written behind the application's back but kept in the rollup, so the month's tag changes
+        this.testTransactionDAO.insert(Transaction.builder().transactionName("T02").postDate(20210510)
+                .merchantId(MerchantCode.SUBWAY_ID).amountCents(1000).build());
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(85));
+
+        // posting into another month keeps it, posting into the month drops it
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T03\", \"date\": \"2021-06-01\", \"merchant_code\": \"subway\", \"amount_cents\": 1000}]"))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(85));
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T04\", \"date\": \"2021-05-20\", \"merchant_code\": \"subway\", \"amount_cents\": 1000}]"))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(95))
+                .andExpect(jsonPath("$.transaction_level_points_list.length()").value(3));
+    }
+
+    /**
+     * Success: a report whose tag still matches is answered with 304, until a transaction is posted into its month
+     */
+    @Test
+    public void testMonthlyRewardReport_notModifiedUntilPosted() throws Exception {
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(header().doesNotExist("ETag"));
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\": \"sportcheck\", \"amount_cents\": 2000}]"))
+                .andExpect(status().isOk());
+        String eTag = this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(75))
+                .andReturn().getResponse().getHeader("ETag");
+
+        this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH)
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTag))
+                .andExpect(content().string(""));
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"transaction_name\": \"T02\", \"date\": \"2021-05-20\", \"merchant_code\": \"subway\", \"amount_cents\": 1000}]"))
+                .andExpect(status().isOk());
+        String newETag = this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH)
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(85))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotEquals(eTag, newETag);
+    }
+
+    /**
+     * Success: a large report is sent gzip-compressed to clients that accept it, and as plain JSON to the others
+     */
+    @Test
+    public void testMonthlyRewardReport_gzipped() throws Exception {
+
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"transaction_name\": \"T").append(i)
+                    .append("\", \"date\": \"2021-05-09\", \"merchant_code\": \"subway\", \"amount_cents\": 100}");
+        }
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body.append("]").toString()))
+                .andExpect(status().isOk());
+
+        String json = this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(200))
+                .andReturn().getResponse().getContentAsString();
+
+        byte[] compressed = this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                        .param("year", YEAR)
+                        .param("month", MONTH)
+                        .header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andReturn().getResponse().getContentAsByteArray();
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals(json, new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertTrue(compressed.length < json.length() / 4);
+    }
+
+    /**
+     * Success: a report larger than max-report-bytes is streamed to the response as it is written and not cached
+     */
+    @Test
+    public void testMonthlyRewardReport_tooLargeToCache_streamed() throws Exception {
+
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"transaction_name\": \"T").append(i)
+                    .append("\", \"date\": \"2021-05-09\", \"merchant_code\": \"subway\", \"amount_cents\": 100}");
+        }
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body.append("]").toString()))
+                .andExpect(status().isOk());
+
+        for (int i = 0; i < 2; i++) {
+            MvcResult result = this.mockMvc.perform(get("/transaction/monthly-reward-report")
+                            .param("year", YEAR)
+                            .param("month", MONTH))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Content-Type", "application/json"))
+                    .andExpect(header().string("Vary", "Accept-Encoding"))
+                    .andExpect(header().exists("ETag"))
+                    .andExpect(header().doesNotExist("Content-Encoding"))
+                    .andExpect(jsonPath("$.maximum_monthly_rewards_point").value(1000))
+                    .andExpect(jsonPath("$.transaction_level_points_list.length()").value(1000))
+                    .andReturn();
+            assertTrue(result.getResponse().getContentAsByteArray().length > 16384);
+        }
+        assertEquals(0.0, this.meterRegistry.get("cache.size").tag("cache", "monthly_reports").gauge().value());
+    }
     /** ================================== end of test cases ================================== */
 
 
@@ -1,8 +1,15 @@
 package com.xiaoqigao.creditcardrewards.integration;
 
 import com.xiaoqigao.creditcardrewards.DAO.*;
+import com.jayway.jsonpath.JsonPath;
+import com.xiaoqigao.creditcardrewards.enums.JobState;
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
 import com.xiaoqigao.creditcardrewards.enums.Status;
 import com.xiaoqigao.creditcardrewards.model.*;
+import com.xiaoqigao.creditcardrewards.service.MerchantRegistry;
+import com.xiaoqigao.creditcardrewards.service.TransactionNameIndex;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,11 +18,19 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -34,12 +49,28 @@ public class PostListIntegrationTest {
     @Autowired
     private TestTransactionDAO testTransactionDAO;
 
+    @Autowired
+    private TransactionNameIndex transactionNameIndex;
+
+    @Autowired
+    private MerchantRegistry merchantRegistry;
+
+    @Autowired
+    private MerchantDAO merchantDAO;
+
+    @Autowired
+    private TransactionStore transactionStore;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     /**
      * Cleans up old data in the test database `rewards-test` before each test
      */
     @BeforeEach
     public void cleanUpOldData() {
         this.testTransactionDAO.deleteAll();
+        this.transactionNameIndex.rebuild();
     }
 
     /**
@@ -70,13 +101,122 @@ public class PostListIntegrationTest {
 
         // check if the fields are matching
         assertEquals("T01", transaction.getTransactionName());
-        assertEquals("2021", transaction.getPostYear());
-        assertEquals("05", transaction.getPostMonth());
-        assertEquals("09", transaction.getPostDay());
-        assertEquals("sportcheck", transaction.getMerchantCode());
+        assertEquals(20210509, transaction.getPostDate());
+        assertEquals(MerchantCode.SPORT_CHECK_ID, transaction.getMerchantId());
         assertEquals(2550, transaction.getAmountCents());
     }
 
+    /**
+     * Success: a merchant code that is not a partner is stored as other and never added to the merchant table
+     */
+    @Test
+    public void testPostList_unknownMerchant_storedAsOther() throws Exception {
+
+        String merchantCode = "cafe_" + System.nanoTime();
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .content("[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\" : \""
+                                + merchantCode + "\", \"amount_cents\": 2550}]")
+                        .contentType("application/json"))
+                .andExpect(status().isOk()) // HTTP status == 200
+                .andExpect(jsonPath("$.inserted_count").value(1));
+
+        assertEquals(MerchantCode.OTHER_ID, this.testTransactionDAO.selectByTransactionName("T01").get(0).getMerchantId());
+        assertNull(this.merchantDAO.selectIdByCode(merchantCode));
+    }
+
+    /**
+     * Success: Test for posting a list of transactions in one batch
+     */
+    @Test
+    public void testPostList_multipleTransactions() throws Exception {
+
+        var requestBody = "[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\" : \"sportcheck\", \"amount_cents\": 2550}," +
+                "{\"transaction_name\": \"T02\", \"date\": \"2021-05-10\", \"merchant_code\" : \"tim_hortons\", \"amount_cents\": 1050}," +
+                "{\"transaction_name\": \"T03\", \"date\": \"2021-05-10\", \"merchant_code\" : \"subway\", \"amount_cents\": 1100}]";
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .content(requestBody)
+                        .contentType("application/json"))
+                .andExpect(status().isOk()) // HTTP status == 200
+                .andExpect(jsonPath("$.code").value(Status.OK.getCode()))
+                .andExpect(jsonPath("$.total_count").value(3))
+                .andExpect(jsonPath("$.inserted_count").value(3))
+                .andExpect(jsonPath("$.chunk_count").value(1));
+
+        assertEquals(3, this.testTransactionDAO.selectByYearMonth(202105).size());
+    }
+
+    /**
+     * Exception thrown: one invalid transaction rejects the whole list
+     */
+    @Test
+    public void testPostList_oneInvalidTransaction_nothingInserted() throws Exception {
+
+        var requestBody = "[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\" : \"sportcheck\", \"amount_cents\": 2550}," +
+                "{\"transaction_name\": \"T02\", \"date\": \"2021-05-10\", \"merchant_code\" : \"tim_hortons\", \"amount_cents\": -1050}]";
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .content(requestBody)
+                        .contentType("application/json"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(Status.NEGATIVE_AMOUNT_CENTS.getCode()));
+
+        assertTrue(this.testTransactionDAO.selectByYearMonth(202105).isEmpty());
+    }
+
+    /**
+     * Success: an async upload is accepted with a job id and its progress can be polled
+     */
+    @Test
+    public void testPostList_async() throws Exception {
+
+        var requestBody = "[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\" : \"sportcheck\", \"amount_cents\": 2550}," +
+                "{\"transaction_name\": \"T02\", \"date\": \"2021-05-10\", \"merchant_code\" : \"tim_hortons\", \"amount_cents\": -1050}]";
+
+        MvcResult accepted = this.mockMvc.perform(post("/transaction/post-list")
+                        .param("async", "true")
+                        .content(requestBody)
+                        .contentType("application/json"))
+                .andExpect(status().isAccepted()) // HTTP status == 202
+                .andExpect(header().exists("Location"))
+                .andExpect(jsonPath("$.total_count").value(2))
+                .andReturn();
+
+        String jobId = JsonPath.read(accepted.getResponse().getContentAsString(), "$.job_id");
+
+        // poll until the writer has finished the job
+        String state = null;
+        for (int attempt = 0; attempt < 100 && !JobState.COMPLETED.name().equals(state); attempt++) {
+            Thread.sleep(50);
+            MvcResult polled = this.mockMvc.perform(get("/transaction/jobs/" + jobId))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            state = JsonPath.read(polled.getResponse().getContentAsString(), "$.state");
+        }
+        assertEquals(JobState.COMPLETED.name(), state);
+
+        this.mockMvc.perform(get("/transaction/jobs/" + jobId))
+                .andExpect(jsonPath("$.processed_count").value(2))
+                .andExpect(jsonPath("$.inserted_count").value(1))
+                .andExpect(jsonPath("$.rejected_count").value(1))
+                .andExpect(jsonPath("$.failures[0].index").value(1))
+                .andExpect(jsonPath("$.failures[0].code").value(Status.NEGATIVE_AMOUNT_CENTS.getCode()));
+
+        assertEquals(1, this.testTransactionDAO.selectByTransactionName("T01").size());
+    }
+
+    /**
+     * Exception thrown: unknown job id
+     */
+    @Test
+    public void testJobStatus_unknownJob() throws Exception {
+
+        this.mockMvc.perform(get("/transaction/jobs/missing"))
+                .andExpect(status().isNotFound()) // HTTP status == 404
+                .andExpect(jsonPath("$.code").value(Status.JOB_NOT_FOUND.getCode()));
+    }
+
     /**
      * Exception thrown: wrong date format
      */
@@ -102,6 +242,30 @@ public class PostListIntegrationTest {
         assertTrue(transactions.isEmpty()); // should not add to database
     }
 
+    /**
+     * Exception thrown: every invalid transaction of the list is reported together, and nothing is posted
+     */
+    @Test
+    public void testPostList_severalInvalid_allReported() throws Exception {
+
+        var requestBody = "[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\" : \"subway\", \"amount_cents\": 1000}," +
+                "{\"transaction_name\": \"T02\", \"date\": \"2021/05/09\", \"merchant_code\" : \"subway\", \"amount_cents\": 1000}," +
+                "{\"transaction_name\": \"T03\", \"date\": \"2021-05-09\", \"amount_cents\": 1000}]";
+
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .content(requestBody)
+                        .contentType("application/json"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(Status.WRONG_DATE_STRING_FORMAT.getCode()))
+                .andExpect(jsonPath("$.rejected_count").value(2))
+                .andExpect(jsonPath("$.rejections[0].index").value(1))
+                .andExpect(jsonPath("$.rejections[0].transaction_name").value("T02"))
+                .andExpect(jsonPath("$.rejections[1].index").value(2))
+                .andExpect(jsonPath("$.rejections[1].code").value(Status.MERCHANT_CODE_IS_NULL.getCode()));
+
+        assertTrue(this.testTransactionDAO.selectByTransactionName("T01").isEmpty());
+    }
+
     /**
      * Exception thrown: wrong date range
      */
@@ -203,54 +367,137 @@ public class PostListIntegrationTest {
     }
 
     /**
-     * Exception thrown: transactions already posted
+     * Success: transactions already posted are reported per item instead of failing the list
      */
     @Test
     public void testPostList_transactionAlreadyPosted() throws Exception {
 
         Transaction transaction = Transaction.builder()
                 .transactionName("T03")
-                .postYear("2021")
-                .postMonth("05")
-                .postDay("09")
-                .merchantCode("whatever")
+                .postDate(20210509)
+                .merchantId(this.merchantRegistry.idOf("whatever"))
                 .amountCents(1000)
                 .build();
         // insert one record first
         this.testTransactionDAO.insert(transaction);
 
         var requestBody = "[{\"transaction_name\": \"T03\", " +
-                "\"date\": \"2021/05/09\", " +
+                "\"date\": \"2021-05-09\", " +
                 "\"merchant_code\" : \"whatever\", " +
                 "\"amount_cents\": 1000}]";
 
         this.mockMvc.perform(post("/transaction/post-list") // http client
                         .content(requestBody)
                         .contentType("application/json"))
-                .andExpect(status().isBadRequest()) // HTTP status == 500
+                .andExpect(status().isOk()) // HTTP status == 200
                 .andExpect(header().string("Content-Type", "application/json"))
-                .andExpect(jsonPath("$.code").value(Status.TRANSACTION_ALREADY_POSTED.getCode()))
-                .andExpect(jsonPath("$.message").value(Status.TRANSACTION_ALREADY_POSTED.getMessage()));
+                .andExpect(jsonPath("$.code").value(Status.OK.getCode()))
+                .andExpect(jsonPath("$.inserted_count").value(0))
+                .andExpect(jsonPath("$.already_posted_count").value(1))
+                .andExpect(jsonPath("$.results[0].transaction_name").value("T03"))
+                .andExpect(jsonPath("$.results[0].outcome").value(PostOutcome.ALREADY_POSTED.name()));
 
 
         List<Transaction> transactions = this.testTransactionDAO.selectByTransactionName("T03");
         assertNotNull(transactions); // should not be null
         assertEquals(1, transactions.size()); // expected, actual
     }
-}
-
-
-
 
+    /**
+     * Success: a name repeated inside the same list is inserted once and reported as a duplicate
+     */
+    @Test
+    public void testPostList_duplicateInBatch() throws Exception {
 
+        var requestBody = "[{\"transaction_name\": \"T04\", \"date\": \"2021-05-09\", \"merchant_code\" : \"subway\", \"amount_cents\": 1000}," +
+                "{\"transaction_name\": \"T04\", \"date\": \"2021-05-10\", \"merchant_code\" : \"subway\", \"amount_cents\": 2000}]";
 
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .content(requestBody)
+                        .contentType("application/json"))
+                .andExpect(status().isOk()) // HTTP status == 200
+                .andExpect(jsonPath("$.inserted_count").value(1))
+                .andExpect(jsonPath("$.duplicate_in_batch_count").value(1))
+                .andExpect(jsonPath("$.results[0].outcome").value(PostOutcome.INSERTED.name()))
+                .andExpect(jsonPath("$.results[1].outcome").value(PostOutcome.DUPLICATE_IN_BATCH.name()));
 
+        List<Transaction> transactions = this.testTransactionDAO.selectByTransactionName("T04");
+        assertEquals(1, transactions.size()); // expected, actual
+        assertEquals(1000, transactions.get(0).getAmountCents()); // first occurrence wins
+    }
 
+    /**
+     * Success: a retry with the same idempotency key replays the original outcome instead of reporting duplicates
+     */
+    @Test
+    public void testPostList_idempotencyKey_replayed() throws Exception {
 
+        var requestBody = "[{\"transaction_name\": \"T05\", \"date\": \"2021-05-09\", \"merchant_code\" : \"subway\", \"amount_cents\": 1000}]";
 
+        for (int attempt = 0; attempt < 2; attempt++) {
+            this.mockMvc.perform(post("/transaction/post-list")
+                            .header("Idempotency-Key", "batch-1")
+                            .content(requestBody)
+                            .contentType("application/json"))
+                    .andExpect(status().isOk()) // HTTP status == 200
+                    .andExpect(jsonPath("$.inserted_count").value(1))
+                    .andExpect(jsonPath("$.results[0].outcome").value(PostOutcome.INSERTED.name()));
+        }
 
+        assertEquals(1, this.testTransactionDAO.selectByTransactionName("T05").size()); // expected, actual
+    }
 
+    /**
+     * Failure: an idempotency key cannot be reused for a different list
+     */
+    @Test
+    public void testPostList_idempotencyKey_reusedForDifferentBody() throws Exception {
 
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .header("Idempotency-Key", "batch-2")
+                        .content("[{\"transaction_name\": \"T06\", \"date\": \"2021-05-09\", \"merchant_code\" : \"subway\", \"amount_cents\": 1000}]")
+                        .contentType("application/json"))
+                .andExpect(status().isOk());
 
+        this.mockMvc.perform(post("/transaction/post-list")
+                        .header("Idempotency-Key", "batch-2")
+                        .content("[{\"transaction_name\": \"T07\", \"date\": \"2021-05-09\", \"merchant_code\" : \"subway\", \"amount_cents\": 1000}]")
+                        .contentType("application/json"))
+                .andExpect(status().isUnprocessableEntity()) // HTTP status == 422
+                .andExpect(jsonPath("$.code").value(Status.IDEMPOTENCY_KEY_REUSED.getCode()));
 
+        assertEquals(0, this.testTransactionDAO.selectByTransactionName("T07").size()); // expected, actual
+    }
 
+    /**
+     * Success: a merchant registered on another connection after this transaction's snapshot was taken,
+     * so that reading it back still finds nothing, is found by the locking read after the upsert
+     */
+    @Test
+    public void testRegisterMerchant_registeredAfterSnapshot_existingId() throws Exception {
+
+        String merchantCode = "cafe_" + System.nanoTime();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(this.transactionManager);
+        transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        ExecutorService otherNode = Executors.newSingleThreadExecutor();
+        try {
+            int[] ids = transactionTemplate.execute(status -> {
+                assertNull(this.merchantDAO.selectIdByCode(merchantCode)); // takes the snapshot
+                int registeredElsewhere;
+                try {
+                    registeredElsewhere = otherNode.submit(() -> this.transactionStore.registerMerchant(merchantCode)).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+                assertNull(this.merchantDAO.selectIdByCode(merchantCode)); // still hidden by the snapshot
+
+                this.merchantDAO.upsert(merchantCode);
+                return new int[] {registeredElsewhere, this.merchantDAO.selectIdByCodeForUpdate(merchantCode)};
+            });
+
+            assertEquals(ids[0], ids[1]); // expected, actual
+        } finally {
+            otherNode.shutdown();
+        }
+    }
+}
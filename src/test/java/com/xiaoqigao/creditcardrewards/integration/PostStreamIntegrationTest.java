@@ -0,0 +1,129 @@
+package com.xiaoqigao.creditcardrewards.integration;
+
+import com.xiaoqigao.creditcardrewards.DAO.TestTransactionDAO;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.service.TransactionNameIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Integration test for streaming a large upload of transactions and importing files
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ExtendWith(SpringExtension.class)
+public class PostStreamIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TestTransactionDAO testTransactionDAO;
+
+    @Autowired
+    private TransactionNameIndex transactionNameIndex;
+
+    /**
+     * Cleans up old data in the test database `rewards-test` before each test
+     */
+    @BeforeEach
+    public void cleanUpOldData() {
+        this.testTransactionDAO.deleteAll();
+        this.transactionNameIndex.rebuild();
+    }
+
+    /**
+     * Success: a JSON array body is streamed into the database
+     */
+    @Test
+    public void testPostStream_jsonArray() throws Exception {
+
+        var requestBody = "[{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\" : \"sportcheck\", \"amount_cents\": 2550}," +
+                "{\"transaction_name\": \"T02\", \"date\": \"2021-05-10\", \"merchant_code\" : \"tim_hortons\", \"amount_cents\": 1050}]";
+
+        this.mockMvc.perform(post("/transaction/post-stream")
+                        .content(requestBody)
+                        .contentType("application/json"))
+                .andExpect(status().isOk()) // HTTP status == 200
+                .andExpect(jsonPath("$.code").value(Status.OK.getCode()))
+                .andExpect(jsonPath("$.records_read").value(2))
+                .andExpect(jsonPath("$.inserted_count").value(2));
+
+        assertEquals(2, this.testTransactionDAO.selectByYearMonth(202105).size());
+    }
+
+    /**
+     * Success: an NDJSON body is streamed into the database, skipping invalid and already posted records
+     */
+    @Test
+    public void testPostStream_ndjson() throws Exception {
+
+        var requestBody = "{\"transaction_name\": \"T01\", \"date\": \"2021-05-09\", \"merchant_code\" : \"sportcheck\", \"amount_cents\": 2550}\n" +
+                "{\"transaction_name\": \"T02\", \"date\": \"2021/05/10\", \"merchant_code\" : \"tim_hortons\", \"amount_cents\": 1050}\n" +
+                "{\"transaction_name\": \"T01\", \"date\": \"2021-05-11\", \"merchant_code\" : \"subway\", \"amount_cents\": 1100}\n";
+
+        this.mockMvc.perform(post("/transaction/post-stream")
+                        .content(requestBody)
+                        .contentType("application/x-ndjson"))
+                .andExpect(status().isOk()) // HTTP status == 200
+                .andExpect(jsonPath("$.records_read").value(3))
+                .andExpect(jsonPath("$.inserted_count").value(1))
+                .andExpect(jsonPath("$.duplicate_in_batch_count").value(1))
+                .andExpect(jsonPath("$.rejected_count").value(1))
+                .andExpect(jsonPath("$.rejections[0].index").value(1))
+                .andExpect(jsonPath("$.rejections[0].code").value(Status.WRONG_DATE_STRING_FORMAT.getCode()));
+
+        assertEquals(1, this.testTransactionDAO.selectByYearMonth(202105).size());
+    }
+
+    /**
+     * Success: a multipart CSV upload is imported, with the format taken from the file extension
+     */
+    @Test
+    public void testImport_csvFile() throws Exception {
+
+        var csv = "transaction_name,date,merchant_code,amount_cents\n" +
+                "T01,2021-05-09,sportcheck,2550\n" +
+                "T02,2021-05-10,tim_hortons,abc\n" +
+                "T03,2021-05-10,subway,1100\n";
+        var file = new MockMultipartFile("file", "export.csv", "text/csv", csv.getBytes(StandardCharsets.UTF_8));
+
+        this.mockMvc.perform(multipart("/transaction/import").file(file))
+                .andExpect(status().isOk()) // HTTP status == 200
+                .andExpect(jsonPath("$.records_read").value(3))
+                .andExpect(jsonPath("$.inserted_count").value(2))
+                .andExpect(jsonPath("$.rejected_count").value(1))
+                .andExpect(jsonPath("$.rejections[0].code").value(Status.AMOUNT_CENTS_NOT_A_NUMBER.getCode()))
+                .andExpect(jsonPath("$.records_per_second").exists());
+
+        assertEquals(2, this.testTransactionDAO.selectByYearMonth(202105).size());
+    }
+
+    /**
+     * Failure: a file that is neither CSV nor NDJSON is refused
+     */
+    @Test
+    public void testImport_unsupportedFormat() throws Exception {
+
+        var file = new MockMultipartFile("file", "export.xlsx", "application/octet-stream", new byte[]{1, 2, 3});
+
+        this.mockMvc.perform(multipart("/transaction/import").file(file))
+                .andExpect(status().isBadRequest()) // HTTP status == 400
+                .andExpect(jsonPath("$.code").value(Status.UNSUPPORTED_IMPORT_FORMAT.getCode()));
+    }
+}
@@ -0,0 +1,124 @@
+package com.xiaoqigao.creditcardrewards.integration;
+
+import com.xiaoqigao.creditcardrewards.DAO.SchemaMigrator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Integration test for resuming a schema migration that failed partway
+ */
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+public class SchemaMigrationIntegrationTest {
+
+    private static final int VERSION = 9001;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private SchemaMigrator schemaMigrator;
+
+    @TempDir
+    Path scripts;
+
+    /**
+     * Points a migrator at a single test script whose third statement needs a table that does not exist yet
+     */
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        dropTestTables();
+
+        Files.writeString(this.scripts.resolve("V" + VERSION + "__partial.sql"),
+                "CREATE TABLE `migration_test` (`id` int NOT NULL, PRIMARY KEY (`id`)) ENGINE=InnoDB;\n" +
+                "ALTER TABLE `migration_test` ADD COLUMN `note` varchar(10) NULL;\n" +
+                "INSERT INTO `migration_test_source` (`id`) VALUES (1);\n" +
+                "INSERT INTO `migration_test` (`id`, `note`) SELECT `id`, 'copied' FROM `migration_test_source`;\n");
+
+        this.schemaMigrator = new SchemaMigrator();
+        ReflectionTestUtils.setField(this.schemaMigrator, "dataSource", this.dataSource);
+        ReflectionTestUtils.setField(this.schemaMigrator, "enabled", true);
+        ReflectionTestUtils.setField(this.schemaMigrator, "locations", this.scripts.toUri() + "*.sql");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dropTestTables();
+    }
+
+    /**
+     * Success: a rerun skips the statements that already ran and finishes the script
+     */
+    @Test
+    public void testMigrate_failedPartway_resumes() throws Exception {
+        assertThrows(SQLException.class, () -> this.schemaMigrator.migrate());
+
+        assertEquals(2, countSteps());
+        assertEquals(0, countApplied());
+
+        this.jdbcTemplate.execute("CREATE TABLE `migration_test_source` (`id` int NOT NULL) ENGINE=InnoDB");
+        this.schemaMigrator.migrate();
+
+        assertEquals(0, countSteps());
+        assertEquals(1, countApplied());
+        assertEquals("copied", this.jdbcTemplate.queryForObject(
+                "SELECT `note` FROM `migration_test` WHERE `id` = 1", String.class));
+
+        // already applied, so nothing runs again
+        this.schemaMigrator.migrate();
+        assertEquals(1, countApplied());
+    }
+
+    /**
+     * Failure: a script edited after it partly ran stops the migration
+     */
+    @Test
+    public void testMigrate_editedAfterPartialRun_fails() throws Exception {
+        assertThrows(SQLException.class, () -> this.schemaMigrator.migrate());
+
+        Files.writeString(this.scripts.resolve("V" + VERSION + "__partial.sql"),
+                "CREATE TABLE `migration_test` (`id` bigint NOT NULL, PRIMARY KEY (`id`)) ENGINE=InnoDB;\n");
+
+        assertThrows(IllegalStateException.class, () -> this.schemaMigrator.migrate());
+        assertEquals(0, countApplied());
+    }
+
+    /** ================================== start of helper ================================== */
+
+    private int countSteps() {
+        return this.jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM `schema_version_step` WHERE version = ?", Integer.class, VERSION);
+    }
+
+    private int countApplied() {
+        return this.jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM `schema_version` WHERE version = ?", Integer.class, VERSION);
+    }
+
+    private void dropTestTables() {
+        this.jdbcTemplate.execute("DROP TABLE IF EXISTS `migration_test`");
+        this.jdbcTemplate.execute("DROP TABLE IF EXISTS `migration_test_source`");
+        this.jdbcTemplate.update("DELETE FROM `schema_version_step` WHERE version = ?", VERSION);
+        this.jdbcTemplate.update("DELETE FROM `schema_version` WHERE version = ?", VERSION);
+    }
+
+    /** ================================== end of helper ================================== */
+}
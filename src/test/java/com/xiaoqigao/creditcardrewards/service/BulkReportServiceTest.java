@@ -0,0 +1,285 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.response.MonthlyPointResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for BulkReportService
+ */
+@ExtendWith(MockitoExtension.class)
+public class BulkReportServiceTest {
+
+    private static final long ACCOUNT_ID = 42;
+
+    @Mock
+    private TransactionService transactionService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks
+    private BulkReportService bulkReportService;
+
+    /**
+     * Starts two report threads that read three months per query
+     */
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(this.bulkReportService, "bulkThreads", 2);
+        ReflectionTestUtils.setField(this.bulkReportService, "rangeChunkMonths", 3);
+        ReflectionTestUtils.setField(this.bulkReportService, "rangeMaxMonths", 24);
+        this.bulkReportService.startWorkers();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.bulkReportService.stopWorkers();
+    }
+
+    /**
+     * Success: a from and to month cover every month in between, across years
+     */
+    @Test
+    public void testResolveMonths_range() throws Exception {
+        assertEquals(List.of(202111, 202112, 202201, 202202),
+                this.bulkReportService.resolveMonths("2021-11", "2022-02", null));
+        assertEquals(List.of(202105), this.bulkReportService.resolveMonths("2021-05", "2021-05", null));
+    }
+
+    /**
+     * Success: a list of months is sorted and deduplicated
+     */
+    @Test
+    public void testResolveMonths_list() throws Exception {
+        assertEquals(List.of(202012, 202105), this.bulkReportService.resolveMonths(null, null,
+                List.of("2021-05", "2020-12", "2021-05")));
+    }
+
+    /**
+     * Exception thrown: missing, malformed, reversed or too long ranges
+     */
+    @Test
+    public void testResolveMonths_invalid_transactionServiceExceptionThrown() {
+        assertInvalid(null, null, null);
+        assertInvalid("2021-01", null, null);
+        assertInvalid("2021-01", "2021-02", List.of("2021-03"));
+        assertInvalid("2021-13", "2022-01", null);
+        assertInvalid("2021/01", "2022-01", null);
+        assertInvalid("2021-05", "2021-04", null);
+        assertInvalid("2020-01", "2022-01", null);
+    }
+
+    /**
+     * Success: every month is reported once, months without transactions with 0 points, one read per chunk
+     */
+    @Test
+    public void testForEachMonthlyPoint_chunked() throws Exception {
+        when(this.transactionService.getMonthlyMaxPoints(ACCOUNT_ID, 202101, 202103))
+                .thenReturn(new TreeMap<>(Map.of(202101, 100L, 202103, 30L)));
+        when(this.transactionService.getMonthlyMaxPoints(ACCOUNT_ID, 202104, 202105))
+                .thenReturn(new TreeMap<>(Map.of(202105, 5L)));
+        List<MonthlyPointResponse> monthlyPoints = Collections.synchronizedList(new ArrayList<>());
+
+        var summary = this.bulkReportService.forEachMonthlyPoint(ACCOUNT_ID,
+                List.of(202101, 202102, 202103, 202104, 202105), monthlyPoints::add);
+
+        assertEquals(5, summary.getMonth_count());
+        assertEquals(3, summary.getReported_month_count());
+        assertEquals(135, summary.getTotal_rewards_points());
+        assertEquals(5, monthlyPoints.size());
+        assertTrue(monthlyPoints.stream().anyMatch(point -> point.getMonth().equals("02")
+                && point.getCode() == Status.MONTH_NO_TRANSACTIONS.getCode()
+                && point.getMaximum_monthly_rewards_point() == 0));
+        verify(this.transactionService).getMonthlyMaxPoints(ACCOUNT_ID, 202101, 202103);
+        verify(this.transactionService).getMonthlyMaxPoints(ACCOUNT_ID, 202104, 202105);
+    }
+
+    /**
+     * Success: while the consumer is busy, only two chunks per report thread are read ahead
+     */
+    @Test
+    public void testForEachMonthlyPoint_slowConsumer_boundedInFlight() throws Exception {
+        when(this.transactionService.getMonthlyMaxPoints(eq(ACCOUNT_ID), anyInt(), anyInt()))
+                .thenReturn(new TreeMap<>());
+        CountDownLatch consuming = new CountDownLatch(1);
+        List<Integer> postMonths = new ArrayList<>();
+        for (int postMonth = 202101; postMonth <= 202512; postMonth = postMonth % 100 == 12 ? postMonth + 89 : postMonth + 1) {
+            postMonths.add(postMonth);
+        }
+
+        Thread reader = new Thread(() -> {
+            try {
+                this.bulkReportService.forEachMonthlyPoint(ACCOUNT_ID, postMonths, monthlyPoint -> {
+                    try {
+                        consuming.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+
+        // two threads, so four chunks: the one being consumed and three behind it
+        verify(this.transactionService, after(200).times(4)).getMonthlyMaxPoints(eq(ACCOUNT_ID), anyInt(), anyInt());
+        consuming.countDown();
+        reader.join(10_000);
+        verify(this.transactionService, times(20)).getMonthlyMaxPoints(eq(ACCOUNT_ID), anyInt(), anyInt());
+    }
+
+    /**
+     * Success: a failed chunk ends the stream with its error instead of the summary
+     */
+    @Test
+    public void testWriteRangeReport_failure_errorLine() throws Exception {
+        when(this.transactionService.getMonthlyMaxPoints(eq(ACCOUNT_ID), anyInt(), anyInt()))
+                .thenThrow(new TransactionServiceException(Status.NO_REWARD_RULES_IN_EFFECT));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        this.bulkReportService.writeRangeReport(ACCOUNT_ID, List.of(190001), outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(1, lines.length);
+        assertEquals(Status.NO_REWARD_RULES_IN_EFFECT.getCode(),
+                this.objectMapper.readTree(lines[0]).get("code").asInt());
+    }
+
+    /**
+     * Success: reports are streamed one line per account in the order given, an account whose rows are gone is
+     * left out, and the summary counts the accounts sent
+     */
+    @Test
+    public void testWriteMonthlyReports_ordered() throws Exception {
+        stubReports(3, Status.MONTH_NO_TRANSACTIONS);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        this.bulkReportService.writeMonthlyReports("2021", "05", List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L),
+                outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(10, lines.length);
+        List<Long> accountIds = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            accountIds.add(this.objectMapper.readTree(lines[i]).get("account_id").asLong());
+        }
+        assertEquals(List.of(1L, 2L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), accountIds);
+        assertEquals(9, this.objectMapper.readTree(lines[9]).get("account_count").asInt());
+    }
+
+    /**
+     * Success: while the client is not reading, only two reports per report thread are computed ahead
+     */
+    @Test
+    public void testWriteMonthlyReports_slowClient_boundedInFlight() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        OutputStream slowClient = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    reading.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+        List<Long> accountIds = new ArrayList<>();
+        for (long accountId = 1; accountId <= 20; accountId++) {
+            accountIds.add(accountId);
+        }
+
+        Thread writer = new Thread(() -> {
+            try {
+                this.bulkReportService.writeMonthlyReports("2021", "05", accountIds, slowClient);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.start();
+
+        // two threads, so four reports: the one being written and three behind it
+        verify(this.transactionService, after(200).times(4)).writeMonthlyReport(anyLong(), any(), any(), any());
+        reading.countDown();
+        writer.join(10_000);
+        verify(this.transactionService, times(20)).writeMonthlyReport(anyLong(), any(), any(), any());
+    }
+
+    /**
+     * Success: a failed report ends the stream with its error instead of the summary
+     */
+    @Test
+    public void testWriteMonthlyReports_failure_errorLine() throws Exception {
+        stubReports(2, Status.NO_REWARD_RULES_IN_EFFECT);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        this.bulkReportService.writeMonthlyReports("2021", "05", List.of(1L, 2L, 3L), outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(Status.NO_REWARD_RULES_IN_EFFECT.getCode(),
+                this.objectMapper.readTree(lines[1]).get("code").asInt());
+    }
+
+    /**
+     * Each account's report is its account id, one account fails with the given status
+     */
+    private void stubReports(long failingAccountId, Status failure) throws Exception {
+        doAnswer(invocation -> {
+            long accountId = invocation.getArgument(0);
+            if (accountId == failingAccountId) {
+                throw new TransactionServiceException(failure);
+            }
+            JsonGenerator generator = invocation.getArgument(3);
+            generator.writeStartObject();
+            generator.writeNumberField("account_id", accountId);
+            generator.writeEndObject();
+            return null;
+        }).when(this.transactionService).writeMonthlyReport(anyLong(), eq("2021"), eq("05"), any());
+    }
+
+    private void assertInvalid(String from, String to, List<String> months) {
+        var exception = assertThrows(TransactionServiceException.class,
+                () -> this.bulkReportService.resolveMonths(from, to, months));
+        assertEquals(Status.INVALID_MONTH_RANGE, exception.getStatus());
+    }
+}
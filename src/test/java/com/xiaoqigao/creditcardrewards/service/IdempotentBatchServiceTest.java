@@ -0,0 +1,155 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.PostItemResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for IdempotentBatchService
+ */
+@ExtendWith(MockitoExtension.class)
+public class IdempotentBatchServiceTest {
+
+    @Mock
+    private TransactionService transactionService;
+
+    @InjectMocks
+    private IdempotentBatchService idempotentBatchService;
+
+    private final List<PostTransRequest> requests = List.of(
+            makeRequest("T01"), makeRequest("T02"), makeRequest("T03"));
+
+    /**
+     * Keeps ten keys for an hour and splits batches into chunks of two
+     */
+    @BeforeEach
+    public void setUp() throws Exception {
+        ReflectionTestUtils.setField(this.idempotentBatchService, "maxKeys", 10L);
+        ReflectionTestUtils.setField(this.idempotentBatchService, "ttlMinutes", 60L);
+        this.idempotentBatchService.createStore();
+
+        lenient().when(this.transactionService.getBatchChunkSize()).thenReturn(2);
+        lenient().when(this.transactionService.toTransactionList(anyList())).thenAnswer(invocation -> {
+            List<PostTransRequest> requests = invocation.getArgument(0);
+            return requests.stream()
+                    .map(request -> Transaction.builder().transactionName(request.getTransactionName()).build())
+                    .collect(Collectors.toList());
+        });
+    }
+
+    /**
+     * Success: a completed key replays the stored response without writing again
+     */
+    @Test
+    public void testPostTransactionList_completedKey_replayed() throws Exception {
+        when(this.transactionService.postChunk(anyList(), anySet())).thenAnswer(invocation ->
+                Collections.nCopies(((List<?>) invocation.getArgument(0)).size(), PostOutcome.INSERTED));
+
+        var first = this.idempotentBatchService.postTransactionList("key", this.requests);
+        var replay = this.idempotentBatchService.postTransactionList("key", this.requests);
+
+        assertSame(first, replay);
+        assertEquals(3, replay.getInserted_count());
+        assertEquals(2, replay.getChunk_count());
+        verify(this.transactionService, times(2)).postChunk(anyList(), anySet());
+    }
+
+    /**
+     * Success: a retry after a failed chunk resumes after the last committed chunk and keeps its outcomes
+     */
+    @Test
+    public void testPostTransactionList_failedChunk_resumed() throws Exception {
+        when(this.transactionService.postChunk(anyList(), anySet()))
+                .thenReturn(List.of(PostOutcome.INSERTED, PostOutcome.INSERTED))
+                .thenThrow(new DataAccessResourceFailureException("connection reset"))
+                .thenAnswer(invocation -> {
+                    assertEquals(Set.of(Transaction.scopedName(Transaction.DEFAULT_ACCOUNT_ID, "T01"),
+                            Transaction.scopedName(Transaction.DEFAULT_ACCOUNT_ID, "T02")),
+                            invocation.getArgument(1)); // names of the committed chunk carry over
+                    return List.of(PostOutcome.INSERTED);
+                });
+
+        assertThrows(DataAccessResourceFailureException.class,
+                () -> this.idempotentBatchService.postTransactionList("key", this.requests));
+        var response = this.idempotentBatchService.postTransactionList("key", this.requests);
+
+        assertEquals(3, response.getInserted_count());
+        assertEquals(List.of("T01", "T02", "T03"), response.getResults().stream()
+                .map(PostItemResponse::getTransaction_name).collect(Collectors.toList()));
+        verify(this.transactionService, times(3)).postChunk(anyList(), anySet());
+        verify(this.transactionService, times(2)) // the committed chunk is never written again
+                .postChunk(eq(List.of(Transaction.builder().transactionName("T03").build())), anySet());
+    }
+
+    /**
+     * Exception thrown: a key cannot be reused for a different body
+     */
+    @Test
+    public void testPostTransactionList_differentBody_transactionServiceExceptionThrown() throws Exception {
+        when(this.transactionService.postChunk(anyList(), anySet())).thenAnswer(invocation ->
+                Collections.nCopies(((List<?>) invocation.getArgument(0)).size(), PostOutcome.INSERTED));
+        this.idempotentBatchService.postTransactionList("key", this.requests);
+
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.idempotentBatchService.postTransactionList("key", List.of(makeRequest("T04"))));
+
+        assertEquals(Status.IDEMPOTENCY_KEY_REUSED, transactionException.getStatus());
+    }
+
+    /**
+     * Exception thrown: a validation failure writes nothing and is reported again on retry
+     */
+    @Test
+    public void testPostTransactionList_invalidTransaction_nothingWritten() throws Exception {
+        when(this.transactionService.toTransactionList(anyList()))
+                .thenThrow(new TransactionServiceException(Status.WRONG_DATE_STRING_FORMAT));
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            var transactionException = assertThrows(TransactionServiceException.class,
+                    () -> this.idempotentBatchService.postTransactionList("key", this.requests));
+            assertEquals(Status.WRONG_DATE_STRING_FORMAT, transactionException.getStatus());
+        }
+
+        verify(this.transactionService, never()).postChunk(anyList(), anySet());
+    }
+
+    /**
+     * Builds a valid posting request
+     */
+    private static PostTransRequest makeRequest(String transactionName) {
+        PostTransRequest request = new PostTransRequest();
+        request.setTransaction_name(transactionName);
+        request.setDate("2021-05-01");
+        request.setMerchant_code("subway");
+        request.setAmount_cents(1000);
+        return request;
+    }
+}
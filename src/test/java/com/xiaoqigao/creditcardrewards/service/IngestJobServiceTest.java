@@ -0,0 +1,231 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.JobState;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for IngestJobService
+ */
+@ExtendWith(MockitoExtension.class)
+public class IngestJobServiceTest {
+
+    @Mock
+    private TransactionService transactionService;
+
+    @InjectMocks
+    private IngestJobService ingestJobService;
+
+    /**
+     * Starts a single writer with room for one queued batch
+     */
+    @BeforeEach
+    public void setUp() throws Exception {
+        ReflectionTestUtils.setField(this.ingestJobService, "queueCapacity", 1);
+        ReflectionTestUtils.setField(this.ingestJobService, "writerThreads", 1);
+        ReflectionTestUtils.setField(this.ingestJobService, "retainedJobs", 10);
+        this.ingestJobService.startWriters();
+
+        lenient().when(this.transactionService.getBatchChunkSize()).thenReturn(2);
+        lenient().when(this.transactionService.validateTransaction(any(PostTransRequest.class))).thenAnswer(invocation -> {
+            PostTransRequest request = invocation.getArgument(0);
+            if (request.getAmountCents() < 0) {
+                return ServiceResult.failure(Status.NEGATIVE_AMOUNT_CENTS);
+            }
+            return ServiceResult.ok(Transaction.builder().transactionName(request.getTransactionName()).build());
+        });
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        this.ingestJobService.stopWriters();
+    }
+
+    /**
+     * Success: a job records inserted, rejected and duplicate items as it runs
+     */
+    @Test
+    public void testRun_perItemOutcomes() {
+        when(this.transactionService.postChunk(anyList()))
+                .thenAnswer(invocation -> new ChunkResult(((List<?>) invocation.getArgument(0)).size(), 0, 0));
+
+        var job = new IngestJob("job", 4);
+        this.ingestJobService.run(job, List.of(
+                makeRequest("T01", 100),
+                makeRequest("T02", -100),
+                makeRequest("T01", 100),
+                makeRequest("T03", 100)));
+
+        assertEquals(JobState.COMPLETED, job.getState());
+        assertEquals(4, job.getProcessedCount());
+        assertEquals(2, job.getInsertedCount());
+        assertEquals(1, job.getRejectedCount());
+        assertEquals(1, job.getDuplicateInBatchCount());
+        assertEquals(1, job.getFailures().size());
+        assertEquals(1, job.getFailures().get(0).getIndex());
+        assertEquals(Status.NEGATIVE_AMOUNT_CENTS.getCode(), job.getFailures().get(0).getCode());
+    }
+
+    /**
+     * Success: only the first failures are kept, the count covers all of them
+     */
+    @Test
+    public void testRun_manyRejected_failuresCapped() {
+        List<PostTransRequest> requests = new ArrayList<>();
+        for (int i = 0; i < IngestJob.MAX_REPORTED_FAILURES + 50; i++) {
+            requests.add(makeRequest("T" + i, -100));
+        }
+
+        var job = new IngestJob("job", requests.size());
+        this.ingestJobService.run(job, requests);
+
+        assertEquals(IngestJob.MAX_REPORTED_FAILURES + 50, job.getRejectedCount());
+        assertEquals(IngestJob.MAX_REPORTED_FAILURES + 50, job.getFailureCount());
+        assertEquals(IngestJob.MAX_REPORTED_FAILURES, job.getFailures().size());
+        assertEquals(0, job.getFailures().get(0).getIndex());
+        assertEquals(IngestJob.MAX_REPORTED_FAILURES - 1,
+                job.getFailures().get(IngestJob.MAX_REPORTED_FAILURES - 1).getIndex());
+    }
+
+    /**
+     * Success: a chunk that cannot be written is reported per item and the job carries on
+     */
+    @Test
+    public void testRun_chunkWriteFails_itemsReported() {
+        when(this.transactionService.postChunk(anyList()))
+                .thenThrow(new DataAccessResourceFailureException("connection lost"))
+                .thenReturn(new ChunkResult(1, 0, 0));
+
+        var job = new IngestJob("job", 3);
+        this.ingestJobService.run(job, List.of(
+                makeRequest("T01", 100),
+                makeRequest("T02", 100),
+                makeRequest("T03", 100)));
+
+        assertEquals(JobState.COMPLETED, job.getState());
+        assertEquals(3, job.getProcessedCount());
+        assertEquals(1, job.getInsertedCount());
+        assertEquals(2, job.getFailedCount());
+        assertEquals("T01", job.getFailures().get(0).getTransaction_name());
+        assertEquals(IngestJobService.ITEM_FAILED_CODE, job.getFailures().get(0).getCode());
+    }
+
+    /**
+     * Success: an item that throws while it is validated is reported per item and the job carries on
+     */
+    @Test
+    public void testRun_validationThrows_itemReported() {
+        when(this.transactionService.validateTransaction(any(PostTransRequest.class)))
+                .thenThrow(new DataAccessResourceFailureException("connection lost"))
+                .thenReturn(ServiceResult.ok(Transaction.builder().transactionName("T02").build()));
+        when(this.transactionService.postChunk(anyList())).thenReturn(new ChunkResult(1, 0, 0));
+
+        var job = new IngestJob("job", 2);
+        this.ingestJobService.run(job, List.of(
+                makeRequest("T01", 100),
+                makeRequest("T02", 100)));
+
+        assertEquals(JobState.COMPLETED, job.getState());
+        assertEquals(2, job.getProcessedCount());
+        assertEquals(1, job.getInsertedCount());
+        assertEquals(1, job.getFailedCount());
+        assertEquals(0, job.getFailures().get(0).getIndex());
+    }
+
+    /**
+     * Failure: an aborted job ends FAILED and counts its pending chunk and every item after it as failed
+     */
+    @Test
+    public void testRun_aborted_unprocessedItemsFailed() {
+        when(this.transactionService.postChunk(anyList()))
+                .thenReturn(new ChunkResult(2, 0, 0))
+                .thenThrow(new StackOverflowError());
+
+        var job = new IngestJob("job", 5);
+        assertThrows(StackOverflowError.class, () -> this.ingestJobService.run(job, List.of(
+                makeRequest("T01", 100),
+                makeRequest("T02", 100),
+                makeRequest("T03", 100),
+                makeRequest("T04", 100),
+                makeRequest("T05", 100))));
+
+        assertEquals(JobState.FAILED, job.getState());
+        assertEquals(5, job.getProcessedCount());
+        assertEquals(2, job.getInsertedCount());
+        assertEquals(3, job.getFailedCount());
+        assertEquals(List.of(2L, 3L, 4L), job.getFailures().stream().map(RejectedItemResponse::getIndex)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Exception thrown: the queue is full while the only writer is busy
+     */
+    @Test
+    public void testSubmit_queueFull_transactionServiceExceptionThrown() throws Exception {
+        var writerStarted = new CountDownLatch(1);
+        var releaseWriter = new CountDownLatch(1);
+        when(this.transactionService.postChunk(anyList())).thenAnswer(invocation -> {
+            writerStarted.countDown();
+            releaseWriter.await(10, TimeUnit.SECONDS);
+            return new ChunkResult(1, 0, 0);
+        });
+
+        var running = this.ingestJobService.submit(List.of(makeRequest("T01", 100)));
+        assertTrue(writerStarted.await(10, TimeUnit.SECONDS));
+        var queued = this.ingestJobService.submit(List.of(makeRequest("T02", 100)));
+
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.ingestJobService.submit(List.of(makeRequest("T03", 100))));
+        assertEquals(Status.INGEST_QUEUE_FULL, transactionException.getStatus());
+
+        releaseWriter.countDown();
+        assertSame(running, this.ingestJobService.getJob(running.getId()));
+        assertSame(queued, this.ingestJobService.getJob(queued.getId()));
+    }
+
+    /**
+     * Exception thrown: unknown job id
+     */
+    @Test
+    public void testGetJob_unknownId_transactionServiceExceptionThrown() {
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.ingestJobService.getJob("missing"));
+        assertEquals(Status.JOB_NOT_FOUND, transactionException.getStatus());
+    }
+
+    private static PostTransRequest makeRequest(String transactionName, int amountCents) {
+        PostTransRequest request = new PostTransRequest();
+        request.setTransaction_name(transactionName);
+        request.setDate("2021-05-09");
+        request.setMerchant_code("sportcheck");
+        request.setAmount_cents(amountCents);
+        return request;
+    }
+}
@@ -0,0 +1,99 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for MerchantRegistry
+ */
+@ExtendWith(MockitoExtension.class)
+public class MerchantRegistryTest {
+
+    @Mock
+    private TransactionStore transactionStore;
+
+    @InjectMocks
+    private MerchantRegistry merchantRegistry;
+
+    private final List<Merchant> stored = new ArrayList<>(List.of(
+            merchant(MerchantCode.OTHER_ID, MerchantCode.OTHER),
+            merchant(MerchantCode.SPORT_CHECK_ID, MerchantCode.SPORT_CHECK),
+            merchant(MerchantCode.TIM_HORTONS_ID, MerchantCode.TIM_HORTONS),
+            merchant(MerchantCode.SUBWAY_ID, MerchantCode.SUBWAY)));
+
+    @BeforeEach
+    public void setUp() {
+        when(this.transactionStore.selectMerchants()).thenAnswer(invocation -> List.copyOf(this.stored));
+        ReflectionTestUtils.setField(this.merchantRegistry, "partners", "");
+        this.merchantRegistry.load();
+    }
+
+    /**
+     * Success: partner codes are resolved without the store, any other code is other and never registered
+     */
+    @Test
+    public void testIdOf_unknownCode_other() {
+        assertEquals(MerchantCode.SPORT_CHECK_ID, this.merchantRegistry.idOf(MerchantCode.SPORT_CHECK));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(MerchantCode.OTHER_ID, this.merchantRegistry.idOf("merchant_" + i));
+        }
+
+        this.merchantRegistry.reload();
+        assertEquals(MerchantCode.OTHER_ID, this.merchantRegistry.idOf("merchant_0"));
+        verify(this.transactionStore, never()).registerMerchant(any());
+    }
+
+    /**
+     * Success: the configured partners are registered at startup and resolved to their own ids
+     */
+    @Test
+    public void testLoad_registersConfiguredPartners() {
+        when(this.transactionStore.registerMerchant(any())).thenAnswer(invocation -> {
+            int id = this.stored.size() + 1;
+            this.stored.add(merchant(id, invocation.getArgument(0)));
+            return id;
+        });
+        ReflectionTestUtils.setField(this.merchantRegistry, "partners", "a_cafe, b_cafe,");
+
+        this.merchantRegistry.load();
+
+        assertEquals(5, this.merchantRegistry.idOf("a_cafe"));
+        assertEquals(6, this.merchantRegistry.idOf("b_cafe"));
+        verify(this.transactionStore, times(2)).registerMerchant(any());
+    }
+
+    /**
+     * Success: a reload picks up merchants registered by another node
+     */
+    @Test
+    public void testReload_picksUpOtherNodes() {
+        this.stored.add(merchant(5, "a_cafe"));
+
+        this.merchantRegistry.reload();
+
+        assertEquals(5, this.merchantRegistry.idOf("a_cafe"));
+        verify(this.transactionStore, never()).registerMerchant(any());
+    }
+
+    private static Merchant merchant(int id, String code) {
+        return Merchant.builder().id(id).code(code).build();
+    }
+}
@@ -0,0 +1,420 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.response.MonthlyReportResponse;
+import com.xiaoqigao.creditcardrewards.response.TransactionLevelPointResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for MonthlyReportCache
+ */
+public class MonthlyReportCacheTest {
+
+    private static final long ACCOUNT_ID = 7;
+
+    private static final String E_TAG = "\"1-1-100\"";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private MonthlyReportCache monthlyReportCache;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    /** what was streamed to the response, and whether gzipped each time it was opened */
+    private final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+
+    private final List<Boolean> opened = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.monthlyReportCache = new MonthlyReportCache(this.meterRegistry, this.objectMapper, true, 1 << 20, 10, -1, 1 << 20, 100, 60);
+    }
+
+    /**
+     * Success: a month is computed once and then served from the cache, per account
+     */
+    @Test
+    public void testGet_hit() throws Exception {
+        EncodedReport first = this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+
+        assertSame(first, this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load));
+        this.monthlyReportCache.get(ACCOUNT_ID + 1, 202105, E_TAG, true, this::open, this::load);
+        assertEquals(2, this.loads.get());
+        assertEquals(1.0, gets("hit"));
+        assertEquals(2.0, gets("miss"));
+        assertEquals(this.objectMapper.writeValueAsString(report()), new String(first.getJson()));
+    }
+
+    /**
+     * Success: a report is only served under the tag it was built for and replaced by the next tag's,
+     * a month without a tag is never kept
+     */
+    @Test
+    public void testGet_otherTag_rebuilt() throws Exception {
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+
+        EncodedReport changed = this.monthlyReportCache.get(ACCOUNT_ID, 202105, "\"1-2-200\"", true, this::open,
+                loadAs("\"1-2-200\""));
+        assertSame(changed, this.monthlyReportCache.get(ACCOUNT_ID, 202105, "\"1-2-200\"", true, this::open,
+                loadAs("\"1-2-200\"")));
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, null, true, this::open, loadAs(null));
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, null, true, this::open, loadAs(null));
+        this.monthlyReportCache.cleanUp();
+
+        assertEquals("\"1-2-200\"", changed.getETag());
+        assertEquals(4, this.loads.get());
+        assertEquals(1.0, gets("hit"));
+        assertEquals(2.0, gets("miss"));
+        assertEquals(1.0, this.meterRegistry.get("cache.size").tag("cache", "monthly_reports").gauge().value());
+    }
+
+    /**
+     * Success: large reports are kept compressed and give back the same JSON
+     */
+    @Test
+    public void testGet_largeReport_gzipped() throws Exception {
+        MonthlyReportCache gzipping = new MonthlyReportCache(new SimpleMeterRegistry(), this.objectMapper, true,
+                1 << 20, 10, 1024, 1 << 20, 100, 60);
+        MonthlyReportResponse large = largeReport();
+
+        EncodedReport small = gzipping.get(ACCOUNT_ID, 202104, E_TAG, true, this::open, this::load);
+        EncodedReport compressed = gzipping.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, generator -> {
+                    generator.writeObject(large);
+                    return E_TAG;
+                });
+
+        assertFalse(small.isGzipped());
+        assertTrue(compressed.isGzipped());
+        byte[] json = this.objectMapper.writeValueAsBytes(large);
+        assertTrue(compressed.getBody().length < json.length / 4);
+        assertArrayEquals(json, compressed.getJson());
+        assertTrue(this.opened.isEmpty());
+    }
+
+    /**
+     * Success: clients that do not accept gzip get plain JSON kept in an entry of its own, so a hit is not uncompressed
+     */
+    @Test
+    public void testGet_gzipNotAccepted_plainEntry() throws Exception {
+        MonthlyReportCache gzipping = new MonthlyReportCache(new SimpleMeterRegistry(), this.objectMapper, true,
+                1 << 20, 10, 2, 1 << 20, 100, 60);
+
+        EncodedReport compressed = gzipping.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        EncodedReport plain = gzipping.get(ACCOUNT_ID, 202105, E_TAG, false, this::open, this::load);
+
+        assertTrue(compressed.isGzipped());
+        assertFalse(plain.isGzipped());
+        assertSame(plain, gzipping.get(ACCOUNT_ID, 202105, E_TAG, false, this::open, this::load));
+        assertArrayEquals(this.objectMapper.writeValueAsBytes(report()), plain.getBody());
+        assertEquals(2, this.loads.get());
+
+        gzipping.invalidateAfterCommit(List.of(transaction(20210509)));
+        gzipping.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        gzipping.get(ACCOUNT_ID, 202105, E_TAG, false, this::open, this::load);
+        assertEquals(4, this.loads.get());
+    }
+
+    /**
+     * Success: reports are evicted once their bytes pass the budget, however few of them there are
+     */
+    @Test
+    public void testGet_byteBudget_evicts() throws Exception {
+        int reportBytes = this.objectMapper.writeValueAsBytes(report()).length;
+        SimpleMeterRegistry boundedRegistry = new SimpleMeterRegistry();
+        MonthlyReportCache bounded = new MonthlyReportCache(boundedRegistry, this.objectMapper, true,
+                3L * reportBytes, 10, -1, 1 << 20, 100, 60);
+
+        for (int postMonth = 202101; postMonth <= 202110; postMonth++) {
+            bounded.get(ACCOUNT_ID, postMonth, E_TAG, true, this::open, this::load);
+        }
+        bounded.cleanUp();
+
+        assertTrue(bounded.weightedBytes() <= 3L * reportBytes);
+        assertTrue(boundedRegistry.get("cache.size").tag("cache", "monthly_reports").gauge().value() <= 3);
+        assertEquals(bounded.weightedBytes(), boundedRegistry.get("transaction.report_cache.bytes").gauge().value());
+    }
+
+    /**
+     * Success: an insert drops the report of its own month only
+     */
+    @Test
+    public void testInvalidateAfterCommit_insertedMonth() throws Exception {
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        this.monthlyReportCache.get(ACCOUNT_ID, 202106, E_TAG, true, this::open, this::load);
+
+        this.monthlyReportCache.invalidateAfterCommit(List.of(transaction(20210531)));
+
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        this.monthlyReportCache.get(ACCOUNT_ID, 202106, E_TAG, true, this::open, this::load);
+        assertEquals(3, this.loads.get());
+    }
+
+    /**
+     * Success: inside a database transaction the report is only dropped when it commits
+     */
+    @Test
+    public void testInvalidateAfterCommit_waitsForCommit() throws Exception {
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            this.monthlyReportCache.invalidateAfterCommit(List.of(transaction(20210509)));
+            this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+            assertEquals(1, this.loads.get());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        assertEquals(2, this.loads.get());
+    }
+
+    /**
+     * Success: an empty month is remembered until a transaction is inserted into it
+     */
+    @Test
+    public void testRecordEmpty_untilInserted() {
+        this.monthlyReportCache.recordEmpty(ACCOUNT_ID, 202105, this.monthlyReportCache.getInvalidationCount());
+
+        assertTrue(this.monthlyReportCache.isKnownEmpty(ACCOUNT_ID, 202105));
+        assertFalse(this.monthlyReportCache.isKnownEmpty(ACCOUNT_ID + 1, 202105));
+
+        this.monthlyReportCache.invalidateAfterCommit(List.of(transaction(20210531)));
+
+        assertFalse(this.monthlyReportCache.isKnownEmpty(ACCOUNT_ID, 202105));
+    }
+
+    /**
+     * Success: a month read as empty before an insert committed is not remembered
+     */
+    @Test
+    public void testRecordEmpty_insertedSinceRead_notRecorded() {
+        long invalidationCount = this.monthlyReportCache.getInvalidationCount();
+        this.monthlyReportCache.invalidateAfterCommit(List.of(transaction(20210509)));
+
+        this.monthlyReportCache.recordEmpty(ACCOUNT_ID, 202105, invalidationCount);
+
+        assertFalse(this.monthlyReportCache.isKnownEmpty(ACCOUNT_ID, 202105));
+    }
+
+    /**
+     * Success: a report written from rows newer than the requested tag is kept under the newer tag
+     */
+    @Test
+    public void testGet_newerSnapshot_keptUnderItsTag() throws Exception {
+        EncodedReport newer = this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open,
+                loadAs("\"1-2-200\""));
+
+        assertEquals("\"1-2-200\"", newer.getETag());
+        assertSame(newer, this.monthlyReportCache.get(ACCOUNT_ID, 202105, "\"1-2-200\"", true, this::open, this::load));
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        assertEquals(2, this.loads.get());
+    }
+
+    /**
+     * Exception thrown: a failed computation is passed on and not cached
+     */
+    @Test
+    public void testGet_loadFailure_notCached() throws Exception {
+        var exception = assertThrows(TransactionServiceException.class,
+                () -> this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, generator -> {
+                    throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
+                }));
+        assertEquals(Status.MONTH_NO_TRANSACTIONS, exception.getStatus());
+
+        this.monthlyReportCache.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        assertEquals(1, this.loads.get());
+    }
+
+    /**
+     * Success: a disabled cache computes every report and keeps none, a failed one sends nothing
+     */
+    @Test
+    public void testGet_disabled_alwaysLoads() throws Exception {
+        SimpleMeterRegistry disabledRegistry = new SimpleMeterRegistry();
+        MonthlyReportCache disabled = new MonthlyReportCache(disabledRegistry, this.objectMapper, false, 1 << 20, 10, -1, 1 << 20, 100, 60);
+
+        assertThrows(TransactionServiceException.class, () -> disabled.get(ACCOUNT_ID, 202105, E_TAG, true, this::open,
+                generator -> {
+                    generator.writeStartObject();
+                    throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
+                }));
+
+        EncodedReport first = disabled.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        EncodedReport second = disabled.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load);
+        disabled.cleanUp();
+
+        assertNotSame(first, second);
+        assertEquals(this.objectMapper.writeValueAsString(report()), new String(second.getJson()));
+        assertEquals(2, this.loads.get());
+        assertTrue(this.opened.isEmpty());
+        assertEquals(0.0, disabledRegistry.get("cache.size").tag("cache", "monthly_reports").gauge().value());
+    }
+
+    /**
+     * Success: a report larger than max-report-bytes is sent to the response once complete and not kept
+     */
+    @Test
+    public void testGet_overMaxReportBytes_streamedNotCached() throws Exception {
+        SimpleMeterRegistry streamingRegistry = new SimpleMeterRegistry();
+        MonthlyReportCache streaming = new MonthlyReportCache(streamingRegistry, this.objectMapper, true,
+                1 << 20, 10, -1, 64, 100, 60);
+
+        assertNull(streaming.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load));
+        assertNull(streaming.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, this::load));
+        streaming.cleanUp();
+
+        assertEquals(2, this.loads.get());
+        assertEquals(List.of(false, false), this.opened);
+        String json = this.objectMapper.writeValueAsString(report());
+        assertEquals(json + json, this.streamed.toString(StandardCharsets.UTF_8));
+        assertEquals(0.0, streamingRegistry.get("cache.size").tag("cache", "monthly_reports").gauge().value());
+    }
+
+    /**
+     * Success: a large report is gzip-compressed as it is spooled, for clients that accept gzip
+     */
+    @Test
+    public void testGet_overMaxReportBytes_gzipStreamed() throws Exception {
+        MonthlyReportCache streaming = new MonthlyReportCache(new SimpleMeterRegistry(), this.objectMapper, true,
+                1 << 20, 10, 1024, 256, 100, 60);
+        MonthlyReportResponse large = largeReport();
+
+        assertNull(streaming.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, generator -> {
+                    generator.writeObject(large);
+                    return E_TAG;
+                }));
+
+        assertEquals(List.of(true), this.opened);
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(this.streamed.toByteArray()))) {
+            assertArrayEquals(this.objectMapper.writeValueAsBytes(large), inputStream.readAllBytes());
+        }
+    }
+
+    /**
+     * Exception thrown: a report that fails after it passed max-report-bytes sends nothing and leaves no spool file
+     */
+    @Test
+    public void testGet_failsAfterSpooling_nothingSent() throws Exception {
+        MonthlyReportCache spooling = new MonthlyReportCache(new SimpleMeterRegistry(), this.objectMapper, true,
+                1 << 20, 10, -1, 64, 100, 60);
+        MonthlyReportResponse large = largeReport();
+        Set<Path> spoolsBefore = spoolFiles();
+
+        assertThrows(TransactionServiceException.class, () -> spooling.get(ACCOUNT_ID, 202105, E_TAG, true, this::open,
+                generator -> {
+                    generator.writeObject(large);
+                    throw new TransactionServiceException(Status.MONTH_NO_TRANSACTIONS);
+                }));
+
+        assertTrue(this.opened.isEmpty());
+        assertEquals(spoolsBefore, spoolFiles());
+    }
+
+    /**
+     * Success: the response is opened only once the report is complete, after its writer returned
+     */
+    @Test
+    public void testGet_overMaxReportBytes_sentAfterWriterReturned() throws Exception {
+        MonthlyReportCache spooling = new MonthlyReportCache(new SimpleMeterRegistry(), this.objectMapper, true,
+                1 << 20, 10, -1, 64, 100, 60);
+        MonthlyReportResponse large = largeReport();
+
+        assertNull(spooling.get(ACCOUNT_ID, 202105, E_TAG, true, this::open, generator -> {
+            generator.writeObject(large);
+            generator.flush();
+            assertTrue(this.opened.isEmpty());
+            return E_TAG;
+        }));
+
+        assertEquals(List.of(false), this.opened);
+        assertArrayEquals(this.objectMapper.writeValueAsBytes(large), this.streamed.toByteArray());
+    }
+
+    private static Set<Path> spoolFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("monthly-report-"))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    private OutputStream open(boolean gzipped) {
+        this.opened.add(gzipped);
+        return this.streamed;
+    }
+
+    private String load(JsonGenerator generator) throws IOException {
+        this.loads.incrementAndGet();
+        generator.writeObject(report());
+        return E_TAG;
+    }
+
+    /**
+     * Writes the report as if read from the rows of the given tag
+     */
+    private MonthlyReportCache.ReportWriter loadAs(String eTag) {
+        return generator -> {
+            load(generator);
+            return eTag;
+        };
+    }
+
+    private static MonthlyReportResponse report() {
+        return new MonthlyReportResponse(ACCOUNT_ID, "2021", "05", 0, List.of());
+    }
+
+    private static MonthlyReportResponse largeReport() {
+        List<TransactionLevelPointResponse> points = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            points.add(new TransactionLevelPointResponse("T" + i, i));
+        }
+        return new MonthlyReportResponse(ACCOUNT_ID, "2021", "05", 0, points);
+    }
+
+    private static Transaction transaction(int postDate) {
+        return Transaction.builder().accountId(ACCOUNT_ID).transactionName("T01").postDate(postDate).build();
+    }
+
+    private double gets(String result) {
+        return this.meterRegistry.get("cache.gets").tag("cache", "monthly_reports").tag("result", result)
+                .counter().count();
+    }
+}
@@ -0,0 +1,185 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for ReportRequestCoalescer
+ */
+public class ReportRequestCoalescerTest {
+
+    private static final long ACCOUNT_ID = 7;
+
+    private static final String E_TAG = "\"1-1-100\"";
+
+    private static final int WAITERS = 8;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private ReportRequestCoalescer reportRequestCoalescer;
+
+    private ExecutorService executor;
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.reportRequestCoalescer = new ReportRequestCoalescer(this.meterRegistry, true);
+        this.executor = Executors.newFixedThreadPool(WAITERS + 1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.release.countDown();
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Success: requests arriving while a report is computed wait for it and get the same report
+     */
+    @Test
+    public void testGet_concurrent_collapsed() throws Exception {
+        EncodedReport report = new EncodedReport(E_TAG, new byte[]{'{', '}'}, false);
+
+        List<Future<EncodedReport>> results = startRequests(() -> {
+            this.calls.incrementAndGet();
+            awaitRelease();
+            return report;
+        });
+        awaitWaiting(WAITERS);
+        this.release.countDown();
+
+        for (Future<EncodedReport> result : results) {
+            assertSame(report, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, this.calls.get());
+        assertEquals(1.0, requests("computed"));
+        assertEquals(WAITERS, requests("collapsed"));
+    }
+
+    /**
+     * Exception thrown: every waiting request gets the failure of the computation it joined
+     */
+    @Test
+    public void testGet_concurrentFailure_sharedByAll() throws Exception {
+        List<Future<EncodedReport>> results = startRequests(() -> {
+            this.calls.incrementAndGet();
+            awaitRelease();
+            throw new TransactionServiceException(Status.NO_REWARD_RULES_IN_EFFECT);
+        });
+        awaitWaiting(WAITERS);
+        this.release.countDown();
+
+        for (Future<EncodedReport> result : results) {
+            var exception = assertThrows(ExecutionException.class,
+                    () -> result.get(10, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof TransactionServiceException);
+            assertEquals(Status.NO_REWARD_RULES_IN_EFFECT, ((TransactionServiceException) exception.getCause()).getStatus());
+        }
+        assertEquals(1, this.calls.get());
+        assertEquals(1.0, requests("computed"));
+        assertEquals(WAITERS, requests("collapsed"));
+    }
+
+    /**
+     * Success: a report the first request streamed to its own response is not shared, each waiting request
+     * computes its own
+     */
+    @Test
+    public void testGet_concurrentStreamed_computedByEach() throws Exception {
+        List<Future<EncodedReport>> results = startRequests(() -> {
+            this.calls.incrementAndGet();
+            awaitRelease();
+            return null;
+        });
+        awaitWaiting(WAITERS);
+        this.release.countDown();
+
+        for (Future<EncodedReport> result : results) {
+            assertNull(result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1 + WAITERS, this.calls.get());
+        assertEquals(1.0 + WAITERS, requests("computed"));
+        assertEquals(0.0, requests("collapsed"));
+    }
+
+    /**
+     * Success: a request after the computation completed, for another tag, or with coalescing off computes again
+     */
+    @Test
+    public void testGet_notInFlight_computed() throws Exception {
+        this.reportRequestCoalescer.get(ACCOUNT_ID, 202105, E_TAG, true, this::count);
+        this.reportRequestCoalescer.get(ACCOUNT_ID, 202105, E_TAG, true, this::count);
+        this.reportRequestCoalescer.get(ACCOUNT_ID, 202105, "\"1-2-200\"", true, this::count);
+
+        ReportRequestCoalescer disabled = new ReportRequestCoalescer(new SimpleMeterRegistry(), false);
+        disabled.get(ACCOUNT_ID, 202105, E_TAG, true, this::count);
+
+        assertEquals(4, this.calls.get());
+        assertEquals(3.0, requests("computed"));
+        assertEquals(0.0, requests("collapsed"));
+    }
+
+    /**
+     * Starts one request that computes the report, then the requests that should join it
+     */
+    private List<Future<EncodedReport>> startRequests(ReportRequestCoalescer.ReportCall call) throws Exception {
+        List<Future<EncodedReport>> results = new ArrayList<>();
+        results.add(this.executor.submit(() -> this.reportRequestCoalescer.get(ACCOUNT_ID, 202105, E_TAG, true, call)));
+        while (this.calls.get() == 0) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < WAITERS; i++) {
+            results.add(this.executor.submit(() -> this.reportRequestCoalescer.get(ACCOUNT_ID, 202105, E_TAG, true, call)));
+        }
+        return results;
+    }
+
+    private void awaitWaiting(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (this.meterRegistry.get("transaction.report_requests.waiting").gauge().value() < count
+                && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitRelease() {
+        try {
+            this.release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private EncodedReport count() {
+        this.calls.incrementAndGet();
+        return new EncodedReport(E_TAG, new byte[0], false);
+    }
+
+    private double requests(String result) {
+        return this.meterRegistry.get("transaction.report_requests").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,95 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for RewardRuleCatalog
+ */
+public class RewardRuleCatalogTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Success: the rule set shipped with the application covers any month
+     */
+    @Test
+    public void testLoad_shippedRuleSet() throws Exception {
+        RewardRuleCatalog catalog = catalog("classpath*:rewards/*.properties");
+
+        assertEquals(6, catalog.forMonth(202105).getRules().size());
+        assertEquals(455, catalog.forMonth(202105).transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 125));
+    }
+
+    /**
+     * Success: a month uses the latest rule set that took effect on or before it, compiled once
+     */
+    @Test
+    public void testForMonth_picksVersionByEffectiveMonth() throws Exception {
+        write("2021-01.properties", "effective-from=2021-01\npoints-per-leftover-dollar=1\n"
+                + "rule.6.points=75\nrule.6.dollars=sportcheck:20\n");
+        write("2021-06.properties", "effective-from=2021-06\npoints-per-leftover-dollar=1\n"
+                + "rule.6.points=100\nrule.6.dollars=sportcheck:20\n"
+                + "rule.8.points=40\nrule.8.dollars= subway:10 , tim_hortons:5\n");
+        RewardRuleCatalog catalog = catalog("file:" + this.directory + "/*.properties");
+
+        assertEquals(202101, catalog.forMonth(202105).getEffectiveMonth());
+        assertEquals(75, catalog.forMonth(202105).transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 20));
+        assertEquals(100, catalog.forMonth(202106).transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 20));
+        assertSame(catalog.forMonth(202106), catalog.forMonth(203012));
+        assertEquals(2, catalog.forMonth(202112).getRules().size());
+
+        var exception = assertThrows(TransactionServiceException.class, () -> catalog.forMonth(202012));
+        assertEquals(Status.NO_REWARD_RULES_IN_EFFECT, exception.getStatus());
+    }
+
+    /**
+     * Exception thrown: rule sets that cannot be compiled stop startup
+     */
+    @Test
+    public void testLoad_invalidRuleSets() throws IOException {
+        write("merchant.properties", "effective-from=2021-01\npoints-per-leftover-dollar=1\n"
+                + "rule.1.points=75\nrule.1.dollars=a_cafe:20\n");
+        var exception = assertThrows(IllegalStateException.class,
+                () -> catalog("file:" + this.directory + "/merchant.properties"));
+        assertTrue(exception.getMessage().contains("a_cafe"));
+
+        write("amount.properties", "effective-from=2021-01\npoints-per-leftover-dollar=1\n"
+                + "rule.1.points=75\nrule.1.dollars=subway:0\n");
+        assertThrows(IllegalStateException.class, () -> catalog("file:" + this.directory + "/amount.properties"));
+
+        write("month.properties", "effective-from=2021-13\npoints-per-leftover-dollar=1\n");
+        assertThrows(IllegalStateException.class, () -> catalog("file:" + this.directory + "/month.properties"));
+
+        Files.createDirectory(this.directory.resolve("same-month"));
+        write("same-month/a.properties", "effective-from=2021-01\npoints-per-leftover-dollar=1\n");
+        write("same-month/b.properties", "effective-from=2021-01\npoints-per-leftover-dollar=2\n");
+        assertThrows(IllegalStateException.class, () -> catalog("file:" + this.directory + "/same-month/*.properties"));
+
+        assertThrows(IllegalStateException.class, () -> catalog("file:" + this.directory + "/*.rules"));
+    }
+
+    private RewardRuleCatalog catalog(String locations) throws IOException {
+        RewardRuleCatalog catalog = new RewardRuleCatalog();
+        catalog.locations = locations;
+        catalog.load();
+        return catalog;
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        Files.writeString(this.directory.resolve(fileName), content);
+    }
+}
@@ -0,0 +1,197 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.xiaoqigao.creditcardrewards.enums.NameMembership;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for TransactionNameIndex
+ */
+@ExtendWith(MockitoExtension.class)
+public class TransactionNameIndexTest {
+
+    private static final long ACCOUNT_ID = 7;
+
+    @Mock
+    private TransactionStore transactionStore;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private TransactionNameIndex transactionNameIndex;
+
+    @BeforeEach
+    public void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.transactionNameIndex = new TransactionNameIndex(this.transactionStore, this.meterRegistry,
+                true, 1000, 0.01, 100);
+    }
+
+    /**
+     * Success: before warm-up every name is unknown
+     */
+    @Test
+    public void testLookup_notWarmed_unknown() {
+        assertFalse(this.transactionNameIndex.isReady());
+        assertEquals(NameMembership.UNKNOWN, this.transactionNameIndex.lookup(ACCOUNT_ID, "T01"));
+        assertEquals(1.0, lookups("unknown"));
+    }
+
+    /**
+     * Success: after warm-up names from the table might be posted, other names are new
+     */
+    @Test
+    public void testLookup_warmed_newAndMaybe() {
+        warmWith("T01", "T02");
+
+        assertTrue(this.transactionNameIndex.isReady());
+        assertEquals(NameMembership.MAYBE, this.transactionNameIndex.lookup(ACCOUNT_ID, "T01"));
+        assertEquals(NameMembership.NEW, this.transactionNameIndex.lookup(ACCOUNT_ID, "T99"));
+        assertEquals(1.0, lookups("maybe"));
+        assertEquals(1.0, lookups("new"));
+    }
+
+    /**
+     * Success: a name inserted outside a database transaction is known exactly at once
+     */
+    @Test
+    public void testLookup_recordedInsert_posted() {
+        warmWith();
+
+        this.transactionNameIndex.recordInserted(List.of(transaction("T01")));
+
+        assertEquals(NameMembership.POSTED, this.transactionNameIndex.lookup(ACCOUNT_ID, "T01"));
+        assertEquals(NameMembership.NEW, this.transactionNameIndex.lookup(ACCOUNT_ID, "T02"));
+    }
+
+    /**
+     * Success: a name is only known in the account it was posted to
+     */
+    @Test
+    public void testLookup_otherAccount_new() {
+        warmWith("T01");
+
+        this.transactionNameIndex.recordInserted(List.of(transaction("T02")));
+
+        assertEquals(NameMembership.NEW, this.transactionNameIndex.lookup(ACCOUNT_ID + 1, "T01"));
+        assertEquals(NameMembership.NEW, this.transactionNameIndex.lookup(ACCOUNT_ID + 1, "T02"));
+        assertEquals(NameMembership.POSTED, this.transactionNameIndex.lookup(ACCOUNT_ID, "T02"));
+    }
+
+    /**
+     * Success: a failed warm-up leaves the index answering unknown
+     */
+    @Test
+    public void testRebuild_failure_staysUnknown() {
+        when(this.transactionStore.countTransactions()).thenReturn(0L);
+        doThrow(new RuntimeException("connection refused")).when(this.transactionStore).forEachTransactionName(any());
+
+        this.transactionNameIndex.rebuild();
+
+        assertFalse(this.transactionNameIndex.isReady());
+        assertEquals(NameMembership.UNKNOWN, this.transactionNameIndex.lookup(ACCOUNT_ID, "T01"));
+    }
+
+    /**
+     * Success: a filter holding more names than it was sized for is refilled at twice the table's size,
+     * and stays in use until then
+     */
+    @Test
+    public void testResizeIfFull_pastCapacity_refilled() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.transactionNameIndex = new TransactionNameIndex(this.transactionStore, this.meterRegistry,
+                true, 2, 0.01, 100);
+        warmWith("T01");
+
+        this.transactionNameIndex.resizeIfFull();
+        verify(this.transactionStore, times(1)).forEachTransactionName(any());
+
+        this.transactionNameIndex.recordInserted(List.of(transaction("T02"), transaction("T03")));
+        when(this.transactionStore.countTransactions()).thenReturn(3L);
+        doAnswer(invocation -> {
+            ObjLongConsumer<String> consumer = invocation.getArgument(0);
+            consumer.accept("T01", ACCOUNT_ID);
+            consumer.accept("T02", ACCOUNT_ID);
+            // committed while the larger filter is filled
+            this.transactionNameIndex.recordInserted(List.of(transaction("T04")));
+            consumer.accept("T03", ACCOUNT_ID);
+            return null;
+        }).when(this.transactionStore).forEachTransactionName(any());
+
+        this.transactionNameIndex.resizeIfFull();
+
+        verify(this.transactionStore, times(2)).forEachTransactionName(any());
+        assertTrue(this.transactionNameIndex.isReady());
+        assertEquals(4.0, this.meterRegistry.get("transaction.name_index.insertions").gauge().value());
+        for (String name : List.of("T01", "T02", "T03", "T04")) {
+            assertTrue(this.transactionNameIndex.lookup(ACCOUNT_ID, name) != NameMembership.NEW);
+        }
+    }
+
+    /**
+     * Success: a disabled index never decides
+     */
+    @Test
+    public void testLookup_disabled_unknown() {
+        TransactionNameIndex disabled = new TransactionNameIndex(mock(TransactionStore.class), this.meterRegistry,
+                false, 1000, 0.01, 100);
+        disabled.rebuild();
+        disabled.recordInserted(List.of(transaction("T01")));
+
+        assertEquals(NameMembership.UNKNOWN, disabled.lookup(ACCOUNT_ID, "T01"));
+    }
+
+    /**
+     * Success: false positives are counted
+     */
+    @Test
+    public void testRecordFalsePositives_counted() {
+        this.transactionNameIndex.recordFalsePositives(3);
+        this.transactionNameIndex.recordFalsePositives(0);
+
+        assertEquals(3.0, this.meterRegistry.get("transaction.name_index.false_positives").counter().count());
+    }
+
+    /**
+     * Streams the given names through the mocked store and warms the index
+     */
+    private void warmWith(String... names) {
+        when(this.transactionStore.countTransactions()).thenReturn((long) names.length);
+        doAnswer(invocation -> {
+            ObjLongConsumer<String> consumer = invocation.getArgument(0);
+            for (String name : names) {
+                consumer.accept(name, ACCOUNT_ID);
+            }
+            return null;
+        }).when(this.transactionStore).forEachTransactionName(any());
+
+        this.transactionNameIndex.rebuild();
+    }
+
+    private static Transaction transaction(String name) {
+        return Transaction.builder().accountId(ACCOUNT_ID).transactionName(name).build();
+    }
+
+    private double lookups(String result) {
+        return this.meterRegistry.get("transaction.name_index.lookups").tag("result", result).counter().count();
+    }
+}
@@ -1,21 +1,67 @@
 package com.xiaoqigao.creditcardrewards.service;
 
-import com.xiaoqigao.creditcardrewards.DAO.TransactionDAO;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.enums.NameMembership;
+import com.xiaoqigao.creditcardrewards.enums.PostOutcome;
 import com.xiaoqigao.creditcardrewards.enums.Status;
 import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import com.xiaoqigao.creditcardrewards.model.RewardRule;
 import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.model.TransactionAmount;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.MonthlyReportResponse;
+import com.xiaoqigao.creditcardrewards.response.PostItemResponse;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
+import com.xiaoqigao.creditcardrewards.response.TransactionLevelPointResponse;
+import com.xiaoqigao.creditcardrewards.store.TransactionStore;
+import com.xiaoqigao.creditcardrewards.util.CompiledRuleSet;
+import com.xiaoqigao.creditcardrewards.util.HandoutRules;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 /**
@@ -25,18 +71,41 @@ import static org.mockito.Mockito.when;
 public class TransactionServiceTest {
 
     @Mock
-    private TransactionDAO transactionDAO;
+    private TransactionStore transactionStore;
+
+    @Mock
+    private TransactionNameIndex transactionNameIndex;
+
+    @Mock
+    private RewardRuleCatalog rewardRuleCatalog;
+
+    @Mock
+    private MerchantRegistry merchantRegistry;
+
+    @Mock
+    private MonthlyReportCache monthlyReportCache;
+
+    @Mock
+    private ReportRequestCoalescer reportRequestCoalescer;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
 
     @InjectMocks
     private TransactionService transactionService;
 
     /** constants */
+    private static final long ACCOUNT_ID = Transaction.DEFAULT_ACCOUNT_ID;
     private static final String TRANSACTION_NAME = "T01";
     private static final String DATE = "2021-05-01";
     private static final String POST_YEAR = "2021";
     private static final String POST_MONTH = "05";
-    private static final String POST_DAY = "01";
+    private static final int POST_DATE = 20210501;
     private static final String MERCHANT_CODE = "sportscheck";
+    private static final int MERCHANT_ID = 5;
     private static final int  AMOUNT_CENTS = 1000;
 
     private static final String WRONG_DATE = "2021/05/01";
@@ -44,20 +113,82 @@ public class TransactionServiceTest {
     private static final int NEGATIVE_AMOUNT_CENTS = -1000;
 
     /**
-     * Success: Test for the behavious of successfully posting a list of transactions
+     * By default the name index cannot decide, so every name is checked against the database
+     */
+    @BeforeEach
+    public void setUp() {
+        lenient().when(this.transactionNameIndex.lookup(anyLong(), any())).thenReturn(NameMembership.UNKNOWN);
+        lenient().when(this.merchantRegistry.idOf(MERCHANT_CODE)).thenReturn(MERCHANT_ID);
+        lenient().when(this.transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(new SimpleTransactionStatus()));
+    }
+
+    /**
+     * Success: Test for the behavious of successfully posting a list of one transaction
      */
     @Test
     public void testPostTrans_happyCase() throws Exception {
 
-        when(this.transactionDAO.selectByTransactionName(TRANSACTION_NAME)).thenReturn(List.of());
+        when(this.transactionStore.selectExistingTransactionNames(ACCOUNT_ID, List.of(TRANSACTION_NAME))).thenReturn(List.of());
 
-        this.transactionService.postOneTransaction(TRANSACTION_NAME,
-                DATE,
-                MERCHANT_CODE,
-                AMOUNT_CENTS);
+        var response = this.transactionService.postTransactionList(List.of(
+                makeRequest(TRANSACTION_NAME, DATE, MERCHANT_CODE, AMOUNT_CENTS)));
 
-        verify(this.transactionDAO).selectByTransactionName(TRANSACTION_NAME);
-        verify(this.transactionDAO).insert(any(Transaction.class));
+        assertEquals(1, response.getInserted_count());
+        verify(this.transactionStore).selectExistingTransactionNames(ACCOUNT_ID, List.of(TRANSACTION_NAME));
+        verify(this.transactionStore).insertBatch(List.of(makeTransaction(TRANSACTION_NAME, POST_DATE, MERCHANT_ID, AMOUNT_CENTS)));
+        verify(this.transactionNameIndex).recordInserted(List.of(makeTransaction(TRANSACTION_NAME, POST_DATE, MERCHANT_ID, AMOUNT_CENTS)));
+    }
+
+    /**
+     * Success: a name the index reports as new is inserted without a uniqueness lookup
+     */
+    @Test
+    public void testPostTrans_indexSaysNew_noLookup() throws Exception {
+
+        when(this.transactionNameIndex.lookup(ACCOUNT_ID, TRANSACTION_NAME)).thenReturn(NameMembership.NEW);
+
+        var response = this.transactionService.postTransactionList(List.of(
+                makeRequest(TRANSACTION_NAME, DATE, MERCHANT_CODE, AMOUNT_CENTS)));
+
+        assertEquals(1, response.getInserted_count());
+        verify(this.transactionStore, never()).selectExistingTransactionNames(anyLong(), anyCollection());
+        verify(this.transactionStore).insertBatch(anyList());
+    }
+
+    /**
+     * Success: a name the index knows was posted is reported without touching the database
+     */
+    @Test
+    public void testPostTrans_indexSaysPosted_alreadyPosted() throws Exception {
+
+        when(this.transactionNameIndex.lookup(ACCOUNT_ID, TRANSACTION_NAME)).thenReturn(NameMembership.POSTED);
+
+        var response = this.transactionService.postTransactionList(List.of(
+                makeRequest(TRANSACTION_NAME, DATE, MERCHANT_CODE, AMOUNT_CENTS)));
+
+        assertEquals(1, response.getAlready_posted_count());
+        verify(this.transactionStore, never()).selectExistingTransactionNames(anyLong(), anyCollection());
+        verify(this.transactionStore, never()).insertBatch(anyList());
+    }
+
+    /**
+     * Success: the unique key stays the final guard when the lookup was skipped
+     */
+    @Test
+    public void testPostTrans_duplicateKeyOnInsert_alreadyPosted() throws Exception {
+
+        when(this.transactionNameIndex.lookup(ACCOUNT_ID, TRANSACTION_NAME)).thenReturn(NameMembership.NEW);
+        doThrow(new DuplicateKeyException("transaction_name")).when(this.transactionStore).insertBatch(anyList());
+        when(this.transactionStore.selectExistingTransactionNames(ACCOUNT_ID, List.of(TRANSACTION_NAME)))
+                .thenReturn(List.of(TRANSACTION_NAME));
+
+        var response = this.transactionService.postTransactionList(List.of(
+                makeRequest(TRANSACTION_NAME, DATE, MERCHANT_CODE, AMOUNT_CENTS)));
+
+        assertEquals(1, response.getAlready_posted_count());
+        verify(this.transactionStore).insertBatch(anyList());
+        verify(this.transactionNameIndex).recordInserted(List.of());
     }
 
     /**
@@ -66,10 +197,10 @@ public class TransactionServiceTest {
     @Test
     public void testPostList_wrongDateStringFormat_transactionServiceExceptionThrown() {
         var transactionException = assertThrows(TransactionServiceException.class,
-                () -> this.transactionService.postOneTransaction(TRANSACTION_NAME,
+                () -> this.transactionService.postTransactionList(List.of(makeRequest(TRANSACTION_NAME,
                         WRONG_DATE,
                         MERCHANT_CODE,
-                        AMOUNT_CENTS));
+                        AMOUNT_CENTS))));
         assertEquals(Status.WRONG_DATE_STRING_FORMAT, transactionException.getStatus());
 
     }
@@ -80,28 +211,76 @@ public class TransactionServiceTest {
     @Test
     public void testPostList_dateOutOfRange_transactionServiceExceptionThrown() {
         var transactionException = assertThrows(TransactionServiceException.class,
-                () -> this.transactionService.postOneTransaction(TRANSACTION_NAME,
+                () -> this.transactionService.postTransactionList(List.of(makeRequest(TRANSACTION_NAME,
                         DATE,
                         MERCHANT_CODE,
-                        NEGATIVE_AMOUNT_CENTS));
+                        NEGATIVE_AMOUNT_CENTS))));
         assertEquals(Status.NEGATIVE_AMOUNT_CENTS, transactionException.getStatus());
 
     }
 
+    /**
+     * Exception thrown: negative account id
+     */
+    @Test
+    public void testPostList_negativeAccountId_transactionServiceExceptionThrown() {
+        PostTransRequest request = makeRequest(TRANSACTION_NAME, DATE, MERCHANT_CODE, AMOUNT_CENTS);
+        request.setAccount_id(-1);
+
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.transactionService.postTransactionList(List.of(request)));
+        assertEquals(Status.NEGATIVE_ACCOUNT_ID, transactionException.getStatus());
+
+    }
+
     /**
      * Exception thrown: negative amount cents
      */
     @Test
     public void testPostList_negativeAmountCents_transactionServiceExceptionThrown(){
         var transactionException = assertThrows(TransactionServiceException.class,
-                () -> this.transactionService.postOneTransaction(TRANSACTION_NAME,
+                () -> this.transactionService.postTransactionList(List.of(makeRequest(TRANSACTION_NAME,
                         OUT_RANGE_DATE,
                         MERCHANT_CODE,
-                        AMOUNT_CENTS));
+                        AMOUNT_CENTS))));
         assertEquals(Status.WRONG_DATE_STRING_FORMAT, transactionException.getStatus());
 
     }
 
+    /**
+     * Success: the 31st is a valid posting day
+     */
+    @Test
+    public void testPostTrans_thirtyFirstDay() throws Exception {
+
+        when(this.transactionStore.selectExistingTransactionNames(ACCOUNT_ID, List.of(TRANSACTION_NAME))).thenReturn(List.of());
+
+        this.transactionService.postTransactionList(List.of(makeRequest(TRANSACTION_NAME,
+                "2021-05-31",
+                MERCHANT_CODE,
+                AMOUNT_CENTS)));
+
+        verify(this.transactionStore).insertBatch(List.of(Transaction.builder()
+                .transactionName(TRANSACTION_NAME)
+                .postDate(20210531)
+                .merchantId(MERCHANT_ID)
+                .amountCents(AMOUNT_CENTS)
+                .build()));
+    }
+
+    /**
+     * Exception thrown: day 0 is not a calendar date
+     */
+    @Test
+    public void testPostList_dayZero_transactionServiceExceptionThrown() {
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.transactionService.postTransactionList(List.of(makeRequest(TRANSACTION_NAME,
+                        "2021-05-00",
+                        MERCHANT_CODE,
+                        AMOUNT_CENTS))));
+        assertEquals(Status.WRONG_DATE_STRING_FORMAT, transactionException.getStatus());
+    }
+
     /**
      * Exception thrown: null merchant code
      */
@@ -109,11 +288,12 @@ public class TransactionServiceTest {
     public void testPostList_nullMerchantCode_transactionServiceExceptionThrown() {
 
         var transactionException = assertThrows(TransactionServiceException.class,
-                () -> this.transactionService.postOneTransaction(TRANSACTION_NAME,
+                () -> this.transactionService.postTransactionList(List.of(makeRequest(TRANSACTION_NAME,
                         DATE,
                         null,
-                        AMOUNT_CENTS));
+                        AMOUNT_CENTS))));
         assertEquals(Status.MERCHANT_CODE_IS_NULL, transactionException.getStatus());
+        verify(this.merchantRegistry, never()).idOf(any());
 
 
     }
@@ -125,77 +305,491 @@ public class TransactionServiceTest {
     public void testPostList_nullTransactionName_transactionServiceExceptionThrown() throws Exception{
 
         var transactionException = assertThrows(TransactionServiceException.class,
-                () -> this.transactionService.postOneTransaction(null,
+                () -> this.transactionService.postTransactionList(List.of(makeRequest(null,
                         DATE,
                         MERCHANT_CODE,
-                        AMOUNT_CENTS));
+                        AMOUNT_CENTS))));
         assertEquals(Status.TRANSACTION_NAME_IS_NULL, transactionException.getStatus());
 
     }
 
     /**
-     * Exception thrown: transactions already posted
+     * Success: transactions already posted are reported and not inserted again
      */
     @Test
-    public void testPostList_transactionAlreadyPosted_transactionServiceExceptionThrown() throws Exception{
+    public void testPostList_transactionAlreadyPosted_alreadyPosted() throws Exception{
 
-        Transaction transaction = Transaction.builder()
-                .transactionName(TRANSACTION_NAME)
-                .postYear(POST_YEAR)
-                .postMonth(POST_MONTH)
-                .postDay(POST_DAY)
-                .merchantCode(MERCHANT_CODE)
-                .amountCents(AMOUNT_CENTS)
-                .build();
+        when(this.transactionStore.selectExistingTransactionNames(ACCOUNT_ID, List.of(TRANSACTION_NAME)))
+                .thenReturn(List.of(TRANSACTION_NAME));
 
-        when(this.transactionDAO.selectByTransactionName(TRANSACTION_NAME)).thenReturn(List.of(transaction));
+        var response = this.transactionService.postTransactionList(List.of(makeRequest(TRANSACTION_NAME,
+                DATE,
+                MERCHANT_CODE,
+                AMOUNT_CENTS)));
+        assertEquals(1, response.getAlready_posted_count());
 
-        var transactionException = assertThrows(TransactionServiceException.class,
-                () -> this.transactionService.postOneTransaction(TRANSACTION_NAME,
-                        DATE,
-                        MERCHANT_CODE,
-                        AMOUNT_CENTS));
-        assertEquals(Status.TRANSACTION_ALREADY_POSTED, transactionException.getStatus());
+        verify(this.transactionStore).selectExistingTransactionNames(ACCOUNT_ID, List.of(TRANSACTION_NAME));
+        verify(this.transactionStore, never()).insertBatch(anyList());
+
+    }
 
-        verify(this.transactionDAO).selectByTransactionName(TRANSACTION_NAME);
+    /**
+     * Success: the monthly maximum point is computed from the pre-summed rollup rows
+     */
+    @Test
+    public void testGetMonthlyMaxPoint_fromRollup() throws Exception {
 
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(2, 12500, 2),
+                makeTotal(3, 2500, 1),
+                makeTotal(4, 2500, 1)));
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+
+        assertEquals(660, this.transactionService.getMonthlyMaxPoint(ACCOUNT_ID, POST_YEAR, POST_MONTH));
+        verify(this.transactionStore, never()).forEachInPostDateRange(anyLong(), anyInt(), anyInt(), any());
     }
 
     /**
-     * Success: get monthly transaction list
+     * Success: each month of a range is solved from its own rollup rows, read with one query
      */
     @Test
-    public void testGetMonthlyTransactionList_happyCase() throws Exception{
+    public void testGetMonthlyMaxPoints_range() throws Exception {
+
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105, 202107)).thenReturn(List.of(
+                makeTotal(2, 12500, 2),
+                makeTotal(3, 2500, 1),
+                makeTotal(4, 2500, 1),
+                MonthlyMerchantTotal.builder().postMonth(202107).merchantId(1).amountCents(1000).transactionCount(1).build()));
+        when(this.rewardRuleCatalog.forMonth(anyInt())).thenReturn(HandoutRules.compile());
+
+        assertEquals(Map.of(202105, 660L, 202107, 10L),
+                this.transactionService.getMonthlyMaxPoints(ACCOUNT_ID, 202105, 202107));
+        verify(this.transactionStore, never()).selectMonthlyTotals(anyLong(), anyInt());
+    }
 
-        Transaction transaction = Transaction.builder()
-                .transactionName(TRANSACTION_NAME)
-                .postYear(POST_YEAR)
-                .postMonth(POST_MONTH)
-                .postDay(POST_DAY)
-                .merchantCode(MERCHANT_CODE)
-                .amountCents(AMOUNT_CENTS)
-                .build();
-        // create a list of transaction
-        when(this.transactionDAO.selectByYearMonth(POST_YEAR, POST_MONTH)).thenReturn(List.of(transaction));
+    /**
+     * Success: rollup totals past the int range of cents, and points past the int range, are summed in long
+     */
+    @Test
+    public void testGetMonthlyMaxPoint_pastIntRange() throws Exception {
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+
+        // $21,474,836.48 at sportcheck and $21,474,836.47 elsewhere: 1,073,741 * rule 6 + $16 + $21,474,836
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, Integer.MAX_VALUE + 1L, 2),
+                makeTotal(MerchantCode.OTHER_ID, Integer.MAX_VALUE, 2)));
+        assertEquals(1_073_741L * 75 + 16 + 21_474_836, this.transactionService.getMonthlyMaxPoint(ACCOUNT_ID, POST_YEAR, POST_MONTH));
+
+        // $1,000,000,000 at sportcheck earns 3,750,000,000 points
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 100_000_000_000L, 50)));
+        assertEquals(3_750_000_000L, this.transactionService.getMonthlyMaxPoint(ACCOUNT_ID, POST_YEAR, POST_MONTH));
+    }
+
+    /**
+     * Success: the cents left at each merchant are pooled into leftover dollars
+     */
+    @Test
+    public void testGetMonthlyMaxPoint_remainingCentsPooled() throws Exception {
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.OTHER_ID, 99, 1),
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 99, 1),
+                makeTotal(MerchantCode.TIM_HORTONS_ID, 99, 1),
+                makeTotal(MerchantCode.SUBWAY_ID, 99, 1)));
+
+        assertEquals(3, this.transactionService.getMonthlyMaxPoint(ACCOUNT_ID, POST_YEAR, POST_MONTH));
+    }
+
+    /**
+     * Success: the report tag is read from the rollup, changes when the month does, and is absent for an empty month
+     */
+    @Test
+    public void testGetMonthlyReportETag_fromRollup() throws Exception {
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 12500, 2)));
+        String first = this.transactionService.getMonthlyReportETag(ACCOUNT_ID, POST_YEAR, POST_MONTH);
+
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 12500, 2),
+                makeTotal(MerchantCode.OTHER_ID, 0, 1)));
+        String second = this.transactionService.getMonthlyReportETag(ACCOUNT_ID, POST_YEAR, POST_MONTH);
+
+        assertTrue(first.startsWith("\"") && first.endsWith("\""));
+        assertNotEquals(first, second);
+        assertEquals(second, this.transactionService.getMonthlyReportETag(ACCOUNT_ID, POST_YEAR, POST_MONTH));
+
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of());
+        when(this.monthlyReportCache.getInvalidationCount()).thenReturn(3L);
+        assertNull(this.transactionService.getMonthlyReportETag(ACCOUNT_ID, POST_YEAR, POST_MONTH));
+        verify(this.monthlyReportCache).recordEmpty(ACCOUNT_ID, 202105, 3L);
+        verify(this.transactionStore, never()).forEachInPostDateRange(anyLong(), anyInt(), anyInt(), any());
+    }
 
-        this.transactionService.getMonthlyTransactionList(POST_YEAR, POST_MONTH);
+    /**
+     * Success: a month known to be empty is answered without reading the store, and its report without its rows
+     */
+    @Test
+    public void testGetMonthlyReport_knownEmptyMonth_noReads() {
+        when(this.monthlyReportCache.isKnownEmpty(ACCOUNT_ID, 202105)).thenReturn(true);
+
+        var transactionException = assertThrows(TransactionServiceException.class, () -> {
+            String eTag = this.transactionService.getMonthlyReportETag(ACCOUNT_ID, POST_YEAR, POST_MONTH);
+            this.transactionService.getEncodedMonthlyReport(ACCOUNT_ID, POST_YEAR, POST_MONTH, eTag, true,
+                    gzipped -> OutputStream.nullOutputStream());
+        });
+
+        assertEquals(Status.MONTH_NO_TRANSACTIONS, transactionException.getStatus());
+        assertEquals(0, transactionException.getStackTrace().length);
+        verifyNoInteractions(this.transactionStore);
+    }
+
+    /**
+     * Success: the report is scored and written as the month's rows stream from the store, into the same JSON the
+     * response object serializes to
+     */
+    @Test
+    public void testWriteMonthlyReport_streamedInOnePass() throws Exception {
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 2550, 1),
+                makeTotal(MerchantCode.TIM_HORTONS_ID, 1050, 1)));
+        doAnswer(invocation -> {
+            Consumer<TransactionAmount> consumer = invocation.getArgument(3);
+            consumer.accept(makeAmount("T01", MerchantCode.SPORT_CHECK_ID, 2550));
+            consumer.accept(makeAmount("T02", MerchantCode.TIM_HORTONS_ID, 1050));
+            return null;
+        }).when(this.transactionStore).forEachInPostDateRange(eq(ACCOUNT_ID), eq(20210500), eq(20210599), any());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        StringWriter json = new StringWriter();
+        String eTag;
+        try (JsonGenerator generator = objectMapper.createGenerator(json)) {
+            eTag = this.transactionService.writeMonthlyReport(ACCOUNT_ID, POST_YEAR, POST_MONTH, generator);
+        }
+
+        assertEquals(this.transactionService.getMonthlyReportETag(ACCOUNT_ID, POST_YEAR, POST_MONTH), eTag);
+        verify(this.transactionManager).getTransaction(argThat(TransactionDefinition::isReadOnly));
+        verify(this.transactionManager).commit(any());
+        CompiledRuleSet ruleSet = HandoutRules.compile();
+        assertEquals(objectMapper.writeValueAsString(new MonthlyReportResponse(ACCOUNT_ID, POST_YEAR, POST_MONTH,
+                this.transactionService.getMonthlyMaxPoint(ACCOUNT_ID, POST_YEAR, POST_MONTH), List.of(
+                new TransactionLevelPointResponse("T01", (int) ruleSet.transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 25)),
+                new TransactionLevelPointResponse("T02", (int) ruleSet.transactionLevelPoints(MerchantCode.TIM_HORTONS_ID, 10))))),
+                json.toString());
+        assertTrue(json.toString().contains("{\"transaction_name\":\"T02\",\"point\":10}"));
+    }
+
+    /**
+     * Success: the maximum point is summed from the rows streamed, even when the rollup disagrees with them
+     */
+    @Test
+    public void testWriteMonthlyReport_rollupDisagrees_maxFromRows() throws Exception {
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 2550, 1)));
+        doAnswer(invocation -> {
+            Consumer<TransactionAmount> consumer = invocation.getArgument(3);
+            consumer.accept(makeAmount("T01", MerchantCode.SPORT_CHECK_ID, 12500));
+            consumer.accept(makeAmount("T02", MerchantCode.TIM_HORTONS_ID, 2500));
+            consumer.accept(makeAmount("T03", MerchantCode.SUBWAY_ID, 2500));
+            return null;
+        }).when(this.transactionStore).forEachInPostDateRange(eq(ACCOUNT_ID), eq(20210500), eq(20210599), any());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = objectMapper.createGenerator(json)) {
+            this.transactionService.writeMonthlyReport(ACCOUNT_ID, POST_YEAR, POST_MONTH, generator);
+        }
+
+        // the amounts of testGetMonthlyMaxPoint_fromRollup, not the rollup's single $25.50
+        assertEquals(660, objectMapper.readTree(json.toString()).get("maximum_monthly_rewards_point").asLong());
+    }
 
-        verify(this.transactionDAO).selectByYearMonth(POST_YEAR, POST_MONTH);
+    /**
+     * Success: a month longer than one scoring chunk is scored chunk by chunk, each row as it scores on its own
+     */
+    @Test
+    public void testWriteMonthlyReport_severalChunks_scoredInBatches() throws Exception {
+        CompiledRuleSet ruleSet = HandoutRules.compile();
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(ruleSet);
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 2550, 1)));
+        int rows = TransactionService.SCORE_CHUNK_SIZE * 2 + 3;
+        int[] merchantIds = {MerchantCode.OTHER_ID, MerchantCode.SPORT_CHECK_ID, MerchantCode.TIM_HORTONS_ID, MerchantCode.SUBWAY_ID};
+        streamRows(rows, merchantIds);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = objectMapper.createGenerator(json)) {
+            this.transactionService.writeMonthlyReport(ACCOUNT_ID, POST_YEAR, POST_MONTH, generator);
+        }
+
+        JsonNode points = objectMapper.readTree(json.toString()).get("transaction_level_points_list");
+        assertEquals(rows, points.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals("T" + i, points.get(i).get("transaction_name").asText());
+            assertEquals(ruleSet.transactionLevelPoints(merchantIds[i % merchantIds.length], 25 + i % 90),
+                    points.get(i).get("point").asLong());
+        }
     }
 
     /**
-     * Exception thrown: transaction not found
+     * Exception thrown: an IOException from the output still reaches the caller when the store wraps whatever
+     * its consumer throws, as MyBatis does
      */
     @Test
-    public void testGetMonthlyTransactionList_notFoundTransactionsGivenName_transactionServiceExceptionThrown() {
+    public void testWriteMonthlyReport_outputFails_ioExceptionThrown() throws Exception {
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 2550, 1)));
+        streamRows(TransactionService.SCORE_CHUNK_SIZE * 2, new int[]{MerchantCode.OTHER_ID});
+        Writer failing = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        var ioException = assertThrows(IOException.class,
+                () -> this.transactionService.writeMonthlyReport(ACCOUNT_ID, POST_YEAR, POST_MONTH,
+                        new ObjectMapper().createGenerator(failing)));
+
+        assertEquals("Broken pipe", ioException.getMessage());
+    }
 
-        when(this.transactionDAO.selectByYearMonth(POST_YEAR, POST_MONTH)).thenReturn(List.of());
+    /**
+     * Exception thrown: a month whose rollup rows were read but whose rows are gone has no report
+     */
+    @Test
+    public void testWriteMonthlyReport_noRows_transactionServiceExceptionThrown() throws Exception {
+        when(this.rewardRuleCatalog.forMonth(202105)).thenReturn(HandoutRules.compile());
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of(
+                makeTotal(MerchantCode.SPORT_CHECK_ID, 2550, 1)));
 
         var transactionException = assertThrows(TransactionServiceException.class,
-                () -> this.transactionService.getMonthlyTransactionList(POST_YEAR, POST_MONTH));
+                () -> this.transactionService.writeMonthlyReport(ACCOUNT_ID, POST_YEAR, POST_MONTH,
+                        new ObjectMapper().createGenerator(new StringWriter())));
 
         assertEquals(Status.MONTH_NO_TRANSACTIONS, transactionException.getStatus());
+        verify(this.transactionManager).rollback(any());
+    }
+
+    /**
+     * Exception thrown: no rollup rows for the month
+     */
+    @Test
+    public void testGetMonthlyMaxPoint_noRollupRows_transactionServiceExceptionThrown() {
+
+        when(this.transactionStore.selectMonthlyTotals(ACCOUNT_ID, 202105)).thenReturn(List.of());
+
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.transactionService.getMonthlyMaxPoint(ACCOUNT_ID, POST_YEAR, POST_MONTH));
+
+        assertEquals(Status.MONTH_NO_TRANSACTIONS, transactionException.getStatus());
+    }
+
+    /**
+     * Success: a list of transactions is validated once, resolved with one name query per chunk and written in chunks
+     */
+    @Test
+    public void testPostTransList_happyCase() throws Exception {
+        ReflectionTestUtils.setField(this.transactionService, "batchChunkSize", 2);
+
+        when(this.transactionStore.selectExistingTransactionNames(anyLong(), anyCollection())).thenReturn(List.of());
+
+        var response = this.transactionService.postTransactionList(List.of(
+                makeRequest("T01", DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                makeRequest("T02", DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                makeRequest("T03", DATE, MERCHANT_CODE, AMOUNT_CENTS)));
+
+        assertEquals(3, response.getTotal_count());
+        assertEquals(3, response.getInserted_count());
+        assertEquals(2, response.getChunk_count());
+        verify(this.merchantRegistry, times(3)).idOf(MERCHANT_CODE);
+        verify(this.transactionStore, times(2)).selectExistingTransactionNames(anyLong(), anyCollection());
+        verify(this.transactionStore, times(2)).insertBatch(anyList());
+        verify(this.transactionStore, never()).selectByTransactionName(anyLong(), any());
+        verify(this.transactionStore, never()).insert(any(Transaction.class));
+    }
+
+    /**
+     * Success: names already in the database or repeated in the list are reported instead of rejecting the list
+     */
+    @Test
+    public void testPostTransList_duplicates_perItemOutcomes() throws Exception {
+
+        when(this.transactionStore.selectExistingTransactionNames(anyLong(), anyCollection())).thenReturn(List.of("T01"));
+
+        var response = this.transactionService.postTransactionList(List.of(
+                makeRequest("T01", DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                makeRequest("T02", DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                makeRequest("T02", DATE, MERCHANT_CODE, AMOUNT_CENTS)));
+
+        assertEquals(1, response.getInserted_count());
+        assertEquals(1, response.getAlready_posted_count());
+        assertEquals(1, response.getDuplicate_in_batch_count());
+        assertEquals(List.of(PostOutcome.ALREADY_POSTED, PostOutcome.INSERTED, PostOutcome.DUPLICATE_IN_BATCH),
+                response.getResults().stream().map(PostItemResponse::getOutcome).collect(Collectors.toList()));
+
+        verify(this.transactionStore).insertBatch(List.of(Transaction.builder()
+                .transactionName("T02")
+                .postDate(POST_DATE)
+                .merchantId(MERCHANT_ID)
+                .amountCents(AMOUNT_CENTS)
+                .build()));
+    }
+
+    /**
+     * Exception thrown: one invalid transaction rejects the whole list before anything is inserted
+     */
+    @Test
+    public void testPostTransList_invalidTransaction_nothingInserted() {
+
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.transactionService.postTransactionList(List.of(
+                        makeRequest("T01", DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                        makeRequest("T02", WRONG_DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                        makeRequest("T03", DATE, MERCHANT_CODE, -1))));
+        assertEquals(Status.WRONG_DATE_STRING_FORMAT, transactionException.getStatus());
+        assertEquals(List.of(new RejectedItemResponse(1, "T02", Status.WRONG_DATE_STRING_FORMAT),
+                new RejectedItemResponse(2, "T03", Status.NEGATIVE_AMOUNT_CENTS)), transactionException.getRejectedItems());
+
+        verify(this.transactionStore, never()).selectExistingTransactionNames(anyLong(), anyCollection());
+        verify(this.transactionStore, never()).insertBatch(anyList());
+        verifyNoInteractions(this.transactionTemplate);
+    }
+
+    /**
+     * Success: a merchant code that is not a partner is posted under the id the registry gives it
+     */
+    @Test
+    public void testPostTransList_unknownMerchant_postedAsOther() throws Exception {
+
+        when(this.merchantRegistry.idOf("a_cafe")).thenReturn(MerchantCode.OTHER_ID);
+        when(this.transactionStore.selectExistingTransactionNames(anyLong(), anyCollection())).thenReturn(List.of());
 
-        verify(this.transactionDAO).selectByYearMonth(POST_YEAR, POST_MONTH);
+        var response = this.transactionService.postTransactionList(List.of(makeRequest("T01", DATE, "a_cafe", AMOUNT_CENTS)));
+
+        assertEquals(1, response.getInserted_count());
+        verify(this.transactionStore).insertBatch(List.of(makeTransaction("T01", POST_DATE, MerchantCode.OTHER_ID, AMOUNT_CENTS)));
+    }
+
+    /**
+     * Success: a chunk is resolved with one name query and written with one insert
+     */
+    @Test
+    public void testPostChunk_happyCase() {
+
+        Transaction t1 = Transaction.builder().transactionName("T01").merchantId(MERCHANT_ID).amountCents(AMOUNT_CENTS).build();
+        Transaction t2 = Transaction.builder().transactionName("T02").merchantId(MERCHANT_ID).amountCents(AMOUNT_CENTS).build();
+
+        when(this.transactionStore.selectExistingTransactionNames(anyLong(), anyCollection())).thenReturn(List.of("T01"));
+
+        var result = this.transactionService.postChunk(List.of(t1, t2, t2));
+
+        assertEquals(new ChunkResult(1, 1, 1), result);
+        verify(this.transactionStore).selectExistingTransactionNames(ACCOUNT_ID, List.of("T01", "T02"));
+        verify(this.transactionStore).insertBatch(List.of(t2));
+    }
+
+    /**
+     * Success: only names the index cannot rule out are sent to the name query, false positives are counted
+     */
+    @Test
+    public void testPostTransList_indexSaysNew_skipsNameQuery() throws Exception {
+        ReflectionTestUtils.setField(this.transactionService, "batchChunkSize", 10);
+
+        when(this.transactionNameIndex.lookup(ACCOUNT_ID, "T01")).thenReturn(NameMembership.NEW);
+        when(this.transactionNameIndex.lookup(ACCOUNT_ID, "T02")).thenReturn(NameMembership.MAYBE);
+        when(this.transactionNameIndex.lookup(ACCOUNT_ID, "T03")).thenReturn(NameMembership.POSTED);
+        when(this.transactionStore.selectExistingTransactionNames(anyLong(), anyCollection())).thenReturn(List.of());
+
+        var response = this.transactionService.postTransactionList(List.of(
+                makeRequest("T01", DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                makeRequest("T02", DATE, MERCHANT_CODE, AMOUNT_CENTS),
+                makeRequest("T03", DATE, MERCHANT_CODE, AMOUNT_CENTS)));
+
+        assertEquals(2, response.getInserted_count());
+        assertEquals(1, response.getAlready_posted_count());
+        verify(this.transactionStore).selectExistingTransactionNames(ACCOUNT_ID, List.of("T02"));
+        verify(this.transactionNameIndex).recordFalsePositives(1);
+        verify(this.transactionNameIndex).recordInserted(List.of(makeTransaction("T01", POST_DATE, MERCHANT_ID, AMOUNT_CENTS),
+                makeTransaction("T02", POST_DATE, MERCHANT_ID, AMOUNT_CENTS)));
+    }
+
+    /**
+     * Success: when the unique key rejects a chunk, its names are resolved exactly and the new ones are inserted
+     */
+    @Test
+    public void testPostChunk_duplicateKeyOnInsert_exactLookupFallback() {
+
+        Transaction t1 = Transaction.builder().transactionName("T01").merchantId(MERCHANT_ID).amountCents(AMOUNT_CENTS).build();
+        Transaction t2 = Transaction.builder().transactionName("T02").merchantId(MERCHANT_ID).amountCents(AMOUNT_CENTS).build();
+
+        when(this.transactionNameIndex.lookup(anyLong(), any())).thenReturn(NameMembership.NEW);
+        doThrow(new DuplicateKeyException("transaction_name")).doNothing()
+                .when(this.transactionStore).insertBatch(anyList());
+        when(this.transactionStore.selectExistingTransactionNames(ACCOUNT_ID, List.of("T01", "T02"))).thenReturn(List.of("T01"));
+
+        var result = this.transactionService.postChunk(List.of(t1, t2));
+
+        assertEquals(new ChunkResult(1, 1, 0), result);
+        verify(this.transactionStore, times(2)).insertBatch(anyList());
+        verify(this.transactionNameIndex).recordInserted(List.of(t2));
+    }
+
+    /**
+     * Streams the given number of May rows, cycling through the merchants and amounts from $25.00 to $114.00.
+     * Whatever the consumer throws is wrapped, as MyBatis does.
+     */
+    private void streamRows(int rows, int[] merchantIds) {
+        doAnswer(invocation -> {
+            Consumer<TransactionAmount> consumer = invocation.getArgument(3);
+            try {
+                for (int i = 0; i < rows; i++) {
+                    consumer.accept(makeAmount("T" + i, merchantIds[i % merchantIds.length], (25 + i % 90) * 100));
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("Error handling result", e);
+            }
+            return null;
+        }).when(this.transactionStore).forEachInPostDateRange(eq(ACCOUNT_ID), eq(20210500), eq(20210599), any());
+    }
+
+    private static MonthlyMerchantTotal makeTotal(int merchantId, long amountCents, int transactionCount) {
+        return MonthlyMerchantTotal.builder().postMonth(202105).merchantId(merchantId)
+                .amountCents(amountCents).transactionCount(transactionCount).build();
+    }
+
+    private static Transaction makeTransaction(String transactionName, int postDate, int merchantId, int amountCents) {
+        return Transaction.builder().transactionName(transactionName).postDate(postDate)
+                .merchantId(merchantId).amountCents(amountCents).build();
+    }
+
+    private static TransactionAmount makeAmount(String transactionName, int merchantId, int amountCents) {
+        return TransactionAmount.builder().transactionName(transactionName).merchantId(merchantId)
+                .amountCents(amountCents).build();
+    }
+
+    /**
+     * Builds a posting request
+     */
+    private static PostTransRequest makeRequest(String transactionName, String date, String merchantCode, int amountCents) {
+        PostTransRequest request = new PostTransRequest();
+        request.setTransaction_name(transactionName);
+        request.setDate(date);
+        request.setMerchant_code(merchantCode);
+        request.setAmount_cents(amountCents);
+        return request;
     }
 }
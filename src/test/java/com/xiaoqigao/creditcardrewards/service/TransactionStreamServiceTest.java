@@ -0,0 +1,211 @@
+package com.xiaoqigao.creditcardrewards.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaoqigao.creditcardrewards.enums.ImportFormat;
+import com.xiaoqigao.creditcardrewards.enums.Status;
+import com.xiaoqigao.creditcardrewards.exception.TransactionServiceException;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.request.PostTransRequest;
+import com.xiaoqigao.creditcardrewards.response.RejectedItemResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for TransactionStreamService
+ */
+@ExtendWith(MockitoExtension.class)
+public class TransactionStreamServiceTest {
+
+    @Mock
+    private TransactionService transactionService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks
+    private TransactionStreamService transactionStreamService;
+
+    /** sizes of the chunks passed to postChunk, recorded at call time because the chunk list is reused */
+    private final List<Integer> flushedChunkSizes = new ArrayList<>();
+
+    /**
+     * Validates like the real service for amounts and counts every chunk as inserted
+     */
+    @BeforeEach
+    public void setUp() throws Exception {
+        lenient().when(this.transactionService.getBatchChunkSize()).thenReturn(2);
+
+        lenient().when(this.transactionService.validateTransaction(any(PostTransRequest.class))).thenAnswer(invocation -> {
+            PostTransRequest request = invocation.getArgument(0);
+            if (request.getAmountCents() < 0) {
+                return ServiceResult.failure(Status.NEGATIVE_AMOUNT_CENTS);
+            }
+            return ServiceResult.ok(Transaction.builder().transactionName(request.getTransactionName())
+                    .amountCents(request.getAmountCents()).build());
+        });
+
+        lenient().when(this.transactionService.validateTransaction(anyLong(), any(), anyInt(), any(), anyInt())).thenAnswer(invocation -> {
+            int amountCents = invocation.getArgument(4);
+            if (amountCents < 0) {
+                return ServiceResult.failure(Status.NEGATIVE_AMOUNT_CENTS);
+            }
+            return ServiceResult.ok(Transaction.builder().accountId(invocation.getArgument(0))
+                    .transactionName(invocation.getArgument(1)).amountCents(amountCents).build());
+        });
+
+        lenient().when(this.transactionService.postChunk(anyList())).thenAnswer(invocation -> {
+            List<Transaction> chunk = invocation.getArgument(0);
+            this.flushedChunkSizes.add(chunk.size());
+            return new ChunkResult(chunk.size(), 0, 0);
+        });
+    }
+
+    /**
+     * Success: a JSON array is read record by record and flushed in chunks
+     */
+    @Test
+    public void testPostStream_jsonArray() throws Exception {
+
+        var body = "[" + record("T01", 100) + "," + record("T02", 200) + "," + record("T03", 300) + "]";
+
+        var response = this.transactionStreamService.postTransactionStream(toStream(body));
+
+        assertEquals(3, response.getRecords_read());
+        assertEquals(3, response.getInserted_count());
+        assertEquals(2, response.getChunk_count());
+        assertEquals(List.of(2, 1), this.flushedChunkSizes);
+    }
+
+    /**
+     * Success: newline-delimited JSON is read record by record and flushed in chunks
+     */
+    @Test
+    public void testPostStream_ndjson() throws Exception {
+
+        var body = record("T01", 100) + "\n" + record("T02", 200) + "\n" + record("T03", 300) + "\n" + record("T04", 400) + "\n";
+
+        var response = this.transactionStreamService.postTransactionStream(toStream(body));
+
+        assertEquals(4, response.getRecords_read());
+        assertEquals(4, response.getInserted_count());
+        assertEquals(List.of(2, 2), this.flushedChunkSizes);
+    }
+
+    /**
+     * Success: invalid records are skipped and reported with their position, valid ones are still posted
+     */
+    @Test
+    public void testPostStream_invalidRecords_rejectedAndReported() throws Exception {
+
+        var body = record("T01", 100) + "\n" + record("T02", -200) + "\n" + record("T03", 300) + "\n";
+
+        var response = this.transactionStreamService.postTransactionStream(toStream(body));
+
+        assertEquals(3, response.getRecords_read());
+        assertEquals(2, response.getInserted_count());
+        assertEquals(1, response.getRejected_count());
+        assertEquals(1, response.getRejections().size());
+        assertEquals(1, response.getRejections().get(0).getIndex());
+        assertEquals("T02", response.getRejections().get(0).getTransaction_name());
+        assertEquals(Status.NEGATIVE_AMOUNT_CENTS.getCode(), response.getRejections().get(0).getCode());
+    }
+
+    /**
+     * Success: an empty array posts nothing
+     */
+    @Test
+    public void testPostStream_emptyArray() throws Exception {
+
+        var response = this.transactionStreamService.postTransactionStream(toStream("[]"));
+
+        assertEquals(0, response.getRecords_read());
+        assertEquals(0, response.getChunk_count());
+        verify(this.transactionService, never()).postChunk(anyList());
+    }
+
+    /**
+     * Success: the header maps columns in any order, extra columns are ignored, and fields are parsed from bytes
+     */
+    @Test
+    public void testImportCsv_headerMapsColumns() throws Exception {
+
+        var csv = "amount_cents,note,merchantCode,transaction_name,date\r\n" +
+                "2550,first,sportcheck,T01,2021-05-09\r\n" +
+                "1050,\"a, b\",tim_hortons,T02,2021-05-10\r\n" +
+                "1100,,subway,T03,2021-05-11\r\n";
+
+        var response = this.transactionStreamService.importFile(toStream(csv), ImportFormat.CSV);
+
+        assertEquals(3, response.getRecords_read());
+        assertEquals(3, response.getInserted_count());
+        assertEquals(List.of(2, 1), this.flushedChunkSizes);
+        verify(this.transactionService).validateTransaction(Transaction.DEFAULT_ACCOUNT_ID, "T02", 20210510, "tim_hortons", 1050);
+    }
+
+    /**
+     * Success: short rows, non-numeric amounts and invalid fields are rejected with their row index
+     */
+    @Test
+    public void testImportCsv_invalidRows_rejectedAndReported() throws Exception {
+
+        var csv = "transaction_name,date,merchant_code,amount_cents\n" +
+                "T01,2021-05-09,subway\n" +
+                "T02,2021-05-09,subway,12.50\n" +
+                "T03,2021-05-09,subway,-100\n" +
+                "T04,2021-05-09,subway,100\n";
+
+        var response = this.transactionStreamService.importCsv(toStream(csv));
+
+        assertEquals(4, response.getRecords_read());
+        assertEquals(1, response.getInserted_count());
+        assertEquals(3, response.getRejected_count());
+        assertEquals(List.of(Status.MALFORMED_IMPORT_ROW.getCode(), Status.AMOUNT_CENTS_NOT_A_NUMBER.getCode(),
+                        Status.NEGATIVE_AMOUNT_CENTS.getCode()),
+                response.getRejections().stream().map(RejectedItemResponse::getCode).collect(Collectors.toList()));
+        assertEquals(2, response.getRejections().get(2).getIndex());
+    }
+
+    /**
+     * Exception thrown: a header without every required column rejects the file
+     */
+    @Test
+    public void testImportCsv_missingColumn_transactionServiceExceptionThrown() {
+
+        var transactionException = assertThrows(TransactionServiceException.class,
+                () -> this.transactionStreamService.importCsv(toStream("transaction_name,date,amount_cents\nT01,2021-05-09,100\n")));
+
+        assertEquals(Status.IMPORT_MISSING_COLUMN, transactionException.getStatus());
+        verify(this.transactionService, never()).postChunk(anyList());
+    }
+
+    private static String record(String transactionName, int amountCents) {
+        return "{\"transaction_name\": \"" + transactionName + "\", \"date\": \"2021-05-09\", " +
+                "\"merchant_code\": \"sportcheck\", \"amount_cents\": " + amountCents + "}";
+    }
+
+    private static ByteArrayInputStream toStream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,415 @@
+package com.xiaoqigao.creditcardrewards.store;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import com.xiaoqigao.creditcardrewards.model.TransactionAmount;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for LogTransactionStore and LogTransactionManager
+ */
+public class LogTransactionStoreTest {
+
+    private static final long ACCOUNT_ID = Transaction.DEFAULT_ACCOUNT_ID;
+
+    @TempDir
+    Path directory;
+
+    private LogTransactionStore store;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        this.store = open();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        this.store.close();
+    }
+
+    /**
+     * Success: committed transactions are found by name, by date range and in the monthly totals
+     */
+    @Test
+    public void testInsertBatch_queries() {
+        this.store.insertBatch(List.of(
+                makeTransaction("T01", 20210501, "sportcheck", 2500),
+                makeTransaction("T02", 20210531, "a_cafe", 150),
+                makeTransaction("T03", 20210601, "sportcheck", 700)));
+        this.store.insert(makeTransaction("T04", 20210515, "sportcheck", 500));
+
+        assertEquals(4, this.store.countTransactions());
+        assertEquals(this.store.registerMerchant("a_cafe"), this.store.selectByTransactionName(ACCOUNT_ID, "T02").get(0).getMerchantId());
+        assertTrue(this.store.selectByTransactionName(ACCOUNT_ID, "T09").isEmpty());
+        assertEquals(List.of("T01", "T02", "T04"), namesOf(selectByPostDateRange(this.store, ACCOUNT_ID, 20210500, 20210599)));
+        assertEquals(List.of("T02"), namesOf(selectByPostDateRange(this.store, ACCOUNT_ID, 20210520, 20210531)));
+        assertEquals(List.of("T03", "T04"), this.store.selectExistingTransactionNames(ACCOUNT_ID, List.of("T03", "T04", "T05")));
+        assertEquals(List.of(makeTotal(202105, 1, 150, 1), makeTotal(202105, 2, 3000, 2)),
+                this.store.selectMonthlyTotals(ACCOUNT_ID, 202105));
+        assertEquals(List.of(202105, 202106), this.store.selectMonths());
+        assertEquals(selectAllMonthlyTotals(this.store), sumTransactionsByMonth(this.store));
+    }
+
+    /**
+     * Success: a merchant's monthly total past the int range of cents is kept exactly, also after reopening
+     */
+    @Test
+    public void testMonthlyTotals_pastIntRange() throws IOException {
+        this.store.insertBatch(List.of(
+                makeTransaction("T01", 20210501, "sportcheck", Integer.MAX_VALUE),
+                makeTransaction("T02", 20210502, "sportcheck", Integer.MAX_VALUE),
+                makeTransaction("T03", 20210503, "sportcheck", 2)));
+        List<MonthlyMerchantTotal> expected = List.of(makeTotal(202105, 2, 2L * Integer.MAX_VALUE + 2, 3));
+        assertEquals(expected, this.store.selectMonthlyTotals(ACCOUNT_ID, 202105));
+
+        this.store.close();
+        this.store = open();
+        assertEquals(expected, this.store.selectMonthlyTotals(ACCOUNT_ID, 202105));
+        assertEquals(expected, sumTransactionsByMonth(this.store));
+    }
+
+    /**
+     * Success: names are unique per account, and each account has its own range reads and totals
+     */
+    @Test
+    public void testInsertBatch_accounts() throws IOException {
+        this.store.insertBatch(List.of(
+                makeTransaction("T01", 20210501, "sportcheck", 2500),
+                makeTransaction(42, "T01", 20210502, "sportcheck", 700),
+                makeTransaction(42, "T02", 20210503, "subway", 300)));
+        assertThrows(DuplicateKeyException.class,
+                () -> this.store.insert(makeTransaction(42, "T02", 20210501, "subway", 100)));
+
+        this.store.close();
+        this.store = open();
+
+        assertEquals(List.of(ACCOUNT_ID, 42L), this.store.selectAccountsByMonth(202105));
+        assertEquals(List.of("T01", "T02"), namesOf(selectByPostDateRange(this.store, 42, 20210500, 20210599)));
+        assertEquals(List.of("T02"), this.store.selectExistingTransactionNames(42, List.of("T02")));
+        assertTrue(this.store.selectExistingTransactionNames(ACCOUNT_ID, List.of("T02")).isEmpty());
+        assertEquals(List.of(makeTotal(202105, 2, 2500, 1)), this.store.selectMonthlyTotals(ACCOUNT_ID, 202105));
+        assertEquals(List.of(makeTotal(42, 202105, 2, 700, 1), makeTotal(42, 202105, 4, 300, 1)),
+                this.store.selectMonthlyTotals(42, 202105));
+        assertEquals(this.store.selectMonthlyTotals(42, 202105), this.store.selectMonthlyTotals(42, 202101, 202112));
+        assertTrue(this.store.selectMonthlyTotals(42, 202106, 202112).isEmpty());
+        assertEquals(selectAllMonthlyTotals(this.store), sumTransactionsByMonth(this.store));
+    }
+
+    /**
+     * Exception thrown: a batch with a taken name stores nothing
+     */
+    @Test
+    public void testInsertBatch_duplicateName_nothingStored() {
+        this.store.insert(makeTransaction("T01", 20210501, "subway", 100));
+
+        assertThrows(DuplicateKeyException.class, () -> this.store.insertBatch(List.of(
+                makeTransaction("T02", 20210501, "subway", 100),
+                makeTransaction("T01", 20210501, "subway", 100))));
+        assertThrows(DuplicateKeyException.class, () -> this.store.insertBatch(List.of(
+                makeTransaction("T03", 20210501, "subway", 100),
+                makeTransaction("T03", 20210501, "subway", 100))));
+
+        assertEquals(1, this.store.countTransactions());
+        this.store.insert(makeTransaction("T02", 20210501, "subway", 100));
+        assertEquals(2, this.store.countTransactions());
+    }
+
+    /**
+     * Success: reopening the log rebuilds every index from the file
+     */
+    @Test
+    public void testOpen_rebuildsIndexes() throws IOException {
+        this.store.insertBatch(List.of(
+                makeTransaction("T01", 20210501, "tim_hortons", 1000),
+                makeTransaction("T02", 20210601, "subway", 2000)));
+        List<MonthlyMerchantTotal> totals = selectAllMonthlyTotals(this.store);
+
+        this.store.close();
+        this.store = open();
+
+        assertEquals(2, this.store.countTransactions());
+        assertEquals(totals, selectAllMonthlyTotals(this.store));
+        assertEquals(2, this.store.selectByTransactionName(ACCOUNT_ID, "T02").get(0).getId());
+        assertThrows(DuplicateKeyException.class,
+                () -> this.store.insert(makeTransaction("T01", 20210501, "subway", 100)));
+    }
+
+    /**
+     * Success: a commit torn by a crash is cut off and the log keeps working after it
+     */
+    @Test
+    public void testOpen_tornTail_truncated() throws IOException {
+        this.store.insert(makeTransaction("T01", 20210501, "subway", 100));
+        this.store.insert(makeTransaction("T02", 20210501, "subway", 100));
+        this.store.close();
+
+        Path logFile = this.directory.resolve(LogTransactionStore.LOG_FILE_NAME);
+        long intactSize = Files.size(logFile);
+        try (RandomAccessFile file = new RandomAccessFile(logFile.toFile(), "rw")) {
+            file.setLength(intactSize - 3);
+        }
+
+        this.store = open();
+        assertEquals(List.of("T01"), this.store.selectExistingTransactionNames(ACCOUNT_ID, List.of("T01", "T02")));
+
+        this.store.insert(makeTransaction("T02", 20210502, "subway", 200));
+        this.store.close();
+        this.store = open();
+        assertEquals(20210502, this.store.selectByTransactionName(ACCOUNT_ID, "T02").get(0).getPostDate());
+    }
+
+    /**
+     * Success: a frame whose checksum does not match is dropped with everything after it
+     */
+    @Test
+    public void testOpen_corruptFrame_dropped() throws IOException {
+        this.store.insert(makeTransaction("T01", 20210501, "subway", 100));
+        this.store.insert(makeTransaction("T02", 20210501, "subway", 100));
+        this.store.close();
+
+        Path logFile = this.directory.resolve(LogTransactionStore.LOG_FILE_NAME);
+        try (RandomAccessFile file = new RandomAccessFile(logFile.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        this.store = open();
+        assertEquals(1, this.store.countTransactions());
+    }
+
+    /**
+     * Success: inserts inside a transaction are appended on commit and dropped on rollback
+     */
+    @Test
+    public void testTransactionManager_commitAndRollback() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new LogTransactionManager(this.store));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            this.store.insert(makeTransaction("T01", 20210501, "subway", 100));
+            this.store.insert(makeTransaction("T02", 20210501, "subway", 100));
+            // not visible to readers before the commit, but the names are taken
+            assertEquals(0, this.store.countTransactions());
+            assertEquals(List.of("T01"), this.store.selectExistingTransactionNames(ACCOUNT_ID, List.of("T01")));
+        });
+        assertEquals(2, this.store.countTransactions());
+
+        transactionTemplate.executeWithoutResult(status -> {
+            this.store.insert(makeTransaction("T03", 20210501, "subway", 100));
+            status.setRollbackOnly();
+        });
+        assertEquals(2, this.store.countTransactions());
+        assertTrue(this.store.selectExistingTransactionNames(ACCOUNT_ID, List.of("T03")).isEmpty());
+    }
+
+    /**
+     * Success: merchant codes get the fixed ids or the next free one, and keep them after reopening
+     */
+    @Test
+    public void testRegisterMerchant_idsSurviveReopen() throws IOException {
+        assertEquals(MerchantCode.SUBWAY_ID, this.store.registerMerchant(MerchantCode.SUBWAY));
+        assertEquals(5, this.store.registerMerchant("a_cafe"));
+        assertEquals(6, this.store.registerMerchant("a_bakery"));
+        assertEquals(5, this.store.registerMerchant("a_cafe"));
+        this.store.insert(makeTransaction("T01", 20210501, "a_bakery", 100));
+
+        this.store.close();
+        this.store = open();
+
+        assertEquals(List.of(MerchantCode.OTHER, MerchantCode.SPORT_CHECK, MerchantCode.TIM_HORTONS, MerchantCode.SUBWAY,
+                "a_cafe", "a_bakery"), this.store.selectMerchants().stream().map(Merchant::getCode).collect(Collectors.toList()));
+        assertEquals(6, this.store.selectByTransactionName(ACCOUNT_ID, "T01").get(0).getMerchantId());
+        assertEquals(7, this.store.registerMerchant("a_deli"));
+        assertThrows(DataIntegrityViolationException.class, () -> this.store.insert(Transaction.builder()
+                .transactionName("T02").postDate(20210501).merchantId(8).amountCents(100).build()));
+    }
+
+    /**
+     * Success: a version 1 log is rewritten with merchant ids and keeps its transactions, ids and totals
+     */
+    @Test
+    public void testOpen_version1Log_upgraded() throws IOException {
+        this.store.close();
+        Path logFile = this.directory.resolve(LogTransactionStore.LOG_FILE_NAME);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(logFile))) {
+            out.writeInt(LogTransactionStore.MAGIC);
+            out.writeInt(1);
+            writeVersion1Frame(out, 1, new String[][]{
+                    {"T01", "20210501", "a_cafe", "150"}, {"T02", "20210502", "sportcheck", "2500"}});
+            writeVersion1Frame(out, 3, new String[][]{{"T03", "20210601", "a_cafe", "300"}});
+        }
+
+        this.store = open();
+
+        assertEquals(3, this.store.countTransactions());
+        assertEquals(5, this.store.registerMerchant("a_cafe"));
+        assertEquals(5, this.store.selectByTransactionName(ACCOUNT_ID, "T03").get(0).getMerchantId());
+        assertEquals(3, this.store.selectByTransactionName(ACCOUNT_ID, "T03").get(0).getId());
+        assertEquals(List.of(makeTotal(202105, 1, 150, 1), makeTotal(202105, 2, 2500, 1), makeTotal(202106, 1, 300, 1)),
+                selectAllMonthlyTotals(this.store));
+
+        this.store.insert(makeTransaction("T04", 20210601, "a_bakery", 100));
+        this.store.close();
+        this.store = open();
+        assertEquals(4, this.store.selectByTransactionName(ACCOUNT_ID, "T04").get(0).getId());
+        assertEquals(6, this.store.selectByTransactionName(ACCOUNT_ID, "T04").get(0).getMerchantId());
+    }
+
+    /**
+     * Success: a version 2 log is rewritten with every transaction in the default account
+     */
+    @Test
+    public void testOpen_version2Log_upgraded() throws IOException {
+        this.store.close();
+        Path logFile = this.directory.resolve(LogTransactionStore.LOG_FILE_NAME);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(logFile))) {
+            out.writeInt(LogTransactionStore.MAGIC);
+            out.writeInt(2);
+            writeFrame(out, LogTransactionStore.encodeMerchantFrame(5, "a_cafe"));
+            writeVersion2Frame(out, 1, new String[][]{{"T01", "20210501", "5", "150"}, {"T02", "20210502", "2", "2500"}});
+        }
+
+        this.store = open();
+
+        assertEquals(2, this.store.countTransactions());
+        assertEquals(5, this.store.registerMerchant("a_cafe"));
+        assertEquals(List.of(ACCOUNT_ID), this.store.selectAccountsByMonth(202105));
+        assertEquals(List.of(makeTotal(202105, 1, 150, 1), makeTotal(202105, 2, 2500, 1)),
+                this.store.selectMonthlyTotals(ACCOUNT_ID, 202105));
+        assertThrows(DuplicateKeyException.class,
+                () -> this.store.insert(makeTransaction("T02", 20210601, "subway", 100)));
+    }
+
+    private LogTransactionStore open() throws IOException {
+        LogTransactionStore opened = new LogTransactionStore(this.directory.toString(), false);
+        opened.open();
+        return opened;
+    }
+
+    /**
+     * Builds a transaction with its merchant registered in the current store
+     */
+    private Transaction makeTransaction(String transactionName, int postDate, String merchantCode, int amountCents) {
+        return makeTransaction(ACCOUNT_ID, transactionName, postDate, merchantCode, amountCents);
+    }
+
+    private Transaction makeTransaction(long accountId, String transactionName, int postDate, String merchantCode,
+                                        int amountCents) {
+        return Transaction.builder().accountId(accountId).transactionName(transactionName).postDate(postDate)
+                .merchantId(this.store.registerMerchant(merchantCode)).amountCents(amountCents).build();
+    }
+
+    /**
+     * Writes one version 1 frame, whose entries hold the merchant code itself
+     */
+    private static void writeVersion1Frame(DataOutputStream out, int firstId, String[][] entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(entries.length);
+        int id = firstId;
+        for (String[] entry : entries) {
+            byte[] name = entry[0].getBytes(StandardCharsets.UTF_8);
+            byte[] merchant = entry[2].getBytes(StandardCharsets.UTF_8);
+            payload.writeInt(id++);
+            payload.writeInt(Integer.parseInt(entry[1]));
+            payload.writeInt(Integer.parseInt(entry[3]));
+            payload.writeShort(name.length);
+            payload.writeShort(merchant.length);
+            payload.write(name);
+            payload.write(merchant);
+        }
+
+        writePayload(out, bytes.toByteArray());
+    }
+
+    /**
+     * Writes one version 2 frame, whose entries hold the merchant id but no account
+     */
+    private static void writeVersion2Frame(DataOutputStream out, int firstId, String[][] entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(entries.length);
+        int id = firstId;
+        for (String[] entry : entries) {
+            byte[] name = entry[0].getBytes(StandardCharsets.UTF_8);
+            payload.writeInt(id++);
+            payload.writeInt(Integer.parseInt(entry[1]));
+            payload.writeInt(Integer.parseInt(entry[3]));
+            payload.writeShort(Integer.parseInt(entry[2]));
+            payload.writeShort(name.length);
+            payload.write(name);
+        }
+        writePayload(out, bytes.toByteArray());
+    }
+
+    private static void writePayload(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private static void writeFrame(DataOutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.position(), frame.remaining());
+    }
+
+    private static MonthlyMerchantTotal makeTotal(int postMonth, int merchantId, long amountCents, int transactionCount) {
+        return makeTotal(ACCOUNT_ID, postMonth, merchantId, amountCents, transactionCount);
+    }
+
+    private static MonthlyMerchantTotal makeTotal(long accountId, int postMonth, int merchantId, long amountCents,
+                                                  int transactionCount) {
+        return MonthlyMerchantTotal.builder().accountId(accountId).postMonth(postMonth).merchantId(merchantId)
+                .amountCents(amountCents).transactionCount(transactionCount).build();
+    }
+
+    private static List<TransactionAmount> selectByPostDateRange(TransactionStore store, long accountId, int fromDate,
+                                                                 int toDate) {
+        List<TransactionAmount> transactions = new ArrayList<>();
+        store.forEachInPostDateRange(accountId, fromDate, toDate, transactions::add);
+        return transactions;
+    }
+
+    private static List<MonthlyMerchantTotal> selectAllMonthlyTotals(TransactionStore store) {
+        List<MonthlyMerchantTotal> totals = new ArrayList<>();
+        store.selectMonths().forEach(postMonth -> totals.addAll(store.selectAllMonthlyTotals(postMonth)));
+        return totals;
+    }
+
+    private static List<MonthlyMerchantTotal> sumTransactionsByMonth(TransactionStore store) {
+        List<MonthlyMerchantTotal> totals = new ArrayList<>();
+        store.selectMonths().forEach(postMonth -> totals.addAll(store.sumTransactionsByMonth(postMonth)));
+        return totals;
+    }
+
+    private static List<String> namesOf(List<TransactionAmount> transactions) {
+        return transactions.stream().map(TransactionAmount::getTransactionName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,136 @@
+package com.xiaoqigao.creditcardrewards.store;
+
+import com.xiaoqigao.creditcardrewards.DAO.MerchantDAO;
+import com.xiaoqigao.creditcardrewards.DAO.MonthlyMerchantTotalsDAO;
+import com.xiaoqigao.creditcardrewards.DAO.TransactionDAO;
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.MonthlyMerchantTotal;
+import com.xiaoqigao.creditcardrewards.model.Transaction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for MyBatisTransactionStore
+ */
+@ExtendWith(MockitoExtension.class)
+public class MyBatisTransactionStoreTest {
+
+    @Mock
+    private TransactionDAO transactionDAO;
+
+    @Mock
+    private MonthlyMerchantTotalsDAO monthlyMerchantTotalsDAO;
+
+    @Mock
+    private MerchantDAO merchantDAO;
+
+    @InjectMocks
+    private MyBatisTransactionStore transactionStore;
+
+    /**
+     * Success: inserted rows are summed per month and reward merchant and upserted in key order
+     */
+    @Test
+    public void testInsertBatch_upsertsMonthlyTotals() {
+
+        List<Transaction> transactions = List.of(
+                makeTransaction("T01", 20210601, MerchantCode.SUBWAY_ID, 300),
+                makeTransaction("T02", 20210501, MerchantCode.SPORT_CHECK_ID, 1000),
+                makeTransaction("T03", 20210502, MerchantCode.SPORT_CHECK_ID, 500),
+                makeTransaction("T04", 20210503, 5, 200),
+                makeTransaction("T05", 20210504, 6, 100));
+
+        this.transactionStore.insertBatch(transactions);
+
+        verify(this.transactionDAO).insertBatch(transactions);
+        verify(this.monthlyMerchantTotalsDAO).upsertDeltas(List.of(
+                makeTotal(202105, 1, 300, 2),
+                makeTotal(202105, 2, 1500, 2),
+                makeTotal(202106, 4, 300, 1)));
+    }
+
+    /**
+     * Exception thrown: a duplicate name leaves the rollup untouched
+     */
+    @Test
+    public void testInsertBatch_duplicateKey_rollupUntouched() {
+
+        doThrow(new DuplicateKeyException("transaction_name")).when(this.transactionDAO).insertBatch(anyList());
+
+        assertThrows(DuplicateKeyException.class, () -> this.transactionStore.insertBatch(
+                List.of(makeTransaction("T01", 20210501, MerchantCode.SUBWAY_ID, 300))));
+
+        verify(this.monthlyMerchantTotalsDAO, never()).upsertDeltas(anyList());
+    }
+
+    /**
+     * Success: a known code is answered without an insert, a new one is upserted and read back with a locking read
+     */
+    @Test
+    public void testRegisterMerchant() {
+
+        when(this.merchantDAO.selectIdByCode("subway")).thenReturn(MerchantCode.SUBWAY_ID);
+        when(this.merchantDAO.selectIdByCode("a_cafe")).thenReturn(null);
+        when(this.merchantDAO.selectIdByCodeForUpdate("a_cafe")).thenReturn(7);
+
+        assertEquals(MerchantCode.SUBWAY_ID, this.transactionStore.registerMerchant("subway"));
+        assertEquals(7, this.transactionStore.registerMerchant("a_cafe"));
+
+        verify(this.merchantDAO, never()).upsert("subway");
+        verify(this.merchantDAO).upsert("a_cafe");
+    }
+
+    /**
+     * Success: a code another node registered after the first read, which the snapshot keeps hiding,
+     * still gets the id of the existing row
+     */
+    @Test
+    public void testRegisterMerchant_registeredConcurrently_existingId() {
+
+        // the snapshot never shows the concurrent row, the upsert hits its key and the locking read sees it
+        when(this.merchantDAO.selectIdByCode("a_cafe")).thenReturn(null);
+        when(this.merchantDAO.selectIdByCodeForUpdate("a_cafe")).thenReturn(9);
+
+        assertEquals(9, this.transactionStore.registerMerchant("a_cafe"));
+
+        verify(this.merchantDAO, times(1)).selectIdByCode("a_cafe");
+    }
+
+    /**
+     * Exception thrown: an upsert that collided with the last id instead of inserting leaves the code unregistered
+     */
+    @Test
+    public void testRegisterMerchant_idSpaceExhausted() {
+
+        when(this.merchantDAO.selectIdByCode("a_cafe")).thenReturn(null);
+        when(this.merchantDAO.selectIdByCodeForUpdate("a_cafe")).thenReturn(null);
+
+        assertThrows(DataIntegrityViolationException.class, () -> this.transactionStore.registerMerchant("a_cafe"));
+    }
+
+    private static Transaction makeTransaction(String transactionName, int postDate, int merchantId, int amountCents) {
+        return Transaction.builder().transactionName(transactionName).postDate(postDate)
+                .merchantId(merchantId).amountCents(amountCents).build();
+    }
+
+    private static MonthlyMerchantTotal makeTotal(int postMonth, int merchantId, long amountCents, int transactionCount) {
+        return MonthlyMerchantTotal.builder().postMonth(postMonth).merchantId(merchantId)
+                .amountCents(amountCents).transactionCount(transactionCount).build();
+    }
+}
@@ -0,0 +1,57 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for BloomFilter
+ */
+public class BloomFilterTest {
+
+    /**
+     * Success: every value that was put is reported as possibly present
+     */
+    @Test
+    public void testMightContain_noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("T" + i);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("T" + i));
+        }
+    }
+
+    /**
+     * Success: at the expected load the false positive rate stays close to the configured rate
+     */
+    @Test
+    public void testMightContain_falsePositiveRateNearTarget() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("T" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("U" + i)) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+    }
+
+    /**
+     * Success: an empty filter contains nothing
+     */
+    @Test
+    public void testMightContain_emptyFilter() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+
+        assertFalse(filter.mightContain("T01"));
+    }
+}
@@ -0,0 +1,103 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.RewardRule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Unit test for CompiledRuleSet
+ */
+public class CompiledRuleSetTest {
+
+    /**
+     * Success: the handout rules give sportcheck transactions rule 6 and everything else a point per dollar
+     */
+    @Test
+    public void testTransactionLevelPoints_handoutRules() {
+        CompiledRuleSet ruleSet = HandoutRules.compile();
+
+        assertEquals(200001, ruleSet.getEffectiveMonth());
+        assertEquals(0, ruleSet.transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 0));
+        assertEquals(19, ruleSet.transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 19));
+        assertEquals(75 * 6 + 5, ruleSet.transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 125));
+        assertEquals(75L * 5_000_000 + 7, ruleSet.transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, 100_000_007));
+        assertEquals(125, ruleSet.transactionLevelPoints(MerchantCode.TIM_HORTONS_ID, 125));
+        assertEquals(125, ruleSet.transactionLevelPoints(7, 125));
+        assertEquals(660, ruleSet.monthlyPoints(Map.of(
+                MerchantCode.SPORT_CHECK, 125L, MerchantCode.TIM_HORTONS, 25L, MerchantCode.SUBWAY, 25L)).getPoints());
+    }
+
+    /**
+     * Success: the lookup table and its reduction for large amounts agree with a plain dynamic program,
+     * for rules whose best gain per dollar is not the best points per application
+     */
+    @Test
+    public void testTransactionLevelPoints_matchesDynamicProgram() {
+        List<RewardRule> rules = List.of(
+                RewardRule.builder().ruleNumber(1).points(40).dollars(MerchantCode.SPORT_CHECK, 7).build(),
+                RewardRule.builder().ruleNumber(2).points(100).dollars(MerchantCode.SPORT_CHECK, 19).build(),
+                RewardRule.builder().ruleNumber(3).points(3).dollars(MerchantCode.SPORT_CHECK, 4).build(),
+                RewardRule.builder().ruleNumber(4).points(500).dollars(MerchantCode.SPORT_CHECK, 60).dollars(MerchantCode.SUBWAY, 1).build());
+        CompiledRuleSet ruleSet = new CompiledRuleSet(202101, rules, 2);
+
+        int max = 3000;
+        long[] best = new long[max + 1];
+        for (int amount = 1; amount <= max; amount++) {
+            best[amount] = best[amount - 1] + 2;
+            for (RewardRule rule : rules.subList(0, 3)) {
+                int dollars = rule.getDollarsByMerchant().get(MerchantCode.SPORT_CHECK);
+                if (dollars <= amount) {
+                    best[amount] = Math.max(best[amount], rule.getPoints() + best[amount - dollars]);
+                }
+            }
+        }
+        for (int amount = 0; amount <= max; amount++) {
+            assertEquals(best[amount], ruleSet.transactionLevelPoints(MerchantCode.SPORT_CHECK_ID, amount), "amount=" + amount);
+        }
+        assertEquals(10, ruleSet.transactionLevelPoints(MerchantCode.SUBWAY_ID, 5));
+    }
+
+    /**
+     * Success: the batch agrees with scoring each transaction on its own, within the given range only
+     */
+    @Test
+    public void testTransactionLevelPoints_batchMatchesSingle() {
+        CompiledRuleSet ruleSet = HandoutRules.compile();
+        int[] merchantIds = {MerchantCode.SPORT_CHECK_ID, 9, MerchantCode.SPORT_CHECK_ID, MerchantCode.TIM_HORTONS_ID,
+                MerchantCode.SUBWAY_ID, MerchantCode.OTHER_ID, MerchantCode.SPORT_CHECK_ID};
+        int[] amountCents = {2599, 12345, 19, 1050, 1100, 0, 1_000_000_099};
+        long[] points = new long[merchantIds.length];
+        points[0] = -1;
+
+        ruleSet.transactionLevelPoints(merchantIds, amountCents, 1, merchantIds.length, points);
+
+        assertEquals(-1, points[0]);
+        for (int i = 1; i < merchantIds.length; i++) {
+            assertEquals(ruleSet.transactionLevelPoints(merchantIds[i], amountCents[i] / 100), points[i], "i=" + i);
+        }
+        assertEquals(75L * 500_000, points[6]);
+    }
+
+    /**
+     * Success: the fingerprint ignores rule order and changes with any rule
+     */
+    @Test
+    public void testFingerprint_content() {
+        CompiledRuleSet ruleSet = HandoutRules.compile();
+        List<RewardRule> reversed = new ArrayList<>(ruleSet.getRules());
+        Collections.reverse(reversed);
+
+        assertEquals(ruleSet.getFingerprint(), new CompiledRuleSet(ruleSet.getEffectiveMonth(), reversed, 1).getFingerprint());
+        assertNotEquals(ruleSet.getFingerprint(), new CompiledRuleSet(ruleSet.getEffectiveMonth(), reversed, 2).getFingerprint());
+        assertNotEquals(ruleSet.getFingerprint(),
+                new CompiledRuleSet(ruleSet.getEffectiveMonth(), reversed.subList(1, reversed.size()), 1).getFingerprint());
+    }
+}
@@ -0,0 +1,132 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for CsvRecordReader
+ */
+public class CsvRecordReaderTest {
+
+    /**
+     * Success: fields are split on commas and lines, with LF, CRLF and a missing final line break
+     */
+    @Test
+    public void testNext_lineEndings() throws Exception {
+        CsvRecordReader reader = reader("a,b\r\nc,d\ne,f", 64);
+
+        assertTrue(reader.next());
+        assertEquals("a", reader.getString(0));
+        assertEquals("b", reader.getString(1));
+        assertTrue(reader.next());
+        assertEquals("d", reader.getString(1));
+        assertTrue(reader.next());
+        assertEquals(2, reader.getFieldCount());
+        assertEquals("f", reader.getString(1));
+        assertFalse(reader.next());
+    }
+
+    /**
+     * Success: quoted fields may hold commas, line breaks and escaped quotes
+     */
+    @Test
+    public void testGetString_quotedFields() throws Exception {
+        CsvRecordReader reader = reader("\"T,01\",\"say \"\"hi\"\"\",\"two\nlines\",\"\"\n", 64);
+
+        assertTrue(reader.next());
+        assertEquals(4, reader.getFieldCount());
+        assertEquals("T,01", reader.getString(0));
+        assertEquals("say \"hi\"", reader.getString(1));
+        assertEquals("two\nlines", reader.getString(2));
+        assertTrue(reader.isEmpty(3));
+    }
+
+    /**
+     * Success: records that straddle buffer refills or outgrow the buffer are read whole
+     */
+    @Test
+    public void testNext_smallBuffer() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            csv.append("T").append(i).append(",\"2021-05-09\",").append(i * 10).append('\n');
+        }
+        csv.append("long,").append("x".repeat(100)).append(",1\n");
+
+        CsvRecordReader reader = reader(csv.toString(), 16);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(reader.next());
+            assertEquals("T" + i, reader.getString(0));
+            assertEquals(20210509, reader.getDate(1));
+            assertEquals(i * 10, reader.getInt(2));
+        }
+        assertTrue(reader.next());
+        assertEquals(100, reader.getString(1).length());
+        assertFalse(reader.next());
+    }
+
+    /**
+     * Success: a byte order mark and blank lines are skipped
+     */
+    @Test
+    public void testNext_byteOrderMarkAndBlankLines() throws Exception {
+        CsvRecordReader reader = reader("\uFEFFname\n\n\r\nT01\n", 64);
+
+        assertTrue(reader.next());
+        assertEquals("name", reader.getString(0));
+        assertTrue(reader.next());
+        assertEquals("T01", reader.getString(0));
+        assertFalse(reader.next());
+    }
+
+    /**
+     * Exception thrown: amounts that are not whole numbers in int range
+     */
+    @Test
+    public void testGetInt_invalid_numberFormatExceptionThrown() throws Exception {
+        CsvRecordReader reader = reader(" -42 ,12.5,,2147483648,abc\n", 64);
+
+        assertTrue(reader.next());
+        assertEquals(-42, reader.getInt(0));
+        assertThrows(NumberFormatException.class, () -> reader.getInt(1));
+        assertThrows(NumberFormatException.class, () -> reader.getInt(2));
+        assertThrows(NumberFormatException.class, () -> reader.getInt(3));
+        assertThrows(NumberFormatException.class, () -> reader.getInt(4));
+    }
+
+    /**
+     * Success: account ids use the whole long range
+     */
+    @Test
+    public void testGetLong_range() throws Exception {
+        CsvRecordReader reader = reader("9223372036854775807,-9223372036854775808,9223372036854775808,2147483648\n", 128);
+
+        assertTrue(reader.next());
+        assertEquals(Long.MAX_VALUE, reader.getLong(0));
+        assertEquals(Long.MIN_VALUE, reader.getLong(1));
+        assertThrows(NumberFormatException.class, () -> reader.getLong(2));
+        assertEquals(2147483648L, reader.getLong(3));
+    }
+
+    /**
+     * Success: non-ASCII text is decoded as UTF-8
+     */
+    @Test
+    public void testGetString_utf8() throws Exception {
+        CsvRecordReader reader = reader("café,タコ\n", 64);
+
+        assertTrue(reader.next());
+        assertEquals("café", reader.getString(0));
+        assertEquals("タコ", reader.getString(1));
+    }
+
+    private static CsvRecordReader reader(String csv, int bufferSize) {
+        return new CsvRecordReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), bufferSize);
+    }
+}
@@ -0,0 +1,128 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for DateCodec
+ */
+public class DateCodecTest {
+
+    /**
+     * Success: a valid date is packed as yyyyMMdd and can be split back
+     */
+    @Test
+    public void testParse_happyCase() {
+        int date = DateCodec.parse("2021-05-09");
+
+        assertEquals(20210509, date);
+        assertEquals(2021, DateCodec.year(date));
+        assertEquals(5, DateCodec.month(date));
+        assertEquals(9, DateCodec.day(date));
+        assertEquals("2021", DateCodec.formatYear(date));
+        assertEquals("05", DateCodec.formatMonth(date));
+        assertEquals("09", DateCodec.formatDay(date));
+    }
+
+    /**
+     * Success: the last day of every month is accepted
+     */
+    @Test
+    public void testParse_lastDayOfMonth() {
+        assertEquals(20210131, DateCodec.parse("2021-01-31"));
+        assertEquals(20210430, DateCodec.parse("2021-04-30"));
+        assertEquals(20211231, DateCodec.parse("2021-12-31"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-04-31"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-01-32"));
+    }
+
+    /**
+     * Success: February 29th follows the Gregorian leap year rule
+     */
+    @Test
+    public void testParse_leapYears() {
+        assertEquals(20200229, DateCodec.parse("2020-02-29"));
+        assertEquals(20000229, DateCodec.parse("2000-02-29"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-02-29"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("1900-02-29"));
+    }
+
+    /**
+     * Failure: month 0, day 0 and out of range fields are rejected
+     */
+    @Test
+    public void testParse_outOfRange() {
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-00-10"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-05-00"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-13-10"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-90-51"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("0000-05-09"));
+    }
+
+    /**
+     * Failure: anything not shaped like yyyy-MM-dd is rejected
+     */
+    @Test
+    public void testParse_wrongFormat() {
+        assertEquals(DateCodec.INVALID, DateCodec.parse(null));
+        assertEquals(DateCodec.INVALID, DateCodec.parse(""));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021/05/09"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-5-9"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-05-091"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("20a1-05-09"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-0x-09"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse("2021-05-+9"));
+        assertEquals(DateCodec.INVALID, DateCodec.parse(" 2021-05-0"));
+    }
+
+    /**
+     * Success: agrees with java.time on every day of a leap and non-leap year plus the days around them
+     */
+    @Test
+    public void testParse_agreesWithLocalDate() {
+        for (int year : new int[]{1, 1900, 2000, 2020, 2021, 9999}) {
+            for (int month = 0; month <= 13; month++) {
+                for (int day = 0; day <= 32; day++) {
+                    String text = String.format("%04d-%02d-%02d", year, month, day);
+
+                    boolean valid;
+                    try {
+                        LocalDate.of(year, month, day);
+                        valid = true;
+                    } catch (DateTimeException exception) {
+                        valid = false;
+                    }
+
+                    int date = DateCodec.parse(text);
+                    if (valid) {
+                        assertEquals(DateCodec.pack(year, month, day), date, text);
+                        assertTrue(DateCodec.isValid(year, month, day), text);
+                    } else {
+                        assertEquals(DateCodec.INVALID, date, text);
+                        assertFalse(DateCodec.isValid(year, month, day), text);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Success: the byte overload reads a date in the middle of a buffer and agrees with the string overload
+     */
+    @Test
+    public void testParse_bytes() {
+        byte[] bytes = "x,2024-02-29,2023-02-29,2021/05/09".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(20240229, DateCodec.parse(bytes, 2, 10));
+        assertEquals(DateCodec.INVALID, DateCodec.parse(bytes, 13, 10));
+        assertEquals(DateCodec.INVALID, DateCodec.parse(bytes, 24, 10));
+        assertEquals(DateCodec.INVALID, DateCodec.parse(bytes, 2, 9));
+    }
+}
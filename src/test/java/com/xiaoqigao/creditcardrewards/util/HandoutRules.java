@@ -0,0 +1,29 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import com.xiaoqigao.creditcardrewards.service.RewardRuleCatalog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+/**
+ * The rule set shipped in src/main/resources/rewards, compiled for tests and benchmarks
+ */
+public final class HandoutRules {
+
+    public static final String FILE_NAME = "rules-2000-01.properties";
+
+    private HandoutRules() {
+    }
+
+    public static CompiledRuleSet compile() {
+        Properties properties = new Properties();
+        try (InputStream input = HandoutRules.class.getResourceAsStream("/rewards/" + FILE_NAME)) {
+            properties.load(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return RewardRuleCatalog.compile(FILE_NAME, properties);
+    }
+}
@@ -0,0 +1,69 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import com.xiaoqigao.creditcardrewards.model.Merchant;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for MerchantDictionary
+ */
+public class MerchantDictionaryTest {
+
+    /**
+     * Success: every code of a large dictionary with gaps in its ids is found, and nothing else is
+     */
+    @Test
+    public void testIdOf_largeDictionary() {
+        List<Merchant> merchants = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            merchants.add(merchant(i * 3 + 1, "merchant_" + i));
+        }
+        MerchantDictionary dictionary = MerchantDictionary.of(merchants);
+
+        assertEquals(20_000, dictionary.size());
+        for (int i = 0; i < 20_000; i++) {
+            assertEquals(i * 3 + 1, dictionary.idOf("merchant_" + i));
+            assertEquals("merchant_" + i, dictionary.codeOf(i * 3 + 1));
+        }
+        for (int i = 0; i < 20_000; i++) {
+            assertEquals(MerchantDictionary.UNKNOWN, dictionary.idOf("other_" + i));
+        }
+        assertNull(dictionary.codeOf(2));
+        assertEquals(merchants, dictionary.getMerchants());
+    }
+
+    /**
+     * Success: an empty dictionary and null codes answer UNKNOWN
+     */
+    @Test
+    public void testIdOf_emptyAndNull() {
+        MerchantDictionary dictionary = MerchantDictionary.of(List.of(merchant(1, "other")));
+
+        assertEquals(MerchantDictionary.UNKNOWN, MerchantDictionary.of(List.of()).idOf("other"));
+        assertEquals(MerchantDictionary.UNKNOWN, dictionary.idOf(null));
+        assertEquals(MerchantDictionary.UNKNOWN, dictionary.idOf(""));
+        assertEquals(1, dictionary.idOf("other"));
+    }
+
+    /**
+     * Exception thrown: repeated ids or codes, and ids that are not positive
+     */
+    @Test
+    public void testOf_invalidMerchants() {
+        assertThrows(IllegalArgumentException.class,
+                () -> MerchantDictionary.of(List.of(merchant(1, "a"), merchant(1, "b"))));
+        assertThrows(IllegalArgumentException.class,
+                () -> MerchantDictionary.of(List.of(merchant(1, "a"), merchant(2, "a"))));
+        assertThrows(IllegalArgumentException.class, () -> MerchantDictionary.of(List.of(merchant(0, "a"))));
+    }
+
+    private static Merchant merchant(int id, String code) {
+        return Merchant.builder().id(id).code(code).build();
+    }
+}
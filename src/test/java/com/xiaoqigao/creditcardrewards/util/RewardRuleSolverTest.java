@@ -0,0 +1,182 @@
+package com.xiaoqigao.creditcardrewards.util;
+
+import com.xiaoqigao.creditcardrewards.constant.MerchantCode;
+import com.xiaoqigao.creditcardrewards.model.RewardRule;
+import com.xiaoqigao.creditcardrewards.model.RuleSolution;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for RewardRuleSolver
+ */
+public class RewardRuleSolverTest {
+
+    private static final List<RewardRule> RULES = HandoutRules.compile().getRules();
+
+    private static final RewardRuleSolver SOLVER = new RewardRuleSolver(RULES, 1);
+
+    /**
+     * Success: equal to a full dynamic program over every amount up to $200 / $80 / $80,
+     * which covers several applications of every rule and every mix of leftovers
+     */
+    @Test
+    public void testSolve_matchesDynamicProgramExhaustively() {
+        int maxSp = 200;
+        int maxTh = 80;
+        int maxSub = 80;
+        int[][][] best = dynamicProgram(RULES, maxSp, maxTh, maxSub);
+
+        for (int sp = 0; sp <= maxSp; sp++) {
+            for (int th = 0; th <= maxTh; th++) {
+                for (int sub = 0; sub <= maxSub; sub++) {
+                    RuleSolution solution = SOLVER.solve(dollars(sp, th, sub));
+                    if (best[sp][th][sub] != solution.getPoints()) {
+                        assertEquals(best[sp][th][sub], solution.getPoints(),
+                                "sportcheck=" + sp + " tim_hortons=" + th + " subway=" + sub);
+                    }
+                    assertConsistent(RULES, sp, th, sub, solution);
+                }
+            }
+        }
+    }
+
+    /**
+     * Success: the optimum beats the old greedy order where mixing rule 4 in pays off, and reports the rules
+     */
+    @Test
+    public void testSolve_beatsGreedyAndReportsApplications() {
+        // the greedy order fires rule 4 and leaves $15 + $10 + $10: 150 + 35 = 185
+        RuleSolution solution = SOLVER.solve(dollars(40, 20, 20));
+        assertEquals(75 * 2 + 40, solution.getPoints());
+        assertEquals(Map.of(1, 0L, 2, 0L, 3, 0L, 4, 0L, 5, 0L, 6, 2L), Map.copyOf(solution.getApplications()));
+        assertEquals(40, solution.getLeftoverDollars());
+
+        RuleSolution handout = SOLVER.solve(dollars(125, 25, 25));
+        assertEquals(660, handout.getPoints());
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), List.copyOf(handout.getApplications().keySet()));
+        assertEquals(1L, handout.getApplications().get(1));
+        assertEquals(2L, handout.getApplications().get(6));
+        assertEquals(10, handout.getLeftoverDollars());
+    }
+
+    /**
+     * Success: months with millions of dollars are solved quickly and stay consistent with the rules
+     */
+    @Test
+    public void testSolve_largeAmounts() {
+        assertEquals(75L * 200_000, SOLVER.solve(dollars(4_000_000, 0, 0)).getPoints());
+        assertEquals(500L * 10_000_000, SOLVER.solve(dollars(750_000_000, 250_000_000, 250_000_000)).getPoints());
+
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            long sp = random.nextInt(2_000_000_000);
+            long th = random.nextInt(700_000_000);
+            long sub = random.nextInt(700_000_000);
+            RuleSolution solution = SOLVER.solve(dollars(sp, th, sub));
+            assertConsistent(RULES, sp, th, sub, solution);
+            // never below the amounts spent, and never above the best rate of any rule
+            assertTrue(solution.getPoints() >= sp + th + sub);
+            assertTrue(solution.getPoints() <= (sp + th + sub) * 4);
+        }
+    }
+
+    /**
+     * Success: any rule table is solved exactly, here one with overlapping merchants and a rule without a gain
+     */
+    @Test
+    public void testSolve_customRuleTable() {
+        List<RewardRule> rules = List.of(
+                RewardRule.builder().ruleNumber(1).points(22).dollars("a", 6).dollars("b", 2).build(),
+                RewardRule.builder().ruleNumber(2).points(35).dollars("a", 10).build(),
+                RewardRule.builder().ruleNumber(3).points(16).dollars("b", 3).dollars("c", 4).build(),
+                RewardRule.builder().ruleNumber(4).points(5).dollars("c", 5).build());
+        RewardRuleSolver solver = new RewardRuleSolver(rules, 1);
+        int[][][] best = dynamicProgram(rules, 60, 20, 20, "a", "b", "c");
+
+        for (int a = 0; a <= 60; a++) {
+            for (int b = 0; b <= 20; b++) {
+                for (int c = 0; c <= 20; c++) {
+                    RuleSolution solution = solver.solve(Map.of("a", (long) a, "b", (long) b, "c", (long) c, "d", 7L));
+                    assertEquals(best[a][b][c] + 7, solution.getPoints(), "a=" + a + " b=" + b + " c=" + c);
+                }
+            }
+        }
+        // rule 4 earns no more than its dollars would as leftovers, so it never fires
+        assertEquals(0L, solver.solve(Map.of("c", 100L)).getApplications().get(4));
+    }
+
+    /**
+     * Exception thrown: rules without merchants or with non-positive amounts, and negative spend
+     */
+    @Test
+    public void testSolve_invalidInput() {
+        assertThrows(IllegalArgumentException.class, () -> new RewardRuleSolver(
+                List.of(RewardRule.builder().ruleNumber(1).points(10).build()), 1));
+        assertThrows(IllegalArgumentException.class, () -> new RewardRuleSolver(
+                List.of(RewardRule.builder().ruleNumber(1).points(10).dollars("a", 0).build()), 1));
+        assertThrows(IllegalArgumentException.class, () -> SOLVER.solve(Map.of(MerchantCode.SUBWAY, -1L)));
+    }
+
+    /** ================================== start of helper ================================== */
+
+    private static Map<String, Long> dollars(long sp, long th, long sub) {
+        return Map.of(MerchantCode.SPORT_CHECK, sp, MerchantCode.TIM_HORTONS, th, MerchantCode.SUBWAY, sub);
+    }
+
+    /**
+     * The applications fit in the amounts and add up to the reported points
+     */
+    private static void assertConsistent(List<RewardRule> rules, long sp, long th, long sub, RuleSolution solution) {
+        long[] used = new long[3];
+        long points = 0;
+        for (RewardRule rule : rules) {
+            long times = solution.getApplications().get(rule.getRuleNumber());
+            points += times * rule.getPoints();
+            used[0] += times * rule.getDollarsByMerchant().getOrDefault(MerchantCode.SPORT_CHECK, 0);
+            used[1] += times * rule.getDollarsByMerchant().getOrDefault(MerchantCode.TIM_HORTONS, 0);
+            used[2] += times * rule.getDollarsByMerchant().getOrDefault(MerchantCode.SUBWAY, 0);
+        }
+        assertTrue(used[0] <= sp && used[1] <= th && used[2] <= sub);
+        assertEquals(sp + th + sub - used[0] - used[1] - used[2], solution.getLeftoverDollars());
+        assertEquals(points + solution.getLeftoverDollars(), solution.getPoints());
+    }
+
+    private static int[][][] dynamicProgram(List<RewardRule> rules, int maxA, int maxB, int maxC) {
+        return dynamicProgram(rules, maxA, maxB, maxC, MerchantCode.SPORT_CHECK, MerchantCode.TIM_HORTONS, MerchantCode.SUBWAY);
+    }
+
+    /**
+     * Best points for every amount in the box at 1 point per leftover dollar, straight from the definition:
+     * either leave everything as leftovers or apply one rule and solve the rest
+     */
+    private static int[][][] dynamicProgram(List<RewardRule> rules, int maxA, int maxB, int maxC,
+                                            String merchantA, String merchantB, String merchantC) {
+        int[][][] best = new int[maxA + 1][maxB + 1][maxC + 1];
+        for (int a = 0; a <= maxA; a++) {
+            for (int b = 0; b <= maxB; b++) {
+                for (int c = 0; c <= maxC; c++) {
+                    int value = a + b + c;
+                    for (RewardRule rule : rules) {
+                        int ra = a - rule.getDollarsByMerchant().getOrDefault(merchantA, 0);
+                        int rb = b - rule.getDollarsByMerchant().getOrDefault(merchantB, 0);
+                        int rc = c - rule.getDollarsByMerchant().getOrDefault(merchantC, 0);
+                        if (ra >= 0 && rb >= 0 && rc >= 0) {
+                            value = Math.max(value, rule.getPoints() + best[ra][rb][rc]);
+                        }
+                    }
+                    best[a][b][c] = value;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** ================================== end of helper ================================== */
+}